@@ -0,0 +1,44 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall;
+
+/**
+ * Exception thrown if a client or the paywall as a whole has exceeded the configured
+ * rate of invoice creation, and no new invoice should be created until the retry
+ * after period has passed.
+ */
+public class RateLimitExceededException extends Exception {
+
+    private long retryAfter;
+
+    /**
+     * Exception thrown if rate of invoice creation has been exceeded.
+     *
+     * @param message descriptive message.
+     * @param retryAfter number of milliseconds until a new request might be admitted.
+     */
+    public RateLimitExceededException(String message, long retryAfter){
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     *
+     * @return number of milliseconds until a new request might be admitted.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.articlecatalog;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.vo.amount.Amount;
+
+import java.io.IOException;
+
+/**
+ * Interface of a pricing component used by BasePaymentHandler to calculate
+ * the order amount from the article id and number of units in an order request.
+ * <p>
+ * The init() and close() life cycle methods are called by the payment handler
+ * using the catalog, such as SpringPaymentHandler.
+ * </p>
+ */
+public interface ArticleCatalog {
+
+    /**
+     * Method called before the catalog is used, default implementation does nothing.
+     *
+     * @throws IOException if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred initializing the catalog.
+     */
+    default void init() throws IOException, InternalErrorException{
+    }
+
+    /**
+     * Method called when the catalog is no longer used, default implementation does nothing.
+     */
+    default void close(){
+    }
+
+    /**
+     * Method to lookup the price per unit of a given article.
+     *
+     * @param articleId the id of the article, usually specified in the PaymentRequired annotation.
+     * @return the price of one unit of the article or null if article doesn't exist in catalog.
+     * @throws IOException if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred looking up the price.
+     */
+    Amount getUnitPrice(String articleId) throws IOException, InternalErrorException;
+}
@@ -0,0 +1,37 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.articlecatalog;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.vo.amount.Amount;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Interface used by InMemoryArticleCatalog to load the complete price list,
+ * for example from a database table or a configuration file.
+ */
+public interface ArticlePriceLoader {
+
+    /**
+     * Method to load all article prices.
+     *
+     * @return map of article id to price per unit, never null.
+     * @throws IOException if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred loading the prices.
+     */
+    Map<String, Amount> loadPrices() throws IOException, InternalErrorException;
+}
@@ -0,0 +1,162 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.articlecatalog;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.vo.amount.Amount;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ArticleCatalog keeping the complete price list in memory so price lookups
+ * never leave the JVM. The price list is loaded by an ArticlePriceLoader during
+ * init and optionally reloaded in the background at a fixed interval.
+ * <p>
+ * Each reload builds a new map that is swapped in atomically, lookups are never
+ * blocked by a reload. If a reload fails is the previous price list kept.
+ * </p>
+ */
+public class InMemoryArticleCatalog implements ArticleCatalog {
+
+    protected static Logger log = Logger.getLogger(InMemoryArticleCatalog.class.getName());
+
+    private final ArticlePriceLoader loader;
+    private final Duration refreshInterval;
+
+    private volatile Map<String, Amount> prices = Collections.emptyMap();
+    private volatile Instant lastRefresh = null;
+    private ScheduledExecutorService refreshScheduler;
+
+    Clock clock = Clock.systemDefaultZone();
+
+    /**
+     * Constructor of a catalog that is only loaded once in init().
+     *
+     * @param loader the loader used to load the price list.
+     */
+    public InMemoryArticleCatalog(ArticlePriceLoader loader){
+        this(loader, null);
+    }
+
+    /**
+     * Constructor of a catalog that is reloaded periodically after init().
+     *
+     * @param loader the loader used to load the price list.
+     * @param refreshInterval the interval between reloads, null or zero to only load once.
+     */
+    public InMemoryArticleCatalog(ArticlePriceLoader loader, Duration refreshInterval){
+        this.loader = loader;
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * Method to load the price list and start the background refresh if
+     * a refresh interval is configured.
+     *
+     * @throws IOException if communication exception occurred loading the initial price list.
+     * @throws InternalErrorException if internal exception occurred loading the initial price list.
+     */
+    @Override
+    public void init() throws IOException, InternalErrorException{
+        refresh();
+        if(refreshInterval != null && !refreshInterval.isZero() && !refreshInterval.isNegative() && refreshScheduler == null){
+            refreshScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "paywall-article-catalog-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+            long interval = refreshInterval.toMillis();
+            refreshScheduler.scheduleWithFixedDelay(this::refreshQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Method to reload the price list and replace the current one.
+     *
+     * @throws IOException if communication exception occurred loading the price list.
+     * @throws InternalErrorException if internal exception occurred loading the price list.
+     */
+    public void refresh() throws IOException, InternalErrorException{
+        Map<String, Amount> loaded = loader.loadPrices();
+        if(loaded == null){
+            throw new InternalErrorException("Error loading article prices, loader returned null.");
+        }
+        prices = Collections.unmodifiableMap(new HashMap<>(loaded));
+        lastRefresh = clock.instant();
+        if(log.isLoggable(Level.FINE)){
+            log.log(Level.FINE, "Loaded " + loaded.size() + " article prices into catalog.");
+        }
+    }
+
+    /**
+     * Method to stop the background refresh.
+     */
+    @Override
+    public void close(){
+        if(refreshScheduler != null){
+            refreshScheduler.shutdownNow();
+            refreshScheduler = null;
+        }
+    }
+
+    /**
+     * Method to lookup the price per unit of a given article from the in memory price list.
+     *
+     * @param articleId the id of the article.
+     * @return the price of one unit of the article or null if article doesn't exist in catalog.
+     */
+    @Override
+    public Amount getUnitPrice(String articleId) {
+        if(articleId == null){
+            return null;
+        }
+        return prices.get(articleId);
+    }
+
+    /**
+     *
+     * @return the number of articles in current price list.
+     */
+    public int size(){
+        return prices.size();
+    }
+
+    /**
+     *
+     * @return the time the price list was last loaded successfully, null if never loaded.
+     */
+    public Instant getLastRefresh(){
+        return lastRefresh;
+    }
+
+    private void refreshQuietly(){
+        try{
+            refresh();
+        }catch(Exception e){
+            log.log(Level.SEVERE, "Error refreshing article catalog, keeping previous price list: " + e.getMessage(), e);
+        }
+    }
+}
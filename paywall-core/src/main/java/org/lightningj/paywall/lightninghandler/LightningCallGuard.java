@@ -0,0 +1,209 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler;
+
+import org.lightningj.paywall.InternalErrorException;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Guard protecting the application from a slow or failing lightning node by combining
+ * a bulkhead and a circuit breaker around each call.
+ * <p>
+ * The bulkhead limits the number of calls in progress, calls exceeding the limit are rejected
+ * directly instead of blocking a request thread. The circuit breaker opens after a number of
+ * consecutive failed calls, i.e. calls throwing IOException, and rejects all calls during open time.
+ * After that a single probe call is let through, the circuit is closed again if it succeeds
+ * and reopened if it fails. Results of calls started before the circuit opened are ignored,
+ * so the circuit is only closed through a probe call.
+ * </p><p>
+ * Rejected calls throws LightningNodeUnavailableException.
+ * </p>
+ */
+public class LightningCallGuard {
+
+    protected static Logger log = Logger.getLogger(LightningCallGuard.class.getName());
+
+    /**
+     * State of the circuit breaker.
+     */
+    public enum State{
+        /**
+         * Calls are let through.
+         */
+        CLOSED,
+        /**
+         * All calls are rejected.
+         */
+        OPEN,
+        /**
+         * Open time has passed and a single probe call is let through.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Call to the lightning node protected by the guard.
+     * @param <T> the type of result.
+     */
+    public interface LightningCall<T>{
+        /**
+         * @return the result of the call.
+         * @throws IOException if communication problems occurred with the node, counted as failure.
+         * @throws InternalErrorException if internal problems occurred.
+         */
+        T call() throws IOException, InternalErrorException;
+    }
+
+    private final Semaphore bulkhead;
+    private final int maxConcurrentCalls;
+    private final int failureThreshold;
+    private final long openTime;
+
+    private int consecutiveFailures = 0;
+    private long openUntil = 0;
+    private boolean probeInProgress = false;
+
+    private final AtomicLong rejectedCalls = new AtomicLong();
+
+    Clock clock = Clock.systemUTC();
+
+    /**
+     * Default constructor.
+     *
+     * @param maxConcurrentCalls the maximum number of calls in progress, 0 or less for no limit.
+     * @param failureThreshold the number of consecutive failures before the circuit opens, 0 or less
+     *                         disables the circuit breaker.
+     * @param openTime the time in milliseconds the circuit is open before a probe call is let through.
+     */
+    public LightningCallGuard(int maxConcurrentCalls, int failureThreshold, long openTime){
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.bulkhead = maxConcurrentCalls > 0 ? new Semaphore(maxConcurrentCalls) : null;
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * Method to perform a call through the bulkhead and circuit breaker.
+     *
+     * @param call the call to perform.
+     * @param <T> the type of result.
+     * @return the result of the call.
+     * @throws LightningNodeUnavailableException if the call was rejected.
+     * @throws IOException if communication problems occurred with the node.
+     * @throws InternalErrorException if internal problems occurred.
+     */
+    public <T> T call(LightningCall<T> call) throws IOException, InternalErrorException{
+        if(bulkhead != null && !bulkhead.tryAcquire()){
+            rejectedCalls.incrementAndGet();
+            throw new LightningNodeUnavailableException("Lightning node call rejected, maximum " + maxConcurrentCalls + " concurrent calls in progress.", true);
+        }
+        try {
+            boolean probe = beforeCall();
+            boolean success = false;
+            try {
+                T result = call.call();
+                success = true;
+                return result;
+            }catch (InternalErrorException e){
+                success = true;
+                throw e;
+            }finally {
+                afterCall(probe, success);
+            }
+        }finally {
+            if(bulkhead != null){
+                bulkhead.release();
+            }
+        }
+    }
+
+    /**
+     * @return the current state of the circuit breaker.
+     */
+    public synchronized State getState(){
+        if(openUntil == 0){
+            return State.CLOSED;
+        }
+        return clock.millis() < openUntil ? State.OPEN : State.HALF_OPEN;
+    }
+
+    /**
+     * @return the number of calls currently in progress, 0 if no bulkhead is configured.
+     */
+    public int getCallsInProgress(){
+        return bulkhead == null ? 0 : maxConcurrentCalls - bulkhead.availablePermits();
+    }
+
+    /**
+     * @return the total number of calls rejected by the bulkhead or circuit breaker.
+     */
+    public long getRejectedCalls(){
+        return rejectedCalls.get();
+    }
+
+    /**
+     * Help method checking the circuit breaker before a call.
+     * @return true if the call is a probe call in half open state.
+     */
+    private synchronized boolean beforeCall() throws LightningNodeUnavailableException{
+        if(openUntil == 0){
+            return false;
+        }
+        long now = clock.millis();
+        if(now < openUntil){
+            rejectedCalls.incrementAndGet();
+            throw new LightningNodeUnavailableException("Lightning node call rejected, circuit breaker is open for " + (openUntil - now) + " ms.", true);
+        }
+        if(probeInProgress){
+            rejectedCalls.incrementAndGet();
+            throw new LightningNodeUnavailableException("Lightning node call rejected, circuit breaker is half open and waiting for probe call.", true);
+        }
+        probeInProgress = true;
+        return true;
+    }
+
+    /**
+     * Help method updating the circuit breaker after a call.
+     */
+    private synchronized void afterCall(boolean probe, boolean success){
+        if(probe){
+            probeInProgress = false;
+        }else if(openUntil != 0){
+            // Call was started before the circuit opened, only the probe call changes state.
+            return;
+        }
+        if(success){
+            if(openUntil != 0){
+                log.log(Level.INFO, "Lightning node circuit breaker closed.");
+            }
+            consecutiveFailures = 0;
+            openUntil = 0;
+            return;
+        }
+        consecutiveFailures++;
+        if(failureThreshold > 0 && (probe || consecutiveFailures >= failureThreshold)){
+            if(openUntil == 0 || probe){
+                log.log(Level.WARNING, "Lightning node circuit breaker opened for " + openTime + " ms after " + consecutiveFailures + " consecutive failures.");
+            }
+            openUntil = clock.millis() + openTime;
+        }
+    }
+}
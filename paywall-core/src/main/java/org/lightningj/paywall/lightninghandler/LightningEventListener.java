@@ -14,6 +14,10 @@
  *************************************************************************/
 package org.lightningj.paywall.lightninghandler;
 
+import org.lightningj.paywall.InternalErrorException;
+
+import java.io.IOException;
+
 /**
  * Base interface of components interested in getting notifications about events
  * related to lightning invoices. If this interface is implemented are notifications
@@ -29,4 +33,18 @@ public interface LightningEventListener {
      * @see LightningEvent
      */
     void onLightningEvent(LightningEvent event);
+
+    /**
+     * Method used by settlement reconciliation to check if a settled invoice should be sent
+     * to this listener, i.e. if the listener knows the invoice and hasn't already processed
+     * its settlement. Default implementation returns true.
+     *
+     * @param preImageHash the pre image hash of the settled invoice.
+     * @return true if the listener awaits settlement of the invoice.
+     * @throws IOException if communication problems occurred with underlying components.
+     * @throws InternalErrorException if internal problems occurred checking the invoice.
+     */
+    default boolean isAwaitingSettlement(byte[] preImageHash) throws IOException, InternalErrorException{
+        return true;
+    }
 }
@@ -22,6 +22,8 @@ import org.lightningj.paywall.vo.NodeInfo;
 import org.lightningj.paywall.vo.PreImageData;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Interface for used lightning implementation creating and listening for settled invoices.
@@ -51,6 +53,30 @@ public interface LightningHandler {
      */
     Invoice generateInvoice(PreImageData preImageData, ConvertedOrder paymentData) throws IOException, InternalErrorException;
 
+    /**
+     * Method to create a number of invoices in the underlying lightning node in one operation,
+     * implementations should send the requests concurrently so the total time is close
+     * to the time of one invoice instead of one per invoice. Default implementation calls
+     * generateInvoice for each invoice in turn.
+     *
+     * @param preImageData the generated pre images and hashes to use in invoices.
+     * @param paymentData the payment data to generate invoices for, in the same order as preImageData.
+     * @return the generated invoices in the same order as the payment data.
+     * @throws IllegalArgumentException if the preImageData and paymentData lists have different sizes.
+     * @throws IOException if communication problems occurred with underlying node.
+     * @throws InternalErrorException if problems occurred generating any of the invoices.
+     */
+    default List<Invoice> generateInvoices(List<PreImageData> preImageData, List<ConvertedOrder> paymentData) throws IllegalArgumentException, IOException, InternalErrorException{
+        if(preImageData.size() != paymentData.size()){
+            throw new IllegalArgumentException("Error generating invoices, number of pre images " + preImageData.size() + " doesn't match number of orders " + paymentData.size() + ".");
+        }
+        List<Invoice> retval = new ArrayList<>();
+        for(int i=0; i<paymentData.size(); i++){
+            retval.add(generateInvoice(preImageData.get(i), paymentData.get(i)));
+        }
+        return retval;
+    }
+
     /**
      * Method to register a listener to recieve notification about updated invoices and settled invoices.
      *
@@ -15,6 +15,7 @@
 package org.lightningj.paywall.lightninghandler;
 
 import org.lightningj.paywall.lightninghandler.lnd.LNDLightningHandlerContext;
+import org.lightningj.paywall.lightninghandler.lnd.MultiNodeLNDLightningHandlerContext;
 
 import javax.json.JsonException;
 import javax.json.JsonObject;
@@ -45,6 +46,9 @@ public interface LightningHandlerContext {
        if(type.equals(LNDLightningHandlerContext.CONTEXT_TYPE)){
            return new LNDLightningHandlerContext(jsonObject);
        }
+       if(type.equals(MultiNodeLNDLightningHandlerContext.CONTEXT_TYPE)){
+           return new MultiNodeLNDLightningHandlerContext(jsonObject);
+       }
        throw new JsonException("Error parsing LightningHandlerContext json data, invalid type field '" + type + "' specified.");
     }
 }
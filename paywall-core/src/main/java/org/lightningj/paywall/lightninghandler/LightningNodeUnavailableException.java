@@ -0,0 +1,66 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler;
+
+import java.io.IOException;
+
+/**
+ * Exception indicating that the lightning node is temporarily unavailable, either
+ * because a call exceeded its deadline, too many calls are in progress or the
+ * circuit breaker is open. Results in a 503 Service Unavailable response.
+ */
+public class LightningNodeUnavailableException extends IOException {
+
+    private final boolean callRejected;
+
+    /**
+     * Exception indicating that the lightning node is temporarily unavailable.
+     *
+     * @param message descriptive message.
+     */
+    public LightningNodeUnavailableException(String message){
+        this(message, false);
+    }
+
+    /**
+     * Exception indicating that the lightning node is temporarily unavailable.
+     *
+     * @param message descriptive message.
+     * @param callRejected true if the call was rejected before it was sent to the node.
+     */
+    public LightningNodeUnavailableException(String message, boolean callRejected){
+        super(message);
+        this.callRejected = callRejected;
+    }
+
+    /**
+     * Exception indicating that the lightning node is temporarily unavailable.
+     *
+     * @param message descriptive message.
+     * @param cause causing exception.
+     */
+    public LightningNodeUnavailableException(String message, Throwable cause){
+        super(message,cause);
+        this.callRejected = false;
+    }
+
+    /**
+     * @return true if the call was rejected before it was sent to the node, for instance by
+     * the bulkhead or circuit breaker, and therefore definitely wasn't applied by the node.
+     */
+    public boolean isCallRejected(){
+        return callRejected;
+    }
+}
@@ -17,6 +17,7 @@ package org.lightningj.paywall.lightninghandler.lnd;
 import io.grpc.stub.StreamObserver;
 import org.lightningj.lnd.wrapper.AsynchronousLndAPI;
 import org.lightningj.lnd.wrapper.ServerSideException;
+import org.lightningj.lnd.wrapper.StatusException;
 import org.lightningj.lnd.wrapper.SynchronousLndAPI;
 import org.lightningj.lnd.wrapper.message.AddInvoiceResponse;
 import org.lightningj.lnd.wrapper.message.GetInfoResponse;
@@ -31,12 +32,24 @@ import org.lightningj.paywall.vo.PreImageData;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static io.grpc.Status.Code.DEADLINE_EXCEEDED;
 import static io.grpc.Status.Code.NOT_FOUND;
+import static io.grpc.Status.Code.UNAVAILABLE;
 import static io.grpc.Status.Code.UNKNOWN;
 
 /**
@@ -45,6 +58,22 @@ import static io.grpc.Status.Code.UNKNOWN;
  *
  * Extends this if custom management of LND APIs should be done, otherwise use SimpleBaseLNDLightningHandler.
  *
+ * Recent invoices are kept in an InvoiceCache updated by generateInvoice and the invoice subscription, lookupInvoice
+ * is answered from the cache if the invoice is settled or the subscription is active, see getInvoiceCacheSize().
+ *
+ * Settlements missed by the subscription are detected by a LNDInvoiceReconciler started together with the
+ * subscription, see getReconciliationInterval().
+ *
+ * Calls to generate and lookup invoices pass a LightningCallGuard limiting the number of concurrent calls and
+ * opening a circuit breaker after repeated failures, rejected calls and calls where LND is unavailable or exceeded
+ * the call deadline throws LightningNodeUnavailableException.
+ *
+ * The node information included in invoices is held by a LNDNodeInfoHolder, fetched once and refreshed in the
+ * background, see getNodeInfoRefreshInterval().
+ *
+ * Batches of invoices created with generateInvoices are pipelined over the asynchronous API, see
+ * getInvoiceBatchConcurrency().
+ *
  * @see SimpleBaseLNDLightningHandler
  * Created by Philip Vendil on 2018-11-24.
  */
@@ -54,9 +83,27 @@ public abstract class BaseLNDLightningHandler implements LightningHandler {
 
     protected List<LightningEventListener> listeners = Collections.synchronizedList(new ArrayList<LightningEventListener>());
 
+    public static final int DEFAULT_INVOICE_CACHE_SIZE = 10000;
+    public static final long DEFAULT_INVOICE_CACHE_MAX_AGE = 30000;
+
     LightningInvoiceListenerRunnable lightningInvoiceListenerRunnable;
     Thread lightningInvoiceListenerThread;
 
+    private volatile InvoiceCache invoiceCache;
+
+    LNDInvoiceReconciler invoiceReconciler;
+
+    private volatile LNDNodeInfoHolder nodeInfoHolder;
+
+    public static final long DEFAULT_CALL_DEADLINE = 10000;
+    public static final int DEFAULT_MAX_CONCURRENT_CALLS = 50;
+    public static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_CIRCUIT_BREAKER_OPEN_TIME = 30000;
+
+    private volatile LightningCallGuard callGuard;
+
+    public static final int DEFAULT_INVOICE_BATCH_CONCURRENCY = 10;
+
     /**
      * Method to create an invoice in the underlying LND node.
      *
@@ -69,21 +116,141 @@ public abstract class BaseLNDLightningHandler implements LightningHandler {
     @Override
     public Invoice generateInvoice(PreImageData preImageData, ConvertedOrder paymentData) throws IOException, InternalErrorException {
         checkConnection();
-        try {
-            org.lightningj.lnd.wrapper.message.Invoice lndInvoice = getLndHelper().genLNDInvoice(preImageData,paymentData);
-            AddInvoiceResponse addInvoiceResponse = getSyncAPI().addInvoice(lndInvoice);
-            Invoice invoice = getLndHelper().convert(getNodeInfo(),getSyncAPI().lookupInvoice(null,addInvoiceResponse.getRHash()));
-            if(log.isLoggable(Level.FINE)) {
-                log.log(Level.FINE, "Generated Invoice in LND: " + invoice);
+        return getCallGuard().call(() -> {
+            try {
+                org.lightningj.lnd.wrapper.message.Invoice lndInvoice = getLndHelper().genLNDInvoice(preImageData, paymentData);
+                AddInvoiceResponse addInvoiceResponse = getSyncAPI().addInvoice(lndInvoice);
+                Invoice invoice = getLndHelper().convert(getNodeInfo(), getSyncAPI().lookupInvoice(null, addInvoiceResponse.getRHash()));
+                if (log.isLoggable(Level.FINE)) {
+                    log.log(Level.FINE, "Generated Invoice in LND: " + invoice);
+                }
+                cacheInvoice(invoice);
+                return invoice;
+            } catch (Exception e) {
+                throw toLNDCallException("Internal error adding invoice to LND, preImageHash: " + Base58.encodeToString(paymentData.getPreImageHash()) + ", message: " + e.getMessage(), e);
             }
-            return invoice;
-        } catch (Exception e) {
-            throw new InternalErrorException("Internal error adding invoice to LND, preImageHash: " + Base58.encodeToString(paymentData.getPreImageHash()) + ", message: " + e.getMessage(),e);
+        });
+    }
+
+    /**
+     * Method to create a number of invoices in LND. The add invoice calls are pipelined over the
+     * asynchronous API, with at most getInvoiceBatchConcurrency() invoices in progress at the same
+     * time, and the whole batch counts as one call in the call guard.
+     * <p>
+     * If one of the invoices fails are no more invoices sent and the error thrown when the invoices
+     * in progress are done, invoices already added remain in LND and expires unpaid. If LND doesn't
+     * respond within twice the call deadline, see getCallDeadline(), LightningNodeUnavailableException
+     * is thrown.
+     * </p>
+     * @param preImageData the generated pre images and hashes to use in invoices.
+     * @param paymentData the payment data to generate invoices for, in the same order as preImageData.
+     * @return the generated invoices in the same order as the payment data.
+     * @throws IllegalArgumentException if the preImageData and paymentData lists have different sizes.
+     * @throws IOException if communication problems occurred with underlying node.
+     * @throws InternalErrorException if problems occurred generating any of the invoices.
+     */
+    @Override
+    public List<Invoice> generateInvoices(List<PreImageData> preImageData, List<ConvertedOrder> paymentData) throws IllegalArgumentException, IOException, InternalErrorException {
+        if(preImageData.size() != paymentData.size()){
+            throw new IllegalArgumentException("Error generating invoices, number of pre images " + preImageData.size() + " doesn't match number of orders " + paymentData.size() + ".");
         }
+        checkConnection();
+        if(paymentData.isEmpty()){
+            return new ArrayList<>();
+        }
+        NodeInfo nodeInfo = getNodeInfo();
+        AsynchronousLndAPI asyncAPI = getAsyncAPI();
+        int concurrency = Math.max(1, getInvoiceBatchConcurrency());
+        // Each item is one add and one lookup call, both limited by the call deadline.
+        long callDeadline = getCallDeadline();
+        long permitTimeout = 2 * (callDeadline > 0 ? callDeadline : DEFAULT_CALL_DEADLINE);
+        return getCallGuard().call(() -> {
+            InvoiceBatch batch = new InvoiceBatch(paymentData.size(), concurrency);
+            try {
+                for (int i = 0; i < paymentData.size() && !batch.hasFailed(); i++) {
+                    batch.acquire(1, permitTimeout);
+                    addInvoice(asyncAPI, batch, i, nodeInfo, preImageData.get(i), paymentData.get(i));
+                }
+                // All permits are returned when the invoices in progress are done.
+                batch.acquire(concurrency, permitTimeout);
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InternalErrorException("Interrupted while generating invoices in LND.", e);
+            }
+            if(batch.error != null){
+                throw toLNDCallException(batch.errorMessage + batch.error.getMessage(), batch.error);
+            }
+            List<Invoice> invoices = new ArrayList<>(Arrays.asList(batch.invoices));
+            for(Invoice invoice : invoices){
+                cacheInvoice(invoice);
+            }
+            if (log.isLoggable(Level.FINE)) {
+                log.log(Level.FINE, "Generated " + invoices.size() + " Invoices in LND.");
+            }
+            return invoices;
+        });
     }
 
     /**
-     * Method to lookup an invoice in LND given the invoice's pre-image hash.
+     * Help method sending one add invoice call of a batch and looking up the added invoice when
+     * LND has responded. The batch permit is released when the item is done or failed.
+     */
+    private void addInvoice(AsynchronousLndAPI asyncAPI, InvoiceBatch batch, int index, NodeInfo nodeInfo, PreImageData preImageData, ConvertedOrder paymentData){
+        String errorMessage = "Internal error adding invoice to LND, preImageHash: " + Base58.encodeToString(paymentData.getPreImageHash()) + ", message: ";
+        try {
+            org.lightningj.lnd.wrapper.message.Invoice lndInvoice = getLndHelper().genLNDInvoice(preImageData, paymentData);
+            asyncAPI.addInvoice(lndInvoice, new StreamObserver<AddInvoiceResponse>() {
+                private volatile boolean received = false;
+
+                @Override
+                public void onNext(AddInvoiceResponse addInvoiceResponse) {
+                    received = true;
+                    try {
+                        asyncAPI.lookupInvoice(null, addInvoiceResponse.getRHash(), new StreamObserver<org.lightningj.lnd.wrapper.message.Invoice>() {
+                            @Override
+                            public void onNext(org.lightningj.lnd.wrapper.message.Invoice invoice) {
+                                try {
+                                    batch.complete(index, getLndHelper().convert(nodeInfo, invoice), null, null);
+                                }catch (Exception e){
+                                    batch.complete(index, null, errorMessage, e);
+                                }
+                            }
+
+                            @Override
+                            public void onError(Throwable t) {
+                                batch.complete(index, null, errorMessage, t);
+                            }
+
+                            @Override
+                            public void onCompleted() {
+                                batch.complete(index, null, errorMessage, new InternalErrorException("No invoice returned from lookup."));
+                            }
+                        });
+                    }catch (Exception e){
+                        batch.complete(index, null, errorMessage, e);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    batch.complete(index, null, errorMessage, t);
+                }
+
+                @Override
+                public void onCompleted() {
+                    if(!received) {
+                        batch.complete(index, null, errorMessage, new InternalErrorException("No response returned from add invoice."));
+                    }
+                }
+            });
+        }catch (Exception e){
+            batch.complete(index, null, errorMessage, e);
+        }
+    }
+
+    /**
+     * Method to lookup an invoice in LND given the invoice's pre-image hash. The invoice is returned
+     * from cache if it is settled or if the invoice subscription is active and the cached entry is fresh.
      * @param preImageHash the pre image hash of the invoice to lookup.
      * @return related invoice, null if not found.
      * @throws IOException if communication problems occurred with underlying node.
@@ -92,20 +259,48 @@ public abstract class BaseLNDLightningHandler implements LightningHandler {
     @Override
     public Invoice lookupInvoice(byte[] preImageHash) throws IOException, InternalErrorException{
         checkConnection();
-        try {
-            Invoice invoice = getLndHelper().convert(getNodeInfo(),getSyncAPI().lookupInvoice(null,preImageHash));
-            if(log.isLoggable(Level.FINE)) {
-                log.log(Level.FINE, "Lookup Invoice in LND: " + invoice);
+        InvoiceCache cache = getInvoiceCache();
+        if(cache != null){
+            Invoice cachedInvoice = cache.get(preImageHash, isSubscriptionActive());
+            if(cachedInvoice != null){
+                if(log.isLoggable(Level.FINE)) {
+                    log.log(Level.FINE, "Lookup Invoice in cache: " + cachedInvoice);
+                }
+                return cachedInvoice;
             }
-            return invoice;
-        } catch (Exception e) {
-            if(e instanceof ServerSideException){
-                if(((ServerSideException) e).getStatus().getCode() == UNKNOWN || ((ServerSideException) e).getStatus().getCode() == NOT_FOUND){
-                    return null;
+        }
+        return getCallGuard().call(() -> {
+            try {
+                Invoice invoice = getLndHelper().convert(getNodeInfo(), getSyncAPI().lookupInvoice(null, preImageHash));
+                if (log.isLoggable(Level.FINE)) {
+                    log.log(Level.FINE, "Lookup Invoice in LND: " + invoice);
+                }
+                cacheInvoice(invoice);
+                return invoice;
+            } catch (Exception e) {
+                if (e instanceof ServerSideException) {
+                    if (((ServerSideException) e).getStatus().getCode() == UNKNOWN || ((ServerSideException) e).getStatus().getCode() == NOT_FOUND) {
+                        return null;
+                    }
                 }
+                throw toLNDCallException("Internal error during lookup of invoice in LND, preImageHash: " + Base58.encodeToString(preImageHash) + ", message: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Help method handling an exception from a LND call, throws LightningNodeUnavailableException if
+     * LND was unavailable or the call deadline was exceeded, otherwise an InternalErrorException to throw is
+     * returned. Only unavailability is counted as failure by the circuit breaker.
+     */
+    InternalErrorException toLNDCallException(String message, Throwable e) throws LightningNodeUnavailableException{
+        if(e instanceof StatusException && ((StatusException) e).getStatus() != null){
+            io.grpc.Status.Code code = ((StatusException) e).getStatus().getCode();
+            if(code == UNAVAILABLE || code == DEADLINE_EXCEEDED){
+                throw new LightningNodeUnavailableException(message, e);
             }
-            throw new InternalErrorException("Internal error during lookup of invoice in LND, preImageHash: " + Base58.encodeToString(preImageHash) + ", message: " + e.getMessage(),e);
         }
+        return new InternalErrorException(message, e);
     }
 
     /**
@@ -144,8 +339,16 @@ public abstract class BaseLNDLightningHandler implements LightningHandler {
 
         LNDLightningHandlerContext ctx = (LNDLightningHandlerContext) context;
         lightningInvoiceListenerRunnable = new LightningInvoiceListenerRunnable(ctx);
-        lightningInvoiceListenerThread = new Thread(lightningInvoiceListenerRunnable);
+        lightningInvoiceListenerThread = new Thread(lightningInvoiceListenerRunnable, "LightningInvoiceListenerThread");
         lightningInvoiceListenerThread.start();
+
+        long reconciliationInterval = getReconciliationInterval();
+        if(reconciliationInterval > 0){
+            invoiceReconciler = new LNDInvoiceReconciler(this, ctx, reconciliationInterval, getReconciliationBatchSize());
+            invoiceReconciler.start();
+        }
+
+        getNodeInfoHolder().start(getNodeInfoRefreshInterval());
     }
 
     protected void checkConnection() throws IOException, InternalErrorException{
@@ -162,20 +365,26 @@ public abstract class BaseLNDLightningHandler implements LightningHandler {
      */
     @Override
     public void close() throws IOException, InternalErrorException {
+        if(invoiceReconciler != null){
+            invoiceReconciler.close();
+        }
+        LNDNodeInfoHolder holder = nodeInfoHolder;
+        if(holder != null){
+            holder.close();
+        }
         if(lightningInvoiceListenerRunnable != null) {
             lightningInvoiceListenerRunnable.stopListening();
-            lightningInvoiceListenerThread.interrupt();
-            int waitCounter = 0;
-            while (!lightningInvoiceListenerRunnable.isStopped()) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    log.log(Level.FINE, "LightningInvoiceListenerThread stop waiting interrupted: " + e.getMessage(), e);
-                }
-                waitCounter++;
-                if (waitCounter % 10 == 0) {
-                    log.log(Level.INFO, "Waiting for LightningInvoiceListenerThread to stop");
+            try {
+                while (lightningInvoiceListenerThread.isAlive()) {
+                    lightningInvoiceListenerThread.join(1000);
+                    if (lightningInvoiceListenerThread.isAlive()) {
+                        log.log(Level.INFO, "Waiting for LightningInvoiceListenerThread to stop");
+                        lightningInvoiceListenerThread.interrupt();
+                    }
                 }
+            } catch (InterruptedException e) {
+                log.log(Level.FINE, "LightningInvoiceListenerThread stop waiting interrupted: " + e.getMessage(), e);
+                Thread.currentThread().interrupt();
             }
             log.log(Level.FINE, "LightningInvoiceListenerThread stopped.");
         }
@@ -186,47 +395,243 @@ public abstract class BaseLNDLightningHandler implements LightningHandler {
      */
     protected void clearCache(){
         cachedLndHelper = null;
-        cachedNodeInfo = null;
-        cachedInfoResponse = null;
+        LNDNodeInfoHolder holder = nodeInfoHolder;
+        if(holder != null){
+            holder.invalidate();
+        }
+        InvoiceCache cache = invoiceCache;
+        if(cache != null){
+            cache.clear();
+        }
+    }
+
+    /**
+     * Method to retrieve the maximum number of recent invoices to keep in cache, override to
+     * customize. Default is DEFAULT_INVOICE_CACHE_SIZE.
+     * @return the maximum number of cached invoices, 0 or less disables the cache.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    protected int getInvoiceCacheSize() throws InternalErrorException{
+        return DEFAULT_INVOICE_CACHE_SIZE;
+    }
+
+    /**
+     * Method to retrieve the maximum age in milliseconds of a cached unsettled invoice before it is
+     * looked up in LND again, override to customize. Default is DEFAULT_INVOICE_CACHE_MAX_AGE.
+     * @return the maximum age of cached unsettled invoices in milliseconds.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    protected long getInvoiceCacheMaxAge() throws InternalErrorException{
+        return DEFAULT_INVOICE_CACHE_MAX_AGE;
+    }
+
+    /**
+     * Method to get the invoice cache, created at first call.
+     * @return the invoice cache or null if disabled.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    protected InvoiceCache getInvoiceCache() throws InternalErrorException{
+        if(invoiceCache == null){
+            synchronized (this){
+                if(invoiceCache == null){
+                    int size = getInvoiceCacheSize();
+                    if(size <= 0){
+                        return null;
+                    }
+                    invoiceCache = new InvoiceCache(size, getInvoiceCacheMaxAge());
+                }
+            }
+        }
+        return invoiceCache;
+    }
+
+    /**
+     * Method to retrieve the interval in milliseconds between settlement reconciliation sweeps, override to
+     * customize. Default is LNDInvoiceReconciler.DEFAULT_INTERVAL.
+     * @return the reconciliation interval in milliseconds, 0 or less disables reconciliation.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    protected long getReconciliationInterval() throws InternalErrorException{
+        return LNDInvoiceReconciler.DEFAULT_INTERVAL;
+    }
+
+    /**
+     * Method to retrieve the number of invoices fetched in each ListInvoices call during settlement
+     * reconciliation, override to customize. Default is LNDInvoiceReconciler.DEFAULT_BATCH_SIZE.
+     * @return the reconciliation batch size.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    protected int getReconciliationBatchSize() throws InternalErrorException{
+        return LNDInvoiceReconciler.DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * Method to retrieve the deadline in milliseconds of unary calls to LND, applied by subclasses
+     * managing the LND channel, override to customize. Default is DEFAULT_CALL_DEADLINE.
+     * @return the call deadline in milliseconds, 0 or less for no deadline.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    protected long getCallDeadline() throws InternalErrorException{
+        return DEFAULT_CALL_DEADLINE;
+    }
+
+    /**
+     * Method to retrieve the maximum number of concurrent calls to generate or lookup invoices in LND,
+     * override to customize. Default is DEFAULT_MAX_CONCURRENT_CALLS.
+     * @return the maximum number of concurrent calls, 0 or less for no limit.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    protected int getMaxConcurrentCalls() throws InternalErrorException{
+        return DEFAULT_MAX_CONCURRENT_CALLS;
+    }
+
+    /**
+     * Method to retrieve the number of consecutive failed calls before the circuit breaker opens,
+     * override to customize. Default is DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD.
+     * @return the failure threshold, 0 or less disables the circuit breaker.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    protected int getCircuitBreakerFailureThreshold() throws InternalErrorException{
+        return DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD;
+    }
+
+    /**
+     * Method to retrieve the time in milliseconds the circuit breaker stays open before a probe call is
+     * let through, override to customize. Default is DEFAULT_CIRCUIT_BREAKER_OPEN_TIME.
+     * @return the open time in milliseconds.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    protected long getCircuitBreakerOpenTime() throws InternalErrorException{
+        return DEFAULT_CIRCUIT_BREAKER_OPEN_TIME;
+    }
+
+    /**
+     * Method to retrieve the interval in milliseconds between background refreshes of the node information
+     * included in invoices, override to customize. Default is LNDNodeInfoHolder.DEFAULT_REFRESH_INTERVAL.
+     * @return the refresh interval in milliseconds, 0 or less to only fetch node information on demand.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    protected long getNodeInfoRefreshInterval() throws InternalErrorException{
+        return LNDNodeInfoHolder.DEFAULT_REFRESH_INTERVAL;
+    }
+
+    /**
+     * Method to retrieve the maximum number of add invoice calls in progress at the same time in
+     * generateInvoices(), override to customize. Default is DEFAULT_INVOICE_BATCH_CONCURRENCY.
+     * @return the maximum number of pipelined add invoice calls in a batch.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    protected int getInvoiceBatchConcurrency() throws InternalErrorException{
+        return DEFAULT_INVOICE_BATCH_CONCURRENCY;
+    }
+
+    /**
+     * Method to get the guard protecting calls to LND, created at first call.
+     * @return the call guard.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    public LightningCallGuard getCallGuard() throws InternalErrorException{
+        if(callGuard == null){
+            synchronized (this){
+                if(callGuard == null){
+                    callGuard = new LightningCallGuard(getMaxConcurrentCalls(), getCircuitBreakerFailureThreshold(), getCircuitBreakerOpenTime());
+                }
+            }
+        }
+        return callGuard;
+    }
+
+    /**
+     * @return the invoice reconciler, used to read reconciliation lag metrics, null if reconciliation
+     * isn't started.
+     */
+    public LNDInvoiceReconciler getInvoiceReconciler(){
+        return invoiceReconciler;
+    }
+
+    /**
+     * @return the last known context of the invoice subscription, null if not subscribing.
+     */
+    LNDLightningHandlerContext getLastKnownContext(){
+        LightningInvoiceListenerRunnable runnable = lightningInvoiceListenerRunnable;
+        return runnable != null ? runnable.lastKnownContext : null;
+    }
+
+    /**
+     * Help method adding invoice to cache if enabled.
+     */
+    void cacheInvoice(Invoice invoice) throws InternalErrorException{
+        InvoiceCache cache = getInvoiceCache();
+        if(cache != null){
+            cache.put(invoice);
+        }
     }
 
-    private NodeInfo cachedNodeInfo = null;
     /**
-     * Method to fetch the related lightning node's information to include in invoices.
+     * @return true if the invoice subscription is currently established, meaning that settlements
+     * are received.
+     */
+    protected boolean isSubscriptionActive(){
+        LightningInvoiceListenerRunnable runnable = lightningInvoiceListenerRunnable;
+        return runnable != null && runnable.isRunning && runnable.listening && runnable.connectionOpen;
+    }
+
+    /**
+     * Method to fetch the related lightning node's information to include in invoices. The information is
+     * fetched once and then refreshed in the background, see getNodeInfoRefreshInterval().
      * @return the related lightning node's information
      * @throws IOException if communication problems occurred with underlying node.
      * @throws InternalErrorException if internal problems occurred closing the connections with lightning node.
      */
     @Override
     public NodeInfo getNodeInfo() throws IOException, InternalErrorException{
-        if(cachedNodeInfo == null){
-            cachedNodeInfo = getNodeInfoFromConfiguration();
-            if(cachedNodeInfo == null) {
-                cachedNodeInfo = getLndHelper().parseNodeInfo(getInfoResponse());
+        return getNodeInfoHolder().get();
+    }
+
+    /**
+     * Method to fetch the node information from configuration, or from LND if not configured, called
+     * by the node info holder.
+     * @return the current node information.
+     * @throws IOException if communication problems occurred with underlying node.
+     * @throws InternalErrorException if internal problems occurred fetching node info from LND.
+     */
+    NodeInfo fetchNodeInfo() throws IOException, InternalErrorException{
+        NodeInfo nodeInfo = getNodeInfoFromConfiguration();
+        if(nodeInfo == null) {
+            GetInfoResponse infoResponse;
+            try {
+                infoResponse = getSyncAPI().getInfo();
+            } catch (Exception e) {
+                throw new InternalErrorException("Internal error fetching node info from LND Node: " + e.getMessage(),e);
             }
+            nodeInfo = getLndHelper().parseNodeInfo(infoResponse);
         }
-        return cachedNodeInfo;
+        return nodeInfo;
     }
 
-    private LNDHelper cachedLndHelper = null;
-    protected LNDHelper getLndHelper() throws IOException, InternalErrorException{
-        if(cachedLndHelper == null) {
-            checkConnection();
-            cachedLndHelper = new LNDHelper(getSupportedCurrencyCode());
+    /**
+     * @return the holder of the node information, created at first call.
+     */
+    public LNDNodeInfoHolder getNodeInfoHolder(){
+        if(nodeInfoHolder == null){
+            synchronized (this){
+                if(nodeInfoHolder == null){
+                    nodeInfoHolder = new LNDNodeInfoHolder(this);
+                }
+            }
         }
-        return cachedLndHelper;
+        return nodeInfoHolder;
     }
 
-    private GetInfoResponse cachedInfoResponse = null;
-    private GetInfoResponse getInfoResponse() throws IOException, InternalErrorException{
-        if(cachedInfoResponse == null){
-            try {
-                cachedInfoResponse =  getSyncAPI().getInfo();
-            } catch (Exception e) {
-                throw new InternalErrorException("Internal error fetching node info from LND Node: " + e.getMessage(),e);
-            }
+    private volatile LNDHelper cachedLndHelper = null;
+    protected LNDHelper getLndHelper() throws IOException, InternalErrorException{
+        LNDHelper lndHelper = cachedLndHelper;
+        if(lndHelper == null) {
+            checkConnection();
+            lndHelper = new LNDHelper(getSupportedCurrencyCode());
+            cachedLndHelper = lndHelper;
         }
-        return cachedInfoResponse;
+        return lndHelper;
     }
 
     /**
@@ -271,18 +676,90 @@ public abstract class BaseLNDLightningHandler implements LightningHandler {
     protected abstract void reconnect() throws InternalErrorException;
 
     /**
-     * Runnable that maintains the asynchronous invoice event stream with the LND Node and
-     * restarts it after waiting a short while.
+     * State of one call to generateInvoices, the permits limit the number of invoices in progress
+     * and the first error stops the batch.
+     */
+    static class InvoiceBatch{
+
+        final Invoice[] invoices;
+        final AtomicBoolean[] done;
+        final Semaphore permits;
+        volatile String errorMessage;
+        volatile Throwable error;
+
+        InvoiceBatch(int size, int concurrency){
+            invoices = new Invoice[size];
+            done = new AtomicBoolean[size];
+            for(int i=0; i<size; i++){
+                done[i] = new AtomicBoolean(false);
+            }
+            permits = new Semaphore(concurrency);
+        }
+
+        /**
+         * Method to mark an item as done with either an invoice or an error, only the first
+         * call for an item is used.
+         */
+        void complete(int index, Invoice invoice, String errorMessage, Throwable error){
+            if(!done[index].compareAndSet(false, true)){
+                return;
+            }
+            if(error != null){
+                synchronized (this){
+                    if(this.error == null){
+                        this.errorMessage = errorMessage;
+                        this.error = error;
+                    }
+                }
+            }else{
+                invoices[index] = invoice;
+            }
+            permits.release();
+        }
+
+        boolean hasFailed(){
+            return error != null;
+        }
+
+        /**
+         * Method to wait for permits of items in progress, throws LightningNodeUnavailableException
+         * if the permits weren't released within the timeout.
+         */
+        void acquire(int numberOfPermits, long timeout) throws InterruptedException, LightningNodeUnavailableException{
+            if(!permits.tryAcquire(numberOfPermits, timeout, TimeUnit.MILLISECONDS)){
+                throw new LightningNodeUnavailableException("Error generating invoices in LND, no response received within " + timeout + " ms.");
+            }
+        }
+    }
+
+    /**
+     * Runnable that supervises the asynchronous invoice event stream with the LND Node.
+     * <p>
+     * The supervisor sleeps until the stream signals an error or completion, it then reconnects
+     * immediately and resumes the subscription from the last known add and settle index. If
+     * reconnection or subscription fails, or the stream terminates shortly after it was established,
+     * it retries with an exponential backoff with jitter, up to MAX_BACKOFF_MILLIS between attempts.
+     * </p>
      */
     protected class LightningInvoiceListenerRunnable implements Runnable{
 
-        static final int RECONNECT_WAITTIME_IN_SEC = 1;
+        static final long INITIAL_BACKOFF_MILLIS = 250;
+        static final long MAX_BACKOFF_MILLIS = 30000;
+
+        long initialBackoff = INITIAL_BACKOFF_MILLIS;
+        long maxBackoff = MAX_BACKOFF_MILLIS;
 
-        LNDLightningHandlerContext lastKnownContext;
-        boolean isRunning;
-        boolean stopped = false;
-        boolean listening = false;
-        boolean connectionOpen = true;
+        volatile LNDLightningHandlerContext lastKnownContext;
+        volatile boolean isRunning;
+        volatile boolean stopped = false;
+        volatile boolean listening = false;
+        volatile boolean connectionOpen = true;
+
+        private final Lock lock = new ReentrantLock();
+        private final Condition stateChanged = lock.newCondition();
+        private final AtomicLong subscriptionGeneration = new AtomicLong();
+        private final AtomicInteger failedAttempts = new AtomicInteger();
+        private volatile long subscribedAt = 0;
 
         /**
          * Default constructor.
@@ -292,107 +769,205 @@ public abstract class BaseLNDLightningHandler implements LightningHandler {
          */
         LightningInvoiceListenerRunnable(LNDLightningHandlerContext lastKnownContext){
             this.lastKnownContext = lastKnownContext;
+            this.isRunning = true;
         }
 
         /**
-         * When an object implementing interface <code>Runnable</code> is used
-         * to create a thread, starting the thread causes the object's
-         * <code>run</code> method to be called in that separately executing
-         * thread.
-         * <p>
-         * The general contract of the method <code>run</code> is that it may
-         * take any action whatsoever.
-         *
-         * @see Thread#run()
+         * Supervisor loop, (re)subscribes to invoice events when needed and otherwise waits
+         * for a signal from the event stream or a stop request.
          */
         @Override
         public void run() {
-            isRunning = true;
-            while(isRunning){
-                if(!connectionOpen){
-                    try {
-                        reconnect();
-                        connectionOpen = true;
-                    }catch (Exception e){
-                        log.log(Level.SEVERE, "Internal error reconnecting to LND APIs, message: " + e.getMessage() + " will try to reconnect in " + RECONNECT_WAITTIME_IN_SEC + " seconds.", e);
+            try {
+                while (isRunning) {
+                    if (!connectionOpen || !listening) {
+                        int attempts = failedAttempts.get();
+                        if (attempts > 0 && !awaitSignal(calculateBackoff(attempts))) {
+                            continue;
+                        }
+                        if (!resubscribe()) {
+                            failedAttempts.incrementAndGet();
+                        }
+                    } else {
+                        awaitSignal(0);
                     }
                 }
-                if(!listening){
-                    InvoiceSubscription invoiceSubscription = new InvoiceSubscription();
-                    if(lastKnownContext.getAddIndex() != null) {
-                        invoiceSubscription.setAddIndex(lastKnownContext.getAddIndex());
-                    }
-                    if(lastKnownContext.getSettleIndex() != null) {
-                        invoiceSubscription.setSettleIndex(lastKnownContext.getSettleIndex());
-                    }
-                    try {
-
-                        // Maybe a loop that for each second check if listening, if not is restarted.
-                        getAsyncAPI().subscribeInvoices(invoiceSubscription, new StreamObserver<org.lightningj.lnd.wrapper.message.Invoice>() {
-                            @Override
-                            public void onNext(org.lightningj.lnd.wrapper.message.Invoice invoice) {
-                                LightningEventType type = invoice.getSettled() ? LightningEventType.SETTLEMENT : LightningEventType.ADDED;
-                                try {
-                                    Invoice invoiceData = getLndHelper().convert(getNodeInfo(),invoice);
-                                    lastKnownContext = genCurrentContext(lastKnownContext,invoice);
-                                    // Create a copy that is sent to listeners, without possibility to affect current state.
-                                    LNDLightningHandlerContext context = genCurrentContext(lastKnownContext,invoice);
-                                    if(log.isLoggable(Level.FINE)) {
-                                        log.log(Level.FINE, "Received invoice event from LND, invoice: " + invoice + "\ncontext: " + context);
-                                    }
-                                    LightningEvent event = new LightningEvent(type,invoiceData,context);
-                                    for(LightningEventListener listener : listeners){
-                                        listener.onLightningEvent(event);
-                                    }
-                                } catch (Exception e) {
-                                    log.log(Level.SEVERE, "Error occurred converting LND Invoice into Invoice: " +e.getMessage(),e);
-                                }
-                            }
+            }finally {
+                stopped = true;
+                log.fine("LightningInvoiceListenerThread exited supervisor loop.");
+            }
+        }
 
-                            @Override
-                            public void onError(Throwable t) {
-                                log.log(Level.SEVERE, "Error occurred listening for settled invoices from LND: " + t.getMessage());
-                                log.log(Level.FINE, "LND Error Stacktrace: ",t);
-                                connectionOpen = false;
-                                listening = false;
-                            }
+        /**
+         * Help method that reconnects if needed and subscribes to invoices from the last known
+         * context.
+         * @return true if subscription was setup successfully.
+         */
+        private boolean resubscribe(){
+            if(!connectionOpen){
+                try {
+                    reconnect();
+                    connectionOpen = true;
+                }catch (Exception e){
+                    log.log(Level.SEVERE, "Internal error reconnecting to LND APIs, message: " + e.getMessage() + " will try to reconnect in " + calculateBackoff(failedAttempts.get() + 1) + " ms.", e);
+                    return false;
+                }
+            }
+            LNDLightningHandlerContext ctx = lastKnownContext;
+            InvoiceSubscription invoiceSubscription = new InvoiceSubscription();
+            if(ctx.getAddIndex() != null) {
+                invoiceSubscription.setAddIndex(ctx.getAddIndex());
+            }
+            if(ctx.getSettleIndex() != null) {
+                invoiceSubscription.setSettleIndex(ctx.getSettleIndex());
+            }
+            long generation = subscriptionGeneration.incrementAndGet();
+            try {
+                listening = true;
+                subscribedAt = System.currentTimeMillis();
+                getAsyncAPI().subscribeInvoices(invoiceSubscription, new InvoiceStreamObserver(generation));
+                if(log.isLoggable(Level.FINE)) {
+                    log.log(Level.FINE, "Subscribed to invoices in LND, context: " + ctx);
+                }
+                return true;
+            } catch (Exception e) {
+                if(subscriptionGeneration.get() == generation) {
+                    listening = false;
+                }
+                log.log(Level.SEVERE, "Internal error subscribing to LND Invoice events, message: " + e.getMessage() + " will try to reconnect in " + calculateBackoff(failedAttempts.get() + 1) + " ms.", e);
+                return false;
+            }
+        }
 
-                            @Override
-                            public void onCompleted() {
-                                log.info("LND Invoice subscription completed. This shouldn't happen.");
-                                connectionOpen = false;
-                                listening = false;
-                            }
-                        });
-                        if(log.isLoggable(Level.FINE)) {
-                            log.log(Level.FINE, "Subscribed to invoices in LND, context: " + lastKnownContext);
-                        }
-                        listening = true;
+        /**
+         * Called by the stream observer when the subscription is terminated, signals the supervisor to
+         * resubscribe immediately. Events from a stream that have already been replaced are ignored.
+         */
+        private void subscriptionTerminated(long generation){
+            if(subscriptionGeneration.get() != generation){
+                return;
+            }
+            lock.lock();
+            try {
+                connectionOpen = false;
+                listening = false;
+                if(System.currentTimeMillis() - subscribedAt < maxBackoff){
+                    // Stream failed shortly after it was established, avoid reconnecting in a tight loop.
+                    failedAttempts.incrementAndGet();
+                }else{
+                    failedAttempts.set(0);
+                }
+                stateChanged.signalAll();
+            }finally {
+                lock.unlock();
+            }
+        }
 
-                    } catch (Exception e) {
-                        log.log(Level.SEVERE, "Internal error subscribing to LND Invoice events, message: " + e.getMessage() + " will try to reconnect in " + RECONNECT_WAITTIME_IN_SEC + " seconds.", e);
+        /**
+         * Help method waiting for a stop request or a change in the stream state.
+         * @param timeoutMillis maximum time to wait, 0 to wait until signalled.
+         * @return true if supervisor should continue processing, false if it was stopped.
+         */
+        private boolean awaitSignal(long timeoutMillis){
+            lock.lock();
+            try {
+                if(timeoutMillis > 0){
+                    long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                    while(isRunning && remaining > 0){
+                        remaining = stateChanged.awaitNanos(remaining);
+                    }
+                }else {
+                    while (isRunning && connectionOpen && listening) {
+                        stateChanged.await();
                     }
-
-                }
-                try {
-                    Thread.sleep(RECONNECT_WAITTIME_IN_SEC * 1000);
-                } catch (InterruptedException e) {
-                    log.fine("LightningInvoiceListener listener interrupted.");
                 }
-
-                log.fine("LightningInvoiceListenerThread listening in background.");
+            } catch (InterruptedException e) {
+                log.fine("LightningInvoiceListener listener interrupted.");
+            }finally {
+                lock.unlock();
             }
+            return isRunning;
+        }
 
-            stopped = true;
+        /**
+         * Calculates the time to wait before next attempt using exponential backoff with
+         * jitter, i.e a random value between half and the full exponential delay.
+         * @param attempt the number of failed attempts in a row.
+         * @return the number of milliseconds to wait.
+         */
+        long calculateBackoff(int attempt){
+            long backoff = maxBackoff;
+            if(attempt < 32) {
+                backoff = Math.min(maxBackoff, initialBackoff << (attempt - 1));
+            }
+            long half = backoff / 2;
+            return half + ThreadLocalRandom.current().nextLong(half + 1);
         }
 
+        /**
+         * Signals the supervisor to stop, the method returns directly, use isStopped() to check
+         * if the thread have finished.
+         */
         public void stopListening(){
-            isRunning = false;
+            lock.lock();
+            try {
+                isRunning = false;
+                subscriptionGeneration.incrementAndGet();
+                stateChanged.signalAll();
+            }finally {
+                lock.unlock();
+            }
         }
 
         public boolean isStopped(){
             return stopped;
         }
+
+        /**
+         * Stream observer receiving invoice events for one subscription.
+         */
+        private class InvoiceStreamObserver implements StreamObserver<org.lightningj.lnd.wrapper.message.Invoice>{
+
+            private final long generation;
+
+            InvoiceStreamObserver(long generation){
+                this.generation = generation;
+            }
+
+            @Override
+            public void onNext(org.lightningj.lnd.wrapper.message.Invoice invoice) {
+                LightningEventType type = invoice.getSettled() ? LightningEventType.SETTLEMENT : LightningEventType.ADDED;
+                try {
+                    Invoice invoiceData = getLndHelper().convert(getNodeInfo(),invoice);
+                    cacheInvoice(invoiceData);
+                    lastKnownContext = genCurrentContext(lastKnownContext,invoice);
+                    // Create a copy that is sent to listeners, without possibility to affect current state.
+                    LNDLightningHandlerContext context = genCurrentContext(lastKnownContext,invoice);
+                    if(log.isLoggable(Level.FINE)) {
+                        log.log(Level.FINE, "Received invoice event from LND, invoice: " + invoice + "\ncontext: " + context);
+                    }
+                    LightningEvent event = new LightningEvent(type,invoiceData,context);
+                    for(LightningEventListener listener : listeners){
+                        listener.onLightningEvent(event);
+                    }
+                } catch (Exception e) {
+                    log.log(Level.SEVERE, "Error occurred converting LND Invoice into Invoice: " +e.getMessage(),e);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                log.log(Level.SEVERE, "Error occurred listening for settled invoices from LND: " + t.getMessage());
+                log.log(Level.FINE, "LND Error Stacktrace: ",t);
+                subscriptionTerminated(generation);
+            }
+
+            @Override
+            public void onCompleted() {
+                log.info("LND Invoice subscription completed. This shouldn't happen.");
+                subscriptionTerminated(generation);
+            }
+        }
     }
 
 
@@ -0,0 +1,166 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler.lnd;
+
+import org.lightningj.paywall.vo.Invoice;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of recent invoices keyed by pre image hash, used by BaseLNDLightningHandler
+ * to answer lookupInvoice without calling the LND node.
+ * <p>
+ * The cache is populated when invoices are generated, looked up or received from the invoice
+ * subscription. Settled invoices are final and always returned while unsettled invoices are only
+ * returned if the invoice subscription is active, since a settlement would otherwise be missed, and
+ * the entry is younger than max age. A settled entry is never replaced by an unsettled one, to avoid
+ * a slow lookup response overwriting a settlement event received in between.
+ * </p><p>
+ * The least recently used entry is evicted when max size is reached. Invoices are copied when stored
+ * and returned so callers can't modify the cached fields.
+ * </p>
+ */
+public class InvoiceCache {
+
+    private final Map<ByteBuffer, Entry> entries;
+    private final long maxAge;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    Clock clock = Clock.systemUTC();
+
+    /**
+     * Default constructor.
+     *
+     * @param maxSize the maximum number of invoices kept in cache, must be at least 1.
+     * @param maxAge the maximum time in milliseconds an unsettled invoice is returned from cache.
+     * @throws IllegalArgumentException if max size is less than 1.
+     */
+    public InvoiceCache(int maxSize, long maxAge){
+        if(maxSize < 1){
+            throw new IllegalArgumentException("Invalid invoice cache size " + maxSize + ", must be at least 1.");
+        }
+        this.maxAge = maxAge;
+        this.entries = new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Method to add or update an invoice in the cache. Invoices without pre image hash are ignored.
+     *
+     * @param invoice the invoice to cache.
+     */
+    public void put(Invoice invoice){
+        if(invoice == null || invoice.getPreImageHash() == null){
+            return;
+        }
+        Entry entry = new Entry(copy(invoice), clock.millis());
+        ByteBuffer key = ByteBuffer.wrap(invoice.getPreImageHash().clone());
+        synchronized (entries){
+            Entry existing = entries.get(key);
+            if(existing != null && existing.invoice.isSettled() && !invoice.isSettled()){
+                return;
+            }
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Method to fetch a fresh invoice from cache.
+     *
+     * @param preImageHash the pre image hash of the invoice.
+     * @param subscriptionActive true if the invoice subscription is currently active, meaning that
+     *                           settlements are received by the cache.
+     * @return a copy of the cached invoice if it is settled or still fresh, otherwise null.
+     */
+    public Invoice get(byte[] preImageHash, boolean subscriptionActive){
+        Entry entry;
+        synchronized (entries){
+            entry = entries.get(ByteBuffer.wrap(preImageHash));
+        }
+        if(entry != null && (entry.invoice.isSettled() || (subscriptionActive && clock.millis() - entry.updated <= maxAge))){
+            hits.incrementAndGet();
+            return copy(entry.invoice);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Method to remove all cached invoices.
+     */
+    public void clear(){
+        synchronized (entries){
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return the number of invoices currently in cache.
+     */
+    public int size(){
+        synchronized (entries){
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the number of lookups answered from cache.
+     */
+    public long getHits(){
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups not found or not fresh in cache.
+     */
+    public long getMisses(){
+        return misses.get();
+    }
+
+    private static Invoice copy(Invoice invoice){
+        Invoice retval = new Invoice();
+        retval.setPreImageHash(invoice.getPreImageHash());
+        retval.setBolt11Invoice(invoice.getBolt11Invoice());
+        retval.setDescription(invoice.getDescription());
+        retval.setInvoiceAmount(invoice.getInvoiceAmount());
+        retval.setNodeInfo(invoice.getNodeInfo());
+        retval.setExpireDate(invoice.getExpireDate());
+        retval.setInvoiceDate(invoice.getInvoiceDate());
+        retval.setSettled(invoice.isSettled());
+        retval.setSettledAmount(invoice.getSettledAmount());
+        retval.setSettlementDate(invoice.getSettlementDate());
+        retval.setSourceNode(invoice.getSourceNode());
+        return retval;
+    }
+
+    private static class Entry{
+        final Invoice invoice;
+        final long updated;
+
+        Entry(Invoice invoice, long updated){
+            this.invoice = invoice;
+            this.updated = updated;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler.lnd;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.JSONParsable;
+import org.lightningj.paywall.lightninghandler.LightningHandlerContext;
+
+import javax.json.Json;
+import javax.json.JsonReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * File based checkpoint store of the latest processed LND add and settle index, used
+ * by payment handlers to resume the invoice subscription from where it left off after
+ * a restart. Both LNDLightningHandlerContext and MultiNodeLNDLightningHandlerContext,
+ * where the indices are kept for each node id, are supported.
+ * <p>
+ * In order to avoid a file write for every invoice event are updates batched, the
+ * checkpoint is written when batchSize updates have been received or when the oldest
+ * unwritten update is older than flushInterval milliseconds, whichever comes first.
+ * A crash might therefore replay up to batchSize events, which is safe since the
+ * payment handler processes invoice events idempotently.
+ * </p><p>
+ * The checkpoint is written to a temporary file that is moved into place to
+ * avoid corrupt checkpoints if the application is stopped during a write.
+ * </p>
+ */
+public class LNDContextCheckpointStore {
+
+    protected static Logger log = Logger.getLogger(LNDContextCheckpointStore.class.getName());
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    private final Path checkpointFile;
+    private final int batchSize;
+    private final long flushInterval;
+
+    private final LNDLightningHandlerContext context = new LNDLightningHandlerContext();
+    private final Map<String, LNDLightningHandlerContext> nodeContexts = new LinkedHashMap<>();
+    private int unwrittenUpdates = 0;
+    private long firstUnwrittenUpdate = 0;
+
+    ScheduledExecutorService flushScheduler;
+
+    /**
+     * Constructor using default batch size and flush interval.
+     *
+     * @param checkpointFile the path to the file containing the checkpoint.
+     */
+    public LNDContextCheckpointStore(Path checkpointFile){
+        this(checkpointFile, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Default constructor.
+     *
+     * @param checkpointFile the path to the file containing the checkpoint.
+     * @param batchSize the number of updates received before checkpoint is written, 1 writes every update.
+     * @param flushInterval the maximum time in milliseconds an update is kept before it is written to disk,
+     *                      0 disables the background flushing.
+     * @throws IllegalArgumentException if checkpointFile is null or batchSize is less than 1.
+     */
+    public LNDContextCheckpointStore(Path checkpointFile, int batchSize, long flushInterval){
+        if(checkpointFile == null){
+            throw new IllegalArgumentException("Invalid LND context checkpoint file, path cannot be null.");
+        }
+        if(batchSize < 1){
+            throw new IllegalArgumentException("Invalid LND context checkpoint batch size " + batchSize + ", must be at least 1.");
+        }
+        this.checkpointFile = checkpointFile;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Method to read the last checkpoint from file and start the background flushing.
+     *
+     * @return the last written context, an empty LND context (latest only) if no checkpoint exists.
+     * @throws InternalErrorException if checkpoint file exists but couldn't be read or parsed.
+     */
+    public synchronized LightningHandlerContext load() throws InternalErrorException{
+        if(Files.exists(checkpointFile)){
+            try(JsonReader reader = Json.createReader(Files.newBufferedReader(checkpointFile, StandardCharsets.UTF_8))){
+                merge(LightningHandlerContext.parseContext(reader.readObject()));
+            }catch(Exception e){
+                throw new InternalErrorException("Error reading LND context checkpoint from file " + checkpointFile + ": " + e.getMessage(), e);
+            }
+        }
+        if(flushScheduler == null && flushInterval > 0){
+            flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "paywall-lnd-checkpoint");
+                t.setDaemon(true);
+                return t;
+            });
+            flushScheduler.scheduleWithFixedDelay(this::flushIfDueQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+        if(log.isLoggable(Level.FINE)){
+            log.fine("Loaded LND context checkpoint from " + checkpointFile + ": " + buildContext().toJsonAsString(false));
+        }
+        return getCurrentContext();
+    }
+
+    /**
+     * Method to register that all invoice events up to the indices of the given context have been
+     * processed. Indices never move backwards, and the checkpoint is written if batch size or
+     * flush interval is reached.
+     *
+     * @param context the context of the last processed invoice event, either a LNDLightningHandlerContext
+     *                or a MultiNodeLNDLightningHandlerContext, other types or null is ignored.
+     * @throws InternalErrorException if problems occurred writing the checkpoint file.
+     */
+    public synchronized void update(LightningHandlerContext context) throws InternalErrorException{
+        if(!merge(context)){
+            return;
+        }
+        if(unwrittenUpdates == 0){
+            firstUnwrittenUpdate = System.currentTimeMillis();
+        }
+        unwrittenUpdates++;
+        if(unwrittenUpdates >= batchSize || isFlushDue()){
+            flush();
+        }
+    }
+
+    /**
+     * Method to write the current checkpoint to disk if there are unwritten updates.
+     *
+     * @throws InternalErrorException if problems occurred writing the checkpoint file.
+     */
+    public synchronized void flush() throws InternalErrorException{
+        if(unwrittenUpdates == 0){
+            return;
+        }
+        try {
+            Path parent = checkpointFile.toAbsolutePath().getParent();
+            if(parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path tmpFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+            Files.write(tmpFile, buildContext().toJsonAsString(false).getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tmpFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }catch (AtomicMoveNotSupportedException e){
+                Files.move(tmpFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }catch (IOException e){
+            throw new InternalErrorException("Error writing LND context checkpoint to file " + checkpointFile + ": " + e.getMessage(), e);
+        }
+        unwrittenUpdates = 0;
+        if(log.isLoggable(Level.FINE)){
+            log.fine("Wrote LND context checkpoint to " + checkpointFile + ": " + buildContext().toJsonAsString(false));
+        }
+    }
+
+    /**
+     * Method to stop the background flushing and write any unwritten updates.
+     *
+     * @throws InternalErrorException if problems occurred writing the checkpoint file.
+     */
+    public void close() throws InternalErrorException{
+        ScheduledExecutorService scheduler;
+        synchronized (this){
+            scheduler = flushScheduler;
+            flushScheduler = null;
+        }
+        if(scheduler != null){
+            scheduler.shutdownNow();
+        }
+        flush();
+    }
+
+    /**
+     * @return a copy of the current context, including updates not yet written to disk. A
+     * MultiNodeLNDLightningHandlerContext if multi node contexts have been registered, otherwise
+     * a LNDLightningHandlerContext.
+     */
+    public synchronized LightningHandlerContext getCurrentContext(){
+        return (LightningHandlerContext) buildContext();
+    }
+
+    /**
+     * @return the number of updates received since last written checkpoint.
+     */
+    public synchronized int getUnwrittenUpdates(){
+        return unwrittenUpdates;
+    }
+
+    /**
+     * Help method called by the background scheduler that writes the checkpoint if the
+     * oldest unwritten update have exceeded the flush interval. Logs instead of throws
+     * errors in order to keep the scheduled task running.
+     */
+    synchronized void flushIfDueQuietly(){
+        try {
+            if(unwrittenUpdates > 0 && isFlushDue()) {
+                flush();
+            }
+        }catch (Exception e){
+            log.log(Level.SEVERE, "Error writing LND context checkpoint: " + e.getMessage(), e);
+        }
+    }
+
+    private boolean isFlushDue(){
+        return flushInterval > 0 && System.currentTimeMillis() - firstUnwrittenUpdate >= flushInterval;
+    }
+
+    /**
+     * Help method building a copy of the current context.
+     */
+    private JSONParsable buildContext(){
+        if(nodeContexts.isEmpty()){
+            return copy(context);
+        }
+        Map<String, LightningHandlerContext> copies = new LinkedHashMap<>();
+        for(Map.Entry<String, LNDLightningHandlerContext> entry : nodeContexts.entrySet()){
+            copies.put(entry.getKey(), copy(entry.getValue()));
+        }
+        return new MultiNodeLNDLightningHandlerContext(copies);
+    }
+
+    /**
+     * Help method merging the indices of given context into the current state.
+     *
+     * @return true if any index was moved forward.
+     */
+    private boolean merge(LightningHandlerContext update){
+        if(update instanceof LNDLightningHandlerContext){
+            return merge(context, (LNDLightningHandlerContext) update);
+        }
+        boolean changed = false;
+        if(update instanceof MultiNodeLNDLightningHandlerContext){
+            for(Map.Entry<String, LightningHandlerContext> entry : ((MultiNodeLNDLightningHandlerContext) update).getNodeContexts().entrySet()){
+                if(entry.getValue() instanceof LNDLightningHandlerContext){
+                    LNDLightningHandlerContext current = nodeContexts.computeIfAbsent(entry.getKey(), k -> new LNDLightningHandlerContext());
+                    changed |= merge(current, (LNDLightningHandlerContext) entry.getValue());
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static boolean merge(LNDLightningHandlerContext current, LNDLightningHandlerContext update){
+        Long newAddIndex = max(current.getAddIndex(), update.getAddIndex());
+        Long newSettleIndex = max(current.getSettleIndex(), update.getSettleIndex());
+        if(equals(newAddIndex, current.getAddIndex()) && equals(newSettleIndex, current.getSettleIndex())){
+            return false;
+        }
+        current.setAddIndex(newAddIndex);
+        current.setSettleIndex(newSettleIndex);
+        return true;
+    }
+
+    private static LNDLightningHandlerContext copy(LNDLightningHandlerContext context){
+        return new LNDLightningHandlerContext(context.getAddIndex(), context.getSettleIndex());
+    }
+
+    private static Long max(Long current, Long value){
+        if(value == null || value == 0){
+            return current;
+        }
+        if(current == null){
+            return value;
+        }
+        return Math.max(current, value);
+    }
+
+    private static boolean equals(Long a, Long b){
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler.lnd;
+
+import org.lightningj.lnd.wrapper.message.ListInvoiceRequest;
+import org.lightningj.lnd.wrapper.message.ListInvoiceResponse;
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.lightninghandler.LightningEvent;
+import org.lightningj.paywall.lightninghandler.LightningEventListener;
+import org.lightningj.paywall.lightninghandler.LightningEventType;
+import org.lightningj.paywall.util.Base58;
+import org.lightningj.paywall.vo.Invoice;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background reconciler detecting settlements missed by the invoice subscription of a
+ * BaseLNDLightningHandler, for instance during reconnects or LND restarts.
+ * <p>
+ * At a given interval the reconciler pages through ListInvoices in batches, starting from the
+ * reconciled index, i.e. the add index up to which all invoices are settled or expired. The reconciled
+ * index and the settle index floor start at the indexes of the context the handler connected with, or
+ * at the current indexes of the node if no context was given, so history before the connect is never
+ * sent. At the start of each sweep is the settle index floor advanced to the settle index last received
+ * by the invoice subscription, so settlements already delivered are skipped without further lookups.
+ * Every settled invoice above the settle index floor that a listener still awaits settlement for,
+ * see LightningEventListener.isAwaitingSettlement, is sent as a SETTLEMENT LightningEvent to the
+ * listeners of the handler, in the same way as the subscription does.
+ * </p><p>
+ * ListInvoices calls pass the call guard of the handler, so sweeps are rejected while the circuit
+ * breaker is open.
+ * </p><p>
+ * Lag metrics, such as the number of invoices not yet reconciled and the delay between a missed
+ * settlement and its detection, are available through getters.
+ * </p>
+ */
+public class LNDInvoiceReconciler {
+
+    protected static Logger log = Logger.getLogger(LNDInvoiceReconciler.class.getName());
+
+    public static final long DEFAULT_INTERVAL = 60000;
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final BaseLNDLightningHandler handler;
+    private final long interval;
+    private final int batchSize;
+    private final LNDLightningHandlerContext startContext;
+
+    private boolean initialized = false;
+    private volatile long settleIndexFloor = 0;
+    private volatile long reconciledIndex = 0;
+    private volatile long latestIndex = 0;
+    private volatile long lastSweepTime = 0;
+    private volatile long lastSweepDuration = 0;
+    private volatile long lastSettlementLag = 0;
+    private final AtomicLong sweeps = new AtomicLong();
+    private final AtomicLong failedSweeps = new AtomicLong();
+    private final AtomicLong missedSettlements = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    Clock clock = Clock.systemUTC();
+
+    /**
+     * Default constructor.
+     *
+     * @param handler the lightning handler to reconcile settlements for.
+     * @param startContext the context the handler connected with, null or with null indexes to
+     *                     start from the current indexes of the node.
+     * @param interval the time in milliseconds between two sweeps.
+     * @param batchSize the maximum number of invoices fetched in each ListInvoices call.
+     * @throws IllegalArgumentException if interval or batch size is less than 1.
+     */
+    public LNDInvoiceReconciler(BaseLNDLightningHandler handler, LNDLightningHandlerContext startContext, long interval, int batchSize){
+        if(interval < 1 || batchSize < 1){
+            throw new IllegalArgumentException("Invalid invoice reconciler configuration, interval and batch size must be at least 1.");
+        }
+        this.handler = handler;
+        this.startContext = startContext;
+        this.interval = interval;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Method to start the background sweeps, the first sweep is performed after one interval.
+     */
+    public synchronized void start(){
+        if(scheduler == null){
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "paywall-lnd-reconciler");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::sweepQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Method to stop the background sweeps.
+     */
+    public synchronized void close(){
+        if(scheduler != null){
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Method to perform one sweep, paging through all invoices from the reconciled index and sending
+     * missed settlements to the listeners of the lightning handler.
+     *
+     * @return the number of missed settlements found.
+     * @throws Exception if problems occurred listing invoices in LND or converting invoices.
+     */
+    public synchronized int sweep() throws Exception{
+        long start = clock.millis();
+        long now = start / 1000;
+        if(!initialized){
+            initIndexes();
+        }
+        LNDLightningHandlerContext context = handler.getLastKnownContext();
+        if(context != null && context.getSettleIndex() != null && context.getSettleIndex() > settleIndexFloor){
+            // Settlements up to this index are already delivered by the invoice subscription.
+            settleIndexFloor = context.getSettleIndex();
+        }
+
+        int found = 0;
+        long offset = reconciledIndex;
+        long newReconciledIndex = reconciledIndex;
+        boolean allReconciled = true;
+        while(true){
+            ListInvoiceRequest request = new ListInvoiceRequest();
+            request.setIndexOffset(offset);
+            request.setNumMaxInvoices(batchSize);
+            request.setPendingOnly(false);
+            ListInvoiceResponse response = listInvoices(request);
+            List<org.lightningj.lnd.wrapper.message.Invoice> invoices = response.getInvoices();
+            for(org.lightningj.lnd.wrapper.message.Invoice invoice : invoices){
+                if(invoice.getSettled()){
+                    if(invoice.getSettleIndex() > settleIndexFloor && sendSettlement(invoice, context, now)){
+                        found++;
+                    }
+                }else if(invoice.getCreationDate() + invoice.getExpiry() > now){
+                    allReconciled = false;
+                }
+                if(allReconciled){
+                    newReconciledIndex = invoice.getAddIndex();
+                }
+            }
+            if(response.getLastIndexOffset() > latestIndex){
+                latestIndex = response.getLastIndexOffset();
+            }
+            if(invoices.size() < batchSize || response.getLastIndexOffset() <= offset){
+                break;
+            }
+            offset = response.getLastIndexOffset();
+        }
+        reconciledIndex = newReconciledIndex;
+        lastSweepTime = clock.millis();
+        lastSweepDuration = lastSweepTime - start;
+        sweeps.incrementAndGet();
+        if(log.isLoggable(Level.FINE)){
+            log.log(Level.FINE, "Invoice reconciliation sweep completed in " + lastSweepDuration + " ms, missed settlements: " + found + ", reconciled index: " + reconciledIndex + ", latest index: " + latestIndex);
+        }
+        return found;
+    }
+
+    /**
+     * Help method setting the reconciled index and settle index floor from the start context, or from
+     * the latest invoice in the node if the start context has no indexes.
+     */
+    private void initIndexes() throws Exception{
+        if(startContext != null && startContext.getAddIndex() != null){
+            reconciledIndex = startContext.getAddIndex();
+        }else{
+            ListInvoiceRequest request = new ListInvoiceRequest();
+            request.setNumMaxInvoices(1);
+            request.setReversed(true);
+            request.setPendingOnly(false);
+            reconciledIndex = listInvoices(request).getLastIndexOffset();
+        }
+        if(startContext != null && startContext.getSettleIndex() != null){
+            settleIndexFloor = startContext.getSettleIndex();
+        }
+        initialized = true;
+    }
+
+    /**
+     * Help method listing invoices in LND through the call guard of the handler.
+     */
+    private ListInvoiceResponse listInvoices(ListInvoiceRequest request) throws IOException, InternalErrorException{
+        return handler.getCallGuard().call(() -> {
+            try {
+                return handler.getSyncAPI().listInvoices(request);
+            }catch (IOException | InternalErrorException e){
+                throw e;
+            }catch (Exception e){
+                throw handler.toLNDCallException("Error listing invoices in LND: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * @return the settle index up to which settlements are known to be processed.
+     */
+    public long getSettleIndexFloor(){
+        return settleIndexFloor;
+    }
+
+    /**
+     * @return the add index up to which all invoices are settled or expired.
+     */
+    public long getReconciledIndex(){
+        return reconciledIndex;
+    }
+
+    /**
+     * @return the highest add index seen in LND during the last sweep.
+     */
+    public long getLatestIndex(){
+        return latestIndex;
+    }
+
+    /**
+     * @return the number of invoices between the reconciled index and the latest index, i.e. invoices
+     * that are scanned again in the next sweep.
+     */
+    public long getIndexLag(){
+        return Math.max(0, latestIndex - reconciledIndex);
+    }
+
+    /**
+     * @return the time in milliseconds between settlement and detection of the last missed settlement.
+     */
+    public long getLastSettlementLag(){
+        return lastSettlementLag;
+    }
+
+    /**
+     * @return the total number of missed settlements sent by the reconciler.
+     */
+    public long getMissedSettlements(){
+        return missedSettlements.get();
+    }
+
+    /**
+     * @return the time in milliseconds since epoch of last completed sweep, 0 if no sweep completed.
+     */
+    public long getLastSweepTime(){
+        return lastSweepTime;
+    }
+
+    /**
+     * @return the duration in milliseconds of the last completed sweep.
+     */
+    public long getLastSweepDuration(){
+        return lastSweepDuration;
+    }
+
+    /**
+     * @return the number of completed sweeps.
+     */
+    public long getSweeps(){
+        return sweeps.get();
+    }
+
+    /**
+     * @return the number of sweeps that failed.
+     */
+    public long getFailedSweeps(){
+        return failedSweeps.get();
+    }
+
+    /**
+     * Help method sending a missed settlement to the listeners of the handler, if any of them still
+     * awaits settlement of the invoice.
+     *
+     * @return true if the settlement was sent.
+     */
+    private boolean sendSettlement(org.lightningj.lnd.wrapper.message.Invoice lndInvoice, LNDLightningHandlerContext context, long now) throws Exception{
+        // Snapshot of the synchronized listener list, listeners might be registered during the sweep.
+        List<LightningEventListener> listeners = new ArrayList<>(handler.listeners);
+        boolean awaited = false;
+        for(LightningEventListener listener : listeners){
+            if(listener.isAwaitingSettlement(lndInvoice.getRHash())){
+                awaited = true;
+                break;
+            }
+        }
+        if(!awaited){
+            return false;
+        }
+        Invoice invoice = handler.getLndHelper().convert(handler.getNodeInfo(), lndInvoice);
+        handler.cacheInvoice(invoice);
+        missedSettlements.incrementAndGet();
+        lastSettlementLag = lndInvoice.getSettleDate() > 0 ? Math.max(0, (now - lndInvoice.getSettleDate()) * 1000) : 0;
+        log.log(Level.INFO, "Reconciled settlement missed by invoice subscription, preImageHash: " + Base58.encodeToString(invoice.getPreImageHash()) + ", settle index: " + lndInvoice.getSettleIndex());
+        LightningEvent event = new LightningEvent(LightningEventType.SETTLEMENT, invoice,
+                context != null ? new LNDLightningHandlerContext(context.getAddIndex(), context.getSettleIndex()) : new LNDLightningHandlerContext());
+        for(LightningEventListener listener : listeners){
+            listener.onLightningEvent(event);
+        }
+        return true;
+    }
+
+    private void sweepQuietly(){
+        try{
+            sweep();
+        }catch (Exception e){
+            failedSweeps.incrementAndGet();
+            log.log(Level.WARNING, "Error performing invoice reconciliation sweep: " + e.getMessage(), e);
+        }
+    }
+}
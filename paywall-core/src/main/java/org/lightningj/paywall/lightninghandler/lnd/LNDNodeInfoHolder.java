@@ -0,0 +1,191 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler.lnd;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.vo.NodeInfo;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holder of the node information of a BaseLNDLightningHandler included in generated invoices.
+ * <p>
+ * The node information is fetched once (single flight), concurrent callers wait for the same fetch
+ * instead of calling getInfo on LND each. After that is the node information refreshed in the
+ * background at a given interval, and on reconnect, and atomically swapped so callers never block
+ * on LND once a value has been fetched. If a refresh fails is the previous value kept.
+ * </p>
+ */
+public class LNDNodeInfoHolder {
+
+    protected static Logger log = Logger.getLogger(LNDNodeInfoHolder.class.getName());
+
+    public static final long DEFAULT_REFRESH_INTERVAL = 600000;
+
+    private final BaseLNDLightningHandler handler;
+    private final AtomicReference<NodeInfo> nodeInfo = new AtomicReference<>();
+    private final Object fetchLock = new Object();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong failedRefreshes = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Default constructor.
+     *
+     * @param handler the lightning handler to fetch node information from.
+     */
+    public LNDNodeInfoHolder(BaseLNDLightningHandler handler){
+        this.handler = handler;
+    }
+
+    /**
+     * Method to retrieve the node information, fetched from the handler if no value exists yet. Only
+     * one thread fetches the information at the time, other threads wait for the result.
+     *
+     * @return the node information.
+     * @throws IOException if communication problems occurred with underlying node.
+     * @throws InternalErrorException if internal problems occurred fetching the node information.
+     */
+    public NodeInfo get() throws IOException, InternalErrorException{
+        NodeInfo current = nodeInfo.get();
+        if(current != null){
+            return current;
+        }
+        synchronized (fetchLock){
+            current = nodeInfo.get();
+            if(current == null){
+                current = fetch();
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Method to fetch the node information from the handler and swap the current value.
+     *
+     * @return the fetched node information.
+     * @throws IOException if communication problems occurred with underlying node.
+     * @throws InternalErrorException if internal problems occurred fetching the node information.
+     */
+    public NodeInfo refresh() throws IOException, InternalErrorException{
+        synchronized (fetchLock){
+            return fetch();
+        }
+    }
+
+    /**
+     * Method to mark the node information as outdated, for instance on reconnect. The current value
+     * is still returned until a background refresh has fetched a new one. If no background refresh is
+     * running is the value removed and fetched again by the next caller.
+     */
+    public void invalidate(){
+        generation.incrementAndGet();
+        ScheduledExecutorService scheduler = this.scheduler;
+        if(scheduler != null){
+            try {
+                scheduler.execute(this::refreshQuietly);
+                return;
+            }catch (Exception e){
+                log.log(Level.FINE, "Couldn't schedule node info refresh: " + e.getMessage());
+            }
+        }
+        nodeInfo.set(null);
+    }
+
+    /**
+     * Method to start the background refresh, a first refresh is done directly if no value exists.
+     *
+     * @param interval the time in milliseconds between two refreshes, 0 or less to only fetch on demand.
+     */
+    public synchronized void start(long interval){
+        if(scheduler == null && interval > 0){
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "paywall-lnd-nodeinfo-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::refreshQuietly, nodeInfo.get() == null ? 0 : interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Method to stop the background refresh.
+     */
+    public synchronized void close(){
+        if(scheduler != null){
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return the total number of fetches of node information made.
+     */
+    public long getFetches(){
+        return fetches.get();
+    }
+
+    /**
+     * @return the number of background refreshes that failed.
+     */
+    public long getFailedRefreshes(){
+        return failedRefreshes.get();
+    }
+
+    /**
+     * Help method fetching the node information, should be called with the fetch lock held. The value
+     * is only stored if the holder wasn't invalidated during the fetch.
+     */
+    private NodeInfo fetch() throws IOException, InternalErrorException{
+        long startGeneration = generation.get();
+        fetches.incrementAndGet();
+        NodeInfo fetched = handler.fetchNodeInfo();
+        if(generation.get() == startGeneration){
+            nodeInfo.set(fetched);
+        }
+        return fetched;
+    }
+
+    /**
+     * Help method performing a background refresh, errors are logged and the previous value kept.
+     * Nothing is done while the handler isn't connected, the handler invalidates the holder again
+     * when reconnected.
+     */
+    private void refreshQuietly(){
+        try{
+            if(!handler.isConnected()){
+                return;
+            }
+            refresh();
+        }catch (Exception e){
+            failedRefreshes.incrementAndGet();
+            log.log(Level.WARNING, "Error refreshing LND node info, keeping previous value: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,663 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler.lnd;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.lightninghandler.LightningEvent;
+import org.lightningj.paywall.lightninghandler.LightningEventListener;
+import org.lightningj.paywall.lightninghandler.LightningHandler;
+import org.lightningj.paywall.lightninghandler.LightningHandlerContext;
+import org.lightningj.paywall.lightninghandler.LightningNodeUnavailableException;
+import org.lightningj.paywall.util.Base58;
+import org.lightningj.paywall.vo.ConvertedOrder;
+import org.lightningj.paywall.vo.Invoice;
+import org.lightningj.paywall.vo.NodeInfo;
+import org.lightningj.paywall.vo.PreImageData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lightning Handler distributing invoices over several LND nodes, each managed by its own
+ * lightning handler, usually a SimpleBaseLNDLightningHandler.
+ * <p>
+ * Invoices are generated on the node selected by the configured RoutingStrategy, either the
+ * node with least outstanding requests relative to its weight or by smooth weighted round robin.
+ * The id of the node that issued an invoice is set as sourceNode of the invoice and remembered
+ * so lookupInvoice is sent to the same node. Invoices not remembered, for instance after a restart,
+ * are looked up on all nodes.
+ * </p><p>
+ * A node failing maxFailures calls in a row is ejected from invoice generation for ejectionTime
+ * milliseconds, after that a single successful call makes it healthy again. If generation fails on
+ * one node is it retried on the next selected node, but only if the request definitely wasn't applied,
+ * that is the node wasn't connected or the call was rejected before it was sent. Otherwise is the invoice
+ * looked up on the failing node first, if found is it returned and if the lookup fails is the error
+ * thrown instead of creating a second invoice with the same preimage on another node.
+ * </p><p>
+ * Invoice events of all nodes are merged into one stream to registered listeners, the context of each
+ * event is a MultiNodeLNDLightningHandlerContext containing the last known context of every node and
+ * it should be given to connect() after restart.
+ * </p><p>
+ * All nodes should be added with addNode() before connect() is called.
+ * </p>
+ */
+public class MultiNodeLNDLightningHandler implements LightningHandler {
+
+    protected static Logger log = Logger.getLogger(MultiNodeLNDLightningHandler.class.getName());
+
+    /**
+     * Strategy used to select the node generating an invoice.
+     */
+    public enum RoutingStrategy{
+        /**
+         * Select the node with lowest number of outstanding requests divided by weight.
+         */
+        LEAST_OUTSTANDING_REQUESTS,
+        /**
+         * Select nodes in a smooth weighted round robin order.
+         */
+        WEIGHTED_ROUND_ROBIN
+    }
+
+    public static final int DEFAULT_MAX_FAILURES = 3;
+    public static final long DEFAULT_EJECTION_TIME = 30000;
+    public static final int DEFAULT_MAX_TRACKED_INVOICES = 100000;
+
+    protected List<LightningEventListener> listeners = Collections.synchronizedList(new ArrayList<LightningEventListener>());
+
+    final List<Node> nodes = new CopyOnWriteArrayList<>();
+    private final Map<String, LightningHandlerContext> nodeContexts = new ConcurrentHashMap<>();
+    private final Map<ByteBuffer, String> invoiceNodes;
+    private final AtomicInteger roundRobinOffset = new AtomicInteger();
+
+    private final RoutingStrategy routingStrategy;
+    private final int maxFailures;
+    private final long ejectionTime;
+
+    Clock clock = Clock.systemUTC();
+
+    /**
+     * Constructor using default failure and ejection settings.
+     *
+     * @param routingStrategy the strategy used to select node generating invoices.
+     */
+    public MultiNodeLNDLightningHandler(RoutingStrategy routingStrategy){
+        this(routingStrategy, DEFAULT_MAX_FAILURES, DEFAULT_EJECTION_TIME, DEFAULT_MAX_TRACKED_INVOICES);
+    }
+
+    /**
+     * Default constructor.
+     *
+     * @param routingStrategy the strategy used to select node generating invoices.
+     * @param maxFailures the number of failed calls in a row before a node is ejected.
+     * @param ejectionTime the time in milliseconds a failing node is ejected.
+     * @param maxTrackedInvoices the maximum number of invoice to node mappings kept in memory,
+     *                           older invoices are looked up on all nodes.
+     */
+    public MultiNodeLNDLightningHandler(RoutingStrategy routingStrategy, int maxFailures, long ejectionTime, int maxTrackedInvoices){
+        if(routingStrategy == null){
+            throw new IllegalArgumentException("Invalid multi node lightning handler configuration, routing strategy cannot be null.");
+        }
+        if(maxFailures < 1){
+            throw new IllegalArgumentException("Invalid multi node lightning handler configuration, max failures must be at least 1.");
+        }
+        this.routingStrategy = routingStrategy;
+        this.maxFailures = maxFailures;
+        this.ejectionTime = ejectionTime;
+        this.invoiceNodes = Collections.synchronizedMap(new LinkedHashMap<ByteBuffer, String>(){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, String> eldest) {
+                return size() > maxTrackedInvoices;
+            }
+        });
+    }
+
+    /**
+     * Method to add a node, should be called before connect.
+     *
+     * @param nodeId unique id of the node, set as sourceNode in generated invoices.
+     * @param lightningHandler the lightning handler managing the connection to the node.
+     * @param weight the relative capacity of the node, must be at least 1.
+     * @throws IllegalArgumentException if node id already exists or weight is invalid.
+     */
+    public void addNode(String nodeId, LightningHandler lightningHandler, int weight){
+        if(nodeId == null || lightningHandler == null){
+            throw new IllegalArgumentException("Invalid lightning node, node id and lightning handler cannot be null.");
+        }
+        if(weight < 1){
+            throw new IllegalArgumentException("Invalid weight " + weight + " of lightning node " + nodeId + ", must be at least 1.");
+        }
+        if(getNode(nodeId) != null){
+            throw new IllegalArgumentException("Lightning node with id " + nodeId + " already exists.");
+        }
+        nodes.add(new Node(nodeId, lightningHandler, weight));
+    }
+
+    /**
+     * Method to connect all nodes. Nodes that fails to connect are ejected and logged,
+     * an error is only thrown if no node could be connected.
+     *
+     * @param context the last context by the payment handler, should be a MultiNodeLNDLightningHandlerContext
+     *                except for the first start. Other context types are only used if there is one node.
+     * @throws IOException if communication problems occurred with underlying nodes.
+     * @throws InternalErrorException if no node could be connected.
+     */
+    @Override
+    public void connect(LightningHandlerContext context) throws IOException, InternalErrorException {
+        if(nodes.isEmpty()){
+            throw new InternalErrorException("Error connecting multi node lightning handler, no lightning nodes have been added.");
+        }
+        Map<String, LightningHandlerContext> contexts = new HashMap<>();
+        if(context instanceof MultiNodeLNDLightningHandlerContext){
+            contexts.putAll(((MultiNodeLNDLightningHandlerContext) context).getNodeContexts());
+        }else if(context != null && nodes.size() == 1){
+            contexts.put(nodes.get(0).id, context);
+        }
+        int connected = 0;
+        for(Node node : nodes){
+            LightningHandlerContext nodeContext = contexts.get(node.id);
+            if(nodeContext == null){
+                nodeContext = new LNDLightningHandlerContext();
+            }
+            nodeContexts.put(node.id, nodeContext);
+            node.handler.registerListener(node);
+            try {
+                node.handler.connect(nodeContext);
+                node.success();
+                connected++;
+            }catch (Exception e){
+                log.log(Level.SEVERE, "Error connecting to lightning node " + node.id + ", node is ejected: " + e.getMessage(), e);
+                node.eject();
+            }
+        }
+        if(connected == 0){
+            throw new InternalErrorException("Error connecting multi node lightning handler, none of the " + nodes.size() + " lightning nodes could be connected.");
+        }
+        log.log(Level.INFO, "Connected to " + connected + " of " + nodes.size() + " lightning nodes.");
+    }
+
+    /**
+     * Method to create an invoice on the node selected by the routing strategy. If the call fails and
+     * the invoice wasn't added to the node is the next selected node tried until all nodes have been tried.
+     *
+     * @param preImageData the generated pre image and hash to use in invoice.
+     * @param paymentData the payment data to generate invoice for.
+     * @return the generated invoice with source node set to the id of the issuing node.
+     * @throws IOException if communication problems occurred with all nodes.
+     * @throws InternalErrorException if problems occurred generating the invoice on all nodes.
+     */
+    @Override
+    public Invoice generateInvoice(PreImageData preImageData, ConvertedOrder paymentData) throws IOException, InternalErrorException {
+        List<Node> tried = new ArrayList<>();
+        Exception lastException = null;
+        Node node;
+        while((node = selectNode(tried)) != null){
+            tried.add(node);
+            node.outstandingRequests.incrementAndGet();
+            try {
+                checkNodeConnected(node);
+                Invoice invoice = node.handler.generateInvoice(preImageData, paymentData);
+                node.success();
+                invoice.setSourceNode(node.id);
+                invoiceNodes.put(ByteBuffer.wrap(preImageData.getPreImageHash()), node.id);
+                return invoice;
+            }catch (IOException | InternalErrorException e){
+                node.failure();
+                lastException = e;
+                log.log(Level.WARNING, "Error generating invoice on lightning node " + node.id + ", preImageHash: " + Base58.encodeToString(preImageData.getPreImageHash()) + ", message: " + e.getMessage());
+                if(!isCallRejected(e)){
+                    Invoice invoice = findAddedInvoice(node, preImageData.getPreImageHash(), e);
+                    if(invoice != null){
+                        return invoice;
+                    }
+                }
+            }finally {
+                node.outstandingRequests.decrementAndGet();
+            }
+        }
+        if(lastException instanceof IOException){
+            throw (IOException) lastException;
+        }
+        if(lastException instanceof InternalErrorException){
+            throw (InternalErrorException) lastException;
+        }
+        throw new InternalErrorException("Error generating invoice, no lightning node available.");
+    }
+
+    /**
+     * Method to create a number of invoices on the node selected by the routing strategy, all invoices
+     * in the batch are created on the same node. If the call fails are the invoices that weren't added
+     * to the node tried on the next selected node until all nodes have been tried.
+     *
+     * @param preImageData the generated pre images and hashes to use in invoices.
+     * @param paymentData the payment data to generate invoices for, in the same order as preImageData.
+     * @return the generated invoices with source node set to the id of the issuing node.
+     * @throws IllegalArgumentException if the preImageData and paymentData lists have different sizes.
+     * @throws IOException if communication problems occurred with all nodes.
+     * @throws InternalErrorException if problems occurred generating the invoices on all nodes.
+     */
+    @Override
+    public List<Invoice> generateInvoices(List<PreImageData> preImageData, List<ConvertedOrder> paymentData) throws IllegalArgumentException, IOException, InternalErrorException {
+        if(preImageData.size() != paymentData.size()){
+            throw new IllegalArgumentException("Error generating invoices, number of pre images " + preImageData.size() + " doesn't match number of orders " + paymentData.size() + ".");
+        }
+        Invoice[] result = new Invoice[paymentData.size()];
+        List<Integer> remaining = new ArrayList<>();
+        for(int i = 0; i < paymentData.size(); i++){
+            remaining.add(i);
+        }
+        List<Node> tried = new ArrayList<>();
+        Exception lastException = null;
+        Node node;
+        while(!remaining.isEmpty() && (node = selectNode(tried)) != null){
+            tried.add(node);
+            node.outstandingRequests.incrementAndGet();
+            List<PreImageData> batchPreImageData = new ArrayList<>(remaining.size());
+            List<ConvertedOrder> batchPaymentData = new ArrayList<>(remaining.size());
+            for(int i : remaining){
+                batchPreImageData.add(preImageData.get(i));
+                batchPaymentData.add(paymentData.get(i));
+            }
+            try {
+                checkNodeConnected(node);
+                List<Invoice> invoices = node.handler.generateInvoices(batchPreImageData, batchPaymentData);
+                node.success();
+                for(int i = 0; i < invoices.size(); i++){
+                    Invoice invoice = invoices.get(i);
+                    invoice.setSourceNode(node.id);
+                    invoiceNodes.put(ByteBuffer.wrap(invoice.getPreImageHash()), node.id);
+                    result[remaining.get(i)] = invoice;
+                }
+                remaining.clear();
+            }catch (IOException | InternalErrorException e){
+                node.failure();
+                lastException = e;
+                log.log(Level.WARNING, "Error generating " + batchPaymentData.size() + " invoices on lightning node " + node.id + ", message: " + e.getMessage());
+                if(!isCallRejected(e)){
+                    List<Integer> notAdded = new ArrayList<>();
+                    for(int i : remaining){
+                        Invoice invoice = findAddedInvoice(node, preImageData.get(i).getPreImageHash(), e);
+                        if(invoice != null){
+                            result[i] = invoice;
+                        }else{
+                            notAdded.add(i);
+                        }
+                    }
+                    remaining = notAdded;
+                }
+            }finally {
+                node.outstandingRequests.decrementAndGet();
+            }
+        }
+        if(remaining.isEmpty()){
+            return new ArrayList<>(Arrays.asList(result));
+        }
+        if(lastException instanceof IOException){
+            throw (IOException) lastException;
+        }
+        if(lastException instanceof InternalErrorException){
+            throw (InternalErrorException) lastException;
+        }
+        throw new InternalErrorException("Error generating invoices, no lightning node available.");
+    }
+
+    /**
+     * Method to lookup an invoice on the node that issued it. If the issuing node is unknown are
+     * all nodes queried.
+     *
+     * @param preImageHash the pre image hash of the invoice to lookup.
+     * @return related invoice with source node set, null if not found.
+     * @throws IOException if communication problems occurred with underlying node.
+     * @throws InternalErrorException if internal problems occurred communication or parsing invoice with LND node.
+     */
+    @Override
+    public Invoice lookupInvoice(byte[] preImageHash) throws IOException, InternalErrorException {
+        Node node = getNode(invoiceNodes.get(ByteBuffer.wrap(preImageHash)));
+        if(node != null){
+            return lookupInvoice(node, preImageHash);
+        }
+        Exception lastException = null;
+        for(Node n : nodes){
+            try {
+                Invoice invoice = lookupInvoice(n, preImageHash);
+                if(invoice != null){
+                    invoiceNodes.put(ByteBuffer.wrap(preImageHash), n.id);
+                    return invoice;
+                }
+            }catch (IOException | InternalErrorException e){
+                lastException = e;
+            }
+        }
+        if(lastException instanceof IOException){
+            throw (IOException) lastException;
+        }
+        if(lastException instanceof InternalErrorException){
+            throw (InternalErrorException) lastException;
+        }
+        return null;
+    }
+
+    /**
+     * Method to register a listener to receive notification about updated and settled invoices of all nodes.
+     *
+     * @param listener the event listener to add to list receiving notifications.
+     * @throws InternalErrorException if problems occurred registering from listeners.
+     */
+    @Override
+    public void registerListener(LightningEventListener listener) throws InternalErrorException {
+        listeners.add(listener);
+    }
+
+    /**
+     * Method to remove a listener from the list of event listeners.
+     *
+     * @param listener the listener to remove from list of listeners.
+     * @throws InternalErrorException if problems occurred un-registering from listeners.
+     */
+    @Override
+    public void unregisterListener(LightningEventListener listener) throws InternalErrorException {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return true if at least one node is connected.
+     * @throws IOException if communication problems occurred with underlying node.
+     * @throws InternalErrorException if internal problems occurred checking connection status.
+     */
+    @Override
+    public boolean isConnected() throws IOException, InternalErrorException {
+        for(Node node : nodes){
+            if(node.handler.isConnected()){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method to close the connections to all nodes.
+     *
+     * @throws IOException if communication problems occurred with underlying node.
+     * @throws InternalErrorException if internal problems occurred closing the connection with any node.
+     */
+    @Override
+    public void close() throws IOException, InternalErrorException {
+        Exception exception = null;
+        for(Node node : nodes){
+            try {
+                node.handler.unregisterListener(node);
+                node.handler.close();
+            }catch (Exception e){
+                log.log(Level.SEVERE, "Error closing connection to lightning node " + node.id + ": " + e.getMessage(), e);
+                exception = e;
+            }
+        }
+        if(exception != null){
+            throw new InternalErrorException("Internal error closing lightning node connections: " + exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Method to fetch node information of the first healthy node. Invoices contain node
+     * information of the node that issued them.
+     *
+     * @return node information of the first healthy node.
+     * @throws IOException if communication problems occurred with underlying node.
+     * @throws InternalErrorException if no nodes have been added or node information couldn't be fetched.
+     */
+    @Override
+    public NodeInfo getNodeInfo() throws IOException, InternalErrorException {
+        if(nodes.isEmpty()){
+            throw new InternalErrorException("Error fetching node info, no lightning nodes have been added.");
+        }
+        long now = clock.millis();
+        for(Node node : nodes){
+            if(node.isAvailable(now)){
+                return node.handler.getNodeInfo();
+            }
+        }
+        return nodes.get(0).handler.getNodeInfo();
+    }
+
+    /**
+     * @return list of ids of nodes that currently aren't ejected.
+     */
+    public List<String> getAvailableNodeIds(){
+        List<String> retval = new ArrayList<>();
+        long now = clock.millis();
+        for(Node node : nodes){
+            if(node.isAvailable(now)){
+                retval.add(node.id);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @param nodeId the id of the node.
+     * @return the number of invoice generation requests currently in progress on the node, -1 if node doesn't exist.
+     */
+    public int getOutstandingRequests(String nodeId){
+        Node node = getNode(nodeId);
+        return node == null ? -1 : node.outstandingRequests.get();
+    }
+
+    /**
+     * Help method throwing a rejected LightningNodeUnavailableException if the node isn't connected,
+     * so the request is tried on the next node without being sent.
+     */
+    private void checkNodeConnected(Node node) throws IOException, InternalErrorException{
+        if(!node.handler.isConnected()){
+            throw new LightningNodeUnavailableException("Lightning node " + node.id + " is not connected.", true);
+        }
+    }
+
+    /**
+     * Help method returning true if the exception shows that a request was never sent to the node.
+     */
+    private static boolean isCallRejected(Exception e){
+        return e instanceof LightningNodeUnavailableException && ((LightningNodeUnavailableException) e).isCallRejected();
+    }
+
+    /**
+     * Help method used after a failed invoice generation, where the request might have been applied,
+     * to lookup the invoice on the node before it is generated on another node.
+     *
+     * @return the invoice added to the node or null if it wasn't added.
+     * @throws IOException the original error if the invoice couldn't be looked up.
+     * @throws InternalErrorException the original error if the invoice couldn't be looked up.
+     */
+    private Invoice findAddedInvoice(Node node, byte[] preImageHash, Exception generateException) throws IOException, InternalErrorException{
+        Invoice invoice;
+        try {
+            invoice = node.handler.lookupInvoice(preImageHash);
+        }catch (IOException | InternalErrorException e){
+            log.log(Level.WARNING, "Error looking up invoice on lightning node " + node.id + " after failed generation, not retrying on other nodes, preImageHash: " + Base58.encodeToString(preImageHash) + ", message: " + e.getMessage());
+            if(generateException instanceof IOException){
+                throw (IOException) generateException;
+            }
+            throw (InternalErrorException) generateException;
+        }
+        if(invoice != null){
+            invoice.setSourceNode(node.id);
+            invoiceNodes.put(ByteBuffer.wrap(preImageHash), node.id);
+        }
+        return invoice;
+    }
+
+    /**
+     * Help method performing lookup on a given node with failure accounting.
+     */
+    private Invoice lookupInvoice(Node node, byte[] preImageHash) throws IOException, InternalErrorException{
+        try {
+            Invoice invoice = node.handler.lookupInvoice(preImageHash);
+            node.success();
+            if(invoice != null){
+                invoice.setSourceNode(node.id);
+            }
+            return invoice;
+        }catch (IOException | InternalErrorException e){
+            node.failure();
+            throw e;
+        }
+    }
+
+    /**
+     * Help method selecting the next node according to the routing strategy among available nodes
+     * not already tried. If all untried nodes are ejected is the one with shortest remaining ejection
+     * time returned.
+     */
+    synchronized Node selectNode(List<Node> excluded){
+        long now = clock.millis();
+        List<Node> candidates = new ArrayList<>();
+        Node leastEjected = null;
+        for(Node node : nodes){
+            if(excluded.contains(node)){
+                continue;
+            }
+            if(node.isAvailable(now)){
+                candidates.add(node);
+            }else if(leastEjected == null || node.ejectedUntil < leastEjected.ejectedUntil){
+                leastEjected = node;
+            }
+        }
+        if(candidates.isEmpty()){
+            return leastEjected;
+        }
+        if(routingStrategy == RoutingStrategy.WEIGHTED_ROUND_ROBIN){
+            int totalWeight = 0;
+            Node selected = null;
+            for(Node node : candidates){
+                node.currentWeight += node.weight;
+                totalWeight += node.weight;
+                if(selected == null || node.currentWeight > selected.currentWeight){
+                    selected = node;
+                }
+            }
+            selected.currentWeight -= totalWeight;
+            return selected;
+        }
+        // Least outstanding requests, start at rotating offset to spread ties evenly.
+        int offset = Math.floorMod(roundRobinOffset.getAndIncrement(), candidates.size());
+        Node selected = null;
+        double selectedLoad = 0;
+        for(int i = 0; i < candidates.size(); i++){
+            Node node = candidates.get((offset + i) % candidates.size());
+            double load = (double) node.outstandingRequests.get() / node.weight;
+            if(selected == null || load < selectedLoad){
+                selected = node;
+                selectedLoad = load;
+            }
+        }
+        return selected;
+    }
+
+    private Node getNode(String nodeId){
+        if(nodeId == null){
+            return null;
+        }
+        for(Node node : nodes){
+            if(node.id.equals(nodeId)){
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Internal state of one node, also listening on invoice events of the node and
+     * forwarding them to the listeners of the multi node handler.
+     */
+    class Node implements LightningEventListener{
+        final String id;
+        final LightningHandler handler;
+        final int weight;
+        final AtomicInteger outstandingRequests = new AtomicInteger();
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        volatile long ejectedUntil = 0;
+        int currentWeight = 0;
+
+        Node(String id, LightningHandler handler, int weight){
+            this.id = id;
+            this.handler = handler;
+            this.weight = weight;
+        }
+
+        boolean isAvailable(long now){
+            return ejectedUntil <= now;
+        }
+
+        void success(){
+            consecutiveFailures.set(0);
+            ejectedUntil = 0;
+        }
+
+        void failure(){
+            if(consecutiveFailures.incrementAndGet() >= maxFailures){
+                eject();
+            }
+        }
+
+        void eject(){
+            ejectedUntil = clock.millis() + ejectionTime;
+            log.log(Level.WARNING, "Lightning node " + id + " ejected for " + ejectionTime + " ms.");
+        }
+
+        @Override
+        public void onLightningEvent(LightningEvent event) {
+            Invoice invoice = event.getInvoice();
+            if(invoice != null){
+                invoice.setSourceNode(id);
+                if(invoice.getPreImageHash() != null) {
+                    invoiceNodes.put(ByteBuffer.wrap(invoice.getPreImageHash()), id);
+                }
+            }
+            if(event.getContext() != null){
+                nodeContexts.put(id, event.getContext());
+            }
+            LightningEvent mergedEvent = new LightningEvent(event.getType(), invoice, new MultiNodeLNDLightningHandlerContext(nodeContexts));
+            for(LightningEventListener listener : listeners){
+                try {
+                    listener.onLightningEvent(mergedEvent);
+                }catch (Exception e){
+                    log.log(Level.SEVERE, "Error forwarding lightning event from node " + id + ": " + e.getMessage(), e);
+                }
+            }
+        }
+
+        @Override
+        public boolean isAwaitingSettlement(byte[] preImageHash) throws IOException, InternalErrorException {
+            for(LightningEventListener listener : listeners){
+                if(listener.isAwaitingSettlement(preImageHash)){
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler.lnd;
+
+import org.lightningj.paywall.JSONParsable;
+import org.lightningj.paywall.lightninghandler.LightningHandlerContext;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Context object of a MultiNodeLNDLightningHandler, containing the last known
+ * context of each node identified by its node id.
+ */
+public class MultiNodeLNDLightningHandlerContext extends JSONParsable implements LightningHandlerContext {
+
+    public static final String CONTEXT_TYPE = "multinode";
+
+    protected Map<String, LightningHandlerContext> nodeContexts = new LinkedHashMap<>();
+
+    /**
+     * Empty constructor
+     */
+    public MultiNodeLNDLightningHandlerContext(){}
+
+    /**
+     * Default constructor.
+     *
+     * @param nodeContexts map of node id to last known context of that node, the map is copied.
+     */
+    public MultiNodeLNDLightningHandlerContext(Map<String, LightningHandlerContext> nodeContexts){
+        this.nodeContexts.putAll(nodeContexts);
+    }
+
+    /**
+     * Constructor for parsing json data.
+     * @param jsonObject the context json object.
+     */
+    public MultiNodeLNDLightningHandlerContext(JsonObject jsonObject){
+        super(jsonObject);
+    }
+
+    /**
+     * @param nodeId the id of the node.
+     * @return the last known context of the node, null if unknown.
+     */
+    public LightningHandlerContext getNodeContext(String nodeId){
+        return nodeContexts.get(nodeId);
+    }
+
+    /**
+     * @return unmodifiable map of node id to last known context of that node.
+     */
+    public Map<String, LightningHandlerContext> getNodeContexts(){
+        return Collections.unmodifiableMap(nodeContexts);
+    }
+
+    /**
+     * Method that should set the objects property to Json representation.
+     *
+     * @param jsonObjectBuilder the json object build to use to set key/values in json
+     * @throws JsonException if problems occurred converting object to JSON.
+     */
+    @Override
+    public void convertToJson(JsonObjectBuilder jsonObjectBuilder) throws JsonException {
+        add(jsonObjectBuilder,"type", CONTEXT_TYPE);
+        JsonArrayBuilder nodes = Json.createArrayBuilder();
+        for(Map.Entry<String, LightningHandlerContext> entry : nodeContexts.entrySet()){
+            JsonObjectBuilder node = Json.createObjectBuilder();
+            add(node, "nodeId", entry.getKey());
+            addNotRequired(node, "context", entry.getValue());
+            nodes.add(node);
+        }
+        jsonObjectBuilder.add("nodes", nodes);
+    }
+
+    /**
+     * Method to read all properties from a JsonObject into this value object.
+     *
+     * @param jsonObject the json object to read key and values from and set object properties.
+     * @throws JsonException if problems occurred converting object from JSON.
+     */
+    @Override
+    public void parseJson(JsonObject jsonObject) throws JsonException {
+        nodeContexts = new LinkedHashMap<>();
+        JsonArray nodes = getJsonArrayIfSet(jsonObject, "nodes");
+        if(nodes != null){
+            for(int i = 0; i < nodes.size(); i++){
+                JsonObject node = nodes.getJsonObject(i);
+                JsonObject context = getJsonObjectIfSet(node, "context");
+                nodeContexts.put(getString(node, "nodeId", true), context == null ? null : LightningHandlerContext.parseContext(context));
+            }
+        }
+    }
+}
@@ -14,19 +14,40 @@
  *************************************************************************/
 package org.lightningj.paywall.lightninghandler.lnd;
 
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.netty.GrpcSslContexts;
+import io.grpc.netty.NettyChannelBuilder;
 import org.lightningj.lnd.wrapper.AsynchronousLndAPI;
-import org.lightningj.lnd.wrapper.ClientSideException;
 import org.lightningj.lnd.wrapper.SynchronousLndAPI;
 import org.lightningj.paywall.InternalErrorException;
 import org.lightningj.paywall.lightninghandler.LightningHandlerContext;
+import org.lightningj.paywall.util.HexUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 /**
  * Extension of BaseLNDLightningHandler that also manages APIs and opening/closing connection.
  * Implementing classes only need to give host,port, path to TLS cert and macaroon.
+ * <p>
+ * Both the synchronous and asynchronous API share one Netty channel. The TLS certificate and macaroon
+ * are read into memory on connect and a reconnect only replaces the channel. Keep alive, flow control window,
+ * max inbound message size and executor of the channel can be tuned by overriding the related methods.
+ * </p><p>
+ * Unary calls are given the deadline returned by getCallDeadline(), the invoice subscription has no deadline.
+ * </p>
  *
  * Created by Philip Vendil on 2018-11-28.
  */
@@ -35,7 +56,18 @@ public abstract class SimpleBaseLNDLightningHandler extends BaseLNDLightningHand
     protected AsynchronousLndAPI asynchronousLndAPI;
     protected SynchronousLndAPI synchronousLndAPI;
 
-    protected boolean connected = false;
+    protected volatile boolean connected = false;
+
+    public static final long DEFAULT_KEEP_ALIVE_TIME = 60000;
+    public static final long DEFAULT_KEEP_ALIVE_TIMEOUT = 20000;
+    public static final int DEFAULT_FLOW_CONTROL_WINDOW = 1048576;
+    public static final int DEFAULT_MAX_INBOUND_MESSAGE_SIZE = 16777216;
+
+    static final Metadata.Key<String> MACAROON_KEY = Metadata.Key.of("macaroon", Metadata.ASCII_STRING_MARSHALLER);
+
+    ManagedChannel channel;
+    byte[] tlsCert;
+    String macaroon;
 
     /**
      * Method to open up a connection to the configured LND node. Calls to register and un-register listeners
@@ -48,14 +80,22 @@ public abstract class SimpleBaseLNDLightningHandler extends BaseLNDLightningHand
     public void connect(LightningHandlerContext context) throws IOException, InternalErrorException {
         clearCache();
 
+        loadCredentials();
         openAPIConnectios();
-        listenToInvoices(context);
+        // Background threads started by listenToInvoices check the connection.
         connected = true;
+        try {
+            listenToInvoices(context);
+        }catch (IOException | InternalErrorException | RuntimeException e){
+            connected = false;
+            throw e;
+        }
         log.log(Level.INFO,"Connected to LND Node Successfully.");
     }
 
     /**
      * Method to reconnect API connections with a node, should be called after a restart of LND Node.
+     * Only the channel is replaced, the TLS certificate and macaroon loaded on connect are reused.
      * @throws InternalErrorException if internal problems occurred opening up a connection with LND node.
      */
     @Override
@@ -63,13 +103,15 @@ public abstract class SimpleBaseLNDLightningHandler extends BaseLNDLightningHand
         closeAPIConnections();
         openAPIConnectios();
         connected=true;
+        // Node information is refreshed from the restarted node.
+        getNodeInfoHolder().invalidate();
     }
 
     /**
-     * Help method to open API connections between both connect and reconnect methods.
-     * @throws InternalErrorException if internal problems occurred opening up a connection with LND node.
+     * Help method reading the TLS certificate and macaroon into memory.
+     * @throws InternalErrorException if files couldn't be found or read.
      */
-    private void openAPIConnectios() throws InternalErrorException{
+    private void loadCredentials() throws InternalErrorException{
         File tlsCertFile = new File(getTLSCertPath());
         if(!tlsCertFile.exists() || !tlsCertFile.canRead() || !tlsCertFile.isFile()){
             throw new InternalErrorException("No LND TLS certificate file found at path: " + tlsCertFile);
@@ -79,8 +121,45 @@ public abstract class SimpleBaseLNDLightningHandler extends BaseLNDLightningHand
             throw new InternalErrorException("No LND Macaroon file found at path: " + macaroonFile);
         }
         try {
-          asynchronousLndAPI = new AsynchronousLndAPI(getHost(), getPort(), tlsCertFile, macaroonFile);
-          synchronousLndAPI = new SynchronousLndAPI(getHost(), getPort(), tlsCertFile, macaroonFile);
+            tlsCert = Files.readAllBytes(tlsCertFile.toPath());
+            macaroon = HexUtils.encodeHexString(Files.readAllBytes(macaroonFile.toPath()));
+        }catch (IOException e){
+            throw new InternalErrorException("Error reading LND TLS certificate or macaroon: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Help method to open API connections between both connect and reconnect methods, creating
+     * a new channel shared by both APIs.
+     * @throws InternalErrorException if internal problems occurred opening up a connection with LND node.
+     */
+    private void openAPIConnectios() throws InternalErrorException{
+        if(tlsCert == null || macaroon == null){
+            loadCredentials();
+        }
+        try {
+            NettyChannelBuilder channelBuilder = NettyChannelBuilder.forAddress(getHost(), getPort())
+                    .sslContext(GrpcSslContexts.forClient().trustManager(new ByteArrayInputStream(tlsCert)).build())
+                    .flowControlWindow(getFlowControlWindow())
+                    .maxInboundMessageSize(getMaxInboundMessageSize())
+                    .intercept(new MacaroonInterceptor(macaroon));
+            long keepAliveTime = getKeepAliveTime();
+            if(keepAliveTime > 0){
+                channelBuilder.keepAliveTime(keepAliveTime, TimeUnit.MILLISECONDS)
+                        .keepAliveTimeout(getKeepAliveTimeout(), TimeUnit.MILLISECONDS)
+                        .keepAliveWithoutCalls(true);
+            }
+            long callDeadline = getCallDeadline();
+            if(callDeadline > 0){
+                channelBuilder.intercept(new DeadlineInterceptor(callDeadline));
+            }
+            Executor executor = getChannelExecutor();
+            if(executor != null){
+                channelBuilder.executor(executor);
+            }
+            channel = channelBuilder.build();
+            asynchronousLndAPI = new AsynchronousLndAPI(channel);
+            synchronousLndAPI = new SynchronousLndAPI(channel);
         }catch(Exception e){
             throw new InternalErrorException("Error connecting to LND API: " + e.getMessage(),e);
         }
@@ -120,6 +199,19 @@ public abstract class SimpleBaseLNDLightningHandler extends BaseLNDLightningHand
                 exception = e;
             }
 
+            if(channel != null) {
+                try {
+                    channel.shutdown();
+                    if (!channel.awaitTermination(5, TimeUnit.SECONDS)) {
+                        channel.shutdownNow();
+                    }
+                } catch (InterruptedException e) {
+                    channel.shutdownNow();
+                    Thread.currentThread().interrupt();
+                }
+                channel = null;
+            }
+
             if (exception != null) {
                 throw new InternalErrorException("Internal error closing LND connection: " + exception.getMessage(), exception);
             }
@@ -194,4 +286,96 @@ public abstract class SimpleBaseLNDLightningHandler extends BaseLNDLightningHand
      * @throws InternalErrorException if problems occurred getting the configuration information.
      */
     protected abstract String getMacaroonPath() throws InternalErrorException;
+
+    /**
+     * Method to retrieve the time in milliseconds without read activity before a keep alive ping is
+     * sent to the LND node, override to customize. Default is DEFAULT_KEEP_ALIVE_TIME.
+     * @return the keep alive time in milliseconds, 0 or less disables keep alive.
+     * @throws InternalErrorException if problems occurred getting the configuration information.
+     */
+    protected long getKeepAliveTime() throws InternalErrorException{
+        return DEFAULT_KEEP_ALIVE_TIME;
+    }
+
+    /**
+     * Method to retrieve the time in milliseconds to wait for a keep alive ping response before the
+     * connection is considered broken, override to customize. Default is DEFAULT_KEEP_ALIVE_TIMEOUT.
+     * @return the keep alive timeout in milliseconds.
+     * @throws InternalErrorException if problems occurred getting the configuration information.
+     */
+    protected long getKeepAliveTimeout() throws InternalErrorException{
+        return DEFAULT_KEEP_ALIVE_TIMEOUT;
+    }
+
+    /**
+     * Method to retrieve the HTTP/2 flow control window in bytes of the channel, override to customize.
+     * Default is DEFAULT_FLOW_CONTROL_WINDOW.
+     * @return the flow control window in bytes.
+     * @throws InternalErrorException if problems occurred getting the configuration information.
+     */
+    protected int getFlowControlWindow() throws InternalErrorException{
+        return DEFAULT_FLOW_CONTROL_WINDOW;
+    }
+
+    /**
+     * Method to retrieve the maximum size in bytes of a message received from the LND node, override to
+     * customize. Default is DEFAULT_MAX_INBOUND_MESSAGE_SIZE, large enough for ListInvoices pages.
+     * @return the max inbound message size in bytes.
+     * @throws InternalErrorException if problems occurred getting the configuration information.
+     */
+    protected int getMaxInboundMessageSize() throws InternalErrorException{
+        return DEFAULT_MAX_INBOUND_MESSAGE_SIZE;
+    }
+
+    /**
+     * Method to retrieve the executor used by the channel for callbacks, override to customize.
+     * @return the executor to use or null to use the default gRPC executor.
+     * @throws InternalErrorException if problems occurred getting the configuration information.
+     */
+    protected Executor getChannelExecutor() throws InternalErrorException{
+        return null;
+    }
+
+    /**
+     * Client interceptor setting a deadline on unary calls without deadline.
+     */
+    static class DeadlineInterceptor implements ClientInterceptor{
+
+        private final long deadline;
+
+        DeadlineInterceptor(long deadline){
+            this.deadline = deadline;
+        }
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+            if(method.getType() == MethodDescriptor.MethodType.UNARY && callOptions.getDeadline() == null){
+                callOptions = callOptions.withDeadlineAfter(deadline, TimeUnit.MILLISECONDS);
+            }
+            return next.newCall(method, callOptions);
+        }
+    }
+
+    /**
+     * Client interceptor adding the in memory macaroon to each call.
+     */
+    static class MacaroonInterceptor implements ClientInterceptor{
+
+        private final String macaroon;
+
+        MacaroonInterceptor(String macaroon){
+            this.macaroon = macaroon;
+        }
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+            return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(next.newCall(method, callOptions)) {
+                @Override
+                public void start(Listener<RespT> responseListener, Metadata headers) {
+                    headers.put(MACAROON_KEY, macaroon);
+                    super.start(responseListener, headers);
+                }
+            };
+        }
+    }
 }
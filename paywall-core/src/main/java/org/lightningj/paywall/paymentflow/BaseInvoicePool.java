@@ -0,0 +1,324 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.paymentflow;
+
+import org.lightningj.paywall.currencyconverter.CurrencyConverter;
+import org.lightningj.paywall.lightninghandler.LightningHandler;
+import org.lightningj.paywall.paymenthandler.PaymentHandler;
+import org.lightningj.paywall.tokengenerator.TokenGenerator;
+import org.lightningj.paywall.vo.*;
+import org.lightningj.paywall.vo.amount.CryptoAmount;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Base class of an optional pool of pre-generated invoices used by LocalPaymentFlow
+ * to make the payment required response a pool lookup instead of creating an order
+ * and adding an invoice to the lightning node synchronously.
+ * <p>
+ * A pool is kept per article id, units and pay per request flag of the order request.
+ * Each pooled invoice has its own fresh pre image and is created in the background
+ * with the same logic as LocalPaymentFlow: pre image generation, createOrder in
+ * PaymentHandler, currency conversion and generateInvoice in LightningHandler.
+ * </p>
+ * <p>
+ * Invoices that expire within the minimum remaining validity are discarded, both when
+ * polled and during periodic maintenance, and pools are refilled in the background
+ * after each poll and at each maintenance run. Discarded invoices are never paid and
+ * their payment data expire as any other unpaid order.
+ * </p>
+ */
+public abstract class BaseInvoicePool {
+
+    protected static Logger log = Logger.getLogger(BaseInvoicePool.class.getName());
+
+    protected final Map<PoolKey, Pool> pools = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    private volatile ScheduledExecutorService executor;
+
+    protected Clock clock = Clock.systemDefaultZone();
+
+    /**
+     * Method to start the background thread filling and maintaining the pools. Does nothing
+     * if pool is not enabled.
+     */
+    public void init(){
+        if(!isEnabled() || executor != null){
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "paywall-invoice-pool");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = getMaintenanceInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::maintain, interval, interval, TimeUnit.MILLISECONDS);
+        log.log(Level.FINE, "Initialized invoice pool.");
+    }
+
+    /**
+     * Method to stop the background thread, pooled invoices are left unused.
+     */
+    public void close(){
+        if(executor != null){
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Method to retrieve a pre-generated invoice for the given order request.
+     *
+     * @param orderRequest the order request of current payment flow.
+     * @return a pooled invoice that is valid at least the minimum remaining validity or null
+     * if pool isn't enabled, order request isn't pooled or no invoice is available, then should
+     * the invoice be created synchronously.
+     */
+    public Invoice poll(OrderRequest orderRequest){
+        ScheduledExecutorService executor = this.executor;
+        if(executor == null || orderRequest == null || !isPooled(orderRequest)){
+            return null;
+        }
+        PoolKey key = new PoolKey(orderRequest);
+        Pool pool = pools.computeIfAbsent(key, k -> new Pool());
+        Instant minExpireDate = clock.instant().plus(getMinRemainingValidity());
+        Invoice invoice;
+        while((invoice = pool.invoices.poll()) != null){
+            pool.size.decrementAndGet();
+            if(isValid(invoice, minExpireDate)){
+                break;
+            }
+            discarded.incrementAndGet();
+        }
+        if(invoice == null){
+            misses.incrementAndGet();
+        }else{
+            hits.incrementAndGet();
+        }
+        scheduleRefill(executor, key, pool);
+        return invoice;
+    }
+
+    /**
+     * Method run periodically discarding invoices that are about to expire
+     * and refilling all pools to configured size.
+     */
+    protected void maintain(){
+        Instant minExpireDate = clock.instant().plus(getMinRemainingValidity());
+        for(Map.Entry<PoolKey,Pool> entry : pools.entrySet()){
+            Iterator<Invoice> iter = entry.getValue().invoices.iterator();
+            while(iter.hasNext()){
+                if(!isValid(iter.next(), minExpireDate)){
+                    iter.remove();
+                    entry.getValue().size.decrementAndGet();
+                    discarded.incrementAndGet();
+                }
+            }
+            refill(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Method creating invoices until the pool reaches configured size. Only one
+     * refill of a given pool is running at the same time.
+     *
+     * @param key the key of the pool
+     * @param pool the pool to refill.
+     */
+    protected void refill(PoolKey key, Pool pool){
+        if(!pool.refilling.compareAndSet(false, true)){
+            return;
+        }
+        try{
+            while(pool.size.get() < getPoolSize()){
+                pool.invoices.add(mintInvoice(key));
+                pool.size.incrementAndGet();
+            }
+        }catch(Exception e){
+            log.log(Level.SEVERE, "Error pre-generating invoice for article id " + key.articleId + ", units " + key.units + ": " + e.getMessage(), e);
+        }finally {
+            pool.refilling.set(false);
+        }
+    }
+
+    /**
+     * Method creating an invoice the same way as LocalPaymentFlow.requestPayment().
+     *
+     * @param key the pool key to create invoice for.
+     * @return a newly created invoice.
+     * @throws Exception if problems occurred creating the order or invoice.
+     */
+    protected Invoice mintInvoice(PoolKey key) throws Exception{
+        OrderRequest orderRequest = new OrderRequest(key.articleId, key.units, new ArrayList<>(), key.payPerRequest);
+        PreImageData preImageData = getTokenGenerator().genPreImageData();
+        Order order = getPaymentHandler().createOrder(preImageData.getPreImageHash(), orderRequest);
+        CryptoAmount convertedAmount = getCurrencyConverter().convert(order.getOrderAmount());
+        return getLightningHandler().generateInvoice(preImageData, new ConvertedOrder(order, convertedAmount));
+    }
+
+    /**
+     *
+     * @return the number of poll calls that returned a pooled invoice.
+     */
+    public long getHits(){
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return the number of poll calls for pooled order requests where no invoice was available.
+     */
+    public long getMisses(){
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return the number of invoices discarded since they were about to expire.
+     */
+    public long getDiscarded(){
+        return discarded.get();
+    }
+
+    /**
+     *
+     * @return true if invoice pooling is enabled.
+     */
+    protected abstract boolean isEnabled();
+
+    /**
+     * Method to determine if invoices for a given order request should be pooled,
+     * for example by checking the article id against a list of hot articles.
+     *
+     * @param orderRequest the order request to check.
+     * @return true if invoices for this order request should be pooled.
+     */
+    protected abstract boolean isPooled(OrderRequest orderRequest);
+
+    /**
+     *
+     * @return the number of ready invoices to keep per article id and units.
+     */
+    protected abstract int getPoolSize();
+
+    /**
+     *
+     * @return the minimum remaining validity of a pooled invoice when handed out.
+     */
+    protected abstract Duration getMinRemainingValidity();
+
+    /**
+     *
+     * @return the interval between each discard of expiring invoices and refill of pools.
+     */
+    protected abstract Duration getMaintenanceInterval();
+
+    /**
+     *
+     * @return the used PaymentHandler.
+     */
+    protected abstract PaymentHandler getPaymentHandler();
+
+    /**
+     *
+     * @return the used LightningHandler.
+     */
+    protected abstract LightningHandler getLightningHandler();
+
+    /**
+     *
+     * @return the used TokenGenerator.
+     */
+    protected abstract TokenGenerator getTokenGenerator();
+
+    /**
+     *
+     * @return the used CurrencyConverter.
+     */
+    protected abstract CurrencyConverter getCurrencyConverter();
+
+    private void scheduleRefill(ScheduledExecutorService executor, PoolKey key, Pool pool){
+        if(pool.size.get() < getPoolSize() && !pool.refilling.get()){
+            try {
+                executor.execute(() -> refill(key, pool));
+            }catch (Exception e){
+                log.log(Level.FINE, "Couldn't schedule refill of invoice pool: " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean isValid(Invoice invoice, Instant minExpireDate){
+        return invoice.getExpireDate() != null && invoice.getExpireDate().isAfter(minExpireDate);
+    }
+
+    /**
+     * Key of pooled invoices, article id, units and pay per request flag.
+     */
+    protected static class PoolKey{
+        final String articleId;
+        final int units;
+        final boolean payPerRequest;
+
+        PoolKey(OrderRequest orderRequest){
+            this.articleId = orderRequest.getArticleId();
+            this.units = orderRequest.getUnits();
+            this.payPerRequest = orderRequest.isPayPerRequest();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PoolKey poolKey = (PoolKey) o;
+            return units == poolKey.units &&
+                    payPerRequest == poolKey.payPerRequest &&
+                    Objects.equals(articleId, poolKey.articleId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(articleId, units, payPerRequest);
+        }
+    }
+
+    /**
+     * The ready invoices of one pool key.
+     */
+    protected static class Pool{
+        final ConcurrentLinkedQueue<Invoice> invoices = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicBoolean refilling = new AtomicBoolean();
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.paymentflow;
+
+import org.lightningj.paywall.paymenthandler.PaymentHandler;
+import org.lightningj.paywall.vo.Invoice;
+import org.lightningj.paywall.vo.OrderRequest;
+import org.lightningj.paywall.vo.RequestData;
+import org.lightningj.paywall.web.CachableHttpServletRequest;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Base class of an optional short-lived index of outstanding unpaid invoices used by
+ * LocalPaymentFlow to return the same invoice token when a client repeats an identical
+ * request instead of creating a new order and invoice for each retry.
+ * <p>
+ * Invoices are indexed per client key, HTTP method, request URI, significant request
+ * data digest and article id, units and pay per request flag of the order request.
+ * An indexed invoice is only returned if it is valid at least the minimum remaining
+ * validity and the payment handler reports that it is still unsettled, otherwise
+ * it is removed and a new invoice is created.
+ * </p>
+ */
+public abstract class BaseOutstandingInvoiceIndex {
+
+    protected static Logger log = Logger.getLogger(BaseOutstandingInvoiceIndex.class.getName());
+
+    protected final Map<IndexKey, InvoiceResult> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    protected Clock clock = Clock.systemDefaultZone();
+
+    /**
+     * Method to lookup an outstanding invoice for an identical request of the same client.
+     *
+     * @param request the related HTTP request.
+     * @param orderRequest the order request of current payment flow.
+     * @param requestData the significant request data of current payment flow.
+     * @return a previously generated invoice result that is still unpaid and valid at least the
+     * minimum remaining validity or null if index isn't enabled or no such invoice exists,
+     * then should a new invoice be created.
+     */
+    public InvoiceResult lookup(CachableHttpServletRequest request, OrderRequest orderRequest, RequestData requestData){
+        IndexKey key = genKey(request, orderRequest, requestData);
+        if(key == null){
+            return null;
+        }
+        InvoiceResult invoiceResult = entries.get(key);
+        if(invoiceResult != null){
+            if(isValid(invoiceResult.getInvoice(), clock.instant().plus(getMinRemainingValidity())) && isUnsettled(invoiceResult.getInvoice())){
+                hits.incrementAndGet();
+                return invoiceResult;
+            }
+            entries.remove(key, invoiceResult);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Method to add a newly generated invoice result to the index, if the index is full
+     * are expired entries removed first and then arbitrary entries until there is room.
+     *
+     * @param request the related HTTP request.
+     * @param orderRequest the order request of current payment flow.
+     * @param requestData the significant request data of current payment flow.
+     * @param invoiceResult the generated invoice result to index.
+     */
+    public void add(CachableHttpServletRequest request, OrderRequest orderRequest, RequestData requestData, InvoiceResult invoiceResult){
+        IndexKey key = genKey(request, orderRequest, requestData);
+        if(key == null || invoiceResult == null || invoiceResult.getInvoice() == null){
+            return;
+        }
+        if(entries.size() >= getMaxEntries() && !entries.containsKey(key)){
+            evict();
+        }
+        entries.put(key, invoiceResult);
+    }
+
+    /**
+     *
+     * @return the number of indexed invoices.
+     */
+    public int size(){
+        return entries.size();
+    }
+
+    /**
+     *
+     * @return the number of lookups that returned an outstanding invoice.
+     */
+    public long getHits(){
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return the number of lookups where no outstanding invoice was available.
+     */
+    public long getMisses(){
+        return misses.get();
+    }
+
+    /**
+     * Method to extract the key identifying the client of a request, by default the
+     * remote address. Override if clients should be identified otherwise, for example
+     * by a header set by a proxy.
+     *
+     * @param request the related HTTP request.
+     * @return the client key, null if the client couldn't be identified and the request
+     * shouldn't be indexed.
+     */
+    protected String getClientKey(CachableHttpServletRequest request){
+        return request.getRemoteAddr();
+    }
+
+    /**
+     *
+     * @return true if reuse of outstanding invoices is enabled.
+     */
+    protected abstract boolean isEnabled();
+
+    /**
+     *
+     * @return the minimum remaining validity of an outstanding invoice when returned again.
+     */
+    protected abstract Duration getMinRemainingValidity();
+
+    /**
+     *
+     * @return the maximum number of indexed invoices.
+     */
+    protected abstract int getMaxEntries();
+
+    /**
+     *
+     * @return the used PaymentHandler.
+     */
+    protected abstract PaymentHandler getPaymentHandler();
+
+    /**
+     * Method removing expired entries and, if index is still full, arbitrary
+     * entries until there is room for a new one.
+     */
+    protected void evict(){
+        Instant now = clock.instant();
+        entries.values().removeIf(invoiceResult -> !isValid(invoiceResult.getInvoice(), now));
+        Iterator<IndexKey> iter = entries.keySet().iterator();
+        while(entries.size() >= getMaxEntries() && iter.hasNext()){
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    private IndexKey genKey(CachableHttpServletRequest request, OrderRequest orderRequest, RequestData requestData){
+        if(!isEnabled() || request == null || orderRequest == null || requestData == null || requestData.getSignificantData() == null){
+            return null;
+        }
+        String clientKey = getClientKey(request);
+        if(clientKey == null){
+            return null;
+        }
+        return new IndexKey(clientKey, request.getMethod(), request.getRequestURI(), requestData.getSignificantData(), orderRequest);
+    }
+
+    private boolean isUnsettled(Invoice invoice){
+        try{
+            return getPaymentHandler().checkSettlement(invoice.getPreImageHash(), false) == null;
+        }catch(Exception e){
+            log.log(Level.FINE, "Couldn't check settlement of outstanding invoice, creating new invoice: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean isValid(Invoice invoice, Instant minExpireDate){
+        return invoice.getExpireDate() != null && invoice.getExpireDate().isAfter(minExpireDate);
+    }
+
+    /**
+     * Key of indexed invoices, client key, endpoint, significant request data and order request.
+     */
+    protected static class IndexKey{
+        final String clientKey;
+        final String method;
+        final String requestURI;
+        final byte[] significantData;
+        final String articleId;
+        final int units;
+        final boolean payPerRequest;
+
+        IndexKey(String clientKey, String method, String requestURI, byte[] significantData, OrderRequest orderRequest){
+            this.clientKey = clientKey;
+            this.method = method;
+            this.requestURI = requestURI;
+            this.significantData = significantData;
+            this.articleId = orderRequest.getArticleId();
+            this.units = orderRequest.getUnits();
+            this.payPerRequest = orderRequest.isPayPerRequest();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            IndexKey indexKey = (IndexKey) o;
+            return units == indexKey.units &&
+                    payPerRequest == indexKey.payPerRequest &&
+                    Objects.equals(clientKey, indexKey.clientKey) &&
+                    Objects.equals(method, indexKey.method) &&
+                    Objects.equals(requestURI, indexKey.requestURI) &&
+                    Arrays.equals(significantData, indexKey.significantData) &&
+                    Objects.equals(articleId, indexKey.articleId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hash(clientKey, method, requestURI, articleId, units, payPerRequest) + Arrays.hashCode(significantData);
+        }
+    }
+}
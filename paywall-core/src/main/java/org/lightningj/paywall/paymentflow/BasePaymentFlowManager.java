@@ -18,20 +18,29 @@ import org.jose4j.jwt.JwtClaims;
 import org.lightningj.paywall.InternalErrorException;
 import org.lightningj.paywall.annotations.PaymentRequired;
 import org.lightningj.paywall.currencyconverter.CurrencyConverter;
+import org.lightningj.paywall.currencyconverter.InvalidCurrencyException;
 import org.lightningj.paywall.lightninghandler.LightningHandler;
 import org.lightningj.paywall.orderrequestgenerator.OrderRequestGenerator;
 import org.lightningj.paywall.orderrequestgenerator.OrderRequestGeneratorFactory;
 import org.lightningj.paywall.paymenthandler.PaymentHandler;
+import org.lightningj.paywall.qrcode.QRCodePreRenderer;
 import org.lightningj.paywall.requestpolicy.RequestPolicyFactory;
 import org.lightningj.paywall.tokengenerator.TokenException;
 import org.lightningj.paywall.tokengenerator.TokenGenerator;
+import org.lightningj.paywall.vo.ConvertedOrder;
+import org.lightningj.paywall.vo.Invoice;
+import org.lightningj.paywall.vo.Order;
 import org.lightningj.paywall.vo.OrderRequest;
+import org.lightningj.paywall.vo.PreImageData;
 import org.lightningj.paywall.web.CachableHttpServletRequest;
 import org.lightningj.paywall.web.HTTPConstants;
 
 import javax.servlet.http.Cookie;
 import java.io.IOException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Base class for all PaymentFlowManager implementations that is in charge of creating payment flows
@@ -98,6 +107,73 @@ public abstract class BasePaymentFlowManager implements PaymentFlowManager{
         return lookupPaymentFlow(null,request,orderRequest,claims,expectedTokenType);
     }
 
+    /**
+     * Method to request payment for a number of payment flows in one operation. Local payment flows
+     * without a pooled invoice have their invoices created with one call to generateInvoices in the
+     * lightning handler, other payment flows are requested one by one.
+     *
+     * @param paymentFlows the payment flows to request payment for, created by this manager.
+     * @return the invoice results in the same order as the payment flows.
+     * @throws IllegalArgumentException if user specified parameters (used by the constructor) was invalid.
+     * @throws IOException if communication problems occurred with underlying components.
+     * @throws InternalErrorException if internal errors occurred processing the method.
+     * @throws InvalidCurrencyException if problems occurred converting the currency in the order to the one
+     * used in the invoice.
+     * @throws TokenException if problems occurred generating or validating related JWT Token.
+     */
+    public List<InvoiceResult> requestPayments(List<PaymentFlow> paymentFlows) throws IllegalArgumentException, IOException, InternalErrorException, InvalidCurrencyException, TokenException {
+        InvoiceResult[] results = new InvoiceResult[paymentFlows.size()];
+        LightningHandler lightningHandler = null;
+        PaymentHandler paymentHandler = null;
+        List<Integer> batchIndexes = new ArrayList<>();
+        List<PreImageData> preImageData = new ArrayList<>();
+        List<byte[]> preImageHashes = new ArrayList<>();
+        List<OrderRequest> orderRequests = new ArrayList<>();
+        for(int i=0; i<paymentFlows.size(); i++){
+            PaymentFlow paymentFlow = paymentFlows.get(i);
+            if(paymentFlow instanceof LocalPaymentFlow){
+                LocalPaymentFlow localPaymentFlow = (LocalPaymentFlow) paymentFlow;
+                if(lightningHandler == null){
+                    lightningHandler = localPaymentFlow.getLightningHandler();
+                    paymentHandler = localPaymentFlow.getPaymentHandler();
+                }
+                if(localPaymentFlow.getLightningHandler() == lightningHandler && localPaymentFlow.getPaymentHandler() == paymentHandler) {
+                    InvoiceResult outstandingInvoice = localPaymentFlow.lookupOutstandingInvoice();
+                    if(outstandingInvoice != null){
+                        results[i] = outstandingInvoice;
+                        continue;
+                    }
+                    Invoice invoice = localPaymentFlow.pollPooledInvoice();
+                    if (invoice != null) {
+                        results[i] = localPaymentFlow.genInvoiceResult(invoice);
+                    } else {
+                        PreImageData p = localPaymentFlow.getTokenGenerator().genPreImageData();
+                        preImageData.add(p);
+                        preImageHashes.add(p.getPreImageHash());
+                        orderRequests.add(localPaymentFlow.orderRequest);
+                        batchIndexes.add(i);
+                    }
+                    continue;
+                }
+            }
+            results[i] = paymentFlow.requestPayment();
+        }
+        if(!batchIndexes.isEmpty()){
+            List<Order> orders = paymentHandler.createOrders(preImageHashes, orderRequests);
+            List<ConvertedOrder> convertedOrders = new ArrayList<>(orders.size());
+            for(int j=0; j<batchIndexes.size(); j++){
+                LocalPaymentFlow localPaymentFlow = (LocalPaymentFlow) paymentFlows.get(batchIndexes.get(j));
+                convertedOrders.add(localPaymentFlow.convertOrder(preImageData.get(j), orders.get(j)));
+            }
+            List<Invoice> invoices = lightningHandler.generateInvoices(preImageData, convertedOrders);
+            for(int j=0; j<batchIndexes.size(); j++){
+                int i = batchIndexes.get(j);
+                results[i] = ((LocalPaymentFlow) paymentFlows.get(i)).genInvoiceResult(invoices.get(j));
+            }
+        }
+        return Arrays.asList(results);
+    }
+
     /**
      *
      * @return the PaymentHandler used.  Not all implementations
@@ -145,6 +221,46 @@ public abstract class BasePaymentFlowManager implements PaymentFlowManager{
         return null;
     }
 
+    /**
+     *
+     * @return the pool of pre-generated invoices used in local payment flows. Not all
+     * implementations need to override this method, default is null meaning invoices are
+     * always created synchronously.
+     */
+    protected BaseInvoicePool getInvoicePool(){
+        return null;
+    }
+
+    /**
+     *
+     * @return the renderer used to render invoice QR codes in advance when invoices are created
+     * in local payment flows. Not all implementations need to override this method, default is
+     * null meaning QR codes are rendered when requested.
+     */
+    protected QRCodePreRenderer getQRCodePreRenderer(){
+        return null;
+    }
+
+    /**
+     *
+     * @return the index of outstanding invoices returned again for identical requests of the
+     * same client in local payment flows. Not all implementations need to override this method,
+     * default is null meaning a new invoice is created for each request.
+     */
+    protected BaseOutstandingInvoiceIndex getOutstandingInvoiceIndex(){
+        return null;
+    }
+
+    /**
+     *
+     * @return the cache sharing settlement checks and generated settlement tokens between concurrent
+     * requests in local payment flows. Not all implementations need to override this method, default
+     * is null meaning settlement is checked in payment handler for each request.
+     */
+    protected BaseSettlementResultCache getSettlementResultCache(){
+        return null;
+    }
+
     /**
      * Method that must be implemented and return the TokenGenerator used.
      * @return the token generator used.
@@ -204,10 +320,15 @@ public abstract class BasePaymentFlowManager implements PaymentFlowManager{
         PaymentFlowMode mode = getPaymentFlowMode(orderRequest);
         switch (mode){
             case LOCAL:
-                return new LocalPaymentFlow(paymentRequired,request,
+                LocalPaymentFlow localPaymentFlow = new LocalPaymentFlow(paymentRequired,request,
                         orderRequest,getRequestPolicyFactory(),getLightningHandler(),
                         getPaymentHandler(),getTokenGenerator(),getCurrencyConverter(),
                         tokenClaims,expectedTokenType,getTokenNotBeforeDuration());
+                localPaymentFlow.setInvoicePool(getInvoicePool());
+                localPaymentFlow.setQRCodePreRenderer(getQRCodePreRenderer());
+                localPaymentFlow.setOutstandingInvoiceIndex(getOutstandingInvoiceIndex());
+                localPaymentFlow.setSettlementResultCache(getSettlementResultCache());
+                return localPaymentFlow;
             case CENTRAL_LIGHTNING_HANDLER:
                 return new CentralLightningHandlerPaymentFlow(paymentRequired,request,
                         orderRequest,getRequestPolicyFactory(),getLightningHandler(),
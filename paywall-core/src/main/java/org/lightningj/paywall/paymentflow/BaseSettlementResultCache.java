@@ -0,0 +1,276 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.paymentflow;
+
+import org.lightningj.paywall.AlreadyExecutedException;
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.paymenthandler.PaymentHandler;
+import org.lightningj.paywall.tokengenerator.TokenException;
+import org.lightningj.paywall.tokengenerator.TokenGenerator;
+import org.lightningj.paywall.vo.RequestData;
+import org.lightningj.paywall.vo.Settlement;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Base class of an optional single-flight cache of settlement results used when checking
+ * settlement of an invoice from the check settlement end-points.
+ * <p>
+ * Concurrent checks of the same preImageHash, request data and settlement variant share
+ * one call to PaymentHandler.checkSettlement and one generated settlement token. A settled
+ * result is cached for at most the configured time to live and never longer than until the
+ * settlement has less than the minimum remaining validity left. Unsettled results are never
+ * cached, only shared by checks running at the same time, so settlements are seen by the
+ * next check after they are registered.
+ * </p>
+ */
+public abstract class BaseSettlementResultCache {
+
+    protected static Logger log = Logger.getLogger(BaseSettlementResultCache.class.getName());
+
+    protected final Map<CacheKey, CacheEntry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    protected Clock clock = Clock.systemDefaultZone();
+
+    /**
+     * Method to check settlement of a payment and generate the settlement token, either shared with
+     * a concurrent check, taken from cache or by calling the payment handler and token generator.
+     *
+     * @param preImageHash the preImageHash of the payment to check.
+     * @param requestData the request data to include in the settlement token. Never null.
+     * @param includeInvoice if the related invoice should be included in the settlement.
+     * @param sourceNode the source node to set in the settlement token, null for local payment flows.
+     * @return the settlement result with settlement and settlement token or null if not settled.
+     * @throws AlreadyExecutedException if the payment is pay per request and already executed.
+     * @throws IllegalArgumentException if user specified parameters was invalid.
+     * @throws IOException if communication problems occurred with underlying components.
+     * @throws InternalErrorException if internal errors occurred processing the method.
+     * @throws TokenException if problems occurred generating the settlement token.
+     */
+    public SettlementResult getSettlementResult(byte[] preImageHash, RequestData requestData, boolean includeInvoice, String sourceNode) throws AlreadyExecutedException, IllegalArgumentException, IOException, InternalErrorException, TokenException{
+        if(!isEnabled()){
+            return checkSettlement(preImageHash, requestData, includeInvoice, sourceNode);
+        }
+        CacheKey key = new CacheKey(preImageHash, requestData.getSignificantData(), includeInvoice, sourceNode);
+        while(true){
+            CacheEntry entry = entries.get(key);
+            if(entry != null){
+                if(!entry.result.isDone() || entry.expireTime > clock.millis()){
+                    hits.incrementAndGet();
+                    return await(entry);
+                }
+                entries.remove(key, entry);
+            }
+            CacheEntry newEntry = new CacheEntry();
+            if(entries.putIfAbsent(key, newEntry) != null){
+                continue;
+            }
+            misses.incrementAndGet();
+            try{
+                SettlementResult settlementResult = checkSettlement(preImageHash, requestData, includeInvoice, sourceNode);
+                newEntry.expireTime = getExpireTime(settlementResult);
+                if(newEntry.expireTime <= clock.millis()){
+                    entries.remove(key, newEntry);
+                }
+                newEntry.result.complete(settlementResult);
+                return settlementResult;
+            }catch (AlreadyExecutedException | IOException | InternalErrorException | TokenException | RuntimeException e){
+                entries.remove(key, newEntry);
+                newEntry.result.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     *
+     * @return the number of cached settlement results.
+     */
+    public int size(){
+        return entries.size();
+    }
+
+    /**
+     *
+     * @return the number of checks answered by a concurrent check or from cache.
+     */
+    public long getHits(){
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return the number of checks that called the payment handler.
+     */
+    public long getMisses(){
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return true if caching of settlement results is enabled.
+     */
+    protected abstract boolean isEnabled();
+
+    /**
+     *
+     * @return the maximum time a settled result is cached.
+     */
+    protected abstract Duration getTimeToLive();
+
+    /**
+     *
+     * @return the minimum remaining validity of a settlement for a cached result to be returned.
+     */
+    protected abstract Duration getMinRemainingValidity();
+
+    /**
+     *
+     * @return the maximum number of cached settlement results.
+     */
+    protected abstract int getMaxEntries();
+
+    /**
+     *
+     * @return the used PaymentHandler.
+     */
+    protected abstract PaymentHandler getPaymentHandler();
+
+    /**
+     *
+     * @return the used TokenGenerator.
+     */
+    protected abstract TokenGenerator getTokenGenerator();
+
+    /**
+     * Method calling the payment handler and generating the settlement token if settled.
+     */
+    private SettlementResult checkSettlement(byte[] preImageHash, RequestData requestData, boolean includeInvoice, String sourceNode) throws AlreadyExecutedException, IllegalArgumentException, IOException, InternalErrorException, TokenException{
+        Settlement settlement = getPaymentHandler().checkSettlement(preImageHash, includeInvoice);
+        if(settlement == null){
+            return null;
+        }
+        String token = getTokenGenerator().generateSettlementToken(null,settlement,requestData,settlement.getValidUntil(),settlement.getValidFrom(), sourceNode);
+        return new SettlementResult(settlement, token);
+    }
+
+    /**
+     * Help method calculating the time a result should be cached, removing expired entries if cache
+     * is full.
+     *
+     * @return the expire time in milliseconds, or 0 if the result shouldn't be cached.
+     */
+    private long getExpireTime(SettlementResult settlementResult){
+        if(settlementResult == null || settlementResult.getSettlement().getValidUntil() == null){
+            return 0;
+        }
+        long now = clock.millis();
+        if(entries.size() > getMaxEntries()){
+            entries.values().removeIf(e -> e.result.isDone() && e.expireTime <= now);
+            if(entries.size() > getMaxEntries()){
+                log.log(Level.FINE, "Settlement result cache is full, result not cached.");
+                return 0;
+            }
+        }
+        Instant validUntil = settlementResult.getSettlement().getValidUntil().minus(getMinRemainingValidity());
+        return Math.min(now + getTimeToLive().toMillis(), validUntil.toEpochMilli());
+    }
+
+    /**
+     * Help method waiting for the result of a concurrent check, rethrowing its exception if failed.
+     */
+    private SettlementResult await(CacheEntry entry) throws AlreadyExecutedException, IllegalArgumentException, IOException, InternalErrorException, TokenException{
+        try{
+            return entry.result.get();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InternalErrorException("Interrupted waiting for settlement check: " + e.getMessage(), e);
+        }catch (ExecutionException e){
+            Throwable cause = e.getCause();
+            if(cause instanceof AlreadyExecutedException){
+                throw (AlreadyExecutedException) cause;
+            }
+            if(cause instanceof IOException){
+                throw (IOException) cause;
+            }
+            if(cause instanceof InternalErrorException){
+                throw (InternalErrorException) cause;
+            }
+            if(cause instanceof TokenException){
+                throw (TokenException) cause;
+            }
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            throw new InternalErrorException("Error checking settlement: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Key of cached settlement results, preImageHash, request data and settlement variant.
+     */
+    protected static class CacheKey{
+        final byte[] preImageHash;
+        final byte[] significantData;
+        final boolean includeInvoice;
+        final String sourceNode;
+
+        CacheKey(byte[] preImageHash, byte[] significantData, boolean includeInvoice, String sourceNode){
+            this.preImageHash = preImageHash;
+            this.significantData = significantData;
+            this.includeInvoice = includeInvoice;
+            this.sourceNode = sourceNode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CacheKey cacheKey = (CacheKey) o;
+            return includeInvoice == cacheKey.includeInvoice &&
+                    Arrays.equals(preImageHash, cacheKey.preImageHash) &&
+                    Arrays.equals(significantData, cacheKey.significantData) &&
+                    Objects.equals(sourceNode, cacheKey.sourceNode);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Objects.hash(includeInvoice, sourceNode) + Arrays.hashCode(preImageHash)) + Arrays.hashCode(significantData);
+        }
+    }
+
+    /**
+     * A pending or completed settlement check and the time its result expires.
+     */
+    protected static class CacheEntry{
+        final CompletableFuture<SettlementResult> result = new CompletableFuture<>();
+        volatile long expireTime;
+    }
+}
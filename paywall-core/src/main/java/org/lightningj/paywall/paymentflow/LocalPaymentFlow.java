@@ -22,6 +22,7 @@ import org.lightningj.paywall.currencyconverter.CurrencyConverter;
 import org.lightningj.paywall.currencyconverter.InvalidCurrencyException;
 import org.lightningj.paywall.lightninghandler.LightningHandler;
 import org.lightningj.paywall.paymenthandler.PaymentHandler;
+import org.lightningj.paywall.qrcode.QRCodePreRenderer;
 import org.lightningj.paywall.requestpolicy.RequestPolicy;
 import org.lightningj.paywall.requestpolicy.RequestPolicyFactory;
 import org.lightningj.paywall.tokengenerator.TokenException;
@@ -43,6 +44,14 @@ import java.time.Duration;
  */
 public class LocalPaymentFlow extends BasePaymentFlow {
 
+    private BaseInvoicePool invoicePool;
+    private QRCodePreRenderer qrCodePreRenderer;
+    private BaseOutstandingInvoiceIndex outstandingInvoiceIndex;
+    private BaseSettlementResultCache settlementResultCache;
+    private SettlementResult settlementResult;
+    private boolean outstandingInvoiceLookedUp = false;
+    private InvoiceResult outstandingInvoice;
+
     /**
      * Default constructor initializing the local PaymentFlow.
      *
@@ -79,7 +88,41 @@ public class LocalPaymentFlow extends BasePaymentFlow {
     }
 
     /**
-     * Method to create and order and an invoice in local lightning handler..
+     * @param invoicePool the pool of pre-generated invoices to use, null if no pool is used.
+     */
+    void setInvoicePool(BaseInvoicePool invoicePool){
+        this.invoicePool = invoicePool;
+    }
+
+    /**
+     * @param qrCodePreRenderer the renderer of invoice QR codes in advance, null if QR codes should be
+     *                          rendered when requested.
+     */
+    void setQRCodePreRenderer(QRCodePreRenderer qrCodePreRenderer){
+        this.qrCodePreRenderer = qrCodePreRenderer;
+    }
+
+    /**
+     * @param outstandingInvoiceIndex the index of outstanding invoices returned again for identical
+     *                                requests, null if a new invoice should be created for each request.
+     */
+    void setOutstandingInvoiceIndex(BaseOutstandingInvoiceIndex outstandingInvoiceIndex){
+        this.outstandingInvoiceIndex = outstandingInvoiceIndex;
+    }
+
+    /**
+     * @param settlementResultCache the cache sharing settlement checks between concurrent requests,
+     *                              null if settlement should be checked in payment handler for each request.
+     */
+    void setSettlementResultCache(BaseSettlementResultCache settlementResultCache){
+        this.settlementResultCache = settlementResultCache;
+    }
+
+    /**
+     * Method to create and order and an invoice in local lightning handler. If an outstanding
+     * invoice index is configured and contains an unpaid invoice for an identical request of the
+     * same client is it returned again. Otherwise if an invoice pool is configured and has a ready
+     * invoice for the order request is it used instead.
      *
      * @return a value object containing a payment or invoice JWT Token and optionally and invoice.
      * @throws IllegalArgumentException if user specified parameters (used by the constructor) was invalid.
@@ -91,25 +134,125 @@ public class LocalPaymentFlow extends BasePaymentFlow {
      */
     @Override
     public InvoiceResult requestPayment() throws IllegalArgumentException, IOException, InternalErrorException, InvalidCurrencyException, TokenException{
-            RequestPolicy requestPolicy = getRequestPolicyFactory().getRequestPolicy(paymentRequired);
-            requestData = requestPolicy.significantRequestDataDigest(request);
+            InvoiceResult outstandingInvoice = lookupOutstandingInvoice();
+            if(outstandingInvoice != null){
+                return outstandingInvoice;
+            }
+            Invoice invoice = pollPooledInvoice();
+            if(invoice == null) {
+                PreImageData preImageData = getTokenGenerator().genPreImageData();
+                ConvertedOrder convertedOrder = createConvertedOrder(preImageData);
+                invoice = getLightningHandler().generateInvoice(preImageData, convertedOrder);
+            }
+            return genInvoiceResult(invoice);
+    }
+
+    /**
+     * Method calculating the significant request data and looking up an outstanding
+     * invoice for an identical request, first step of requestPayment. The lookup is only
+     * done once per payment flow, later calls return the result of the first lookup, so
+     * a caller looking up before admission control isn't handed a reused invoice after it.
+     *
+     * @return an outstanding invoice result or null if no outstanding invoice index is configured or
+     * no unpaid invoice exists for the request.
+     * @throws IllegalArgumentException if user specified parameters (used by the constructor) was invalid.
+     * @throws IOException if communication problems occurred with underlying components.
+     * @throws InternalErrorException if internal errors occurred processing the method.
+     */
+    @Override
+    public InvoiceResult lookupOutstandingInvoice() throws IllegalArgumentException, IOException, InternalErrorException{
+        if(outstandingInvoiceLookedUp){
+            return outstandingInvoice;
+        }
+        RequestPolicy requestPolicy = getRequestPolicyFactory().getRequestPolicy(paymentRequired);
+        requestData = requestPolicy.significantRequestDataDigest(request);
+
+        InvoiceResult invoiceResult = outstandingInvoiceIndex != null ? outstandingInvoiceIndex.lookup(request, orderRequest, requestData) : null;
+        if(invoiceResult != null){
+            preImageHash = invoiceResult.getInvoice().getPreImageHash();
+        }
+        outstandingInvoice = invoiceResult;
+        outstandingInvoiceLookedUp = true;
+        return invoiceResult;
+    }
+
+    /**
+     * Help method polling the invoice pool, second step of requestPayment. Must be called
+     * after lookupOutstandingInvoice.
+     *
+     * @return a pooled invoice or null if no pooled invoice was available and it should be generated.
+     */
+    Invoice pollPooledInvoice(){
+        Invoice invoice = invoicePool != null ? invoicePool.poll(orderRequest) : null;
+        if(invoice != null){
+            preImageHash = invoice.getPreImageHash();
+        }
+        return invoice;
+    }
 
-            PreImageData preImageData = getTokenGenerator().genPreImageData();
-            preImageHash = preImageData.getPreImageHash();
-            Order order = getPaymentHandler().createOrder(preImageData.getPreImageHash(), orderRequest);
+    /**
+     * Help method creating the order in payment handler and converting the order amount
+     * before the invoice is generated.
+     *
+     * @param preImageData the generated pre image of the payment.
+     * @return the converted order to generate invoice for.
+     * @throws IOException if communication problems occurred with underlying components.
+     * @throws InternalErrorException if internal errors occurred processing the method.
+     * @throws InvalidCurrencyException if problems occurred converting the currency in the order to the one
+     * used in the invoice.
+     */
+    ConvertedOrder createConvertedOrder(PreImageData preImageData) throws IOException, InternalErrorException, InvalidCurrencyException{
+        Order order = getPaymentHandler().createOrder(preImageData.getPreImageHash(), orderRequest);
+        return convertOrder(preImageData, order);
+    }
 
-            CryptoAmount convertedAmount = getCurrencyConverter().convert(order.getOrderAmount());
-            ConvertedOrder convertedOrder = new ConvertedOrder(order,convertedAmount);
+    /**
+     * Help method converting the order amount of an order created in payment handler
+     * before the invoice is generated, used directly when orders are created in a batch.
+     *
+     * @param preImageData the generated pre image of the payment.
+     * @param order the order created in payment handler for this payment flow.
+     * @return the converted order to generate invoice for.
+     * @throws IOException if communication problems occurred with underlying components.
+     * @throws InternalErrorException if internal errors occurred processing the method.
+     * @throws InvalidCurrencyException if problems occurred converting the currency in the order to the one
+     * used in the invoice.
+     */
+    ConvertedOrder convertOrder(PreImageData preImageData, Order order) throws IOException, InternalErrorException, InvalidCurrencyException{
+        preImageHash = preImageData.getPreImageHash();
+        CryptoAmount convertedAmount = getCurrencyConverter().convert(order.getOrderAmount());
+        return new ConvertedOrder(order, convertedAmount);
+    }
 
-            Invoice invoice = getLightningHandler().generateInvoice(preImageData,convertedOrder);
-            MinimalInvoice minimalInvoice = new MinimalInvoice(invoice);
-            String invoiceToken = getTokenGenerator().generateInvoiceToken(null,minimalInvoice,requestData,invoice.getExpireDate(), getNotBeforeDate(),null);
+    /**
+     * Help method generating the invoice token for a generated or pooled invoice, last
+     * step of requestPayment. If a QR code pre-renderer is configured is rendering of the
+     * invoice QR code started in the background and if an outstanding invoice index is configured
+     * is the result indexed for identical requests.
+     *
+     * @param invoice the invoice of the payment flow.
+     * @return a value object containing the invoice JWT Token and the invoice.
+     * @throws IOException if communication problems occurred with underlying components.
+     * @throws InternalErrorException if internal errors occurred processing the method.
+     * @throws TokenException if problems occurred generating the JWT Token.
+     */
+    InvoiceResult genInvoiceResult(Invoice invoice) throws IOException, InternalErrorException, TokenException{
+        MinimalInvoice minimalInvoice = new MinimalInvoice(invoice);
+        String invoiceToken = getTokenGenerator().generateInvoiceToken(null,minimalInvoice,requestData,invoice.getExpireDate(), getNotBeforeDate(),null);
+        if(qrCodePreRenderer != null){
+            qrCodePreRenderer.preRender(invoice.getBolt11Invoice());
+        }
 
-            return new InvoiceResult(invoice, invoiceToken);
+        InvoiceResult invoiceResult = new InvoiceResult(invoice, invoiceToken);
+        if(outstandingInvoiceIndex != null){
+            outstandingInvoiceIndex.add(request, orderRequest, requestData, invoiceResult);
+        }
+        return invoiceResult;
     }
 
     /**
-     * Method to check if related payment is settled by the end user.
+     * Method to check if related payment is settled by the end user. If a settlement result
+     * cache is configured is the check shared with concurrent checks of the same payment.
      *
      * @return true if settled.
      *
@@ -120,7 +263,11 @@ public class LocalPaymentFlow extends BasePaymentFlow {
     @Override
     public boolean isSettled() throws AlreadyExecutedException, IllegalArgumentException, IOException, InternalErrorException {
         if(settlement == null) {
-            settlement = getPaymentHandler().checkSettlement(preImageHash, false);
+            try {
+                checkSettlement();
+            }catch (TokenException e){
+                throw new InternalErrorException("Error generating settlement token: " + e.getMessage(), e);
+            }
         }
 
         return settlement != null;
@@ -139,13 +286,29 @@ public class LocalPaymentFlow extends BasePaymentFlow {
     public SettlementResult getSettlement() throws AlreadyExecutedException, IllegalArgumentException, IOException, InternalErrorException, TokenException {
         assert requestData != null;
         if (settlement == null) {
-            settlement = getPaymentHandler().checkSettlement(preImageHash, false);
+            checkSettlement();
+        }
+        if (settlementResult != null) {
+            return settlementResult;
         }
 
         String token = getTokenGenerator().generateSettlementToken(null,settlement,requestData,settlement.getValidUntil(),settlement.getValidFrom(), getSourceNode());
         return new SettlementResult(settlement,token);
     }
 
+    /**
+     * Help method checking settlement in payment handler, through the settlement result cache
+     * if configured, in which case is the settlement token generated by the cache.
+     */
+    private void checkSettlement() throws AlreadyExecutedException, IllegalArgumentException, IOException, InternalErrorException, TokenException {
+        if(settlementResultCache != null && requestData != null){
+            settlementResult = settlementResultCache.getSettlementResult(preImageHash, requestData, false, getSourceNode());
+            settlement = settlementResult != null ? settlementResult.getSettlement() : null;
+        }else{
+            settlement = getPaymentHandler().checkSettlement(preImageHash, false);
+        }
+    }
+
     /**
      * Unsupported operation in local payment flow. Throws InternalErrorException.
      *
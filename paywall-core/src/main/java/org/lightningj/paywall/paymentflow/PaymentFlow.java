@@ -44,6 +44,21 @@ public interface PaymentFlow {
      */
     boolean isPaymentRequired() throws AlreadyExecutedException, IllegalArgumentException, IOException, InternalErrorException;
 
+    /**
+     * Method to look up an unpaid invoice already created for an identical request of the same
+     * client, that requestPayment would return again instead of creating a new order. Used to
+     * let clients retrying a request get the same invoice without passing admission control.
+     * Default implementation returns null.
+     *
+     * @return an outstanding invoice result or null if no unpaid invoice exists for the request.
+     * @throws IllegalArgumentException if user specified parameters (used by the constructor) was invalid.
+     * @throws IOException if communication problems occurred with underlying components.
+     * @throws InternalErrorException if internal errors occurred processing the method.
+     */
+    default InvoiceResult lookupOutstandingInvoice() throws IllegalArgumentException, IOException, InternalErrorException{
+        return null;
+    }
+
     /**
      * Method to create and order and optionally an invoice (depending on system setup).
      *
@@ -16,10 +16,13 @@ package org.lightningj.paywall.paymentflow;
 
 import org.lightningj.paywall.InternalErrorException;
 import org.lightningj.paywall.annotations.PaymentRequired;
+import org.lightningj.paywall.currencyconverter.InvalidCurrencyException;
 import org.lightningj.paywall.tokengenerator.TokenException;
 import org.lightningj.paywall.web.CachableHttpServletRequest;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * PaymentFlowManager is in charge of creating payment flows
@@ -60,4 +63,27 @@ public interface PaymentFlowManager {
      * @throws TokenException if problems occurred generating or validating related JWT Token.
      */
     PaymentFlow getPaymentFlowFromToken(CachableHttpServletRequest request, ExpectedTokenType expectedTokenType) throws IllegalArgumentException, InternalErrorException, IOException, TokenException;
+
+    /**
+     * Method to request payment for a number of payment flows in one operation, for instance
+     * when a client purchases several pay walled resources at once. Invoices that are generated
+     * locally should be created in one batch in the lightning handler. Default implementation
+     * calls requestPayment on each payment flow in turn.
+     *
+     * @param paymentFlows the payment flows to request payment for, created by this manager.
+     * @return the invoice results in the same order as the payment flows.
+     * @throws IllegalArgumentException if user specified parameters (used by the constructor) was invalid.
+     * @throws IOException if communication problems occurred with underlying components.
+     * @throws InternalErrorException if internal errors occurred processing the method.
+     * @throws InvalidCurrencyException if problems occurred converting the currency in the order to the one
+     * used in the invoice.
+     * @throws TokenException if problems occurred generating or validating related JWT Token.
+     */
+    default List<InvoiceResult> requestPayments(List<PaymentFlow> paymentFlows) throws IllegalArgumentException, IOException, InternalErrorException, InvalidCurrencyException, TokenException{
+        List<InvoiceResult> retval = new ArrayList<>();
+        for(PaymentFlow paymentFlow : paymentFlows){
+            retval.add(paymentFlow.requestPayment());
+        }
+        return retval;
+    }
 }
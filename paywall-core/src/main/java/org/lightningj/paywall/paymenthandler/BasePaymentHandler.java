@@ -16,18 +16,29 @@ package org.lightningj.paywall.paymenthandler;
 
 import org.lightningj.paywall.AlreadyExecutedException;
 import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.articlecatalog.ArticleCatalog;
 import org.lightningj.paywall.lightninghandler.*;
+import org.lightningj.paywall.lightninghandler.lnd.LNDContextCheckpointStore;
 import org.lightningj.paywall.lightninghandler.lnd.LNDLightningHandlerContext;
 import org.lightningj.paywall.paymenthandler.data.PaymentData;
 import org.lightningj.paywall.paymenthandler.data.PerRequestPaymentData;
 import org.lightningj.paywall.util.Base58;
+import org.lightningj.paywall.util.StripedLock;
 import org.lightningj.paywall.vo.Invoice;
 import org.lightningj.paywall.vo.Order;
 import org.lightningj.paywall.vo.OrderRequest;
 import org.lightningj.paywall.vo.Settlement;
+import org.lightningj.paywall.vo.amount.Amount;
+import org.lightningj.paywall.vo.amount.BTC;
+import org.lightningj.paywall.vo.amount.CryptoAmount;
+import org.lightningj.paywall.vo.amount.FiatAmount;
 
 import java.io.IOException;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +49,20 @@ import static org.lightningj.paywall.paymenthandler.PaymentEventType.*;
  * of specific implementation and let them focus on persisting payment data and
  * looking up information for a given order from an order request.
  * <p>
+ * All read-modify-write sections on payment data are guarded by a striped lock keyed
+ * by preImageHash, so events from the LightningHandler and request threads
+ * updating the same payment are serialized without serializing unrelated payments.
+ * <p>
+ * Payment data that is no longer needed, unpaid orders with expired invoices and
+ * settled payments with ended settlement validity, can be removed by calling
+ * purgeExpired() periodically if the implementation supports it by overriding
+ * removeExpiredPaymentData().
+ * <p>
+ * If an ArticleCatalog is returned by getArticleCatalog() is each order request priced
+ * with calculateOrderAmount(), i.e. the catalog unit price times ordered units, before
+ * newPaymentData(byte[], OrderRequest, Amount) is called with the calculated amount, so
+ * implementations can set it before the payment data is persisted.
+ * <p>
  * Created by Philip Vendil on 2018-12-09.
  */
 public abstract class BasePaymentHandler implements PaymentHandler, LightningEventListener{
@@ -45,7 +70,10 @@ public abstract class BasePaymentHandler implements PaymentHandler, LightningEve
     protected static Logger log = Logger.getLogger(BasePaymentListener.class.getName());
 
     protected PaymentEventBus paymentEventBus;
+    protected SettlementNotificationBus settlementNotificationBus;
     protected PaymentDataConverter paymentDataConverter;
+    protected StripedLock paymentLocks;
+    protected PurgeMetrics purgeMetrics = new PurgeMetrics();
 
     /**
      * Empty Constructor
@@ -63,6 +91,11 @@ public abstract class BasePaymentHandler implements PaymentHandler, LightningEve
     @Override
     public void init() throws InternalErrorException{
         paymentEventBus = new PaymentEventBus();
+        settlementNotificationBus = getSettlementNotificationBus();
+        if(settlementNotificationBus != null){
+            settlementNotificationBus.start(event -> paymentEventBus.triggerEvent(event.getType(), event.getPayment()));
+        }
+        paymentLocks = new StripedLock(getPaymentLockStripes());
         paymentDataConverter = new PaymentDataConverter(getLightningHandler(),
                 getDefaultSettlementValidity(),
                 getDefaultInvoiceValidity());
@@ -92,14 +125,28 @@ public abstract class BasePaymentHandler implements PaymentHandler, LightningEve
      */
     @Override
     public Order createOrder(byte[] preImageHash, OrderRequest orderRequest) throws IOException, InternalErrorException {
-        PaymentData paymentData = newPaymentData(preImageHash,orderRequest);
-        checkIfPayPerRequest(paymentData, orderRequest);
+        PaymentData paymentData = newPricedPaymentData(preImageHash,orderRequest);
+        return convertToOrder(paymentData, orderRequest);
+    }
 
-        Order order =  paymentDataConverter.convertToOrder(paymentData);
-        if(log.isLoggable(Level.FINE)) {
-            log.log(Level.FINE, "Created order: " + order);
+    /**
+     * Method to create a list of orders in one call, the payment data of all orders are
+     * created by newPaymentDatas() so implementations can persist them in one batch.
+     *
+     * @param preImageHashes the unique preImageHashes of each payment flow.
+     * @param orderRequests the order requests in same order as preImageHashes.
+     * @return a list of newly created orders in same order as given preImageHashes.
+     * @throws IOException if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred creating the orders.
+     */
+    @Override
+    public List<Order> createOrders(List<byte[]> preImageHashes, List<OrderRequest> orderRequests) throws IOException, InternalErrorException {
+        List<PaymentData> paymentDatas = newPaymentDatas(preImageHashes, orderRequests);
+        List<Order> retval = new ArrayList<>(paymentDatas.size());
+        for(int i=0; i<paymentDatas.size(); i++){
+            retval.add(convertToOrder(paymentDatas.get(i), orderRequests.get(i)));
         }
-        return order;
+        return retval;
     }
 
     /**
@@ -140,16 +187,26 @@ public abstract class BasePaymentHandler implements PaymentHandler, LightningEve
     @Override
     public Settlement checkSettlement(byte[] preImageHash, boolean includeInvoice) throws AlreadyExecutedException, IllegalArgumentException, IOException, InternalErrorException {
         Settlement retval = null;
-        PaymentData paymentData = findPaymentData(preImageHash);
-        if(paymentData != null){
-            if(paymentData instanceof PerRequestPaymentData && ((PerRequestPaymentData) paymentData).isPayPerRequest()){
-                if(((PerRequestPaymentData) paymentData).isExecuted()){
-                    throw new AlreadyExecutedException(preImageHash,"Invalid request with preImageHash: " + Base58.encodeToString(preImageHash) + ", request have already been processed.");
+        PaymentData paymentData;
+        Lock lock = paymentLocks.get(preImageHash);
+        lock.lock();
+        try {
+            paymentData = findPaymentData(preImageHash);
+            if (paymentData != null) {
+                if (paymentData instanceof PerRequestPaymentData && ((PerRequestPaymentData) paymentData).isPayPerRequest()) {
+                    if (((PerRequestPaymentData) paymentData).isExecuted()) {
+                        throw new AlreadyExecutedException(preImageHash, "Invalid request with preImageHash: " + Base58.encodeToString(preImageHash) + ", request have already been processed.");
+                    }
+                }
+                if (!paymentDataConverter.isSettled(paymentData)) {
+                    paymentData = null;
                 }
             }
-            if(paymentDataConverter.isSettled(paymentData)){
-                retval = paymentDataConverter.convertToSettlement(paymentData, includeInvoice);
-            }
+        }finally {
+            lock.unlock();
+        }
+        if(paymentData != null){
+            retval = paymentDataConverter.convertToSettlement(paymentData, includeInvoice);
         }
         if(log.isLoggable(Level.FINE)) {
             log.log(Level.FINE, "Check settlement of preImageHash: " + Base58.encodeToString(preImageHash) + " resulted in settlement: " + retval);
@@ -180,21 +237,28 @@ public abstract class BasePaymentHandler implements PaymentHandler, LightningEve
         if(!settledInvoice.isSettled()){
             throw new IllegalArgumentException("Error trying to register settled invoice with preImageHash " + Base58.encodeToString(settledInvoice.getPreImageHash()) + ". Invoice is not settled.");
         }
-        PaymentData paymentData = findPaymentData(settledInvoice.getPreImageHash());
-        if(paymentData != null && paymentDataConverter.isSettled(paymentData)){
-            throw new IllegalArgumentException("Error trying to register settled invoice with preImageHash " + Base58.encodeToString(settledInvoice.getPreImageHash()) + ". Payment is already settled.");
-        }
-        if(paymentData == null){
-            if(registerNew){
-                paymentData = newPaymentData(settledInvoice.getPreImageHash(), orderRequest);
-                checkIfPayPerRequest(paymentData,orderRequest);
-            }else{
-                throw new IllegalArgumentException("Error trying to register unknown settled invoice. Invoice preImageHash: " + Base58.encodeToString(settledInvoice.getPreImageHash()));
+        PaymentData paymentData;
+        Lock lock = paymentLocks.get(settledInvoice.getPreImageHash());
+        lock.lock();
+        try {
+            paymentData = findPaymentData(settledInvoice.getPreImageHash());
+            if (paymentData != null && paymentDataConverter.isSettled(paymentData)) {
+                throw new IllegalArgumentException("Error trying to register settled invoice with preImageHash " + Base58.encodeToString(settledInvoice.getPreImageHash()) + ". Payment is already settled.");
+            }
+            if (paymentData == null) {
+                if (registerNew) {
+                    paymentData = newPricedPaymentData(settledInvoice.getPreImageHash(), orderRequest);
+                    checkIfPayPerRequest(paymentData, orderRequest);
+                } else {
+                    throw new IllegalArgumentException("Error trying to register unknown settled invoice. Invoice preImageHash: " + Base58.encodeToString(settledInvoice.getPreImageHash()));
+                }
             }
-        }
 
-        paymentDataConverter.populatePaymentDataFromInvoice(settledInvoice,paymentData);
-        updatePaymentData(PaymentEventType.INVOICE_SETTLED,paymentData, context);
+            paymentDataConverter.populatePaymentDataFromInvoice(settledInvoice, paymentData);
+            updatePaymentData(PaymentEventType.INVOICE_SETTLED, paymentData, context);
+        }finally {
+            lock.unlock();
+        }
         Settlement settlement = paymentDataConverter.convertToSettlement(paymentData,false);
         settlement.setInvoice(settledInvoice);
         if(log.isLoggable(Level.FINE)) {
@@ -210,15 +274,21 @@ public abstract class BasePaymentHandler implements PaymentHandler, LightningEve
      * @throws InternalErrorException if internal exception occurred updating the payment or no related payment found.
      */
     public void markAsExecuted(byte[] preImageHash) throws IOException, InternalErrorException{
-        PaymentData paymentData = findPaymentData(preImageHash);
-        if(paymentData == null){
-            throw new InternalErrorException("Internal Error marking payment with preImageHash " + Base58.encodeToString(preImageHash) + " as executed. Payment not found.");
-        }
-        if(paymentData instanceof PerRequestPaymentData){
-            ((PerRequestPaymentData) paymentData).setExecuted(true);
-            updatePaymentData(PaymentEventType.REQUEST_EXECUTED,paymentData,null);
-        }else{
-            throw new InternalErrorException("Internal Error marking payment with preImageHash " + Base58.encodeToString(preImageHash) + " as executed. Related PaymentData doesn't implement PerRequestPaymentData.");
+        Lock lock = paymentLocks.get(preImageHash);
+        lock.lock();
+        try {
+            PaymentData paymentData = findPaymentData(preImageHash);
+            if (paymentData == null) {
+                throw new InternalErrorException("Internal Error marking payment with preImageHash " + Base58.encodeToString(preImageHash) + " as executed. Payment not found.");
+            }
+            if (paymentData instanceof PerRequestPaymentData) {
+                ((PerRequestPaymentData) paymentData).setExecuted(true);
+                updatePaymentData(PaymentEventType.REQUEST_EXECUTED, paymentData, null);
+            } else {
+                throw new InternalErrorException("Internal Error marking payment with preImageHash " + Base58.encodeToString(preImageHash) + " as executed. Related PaymentData doesn't implement PerRequestPaymentData.");
+            }
+        }finally {
+            lock.unlock();
         }
     }
 
@@ -250,9 +320,10 @@ public abstract class BasePaymentHandler implements PaymentHandler, LightningEve
      * starts listening on the correct location of the invoice event queue after
      * restart.
      *
-     * The BasePaymentHandler just returns empty context for simplicity. This isn't
-     * recommended for an production setup since settled invoices in lightning node might
-     * be missed during restart.
+     * If getLightningHandlerContextStore() returns a checkpoint store is the last checkpoint
+     * returned, otherwise the BasePaymentHandler just returns empty context for simplicity.
+     * This isn't recommended for an production setup since settled invoices in lightning node
+     * might be missed during restart.
      *
      * Lightning context is updated through when lightning events are triggered.
      *
@@ -261,9 +332,166 @@ public abstract class BasePaymentHandler implements PaymentHandler, LightningEve
      */
     @Override
     public LightningHandlerContext getLightningHandlerContext() throws InternalErrorException {
+        LNDContextCheckpointStore contextStore = getLightningHandlerContextStore();
+        if(contextStore != null){
+            return contextStore.load();
+        }
         return new LNDLightningHandlerContext();
     }
 
+    /**
+     * Method to remove payment data that have expired before the given time, that is
+     * unsettled payment data whose invoice expired and settled payment data whose
+     * settlement validity ended. The removal is done in bounded batches of
+     * getPurgeBatchSize() payment data until a batch removes fewer rows, so each
+     * underlying delete statement stays short.
+     *
+     * @param expiredBefore payment data expired before this time is removed, usually
+     *                      current time minus a grace period.
+     * @return the total number of removed payment data.
+     * @throws IOException if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred removing payment data.
+     */
+    public long purgeExpired(Instant expiredBefore) throws IOException, InternalErrorException {
+        long startTime = System.currentTimeMillis();
+        long total = 0;
+        int batchSize = getPurgeBatchSize();
+        try {
+            int removed;
+            do {
+                removed = removeExpiredPaymentData(expiredBefore, batchSize);
+                total += removed;
+            } while (removed >= batchSize);
+        }catch (IOException | InternalErrorException | RuntimeException e){
+            purgeMetrics.registerFailedSweep();
+            throw e;
+        }
+        long sweepTime = System.currentTimeMillis() - startTime;
+        purgeMetrics.registerSweep(total, sweepTime);
+        if(log.isLoggable(Level.FINE)){
+            log.log(Level.FINE, "Purged " + total + " expired payment data in " + sweepTime + " ms.");
+        }
+        return total;
+    }
+
+    /**
+     *
+     * @return metrics about purged payment data and sweep durations.
+     */
+    public PurgeMetrics getPurgeMetrics(){
+        return purgeMetrics;
+    }
+
+    /**
+     * Method to calculate the order amount of an order request by looking up the unit price
+     * of the article id in the configured ArticleCatalog and multiplying it with ordered units.
+     * Called before newPaymentData(byte[], OrderRequest, Amount) if an article catalog is configured.
+     *
+     * @param orderRequest the order request to calculate amount for.
+     * @return the total amount of the order.
+     * @throws IOException if communication exception occurred in underlying components.
+     * @throws InternalErrorException if no article catalog is configured, article id doesn't exist in
+     * catalog or the unit price is of unsupported type.
+     */
+    protected Amount calculateOrderAmount(OrderRequest orderRequest) throws IOException, InternalErrorException{
+        ArticleCatalog articleCatalog = getArticleCatalog();
+        if(articleCatalog == null){
+            throw new InternalErrorException("Internal error calculating order amount, no article catalog configured in payment handler.");
+        }
+        Amount unitPrice = articleCatalog.getUnitPrice(orderRequest.getArticleId());
+        if(unitPrice == null){
+            throw new InternalErrorException("Internal error calculating order amount, article id " + orderRequest.getArticleId() + " doesn't exist in article catalog.");
+        }
+        int units = orderRequest.getUnits() < 1 ? 1 : orderRequest.getUnits();
+        if(unitPrice instanceof BTC){
+            BTC btc = (BTC) unitPrice;
+            return new BTC(btc.getValue() * units, btc.getMagnetude());
+        }
+        if(unitPrice instanceof CryptoAmount){
+            CryptoAmount cryptoAmount = (CryptoAmount) unitPrice;
+            return new CryptoAmount(cryptoAmount.getValue() * units, cryptoAmount.getCurrencyCode(), cryptoAmount.getMagnetude());
+        }
+        if(unitPrice instanceof FiatAmount){
+            FiatAmount fiatAmount = (FiatAmount) unitPrice;
+            return new FiatAmount(fiatAmount.getValue() * units, fiatAmount.getCurrencyCode());
+        }
+        throw new InternalErrorException("Internal error calculating order amount, unsupported amount type " + unitPrice.getClass().getSimpleName() + " for article id " + orderRequest.getArticleId() + ".");
+    }
+
+    /**
+     * Method returning the article catalog used to price orders with calculateOrderAmount(). Default
+     * is null, meaning that newPaymentData(byte[], OrderRequest) looks up the order amount by other means.
+     *
+     * @return the article catalog used to price orders or null if not used.
+     */
+    protected ArticleCatalog getArticleCatalog(){
+        return null;
+    }
+
+    /**
+     * Method returning the maximum number of payment data removed by each call to
+     * removeExpiredPaymentData(). Override to tune, default is 500.
+     *
+     * @return the maximum number of payment data removed in one batch.
+     */
+    protected int getPurgeBatchSize(){
+        return 500;
+    }
+
+    /**
+     * Method that should remove at most maxRows payment data expired before given time.
+     * Unsettled payment data is expired if its invoice expire date is before the given time
+     * and settled payment data is expired when the settlement is no longer valid, i.e.
+     * settlement expire date, or settlement date plus settlement duration (or default
+     * settlement validity), is before the given time.
+     * <p>
+     * The default implementation doesn't remove anything and returns 0, implementations
+     * persisting payment data should override this method.
+     *
+     * @param expiredBefore payment data expired before this time should be removed.
+     * @param maxRows the maximum number of payment data to remove in this call.
+     * @return the number of removed payment data.
+     * @throws IOException if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred removing payment data.
+     */
+    protected int removeExpiredPaymentData(Instant expiredBefore, int maxRows) throws IOException, InternalErrorException{
+        return 0;
+    }
+
+    /**
+     * Method returning the number of locks used to serialize updates of payment data with
+     * the same preImageHash. Updates of different payments only contend if they happen to
+     * map to the same lock. Override to tune, default is StripedLock.DEFAULT_STRIPES (four
+     * per available processor).
+     *
+     * @return the number of lock stripes to use.
+     */
+    protected int getPaymentLockStripes(){
+        return StripedLock.DEFAULT_STRIPES;
+    }
+
+    /**
+     * Method to retrieve the checkpoint store used to persist the context of processed
+     * lightning events between restarts. Override to enable checkpointing.
+     *
+     * @return the checkpoint store to use, null (default) if context shouldn't be persisted.
+     */
+    protected LNDContextCheckpointStore getLightningHandlerContextStore(){
+        return null;
+    }
+
+    /**
+     * Method to retrieve the bus used to distribute payment events received from the lightning
+     * handler to all application instances, so listeners registered on one instance are notified
+     * of events received by another. Override to enable.
+     *
+     * @return the settlement notification bus to use, null (default) if events should only be
+     * triggered in the local PaymentEventBus.
+     */
+    protected SettlementNotificationBus getSettlementNotificationBus(){
+        return null;
+    }
+
     /**
      * Method that should returned the used LightningHandler.
      * @return the related LightningHandler.
@@ -298,7 +526,9 @@ public abstract class BasePaymentHandler implements PaymentHandler, LightningEve
      * the order request.
      *
      * The generated PaymentData should be at least MinimalPaymentData with preImageHash
-     * and orderedAmount set.
+     * and orderedAmount set. If an ArticleCatalog is configured is
+     * newPaymentData(byte[], OrderRequest, Amount) called instead, with the order amount
+     * already calculated.
      *
      * It is recommended that the PaymentData is persisted in this call but could
      * be skipped for performance in certain payment flows.
@@ -314,6 +544,47 @@ public abstract class BasePaymentHandler implements PaymentHandler, LightningEve
      */
     protected abstract PaymentData newPaymentData(byte[] preImageHash, OrderRequest orderRequest) throws IOException, InternalErrorException;
 
+    /**
+     * Method that should generate a new PaymentData for a given order request that has
+     * already been priced by the ArticleCatalog returned by getArticleCatalog(). Implementations
+     * using an article catalog should override this method and set the given order amount
+     * before the payment data is persisted. The default implementation calls
+     * newPaymentData(byte[], OrderRequest) that has to look up the order amount itself.
+     *
+     * @param preImageHash the unique preImageHash used to identify a payment flow
+     *                     withing a lightning payment.
+     * @param orderRequest the specification of the payment data that should be created calculated
+     *                     from data in the PaymentRequired annotation.
+     * @param orderAmount the order amount calculated by calculateOrderAmount().
+     * @return a newly generated PaymentData signaling a new payment flow used to
+     * create an Order value object.
+     * @throws IOException if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred generating new payment data.
+     */
+    protected PaymentData newPaymentData(byte[] preImageHash, OrderRequest orderRequest, Amount orderAmount) throws IOException, InternalErrorException{
+        return newPaymentData(preImageHash, orderRequest);
+    }
+
+    /**
+     * Method that should generate new PaymentData for a list of order requests, used when
+     * several orders are created at the same time. Implementations persisting payment data
+     * should override this method and persist all payment data in one batch, the default
+     * implementation calls newPaymentData for each entry, priced by the article catalog if configured.
+     *
+     * @param preImageHashes the unique preImageHashes of each payment flow.
+     * @param orderRequests the order requests in same order as preImageHashes.
+     * @return a list of newly generated PaymentData in same order as given preImageHashes.
+     * @throws IOException if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred generating new payment data.
+     */
+    protected List<PaymentData> newPaymentDatas(List<byte[]> preImageHashes, List<OrderRequest> orderRequests) throws IOException, InternalErrorException{
+        List<PaymentData> retval = new ArrayList<>(preImageHashes.size());
+        for(int i=0; i<preImageHashes.size(); i++){
+            retval.add(newPricedPaymentData(preImageHashes.get(i), orderRequests.get(i)));
+        }
+        return retval;
+    }
+
     /**
      * Method to lookup a payment data in the payment handler.
      *
@@ -358,24 +629,113 @@ public abstract class BasePaymentHandler implements PaymentHandler, LightningEve
             }
             PaymentEventType type = event.getType() == LightningEventType.ADDED ? INVOICE_CREATED : INVOICE_SETTLED;
             byte[] preImageHash = event.getInvoice().getPreImageHash();
-            PaymentData paymentData = findPaymentData(preImageHash);
-            if(paymentData == null){
-                log.log(Level.INFO, "Received Lightning Invoice that does not exists as payment data, invoice preImageHash: " + Base58.encodeToString(preImageHash) + ". Skipping.");
-                return;
+            PaymentData paymentData;
+            Lock lock = paymentLocks.get(preImageHash);
+            lock.lock();
+            try {
+                paymentData = findPaymentData(preImageHash);
+                if (paymentData == null) {
+                    log.log(Level.INFO, "Received Lightning Invoice that does not exists as payment data, invoice preImageHash: " + Base58.encodeToString(preImageHash) + ". Skipping.");
+                    checkpoint(event.getContext());
+                    return;
+                }
+                paymentDataConverter.populatePaymentDataFromInvoice(event.getInvoice(), paymentData);
+                updatePaymentData(type, paymentData, event.getContext());
+            }finally {
+                lock.unlock();
             }
-            paymentDataConverter.populatePaymentDataFromInvoice(event.getInvoice(),paymentData);
-            updatePaymentData(type, paymentData, event.getContext());
             Payment eventPayment = event.getInvoice();
             if(type == INVOICE_SETTLED){
                 eventPayment = paymentDataConverter.convertToSettlement(paymentData,false);
                 ((Settlement) eventPayment).setInvoice(event.getInvoice());
             }
-            paymentEventBus.triggerEvent(type, eventPayment);
+            triggerEvent(type, eventPayment);
+            checkpoint(event.getContext());
         }catch(Exception e){
             log.log(Level.SEVERE, "Error updating payment data on Lightning event of type " + event.getType() + ", invoice preimage hash: " + Base58.encodeToString(event.getInvoice().getPreImageHash()) + ", message: " + e.getMessage(),e);
         }
     }
 
+    /**
+     * Method returning true if payment data exists for the invoice and it isn't already
+     * marked as settled.
+     *
+     * @param preImageHash the pre image hash of the settled invoice.
+     * @return true if the payment handler awaits settlement of the invoice.
+     * @throws IOException if communication problems occurred with underlying components.
+     * @throws InternalErrorException if internal problems occurred looking up payment data.
+     */
+    @Override
+    public boolean isAwaitingSettlement(byte[] preImageHash) throws IOException, InternalErrorException {
+        Lock lock = paymentLocks.get(preImageHash);
+        lock.lock();
+        try {
+            PaymentData paymentData = findPaymentData(preImageHash);
+            return paymentData != null && !paymentDataConverter.isSettled(paymentData);
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Help method that triggers the payment event, through the settlement notification bus if
+     * configured, otherwise directly in the local PaymentEventBus. Errors publishing are logged
+     * since the event itself was processed successfully.
+     */
+    private void triggerEvent(PaymentEventType type, Payment eventPayment) {
+        if(settlementNotificationBus == null){
+            paymentEventBus.triggerEvent(type, eventPayment);
+            return;
+        }
+        try {
+            settlementNotificationBus.publish(new PaymentEvent(type, eventPayment));
+        }catch (Exception e){
+            log.log(Level.SEVERE, "Error publishing payment event of type " + type + " on settlement notification bus: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Method that updates the context checkpoint store, if configured, after a lightning
+     * event have been processed and its payment data update is durably stored. Implementations
+     * that buffer updates of payment data should override this method and call it after
+     * the buffered updates have been written. Errors are logged since the event itself was
+     * processed successfully.
+     *
+     * @param context the lightning handler context of the processed event, might be null.
+     */
+    protected void checkpoint(LightningHandlerContext context) {
+        LNDContextCheckpointStore contextStore = getLightningHandlerContextStore();
+        if(contextStore != null && context != null){
+            try {
+                contextStore.update(context);
+            }catch (Exception e){
+                log.log(Level.SEVERE, "Error updating lightning handler context checkpoint: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Help method creating new payment data, priced by the article catalog if configured.
+     */
+    private PaymentData newPricedPaymentData(byte[] preImageHash, OrderRequest orderRequest) throws IOException, InternalErrorException {
+        if(getArticleCatalog() != null){
+            return newPaymentData(preImageHash, orderRequest, calculateOrderAmount(orderRequest));
+        }
+        return newPaymentData(preImageHash, orderRequest);
+    }
+
+    /**
+     * Help method converting newly created payment data into an order.
+     */
+    private Order convertToOrder(PaymentData paymentData, OrderRequest orderRequest) throws IOException, InternalErrorException {
+        checkIfPayPerRequest(paymentData, orderRequest);
+        Order order =  paymentDataConverter.convertToOrder(paymentData);
+        if(log.isLoggable(Level.FINE)) {
+            log.log(Level.FINE, "Created order: " + order);
+        }
+        return order;
+    }
+
     /**
      * Help method that verifies that if order request has payPerRequest flag, then
      * the related PaymentData implements PerRequestPaymentData otherwise throws
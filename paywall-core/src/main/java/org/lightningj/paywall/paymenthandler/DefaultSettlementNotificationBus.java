@@ -0,0 +1,125 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.paymenthandler;
+
+import org.lightningj.paywall.InternalErrorException;
+
+import javax.json.Json;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Default in-JVM implementation of SettlementNotificationBus.
+ * <p>
+ *     Published events are always delivered directly to the local receiver. If a transport
+ *     is configured is the event also serialized to JSON and sent to the other instances, which
+ *     deliver it to their local receivers. Messages published by this instance and received
+ *     back through the transport are ignored.
+ * </p>
+ * <p>
+ *     Without transport is the bus equivalent to triggering the PaymentEventBus directly.
+ * </p>
+ */
+public class DefaultSettlementNotificationBus implements SettlementNotificationBus {
+
+    protected static Logger log = Logger.getLogger(DefaultSettlementNotificationBus.class.getName());
+
+    private final String origin = UUID.randomUUID().toString();
+    private final SettlementNotificationTransport transport;
+    private volatile Consumer<PaymentEvent> receiver;
+
+    /**
+     * Constructor of a bus only delivering events within this JVM.
+     */
+    public DefaultSettlementNotificationBus(){
+        this(null);
+    }
+
+    /**
+     * Constructor of a bus distributing events to other instances using given transport.
+     *
+     * @param transport the transport to use, null if events should only be delivered within this JVM.
+     */
+    public DefaultSettlementNotificationBus(SettlementNotificationTransport transport){
+        this.transport = transport;
+    }
+
+    @Override
+    public void start(Consumer<PaymentEvent> receiver) throws InternalErrorException {
+        this.receiver = receiver;
+        if(transport != null){
+            try {
+                transport.subscribe(this::onMessage);
+            }catch (IOException e){
+                throw new InternalErrorException("Error subscribing to settlement notification transport: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void publish(PaymentEvent event) throws InternalErrorException {
+        deliver(event);
+        if(transport != null){
+            try {
+                transport.send(new SettlementNotification(origin, event).toJsonAsString(false));
+            }catch (Exception e){
+                log.log(Level.SEVERE, "Error sending " + event.getType() + " notification to other instances: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if(transport != null){
+            transport.close();
+        }
+        receiver = null;
+    }
+
+    /**
+     *
+     * @return the unique id of this bus instance, used to ignore own messages.
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Method called by the transport for each received message.
+     *
+     * @param message the serialized settlement notification.
+     */
+    void onMessage(String message){
+        try {
+            SettlementNotification notification = new SettlementNotification(Json.createReader(new StringReader(message)).readObject());
+            if(!origin.equals(notification.getOrigin())){
+                deliver(notification.getEvent());
+            }
+        }catch (Exception e){
+            log.log(Level.SEVERE, "Error processing received settlement notification: " + e.getMessage(), e);
+        }
+    }
+
+    private void deliver(PaymentEvent event){
+        Consumer<PaymentEvent> r = receiver;
+        if(r != null){
+            r.accept(event);
+        }
+    }
+}
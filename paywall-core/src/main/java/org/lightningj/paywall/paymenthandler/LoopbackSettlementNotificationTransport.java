@@ -0,0 +1,76 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.paymenthandler;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-memory SettlementNotificationTransport delivering messages synchronously to all
+ * transports connected to the same loopback, used as stand-in for a real transport when
+ * testing several instances within one JVM.
+ * <p>
+ *     Create the first transport with the empty constructor and connect more instances by
+ *     calling connect() on it.
+ * </p>
+ */
+public class LoopbackSettlementNotificationTransport implements SettlementNotificationTransport {
+
+    private final List<LoopbackSettlementNotificationTransport> connected;
+    private volatile Consumer<String> receiver;
+
+    /**
+     * Constructor creating a new loopback with this transport as only member.
+     */
+    public LoopbackSettlementNotificationTransport(){
+        this(new CopyOnWriteArrayList<>());
+    }
+
+    private LoopbackSettlementNotificationTransport(List<LoopbackSettlementNotificationTransport> connected){
+        this.connected = connected;
+        connected.add(this);
+    }
+
+    /**
+     * Method to create a new transport connected to the same loopback as this transport.
+     *
+     * @return a new transport receiving all messages sent within the loopback.
+     */
+    public LoopbackSettlementNotificationTransport connect(){
+        return new LoopbackSettlementNotificationTransport(connected);
+    }
+
+    @Override
+    public void subscribe(Consumer<String> receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public void send(String message) {
+        for(LoopbackSettlementNotificationTransport transport : connected){
+            Consumer<String> r = transport.receiver;
+            if(r != null){
+                r.accept(message);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        receiver = null;
+        connected.remove(this);
+    }
+}
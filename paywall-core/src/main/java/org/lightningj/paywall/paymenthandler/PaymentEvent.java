@@ -17,6 +17,7 @@ package org.lightningj.paywall.paymenthandler;
 import org.lightningj.paywall.JSONParsable;
 
 import org.lightningj.paywall.vo.Invoice;
+import org.lightningj.paywall.vo.Settlement;
 
 import javax.json.JsonException;
 import javax.json.JsonObject;
@@ -125,6 +126,11 @@ public class PaymentEvent  extends JSONParsable {
             throw new JsonException("Error parsing JSON, invalid payment event type " + typeValue + ".");
         }
 
-        payment = new Invoice(getJsonObject(jsonObject,"payment",true));
+        JsonObject paymentObject = getJsonObject(jsonObject,"payment",true);
+        if(type == PaymentEventType.INVOICE_SETTLED && paymentObject.containsKey("validUntil")){
+            payment = new Settlement(paymentObject);
+        }else {
+            payment = new Invoice(paymentObject);
+        }
     }
 }
@@ -24,6 +24,8 @@ import org.lightningj.paywall.vo.OrderRequest;
 import org.lightningj.paywall.vo.Settlement;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Interface for a PaymentHandler handling orders, invoices and settlements.
@@ -63,6 +65,25 @@ public interface PaymentHandler {
      */
     Order createOrder(byte[] preImageHash, OrderRequest orderRequest) throws IOException,InternalErrorException;// TODO check
 
+    /**
+     * Method to create a list of orders in one call, used when several invoices are requested
+     * at the same time so implementations can persist all orders in one batch. The default
+     * implementation calls createOrder for each entry.
+     *
+     * @param preImageHashes the unique preImageHashes of each payment flow.
+     * @param orderRequests the order requests in same order as preImageHashes.
+     * @return a list of newly created orders in same order as given preImageHashes.
+     * @throws IOException if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred creating the orders.
+     */
+    default List<Order> createOrders(List<byte[]> preImageHashes, List<OrderRequest> orderRequests) throws IOException,InternalErrorException{
+        List<Order> retval = new ArrayList<>(preImageHashes.size());
+        for(int i=0; i<preImageHashes.size(); i++){
+            retval.add(createOrder(preImageHashes.get(i), orderRequests.get(i)));
+        }
+        return retval;
+    }
+
     /**
      * Method to lookup an invoice in the PaymentHandler. The payment handler might
      * call the LightningHandler to get complementary data about the invoice.
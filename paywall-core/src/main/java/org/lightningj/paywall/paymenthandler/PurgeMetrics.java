@@ -0,0 +1,113 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.paymenthandler;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe counters collected by BasePaymentHandler when purging
+ * expired payment data, can be exposed to monitoring by the application.
+ */
+public class PurgeMetrics {
+
+    private final AtomicLong sweeps = new AtomicLong();
+    private final AtomicLong failedSweeps = new AtomicLong();
+    private final AtomicLong totalRowsPurged = new AtomicLong();
+    private final AtomicLong totalSweepTime = new AtomicLong();
+    private volatile long lastRowsPurged = 0;
+    private volatile long lastSweepTime = 0;
+
+    /**
+     * Method to register a finished sweep.
+     *
+     * @param rowsPurged the number of payment data removed during the sweep.
+     * @param sweepTimeMillis the time in milliseconds the sweep took.
+     */
+    void registerSweep(long rowsPurged, long sweepTimeMillis){
+        sweeps.incrementAndGet();
+        totalRowsPurged.addAndGet(rowsPurged);
+        totalSweepTime.addAndGet(sweepTimeMillis);
+        lastRowsPurged = rowsPurged;
+        lastSweepTime = sweepTimeMillis;
+    }
+
+    /**
+     * Method to register a sweep that failed with an exception.
+     */
+    void registerFailedSweep(){
+        failedSweeps.incrementAndGet();
+    }
+
+    /**
+     *
+     * @return the total number of finished sweeps.
+     */
+    public long getSweeps() {
+        return sweeps.get();
+    }
+
+    /**
+     *
+     * @return the total number of sweeps that failed with an exception.
+     */
+    public long getFailedSweeps() {
+        return failedSweeps.get();
+    }
+
+    /**
+     *
+     * @return the total number of payment data removed by all sweeps.
+     */
+    public long getTotalRowsPurged() {
+        return totalRowsPurged.get();
+    }
+
+    /**
+     *
+     * @return the accumulated time spent in all finished sweeps.
+     */
+    public Duration getTotalSweepDuration() {
+        return Duration.ofMillis(totalSweepTime.get());
+    }
+
+    /**
+     *
+     * @return the number of payment data removed by the last finished sweep.
+     */
+    public long getLastRowsPurged() {
+        return lastRowsPurged;
+    }
+
+    /**
+     *
+     * @return the time the last finished sweep took.
+     */
+    public Duration getLastSweepDuration() {
+        return Duration.ofMillis(lastSweepTime);
+    }
+
+    @Override
+    public String toString() {
+        return "PurgeMetrics{" +
+                "sweeps=" + sweeps +
+                ", failedSweeps=" + failedSweeps +
+                ", totalRowsPurged=" + totalRowsPurged +
+                ", totalSweepTime=" + totalSweepTime +
+                "ms, lastRowsPurged=" + lastRowsPurged +
+                ", lastSweepTime=" + lastSweepTime +
+                "ms}";
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.paymenthandler;
+
+import org.lightningj.paywall.JSONParsable;
+
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Message sent through a SettlementNotificationTransport, containing the payment event
+ * and the id of the instance that published it.
+ */
+class SettlementNotification extends JSONParsable {
+
+    protected String origin;
+    protected PaymentEvent event;
+
+    /**
+     * Default constructor
+     *
+     * @param origin the unique id of the publishing bus instance.
+     * @param event the published payment event.
+     */
+    SettlementNotification(String origin, PaymentEvent event){
+        this.origin = origin;
+        this.event = event;
+    }
+
+    /**
+     * JSON Parseable constructor
+     *
+     * @param jsonObject the json object to parse.
+     */
+    SettlementNotification(JsonObject jsonObject) throws JsonException {
+        super(jsonObject);
+    }
+
+    /**
+     *
+     * @return the unique id of the publishing bus instance.
+     */
+    String getOrigin() {
+        return origin;
+    }
+
+    /**
+     *
+     * @return the published payment event.
+     */
+    PaymentEvent getEvent() {
+        return event;
+    }
+
+    @Override
+    public void convertToJson(JsonObjectBuilder jsonObjectBuilder) throws JsonException {
+        add(jsonObjectBuilder,"origin",origin);
+        add(jsonObjectBuilder,"event",event);
+    }
+
+    @Override
+    public void parseJson(JsonObject jsonObject) throws JsonException {
+        origin = getString(jsonObject,"origin",true);
+        event = new PaymentEvent(getJsonObject(jsonObject,"event",true));
+    }
+}
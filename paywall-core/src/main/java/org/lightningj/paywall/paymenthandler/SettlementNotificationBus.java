@@ -0,0 +1,57 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.paymenthandler;
+
+import org.lightningj.paywall.InternalErrorException;
+
+import java.util.function.Consumer;
+
+/**
+ * SPI for distributing payment events between application instances, placed between
+ * the payment handler receiving lightning events and the PaymentEventBus notifying the
+ * web layer listeners (WebSocket, long poll etc).
+ * <p>
+ *     In a horizontally scaled deployment a client might be waiting for settlement on one
+ *     instance while the lightning event is received by another. All events published on the
+ *     bus are delivered to the receiver of every instance connected to it, including the
+ *     publishing instance.
+ * </p>
+ */
+public interface SettlementNotificationBus {
+
+    /**
+     * Method to start the bus and set the receiver of events published by any instance.
+     * Called by BasePaymentHandler during init.
+     *
+     * @param receiver the receiver of published events, usually triggering the local PaymentEventBus.
+     * @throws InternalErrorException if internal error occurred starting the bus.
+     */
+    void start(Consumer<PaymentEvent> receiver) throws InternalErrorException;
+
+    /**
+     * Method to publish an event to all instances connected to the bus. The event
+     * should always be delivered to the local receiver even if distribution to other
+     * instances fails.
+     *
+     * @param event the payment event to publish.
+     * @throws InternalErrorException if internal error occurred publishing the event.
+     */
+    void publish(PaymentEvent event) throws InternalErrorException;
+
+    /**
+     * Method to stop the bus and release all related resources.
+     */
+    void close();
+}
@@ -0,0 +1,51 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.paymenthandler;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Transport used by DefaultSettlementNotificationBus to send serialized payment events
+ * to other application instances, for instance through a message broker or a publish/subscribe
+ * channel in a shared cache.
+ * <p>
+ *     A message sent by an instance should be received by all subscribed instances, the sending
+ *     instance might receive its own messages as well.
+ * </p>
+ */
+public interface SettlementNotificationTransport {
+
+    /**
+     * Method to subscribe to messages sent by any instance.
+     *
+     * @param receiver the receiver of each message.
+     * @throws IOException if communication problems occurred subscribing.
+     */
+    void subscribe(Consumer<String> receiver) throws IOException;
+
+    /**
+     * Method to send a message to all subscribed instances.
+     *
+     * @param message the serialized message to send.
+     * @throws IOException if communication problems occurred sending the message.
+     */
+    void send(String message) throws IOException;
+
+    /**
+     * Method to close the subscription and release all related resources.
+     */
+    void close();
+}
@@ -0,0 +1,351 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.qrcode;
+
+import org.lightningj.paywall.InternalErrorException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * QR code generator caching generated PNG and SVG images and module matrixes in a least recently
+ * used cache bounded by the total size in bytes of the cached images, keyed by format, data, width
+ * and height.
+ * <p>
+ *     Since the data of a QR code, usually a bolt11 invoice, never changes the same image can be
+ *     returned for all requests. The generator can also render QR codes in advance in a background
+ *     thread with default dimensions, see preRender(). Pre-render requests are queued in a bounded
+ *     queue and discarded when it is full, the QR code is then rendered when first requested.
+ * </p>
+ * <p>
+ *     Cache size and pre-render settings are configured by overriding the protected getter methods.
+ * </p>
+ */
+public class CachingQRCodeGenerator extends DefaultQRCodeGenerator implements QRCodePreRenderer {
+
+    protected static Logger log = Logger.getLogger(CachingQRCodeGenerator.class.getName());
+
+    public static final long DEFAULT_MAX_CACHE_BYTES = 4 * 1024 * 1024;
+    public static final int DEFAULT_PRE_RENDER_WIDTH = 300;
+    public static final int DEFAULT_PRE_RENDER_HEIGHT = 300;
+    public static final int DEFAULT_PRE_RENDER_QUEUE_SIZE = 100;
+
+    private static final char FORMAT_PNG = 'p';
+    private static final char FORMAT_SVG = 's';
+    private static final char FORMAT_MATRIX = 'm';
+
+    private final LinkedHashMap<CacheKey,CacheEntry> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private volatile ExecutorService preRenderExecutor;
+
+    /**
+     * Method to generate a PNG image QR code of the given text with the dimensions specified,
+     * returning a cached image if the same QR code was generated before.
+     *
+     * @param data the text data to encode into a QR Code
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @return the image data in PNG format. null if text data was null.
+     * @throws InternalErrorException if internal problem occurred generating the image.
+     */
+    @Override
+    public byte[] generatePNG(String data, int width, int height) throws InternalErrorException {
+        if(data == null){
+            return null;
+        }
+        CacheKey key = new CacheKey(FORMAT_PNG, data, width, height);
+        byte[] imageData = (byte[]) lookup(key);
+        if(imageData == null){
+            imageData = super.generatePNG(data, width, height);
+            cache(key, imageData, imageData.length);
+        }
+        return imageData;
+    }
+
+    /**
+     * Method to generate a SVG image QR code of the given text, returning a cached image if
+     * the same QR code was generated before.
+     *
+     * @param data the text data to encode into a QR Code
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @return the SVG document as a string. null if text data was null.
+     * @throws InternalErrorException if internal problem occurred generating the image.
+     */
+    @Override
+    public String generateSVG(String data, int width, int height) throws InternalErrorException {
+        if(data == null){
+            return null;
+        }
+        CacheKey key = new CacheKey(FORMAT_SVG, data, width, height);
+        String svg = (String) lookup(key);
+        if(svg == null){
+            svg = super.generateSVG(data, width, height);
+            cache(key, svg, 2L * svg.length());
+        }
+        return svg;
+    }
+
+    /**
+     * Method to generate the raw module matrix of a QR code of the given text, returning a
+     * cached matrix if the same QR code was generated before.
+     *
+     * @param data the text data to encode into a QR Code
+     * @return the packed module matrix. null if text data was null.
+     * @throws InternalErrorException if internal problem occurred generating the matrix.
+     */
+    @Override
+    public byte[] generateMatrix(String data) throws InternalErrorException {
+        if(data == null){
+            return null;
+        }
+        CacheKey key = new CacheKey(FORMAT_MATRIX, data, 0, 0);
+        byte[] matrix = (byte[]) lookup(key);
+        if(matrix == null){
+            matrix = super.generateMatrix(data);
+            cache(key, matrix, matrix.length);
+        }
+        return matrix;
+    }
+
+    /**
+     * Method to render a QR code with default pre-render dimensions in a background thread
+     * and store it in the cache. Does nothing if pre-rendering isn't enabled.
+     *
+     * @param data the text data to encode into a QR Code, i.e. a bolt11 invoice.
+     */
+    @Override
+    public void preRender(String data) {
+        if(data == null || !isPreRenderEnabled()){
+            return;
+        }
+        try {
+            getPreRenderExecutor().execute(() -> {
+                try {
+                    generatePNG(data, getPreRenderWidth(), getPreRenderHeight());
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Error pre-rendering QR Code: " + e.getMessage(), e);
+                }
+            });
+        }catch (Exception e){
+            log.log(Level.WARNING, "Error scheduling pre-rendering of QR Code: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     *
+     * @return the number of requests served from cache.
+     */
+    public long getCacheHits(){
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return the number of requests that required rendering of the QR code.
+     */
+    public long getCacheMisses(){
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return the total size in bytes of all cached images.
+     */
+    public long getCachedBytes(){
+        synchronized (cache){
+            return cachedBytes;
+        }
+    }
+
+    /**
+     *
+     * @return the number of cached images.
+     */
+    public int getCachedImages(){
+        synchronized (cache){
+            return cache.size();
+        }
+    }
+
+    /**
+     * Method to stop the pre-render thread and clear the cache.
+     */
+    public void close(){
+        ExecutorService executor = preRenderExecutor;
+        if(executor != null){
+            executor.shutdownNow();
+            preRenderExecutor = null;
+        }
+        synchronized (cache){
+            cache.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    /**
+     *
+     * @return the maximum total size in bytes of cached images, default is 4 MB. Use 0 to disable caching.
+     */
+    protected long getMaxCacheBytes(){
+        return DEFAULT_MAX_CACHE_BYTES;
+    }
+
+    /**
+     *
+     * @return true if preRender() should render QR codes in advance, default is false.
+     */
+    protected boolean isPreRenderEnabled(){
+        return false;
+    }
+
+    /**
+     *
+     * @return the width of pre-rendered QR codes, should be the default width used when requesting QR images.
+     */
+    protected int getPreRenderWidth(){
+        return DEFAULT_PRE_RENDER_WIDTH;
+    }
+
+    /**
+     *
+     * @return the height of pre-rendered QR codes, should be the default height used when requesting QR images.
+     */
+    protected int getPreRenderHeight(){
+        return DEFAULT_PRE_RENDER_HEIGHT;
+    }
+
+    /**
+     *
+     * @return the maximum number of QR codes waiting to be pre-rendered, further pre-render requests
+     * are discarded, default is 100.
+     */
+    protected int getPreRenderQueueSize(){
+        return DEFAULT_PRE_RENDER_QUEUE_SIZE;
+    }
+
+    /**
+     * Help method looking up a cached image and updating hit and miss counters.
+     */
+    private Object lookup(CacheKey key){
+        Object value;
+        synchronized (cache){
+            CacheEntry entry = cache.get(key);
+            value = entry != null ? entry.value : null;
+        }
+        if(value != null){
+            hits.incrementAndGet();
+        }else{
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Help method adding an image to the cache and evicting least recently used images
+     * until the total size is within the limit. Images larger than the limit are never cached.
+     */
+    private void cache(CacheKey key, Object value, long size){
+        long maxBytes = getMaxCacheBytes();
+        if(size > maxBytes){
+            return;
+        }
+        synchronized (cache){
+            CacheEntry previous = cache.put(key, new CacheEntry(value, size));
+            cachedBytes += size - (previous != null ? previous.size : 0);
+            Iterator<Map.Entry<CacheKey,CacheEntry>> iterator = cache.entrySet().iterator();
+            while(cachedBytes > maxBytes && iterator.hasNext()){
+                Map.Entry<CacheKey,CacheEntry> eldest = iterator.next();
+                cachedBytes -= eldest.getValue().size;
+                iterator.remove();
+            }
+        }
+    }
+
+    private ExecutorService getPreRenderExecutor(){
+        if(preRenderExecutor == null){
+            synchronized (this){
+                if(preRenderExecutor == null){
+                    preRenderExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(getPreRenderQueueSize()), r -> {
+                        Thread t = new Thread(r, "paywall-qrcode-prerender");
+                        t.setDaemon(true);
+                        return t;
+                    }, new ThreadPoolExecutor.DiscardPolicy());
+                }
+            }
+        }
+        return preRenderExecutor;
+    }
+
+    /**
+     * Key of cached images.
+     */
+    private static class CacheKey {
+        private final char format;
+        private final String data;
+        private final int width;
+        private final int height;
+
+        CacheKey(char format, String data, int width, int height){
+            this.format = format;
+            this.data = data;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CacheKey cacheKey = (CacheKey) o;
+            return format == cacheKey.format &&
+                    width == cacheKey.width &&
+                    height == cacheKey.height &&
+                    data.equals(cacheKey.data);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(format, data, width, height);
+        }
+    }
+
+    /**
+     * Cached image together with its approximate size in bytes.
+     */
+    private static class CacheEntry {
+        private final Object value;
+        private final long size;
+
+        CacheEntry(Object value, long size){
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
@@ -18,6 +18,9 @@ import com.google.zxing.BarcodeFormat;
 import com.google.zxing.client.j2se.MatrixToImageWriter;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
 import org.lightningj.paywall.InternalErrorException;
 
 import java.io.ByteArrayOutputStream;
@@ -29,6 +32,11 @@ import java.io.ByteArrayOutputStream;
  */
 public class DefaultQRCodeGenerator implements QRCodeGenerator{
 
+    /**
+     * Number of modules of white border around generated SVG images.
+     */
+    static final int QUIET_ZONE = 4;
+
     /**
      * Method to generate a PNG image QR code of the given text with the dimensions specified.
      * @param data the text data to encode into a QR Code
@@ -52,4 +60,88 @@ public class DefaultQRCodeGenerator implements QRCodeGenerator{
             throw new InternalErrorException("Internal error generating QR Code: " + e.getMessage(), e);
         }
     }
+
+    /**
+     * Method to generate a SVG image QR code of the given text, built directly from the module
+     * matrix with one path of all dark modules, without any image rendering.
+     * @param data the text data to encode into a QR Code
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @return the SVG document as a string. null if text data was null.
+     * @throws InternalErrorException if internal problem occurred generating the image.
+     */
+    @Override
+    public String generateSVG(String data, int width, int height) throws InternalErrorException {
+        if(data == null){
+            return null;
+        }
+        ByteMatrix matrix = encode(data);
+        int size = matrix.getWidth();
+        int total = size + 2 * QUIET_ZONE;
+        StringBuilder sb = new StringBuilder(size * size * 3);
+        sb.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(width)
+                .append("\" height=\"").append(height)
+                .append("\" viewBox=\"0 0 ").append(total).append(' ').append(total)
+                .append("\" shape-rendering=\"crispEdges\"><rect width=\"").append(total)
+                .append("\" height=\"").append(total).append("\" fill=\"#fff\"/><path fill=\"#000\" d=\"");
+        for(int y = 0; y < size; y++){
+            int x = 0;
+            while(x < size){
+                if(matrix.get(x, y) == 1){
+                    int start = x;
+                    while(x < size && matrix.get(x, y) == 1){
+                        x++;
+                    }
+                    int run = x - start;
+                    sb.append('M').append(start + QUIET_ZONE).append(' ').append(y + QUIET_ZONE)
+                            .append('h').append(run).append("v1h-").append(run).append('z');
+                }else{
+                    x++;
+                }
+            }
+        }
+        sb.append("\"/></svg>");
+        return sb.toString();
+    }
+
+    /**
+     * Method to generate the raw module matrix of a QR code of the given text, see
+     * QRCodeGenerator for format.
+     * @param data the text data to encode into a QR Code
+     * @return the packed module matrix. null if text data was null.
+     * @throws InternalErrorException if internal problem occurred generating the matrix.
+     */
+    @Override
+    public byte[] generateMatrix(String data) throws InternalErrorException {
+        if(data == null){
+            return null;
+        }
+        ByteMatrix matrix = encode(data);
+        int size = matrix.getWidth();
+        byte[] result = new byte[2 + (size * size + 7) / 8];
+        result[0] = (byte) (size >>> 8);
+        result[1] = (byte) size;
+        int bit = 0;
+        for(int y = 0; y < size; y++){
+            for(int x = 0; x < size; x++){
+                if(matrix.get(x, y) == 1){
+                    result[2 + bit / 8] |= (byte) (0x80 >>> (bit % 8));
+                }
+                bit++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Help method encoding the data into a QR code module matrix without quiet zone, using
+     * the same error correction level as the PNG image.
+     */
+    private ByteMatrix encode(String data) throws InternalErrorException {
+        try {
+            return Encoder.encode(data, ErrorCorrectionLevel.L).getMatrix();
+        }catch (Exception e){
+            throw new InternalErrorException("Internal error generating QR Code: " + e.getMessage(), e);
+        }
+    }
 }
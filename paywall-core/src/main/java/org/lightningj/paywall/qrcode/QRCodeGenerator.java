@@ -32,4 +32,35 @@ public interface QRCodeGenerator {
      * @throws InternalErrorException if internal problem occurred generating the image.
      */
     byte[] generatePNG(String data, int width, int height) throws InternalErrorException;
+
+    /**
+     * Method to generate a SVG image QR code of the given text. The SVG is scalable and the
+     * dimensions are only used as the default size of the image. Default implementation
+     * throws InternalErrorException, override to support SVG.
+     * @param data the text data to encode into a QR Code
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @return the SVG document as a string. null if text data was null.
+     * @throws InternalErrorException if internal problem occurred generating the image.
+     */
+    default String generateSVG(String data, int width, int height) throws InternalErrorException{
+        throw new InternalErrorException("Error generating QR Code, SVG format is not supported by " + getClass().getName() + ".");
+    }
+
+    /**
+     * Method to generate the raw module matrix of a QR code of the given text, for clients
+     * drawing the QR code themselves. Default implementation throws InternalErrorException,
+     * override to support matrix output.
+     * <p>
+     *     The first two bytes contains the size N of the N x N matrix as an unsigned big endian
+     *     integer, followed by the modules row by row packed into bits, most significant bit first
+     *     and 1 meaning a dark module. The last byte is padded with zeros. No quiet zone is included.
+     * </p>
+     * @param data the text data to encode into a QR Code
+     * @return the packed module matrix. null if text data was null.
+     * @throws InternalErrorException if internal problem occurred generating the matrix.
+     */
+    default byte[] generateMatrix(String data) throws InternalErrorException{
+        throw new InternalErrorException("Error generating QR Code, matrix format is not supported by " + getClass().getName() + ".");
+    }
 }
@@ -0,0 +1,30 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.qrcode;
+
+/**
+ * Interface for rendering QR codes in advance, for instance when an invoice is created,
+ * so a later request for the QR image is served from cache.
+ */
+public interface QRCodePreRenderer {
+
+    /**
+     * Method to schedule rendering of a QR code for the given data using default dimensions.
+     * The method should return directly and never throw exceptions, errors should be logged.
+     *
+     * @param data the text data to encode into a QR Code, i.e. a bolt11 invoice.
+     */
+    void preRender(String data);
+}
@@ -0,0 +1,203 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.util;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timer wheel used to expire large numbers of entries at their deadline with
+ * constant time scheduling and cancellation.
+ * <p>
+ * The wheel consists of a fixed number of buckets, each covering one tick. An entry is placed
+ * in the bucket of the tick its deadline falls in (modulo the wheel size) and is expired when
+ * that bucket is processed after the tick has passed, i.e. at most one tick after its deadline.
+ * Entries with deadlines more than one revolution away stays in their bucket until a later round.
+ * </p>
+ * <p>
+ * The wheel doesn't contain any thread of its own, advance() should be called periodically,
+ * preferably every tick, by a scheduler owned by the user of the wheel.
+ * </p>
+ *
+ * @param <K> the type of key identifying each entry.
+ */
+public class HashedTimerWheel<K> {
+
+    /**
+     * Default tick duration in milliseconds.
+     */
+    public static final long DEFAULT_TICK_DURATION = 1000;
+
+    /**
+     * Default number of buckets in the wheel.
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final Clock clock;
+    private final long tickDuration;
+    private final int mask;
+    private final Set<Timeout<K>>[] buckets;
+    private final AtomicInteger size = new AtomicInteger();
+
+    private volatile long processedTick;
+
+    /**
+     * Constructor creating a timer wheel with default tick duration and wheel size.
+     *
+     * @param clock the clock used to determine current time.
+     */
+    public HashedTimerWheel(Clock clock){
+        this(DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE, clock);
+    }
+
+    /**
+     * Constructor creating a timer wheel.
+     *
+     * @param tickDuration the duration of one tick in milliseconds.
+     * @param wheelSize the minimum number of buckets, rounded up to nearest power of two.
+     * @param clock the clock used to determine current time.
+     * @throws IllegalArgumentException if tickDuration or wheelSize is less than 1.
+     */
+    @SuppressWarnings("unchecked")
+    public HashedTimerWheel(long tickDuration, int wheelSize, Clock clock){
+        if(tickDuration < 1){
+            throw new IllegalArgumentException("Invalid timer wheel tick duration " + tickDuration + ", must be at least 1.");
+        }
+        if(wheelSize < 1){
+            throw new IllegalArgumentException("Invalid timer wheel size " + wheelSize + ", must be at least 1.");
+        }
+        int bucketCount = 1;
+        while(bucketCount < wheelSize){
+            bucketCount = bucketCount << 1;
+        }
+        this.clock = clock;
+        this.tickDuration = tickDuration;
+        this.mask = bucketCount -1;
+        this.buckets = new Set[bucketCount];
+        for(int i=0; i<bucketCount; i++){
+            buckets[i] = ConcurrentHashMap.newKeySet();
+        }
+        this.processedTick = clock.millis() / tickDuration - 1;
+    }
+
+    /**
+     * Method to schedule an entry to expire at given deadline. Entries with a deadline that
+     * already passed expires at next call to advance().
+     *
+     * @param key the key identifying the entry, returned by advance() when expired.
+     * @param deadline the deadline in milliseconds since epoch.
+     * @return a timeout handle that can be used to cancel the entry.
+     */
+    public Timeout<K> schedule(K key, long deadline){
+        long tick = Math.max(deadline / tickDuration, processedTick + 1);
+        Timeout<K> timeout = new Timeout<>(key, deadline, (int) (tick & mask));
+        buckets[timeout.bucket].add(timeout);
+        size.incrementAndGet();
+        return timeout;
+    }
+
+    /**
+     * Method to cancel a scheduled entry.
+     *
+     * @param timeout the timeout handle returned when scheduling the entry.
+     * @return true if the entry was removed, false if already expired or cancelled.
+     */
+    public boolean cancel(Timeout<K> timeout){
+        if(buckets[timeout.bucket].remove(timeout)){
+            size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Method to process all buckets of ticks passed since last call and remove the
+     * expired entries.
+     *
+     * @return list of keys of all expired entries, never null.
+     */
+    public synchronized List<K> advance(){
+        long lastPassedTick = clock.millis() / tickDuration - 1;
+        List<K> expired = new ArrayList<>();
+        long fromTick = Math.max(processedTick + 1, lastPassedTick - mask);
+        for(long tick = fromTick; tick <= lastPassedTick; tick++){
+            Set<Timeout<K>> bucket = buckets[(int) (tick & mask)];
+            for(Timeout<K> timeout : bucket){
+                if(timeout.deadline / tickDuration <= lastPassedTick && bucket.remove(timeout)){
+                    size.decrementAndGet();
+                    expired.add(timeout.key);
+                }
+            }
+        }
+        if(lastPassedTick > processedTick) {
+            processedTick = lastPassedTick;
+        }
+        return expired;
+    }
+
+    /**
+     *
+     * @return the number of scheduled entries not yet expired or cancelled.
+     */
+    public int size(){
+        return size.get();
+    }
+
+    /**
+     * Handle of a scheduled entry.
+     *
+     * @param <K> the type of key identifying the entry.
+     */
+    public static class Timeout<K>{
+
+        private final K key;
+        private final long deadline;
+        private final int bucket;
+
+        Timeout(K key, long deadline, int bucket){
+            this.key = key;
+            this.deadline = deadline;
+            this.bucket = bucket;
+        }
+
+        /**
+         *
+         * @return the key identifying the entry.
+         */
+        public K getKey() {
+            return key;
+        }
+
+        /**
+         *
+         * @return the deadline in milliseconds since epoch.
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        @Override
+        public String toString() {
+            return "Timeout{" +
+                    "key=" + key +
+                    ", deadline=" + deadline +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.util;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock striping utility used to serialize updates of the same payment
+ * (identified by its preImageHash) without serializing unrelated payments.
+ * <p>
+ * A fixed number of locks is allocated and each key is mapped to one of them,
+ * two different keys might share the same lock but the same key always
+ * maps to the same lock.
+ * </p>
+ */
+public class StripedLock {
+
+    /**
+     * Default number of stripes, four locks per available processor.
+     */
+    public static final int DEFAULT_STRIPES = 4 * Runtime.getRuntime().availableProcessors();
+
+    private final Lock[] locks;
+    private final int mask;
+
+    /**
+     * Constructor creating a striped lock sized after number of available processors.
+     */
+    public StripedLock(){
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Constructor creating a striped lock with a given number of stripes.
+     *
+     * @param stripes the minimum number of locks to allocate, rounded up to nearest power of two.
+     * @throws IllegalArgumentException if stripes is less than 1.
+     */
+    public StripedLock(int stripes){
+        if(stripes < 1){
+            throw new IllegalArgumentException("Invalid number of lock stripes " + stripes + ", must be at least 1.");
+        }
+        int size = 1;
+        while(size < stripes){
+            size = size << 1;
+        }
+        locks = new Lock[size];
+        for(int i=0; i<size;i++){
+            locks[i] = new ReentrantLock();
+        }
+        mask = size -1;
+    }
+
+    /**
+     * Method to retrieve the lock related to a given key. The returned lock
+     * should be locked and released using a try/finally block.
+     *
+     * @param key the key to lookup lock for, usually the preImageHash of a payment.
+     * @return the lock related to the key, never null.
+     */
+    public Lock get(byte[] key){
+        return locks[indexOf(key)];
+    }
+
+    /**
+     *
+     * @return the number of allocated locks.
+     */
+    public int size(){
+        return locks.length;
+    }
+
+    /**
+     * Help method spreading the hash code of the key in order to map
+     * keys evenly among the available stripes.
+     *
+     * @param key the key to calculate index for.
+     * @return the index of the lock in lock array.
+     */
+    int indexOf(byte[] key){
+        int h = Arrays.hashCode(key);
+        h ^= (h >>> 16);
+        return h & mask;
+    }
+}
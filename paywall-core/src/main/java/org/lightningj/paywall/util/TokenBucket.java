@@ -0,0 +1,98 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.util;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket refilled with a given number of tokens per minute and
+ * holding at most a given number of tokens (the burst size).
+ * <p>
+ * The bucket is implemented as a generic cell rate algorithm, where the state is a single
+ * theoretical arrival time updated with compare-and-set, instead of a token count and a
+ * refill timestamp that would need to be updated together under a lock.
+ * </p>
+ */
+public class TokenBucket {
+
+    private final Clock clock;
+    private final long interval;
+    private final long tolerance;
+
+    // Theoretical arrival time in microseconds, a value in the past means a full bucket.
+    private final AtomicLong arrivalTime = new AtomicLong();
+
+    /**
+     * Constructor of a new full token bucket.
+     *
+     * @param tokensPerMinute the number of tokens added to the bucket per minute.
+     * @param burst the maximum number of tokens in the bucket.
+     * @param clock the clock to use.
+     * @throws IllegalArgumentException if tokensPerMinute or burst is less than 1.
+     */
+    public TokenBucket(long tokensPerMinute, int burst, Clock clock){
+        if(tokensPerMinute < 1){
+            throw new IllegalArgumentException("Invalid token bucket rate " + tokensPerMinute + ", must be at least 1 per minute.");
+        }
+        if(burst < 1){
+            throw new IllegalArgumentException("Invalid token bucket burst size " + burst + ", must be at least 1.");
+        }
+        this.clock = clock;
+        this.interval = Math.max(1L, 60_000_000L / tokensPerMinute);
+        this.tolerance = interval * burst;
+    }
+
+    /**
+     * Method to try to take one token from the bucket.
+     *
+     * @return 0 if a token was taken, otherwise the number of milliseconds until next token is available.
+     */
+    public long tryAcquire(){
+        long now = now();
+        while(true){
+            long current = arrivalTime.get();
+            long next = Math.max(current, now) + interval;
+            long wait = next - now - tolerance;
+            if(wait > 0){
+                return (wait + 999) / 1000;
+            }
+            if(arrivalTime.compareAndSet(current, next)){
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Method to give back one token previously taken with tryAcquire, for example if the
+     * request was rejected by another limit after the token was taken. The bucket never holds
+     * more than its burst size of tokens.
+     */
+    public void release(){
+        arrivalTime.addAndGet(-interval);
+    }
+
+    /**
+     *
+     * @return true if the bucket has been refilled to its maximum number of tokens.
+     */
+    public boolean isFull(){
+        return arrivalTime.get() <= now();
+    }
+
+    private long now(){
+        return clock.millis() * 1000;
+    }
+}
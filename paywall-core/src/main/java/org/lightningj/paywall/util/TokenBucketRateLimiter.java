@@ -0,0 +1,116 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.util;
+
+import java.time.Clock;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rate limiter keeping one token bucket per key, for example per client IP address.
+ * <p>
+ * The buckets are stored in two generations of concurrent maps, each holding at most half the
+ * maximum number of keys (at least one). New keys are added to the current generation, and a key
+ * found in the previous generation is moved to the current one. When the current generation is
+ * full it becomes the previous generation and the old previous generation is dropped wholesale,
+ * so eviction is constant time regardless of the number of keys. Only keys not used during a whole
+ * generation are evicted, keys of clients that keep sending requests retain their bucket.
+ * </p>
+ */
+public class TokenBucketRateLimiter {
+
+    private final long tokensPerMinute;
+    private final int burst;
+    private final int generationSize;
+    private final Clock clock;
+
+    private volatile ConcurrentHashMap<String, TokenBucket> current = new ConcurrentHashMap<>();
+    private volatile ConcurrentHashMap<String, TokenBucket> previous = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor of a new rate limiter.
+     *
+     * @param tokensPerMinute the number of tokens added to each bucket per minute.
+     * @param burst the maximum number of tokens in each bucket.
+     * @param maxKeys the maximum number of keys to keep buckets for.
+     * @param clock the clock to use.
+     * @throws IllegalArgumentException if any of tokensPerMinute, burst or maxKeys is less than 1.
+     */
+    public TokenBucketRateLimiter(long tokensPerMinute, int burst, int maxKeys, Clock clock){
+        if(maxKeys < 1){
+            throw new IllegalArgumentException("Invalid rate limiter max keys " + maxKeys + ", must be at least 1.");
+        }
+        // Validate rate and burst early
+        new TokenBucket(tokensPerMinute, burst, clock);
+        this.tokensPerMinute = tokensPerMinute;
+        this.burst = burst;
+        this.generationSize = Math.max(1, maxKeys / 2);
+        this.clock = clock;
+    }
+
+    /**
+     * Method to try to take one token from the bucket of the given key.
+     *
+     * @param key the key to take token for, for example client IP address.
+     * @return 0 if a token was taken, otherwise the number of milliseconds until next token is available.
+     */
+    public long tryAcquire(String key){
+        ConcurrentHashMap<String, TokenBucket> generation = current;
+        TokenBucket bucket = generation.get(key);
+        if(bucket == null){
+            TokenBucket previousBucket = previous.remove(key);
+            if(generation.size() >= generationSize){
+                rotate(generation);
+                generation = current;
+            }
+            bucket = generation.computeIfAbsent(key, k -> previousBucket != null ? previousBucket : new TokenBucket(tokensPerMinute, burst, clock));
+        }
+        return bucket.tryAcquire();
+    }
+
+    /**
+     * Method to give back one token previously taken with tryAcquire for the given key. Does
+     * nothing if the bucket of the key has been evicted.
+     *
+     * @param key the key to give back token for.
+     */
+    public void release(String key){
+        TokenBucket bucket = current.get(key);
+        if(bucket == null){
+            bucket = previous.get(key);
+        }
+        if(bucket != null){
+            bucket.release();
+        }
+    }
+
+    /**
+     *
+     * @return the number of keys with a bucket.
+     */
+    public int size(){
+        return current.size() + previous.size();
+    }
+
+    /**
+     * Help method making the given full generation the previous generation, if no other
+     * thread has done it already.
+     */
+    private synchronized void rotate(ConcurrentHashMap<String, TokenBucket> fullGeneration){
+        if(current == fullGeneration){
+            previous = fullGeneration;
+            current = new ConcurrentHashMap<>();
+        }
+    }
+}
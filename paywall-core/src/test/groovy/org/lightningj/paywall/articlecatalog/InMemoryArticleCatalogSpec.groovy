@@ -0,0 +1,103 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.articlecatalog
+
+import org.lightningj.paywall.InternalErrorException
+import org.lightningj.paywall.vo.amount.Amount
+import org.lightningj.paywall.vo.amount.BTC
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Unit tests for InMemoryArticleCatalog.
+ */
+class InMemoryArticleCatalogSpec extends Specification {
+
+    def setup(){
+        InMemoryArticleCatalog.log = Mock(Logger)
+    }
+
+    def "Verify that init loads price list and getUnitPrice returns price from memory"(){
+        setup:
+        ArticlePriceLoader loader = Mock(ArticlePriceLoader)
+        InMemoryArticleCatalog catalog = new InMemoryArticleCatalog(loader)
+        when:
+        catalog.init()
+        then:
+        1 * loader.loadPrices() >> ["abc": new BTC(10), "def": new BTC(20)]
+        catalog.size() == 2
+        catalog.lastRefresh != null
+        when:
+        Amount price1 = catalog.getUnitPrice("abc")
+        Amount price2 = catalog.getUnitPrice("unknown")
+        Amount price3 = catalog.getUnitPrice(null)
+        then:
+        0 * loader.loadPrices()
+        price1.value == 10
+        price2 == null
+        price3 == null
+    }
+
+    def "Verify that refresh replaces price list and failed refresh keeps previous price list"(){
+        setup:
+        ArticlePriceLoader loader = Mock(ArticlePriceLoader)
+        InMemoryArticleCatalog catalog = new InMemoryArticleCatalog(loader)
+        loader.loadPrices() >>> [["abc": new BTC(10)], ["abc": new BTC(15)], null]
+        catalog.init()
+        when:
+        catalog.refresh()
+        then:
+        catalog.getUnitPrice("abc").value == 15
+        when:
+        catalog.refresh()
+        then:
+        def e = thrown InternalErrorException
+        e.message == "Error loading article prices, loader returned null."
+        catalog.getUnitPrice("abc").value == 15
+    }
+
+    def "Verify that background refresh reloads price list periodically until closed"(){
+        setup:
+        int loads = 0
+        ArticlePriceLoader loader = { -> loads++; return ["abc": new BTC(loads)] } as ArticlePriceLoader
+        InMemoryArticleCatalog catalog = new InMemoryArticleCatalog(loader, Duration.ofMillis(10))
+        when:
+        catalog.init()
+        long timeout = System.currentTimeMillis() + 5000
+        while(catalog.getUnitPrice("abc").value < 3 && System.currentTimeMillis() < timeout){
+            Thread.sleep(10)
+        }
+        then:
+        catalog.getUnitPrice("abc").value >= 3
+        cleanup:
+        catalog.close()
+    }
+
+    def "Verify that errors during background refresh are logged"(){
+        setup:
+        ArticlePriceLoader loader = Mock(ArticlePriceLoader)
+        loader.loadPrices() >> ["abc": new BTC(10)] >> { throw new IOException("test") }
+        InMemoryArticleCatalog catalog = new InMemoryArticleCatalog(loader)
+        catalog.init()
+        when:
+        catalog.refreshQuietly()
+        then:
+        1 * InMemoryArticleCatalog.log.log(Level.SEVERE, "Error refreshing article catalog, keeping previous price list: test", _ as IOException)
+        catalog.getUnitPrice("abc").value == 10
+    }
+}
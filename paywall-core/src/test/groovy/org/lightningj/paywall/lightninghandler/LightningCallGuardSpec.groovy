@@ -0,0 +1,161 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler
+
+import org.lightningj.paywall.InternalErrorException
+import spock.lang.Specification
+
+import java.time.Clock
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.logging.Level
+import java.util.logging.Logger
+
+import static org.lightningj.paywall.lightninghandler.LightningCallGuard.State.*
+
+/**
+ * Unit tests for LightningCallGuard.
+ */
+class LightningCallGuardSpec extends Specification {
+
+    LightningCallGuard guard
+    long now = 10000
+
+    def setup(){
+        guard = new LightningCallGuard(1, 2, 1000)
+        guard.clock = Mock(Clock)
+        guard.clock.millis() >> { now }
+        LightningCallGuard.log = Mock(Logger)
+    }
+
+    def "Verify that bulkhead rejects calls exceeding max concurrent calls directly"(){
+        setup:
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def thread = Thread.start {
+            guard.call({ started.countDown(); release.await(5, TimeUnit.SECONDS); return "first" } as LightningCallGuard.LightningCall)
+        }
+        started.await(5, TimeUnit.SECONDS)
+        when:
+        guard.call({ "second" } as LightningCallGuard.LightningCall)
+        then:
+        def e = thrown LightningNodeUnavailableException
+        e.message == "Lightning node call rejected, maximum 1 concurrent calls in progress."
+        e.callRejected
+        guard.callsInProgress == 1
+        guard.rejectedCalls == 1
+        when:
+        release.countDown()
+        thread.join(5000)
+        then:
+        guard.callsInProgress == 0
+        guard.call({ "third" } as LightningCallGuard.LightningCall) == "third"
+    }
+
+    def "Verify that circuit breaker opens after consecutive failures and closes after successful probe"(){
+        when:
+        failingCall()
+        then:
+        thrown IOException
+        guard.state == CLOSED
+        when: // InternalErrorException is not counted as failure.
+        guard.call({ throw new InternalErrorException("Invalid") } as LightningCallGuard.LightningCall)
+        then:
+        thrown InternalErrorException
+        guard.state == CLOSED
+        when:
+        failingCall()
+        then:
+        thrown IOException
+        guard.state == CLOSED
+        when:
+        failingCall()
+        then:
+        thrown IOException
+        guard.state == OPEN
+        1 * LightningCallGuard.log.log(Level.WARNING, "Lightning node circuit breaker opened for 1000 ms after 2 consecutive failures.")
+        when:
+        now += 500
+        guard.call({ "ok" } as LightningCallGuard.LightningCall)
+        then:
+        def e = thrown LightningNodeUnavailableException
+        e.message == "Lightning node call rejected, circuit breaker is open for 500 ms."
+        e.callRejected
+        when: // Failed probe reopens circuit
+        now += 500
+        def state = guard.state
+        failingCall()
+        then:
+        state == HALF_OPEN
+        thrown IOException
+        guard.state == OPEN
+        when:
+        now += 1000
+        def result = guard.call({ "ok" } as LightningCallGuard.LightningCall)
+        then:
+        result == "ok"
+        guard.state == CLOSED
+        1 * LightningCallGuard.log.log(Level.INFO, "Lightning node circuit breaker closed.")
+    }
+
+    def "Verify that a late success of a call started before the circuit opened doesn't close the circuit"(){
+        setup:
+        guard = new LightningCallGuard(0, 1, 1000)
+        guard.clock = Mock(Clock)
+        guard.clock.millis() >> { now }
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def thread = Thread.start {
+            guard.call({ started.countDown(); release.await(5, TimeUnit.SECONDS); return "slow" } as LightningCallGuard.LightningCall)
+        }
+        started.await(5, TimeUnit.SECONDS)
+        when:
+        failingCall()
+        then:
+        thrown IOException
+        guard.state == OPEN
+        when:
+        release.countDown()
+        thread.join(5000)
+        then:
+        guard.state == OPEN
+        0 * LightningCallGuard.log.log(Level.INFO, "Lightning node circuit breaker closed.")
+        when:
+        now += 1000
+        guard.call({ "ok" } as LightningCallGuard.LightningCall)
+        then:
+        guard.state == CLOSED
+        1 * LightningCallGuard.log.log(Level.INFO, "Lightning node circuit breaker closed.")
+    }
+
+    def "Verify that no limits are applied if bulkhead and circuit breaker are disabled"(){
+        setup:
+        guard = new LightningCallGuard(0, 0, 1000)
+        when:
+        (1..10).each {
+            try {
+                failingCall()
+            }catch(IOException e){}
+        }
+        then:
+        guard.state == CLOSED
+        guard.callsInProgress == 0
+        guard.call({ "ok" } as LightningCallGuard.LightningCall) == "ok"
+    }
+
+    private void failingCall(){
+        guard.call({ throw new IOException("Unavailable") } as LightningCallGuard.LightningCall)
+    }
+}
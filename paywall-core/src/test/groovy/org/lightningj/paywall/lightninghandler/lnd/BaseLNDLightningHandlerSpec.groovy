@@ -14,19 +14,29 @@
  *************************************************************************/
 package org.lightningj.paywall.lightninghandler.lnd
 
+import io.grpc.Status
 import io.grpc.stub.StreamObserver
 import org.lightningj.lnd.wrapper.AsynchronousLndAPI
+import org.lightningj.lnd.wrapper.ServerSideException
 import org.lightningj.lnd.wrapper.SynchronousLndAPI
+import org.lightningj.lnd.wrapper.message.AddInvoiceResponse
+import org.lightningj.lnd.wrapper.message.GetInfoResponse
 import org.lightningj.lnd.wrapper.message.InvoiceSubscription
 import org.lightningj.lnd.wrapper.message.Invoice as LndInvoice
 import org.lightningj.paywall.InternalErrorException
 import org.lightningj.paywall.lightninghandler.LightningEvent
 import org.lightningj.paywall.lightninghandler.LightningEventListener
 import org.lightningj.paywall.lightninghandler.LightningEventType
+import org.lightningj.paywall.lightninghandler.LightningCallGuard
 import org.lightningj.paywall.lightninghandler.LightningHandlerContext
+import org.lightningj.paywall.lightninghandler.LightningNodeUnavailableException
 import org.lightningj.paywall.paymenthandler.BasePaymentHandler
+import org.lightningj.paywall.util.Base58
+import org.lightningj.paywall.vo.ConvertedOrder
 import org.lightningj.paywall.vo.Invoice
 import org.lightningj.paywall.vo.NodeInfo
+import org.lightningj.paywall.vo.Order
+import org.lightningj.paywall.vo.PreImageData
 import org.lightningj.paywall.vo.amount.CryptoAmount
 import spock.lang.Specification
 import spock.lang.Unroll
@@ -107,36 +117,43 @@ class BaseLNDLightningHandlerSpec extends Specification {
         eventListener.eventList[1].type == LightningEventType.SETTLEMENT
         eventListener.eventList[1].invoice != null
 
-        when:
-        observer.onError(new IOException("Testmessage"))
+        when: // Verify that supervisor resubscribes directly from last known indices.
+        def oldObserver = observer
+        observer = null
+        oldObserver.onError(new IOException("Testmessage"))
+        waitUntil { observer != null && handler.lightningInvoiceListenerRunnable.listening }
         then:
         1 * BaseLNDLightningHandler.log.log(Level.SEVERE, "Error occurred listening for settled invoices from LND: Testmessage")
         1 * BaseLNDLightningHandler.log.log(Level.FINE, "LND Error Stacktrace: ", !null)
-        !handler.lightningInvoiceListenerRunnable.listening
-        !handler.lightningInvoiceListenerRunnable.connectionOpen
-
-        when: // Verify that it reconnects again after sleeping for a period of time.
-        handler.lightningInvoiceListenerThread.interrupt()
-        while(!handler.lightningInvoiceListenerRunnable.listening){
-            Thread.sleep(50)
+        1 * handler.asynchronousLndAPI.subscribeInvoices(_,_) >> {
+            InvoiceSubscription invoiceSubscription, StreamObserver<Invoice> o ->
+                assert invoiceSubscription.addIndex == 29
+                assert invoiceSubscription.settleIndex == 11
+                observer = o
         }
-        then:
         1 * BaseLNDLightningHandler.log.log(Level.FINE,{ it =~ "Subscribed to invoices in LND, context:"} )
         handler.lightningInvoiceListenerRunnable.isRunning
         handler.lightningInvoiceListenerRunnable.connectionOpen
         handler.lightningInvoiceListenerRunnable.listening
 
+        when: // Verify that events from a replaced stream is ignored
+        oldObserver.onCompleted()
+        Thread.sleep(100)
+        then:
+        0 * handler.asynchronousLndAPI.subscribeInvoices(_,_)
+        handler.lightningInvoiceListenerRunnable.listening
+
         when:
-        observer.onCompleted()
+        oldObserver = observer
+        observer = null
+        oldObserver.onCompleted()
+        waitUntil { observer != null && handler.lightningInvoiceListenerRunnable.listening }
         then:
         1 * BaseLNDLightningHandler.log.info( "LND Invoice subscription completed. This shouldn't happen.")
-
-        when: // Verify that it reconnects again after sleeping for a period of time.
-        handler.lightningInvoiceListenerThread.interrupt()
-        while(!handler.lightningInvoiceListenerRunnable.listening){
-            Thread.sleep(50)
+        1 * handler.asynchronousLndAPI.subscribeInvoices(_,_) >> {
+            InvoiceSubscription invoiceSubscription, StreamObserver<Invoice> o ->
+                observer = o
         }
-        then:
         1 * BaseLNDLightningHandler.log.log(Level.FINE,{ it =~ "Subscribed to invoices in LND, context:"} )
         handler.lightningInvoiceListenerRunnable.isRunning
         handler.lightningInvoiceListenerRunnable.connectionOpen
@@ -146,10 +163,236 @@ class BaseLNDLightningHandlerSpec extends Specification {
         handler.close()
         then:
         handler.lightningInvoiceListenerRunnable.isStopped()
+        !handler.lightningInvoiceListenerThread.isAlive()
         1 * BaseLNDLightningHandler.log.log(Level.FINE,"LightningInvoiceListenerThread stopped." )
 
     }
 
+    def "Verify that supervisor retries failed subscriptions with backoff and that close stops a waiting supervisor directly"(){
+        setup:
+        def ctx = new LNDLightningHandlerContext(20,10)
+        int subscribeCalls = 0
+        handler.asynchronousLndAPI.subscribeInvoices(_,_) >> {
+            subscribeCalls++
+            if(subscribeCalls < 3){
+                throw new IOException("Connection refused")
+            }
+        }
+        when:
+        handler.listenToInvoices(ctx)
+        handler.lightningInvoiceListenerRunnable.initialBackoff = 10
+        waitUntil { subscribeCalls == 3 && handler.lightningInvoiceListenerRunnable.listening }
+        then:
+        2 * BaseLNDLightningHandler.log.log(Level.SEVERE, { it =~ "Internal error subscribing to LND Invoice events, message: Connection refused will try to reconnect in"}, _ as IOException)
+        handler.lightningInvoiceListenerRunnable.listening
+        when:
+        long start = System.currentTimeMillis()
+        handler.close()
+        then:
+        System.currentTimeMillis() - start < 1000
+        handler.lightningInvoiceListenerRunnable.isStopped()
+        subscribeCalls == 3
+    }
+
+    def "Verify that calculateBackoff grows exponentially with jitter up to max backoff"(){
+        setup:
+        def runnable = new BaseLNDLightningHandler.LightningInvoiceListenerRunnable(handler, new LNDLightningHandlerContext(0,0))
+        runnable.initialBackoff = 100
+        runnable.maxBackoff = 1000
+        expect:
+        (1..20).every { attempt ->
+            long expected = Math.min(1000L, 100L << Math.min(attempt - 1, 31))
+            long backoff = runnable.calculateBackoff(attempt)
+            backoff >= expected / 2 && backoff <= expected
+        }
+        runnable.calculateBackoff(64) <= 1000
+    }
+
+    def "Verify that lookupInvoice is answered from invoice cache if invoice is settled or subscription is active"(){
+        setup:
+        handler.connected = true
+        handler.configuredNodeInfo = new NodeInfo("abc@10.10.10.11:9001")
+        byte[] hash = [1,2,3] as byte[]
+        def lndInvoice = new LndInvoice()
+        def runnable = new BaseLNDLightningHandler.LightningInvoiceListenerRunnable(handler, new LNDLightningHandlerContext(0,0))
+        handler.lightningInvoiceListenerRunnable = runnable
+        when:
+        def invoice = handler.lookupInvoice(hash)
+        then:
+        1 * handler.synchronousLndAPI.lookupInvoice(null, hash) >> lndInvoice
+        1 * handler.lndHelper.convert(_, lndInvoice) >> genInvoice(hash, false)
+        !invoice.settled
+        handler.getInvoiceCache().size() == 1
+        when: // Subscription not active, unsettled invoice looked up in LND
+        handler.lookupInvoice(hash)
+        then:
+        1 * handler.synchronousLndAPI.lookupInvoice(null, hash) >> lndInvoice
+        1 * handler.lndHelper.convert(_, lndInvoice) >> genInvoice(hash, false)
+        when:
+        runnable.listening = true
+        invoice = handler.lookupInvoice(hash)
+        then:
+        0 * handler.synchronousLndAPI.lookupInvoice(_, _)
+        !invoice.settled
+        invoice.bolt11Invoice == "lntb1"
+        when: // Settlement received from subscription, returned even if subscription is inactive
+        handler.getInvoiceCache().put(genInvoice(hash, true))
+        runnable.listening = false
+        invoice = handler.lookupInvoice(hash)
+        then:
+        0 * handler.synchronousLndAPI.lookupInvoice(_, _)
+        invoice.settled
+        handler.getInvoiceCache().hits == 2
+        when:
+        handler.clearCache()
+        then:
+        handler.getInvoiceCache().size() == 0
+    }
+
+    def "Verify that LND calls pass the call guard and that unavailable LND results in LightningNodeUnavailableException"(){
+        setup:
+        handler.connected = true
+        handler.configuredNodeInfo = new NodeInfo("abc@10.10.10.11:9001")
+        handler.invoiceCacheSize = 0
+        byte[] hash = [1,2,3] as byte[]
+        def unavailable = Mock(ServerSideException)
+        unavailable.getStatus() >> Status.UNAVAILABLE
+        def deadlineExceeded = Mock(ServerSideException)
+        deadlineExceeded.getStatus() >> Status.DEADLINE_EXCEEDED
+        def invalid = Mock(ServerSideException)
+        invalid.getStatus() >> Status.INVALID_ARGUMENT
+        when:
+        handler.lookupInvoice(hash)
+        then:
+        1 * handler.synchronousLndAPI.lookupInvoice(null, hash) >> { throw unavailable }
+        def e = thrown LightningNodeUnavailableException
+        e.message =~ "Internal error during lookup of invoice in LND, preImageHash:"
+        when:
+        handler.lookupInvoice(hash)
+        then:
+        1 * handler.synchronousLndAPI.lookupInvoice(null, hash) >> { throw invalid }
+        thrown InternalErrorException
+        when:
+        handler.lookupInvoice(hash)
+        then:
+        1 * handler.synchronousLndAPI.lookupInvoice(null, hash) >> { throw deadlineExceeded }
+        thrown LightningNodeUnavailableException
+        handler.getCallGuard().state == LightningCallGuard.State.CLOSED
+        when:
+        (1..4).each {
+            try {
+                handler.lookupInvoice(hash)
+            }catch (LightningNodeUnavailableException ex){}
+        }
+        handler.lookupInvoice(hash)
+        then:
+        4 * handler.synchronousLndAPI.lookupInvoice(null, hash) >> { throw unavailable }
+        e = thrown LightningNodeUnavailableException
+        e.message =~ "circuit breaker is open"
+        handler.getCallGuard().state == LightningCallGuard.State.OPEN
+    }
+
+    def "Verify that generateInvoices pipelines add invoice calls over the asynchronous API and returns invoices in order"(){
+        setup:
+        handler.connected = true
+        handler.configuredNodeInfo = new NodeInfo("abc@10.10.10.11:9001")
+        handler.invoiceCacheSize = 0
+        def preImages = (1..3).collect { new PreImageData([it] as byte[], [it, it] as byte[]) }
+        def orders = (1..3).collect { new ConvertedOrder(new Order([it] as byte[], "test", null, null), null) }
+        when:
+        List<Invoice> invoices = handler.generateInvoices(preImages, orders)
+        then:
+        3 * handler.lndHelper.genLNDInvoice(_, _) >> { PreImageData p, ConvertedOrder o -> def i = new LndInvoice(); i.setRHash(p.preImageHash); i }
+        3 * handler.asynchronousLndAPI.addInvoice(_, _) >> { LndInvoice i, StreamObserver o ->
+            def response = new AddInvoiceResponse()
+            response.setRHash(i.getRHash())
+            o.onNext(response)
+            o.onCompleted()
+        }
+        3 * handler.asynchronousLndAPI.lookupInvoice(null, _, _) >> { String s, byte[] hash, StreamObserver o ->
+            def i = new LndInvoice()
+            i.setRHash(hash)
+            o.onNext(i)
+            o.onCompleted()
+        }
+        3 * handler.lndHelper.convert(_, _) >> { NodeInfo n, LndInvoice i -> def invoice = new Invoice(); invoice.preImageHash = i.getRHash(); invoice }
+        invoices.size() == 3
+        invoices.collect { it.preImageHash[0] } == [1, 2, 3]
+        0 * handler.synchronousLndAPI._
+    }
+
+    def "Verify that generateInvoices stops sending invoices after first failure and that unavailable LND results in LightningNodeUnavailableException"(){
+        setup:
+        handler.connected = true
+        handler.configuredNodeInfo = new NodeInfo("abc@10.10.10.11:9001")
+        handler.invoiceCacheSize = 0
+        def preImages = (1..3).collect { new PreImageData([it] as byte[], [it, it] as byte[]) }
+        def orders = (1..3).collect { new ConvertedOrder(new Order([it] as byte[], "test", null, null), null) }
+        def unavailable = Mock(ServerSideException)
+        unavailable.getStatus() >> Status.UNAVAILABLE
+        unavailable.getMessage() >> "unavailable"
+        int calls = 0
+        when:
+        handler.generateInvoices(preImages, orders)
+        then:
+        2 * handler.lndHelper.genLNDInvoice(_, _) >> new LndInvoice()
+        2 * handler.asynchronousLndAPI.addInvoice(_, _) >> { LndInvoice i, StreamObserver o ->
+            if(++calls == 2) {
+                o.onError(unavailable)
+            }else{
+                def response = new AddInvoiceResponse()
+                response.setRHash([1] as byte[])
+                o.onNext(response)
+            }
+        }
+        1 * handler.asynchronousLndAPI.lookupInvoice(null, _, _) >> { String s, byte[] hash, StreamObserver o ->
+            o.onNext(new LndInvoice())
+        }
+        1 * handler.lndHelper.convert(_, _) >> new Invoice()
+        def e = thrown LightningNodeUnavailableException
+        e.message == "Internal error adding invoice to LND, preImageHash: " + Base58.encodeToString([2] as byte[]) + ", message: unavailable"
+    }
+
+    def "Verify that generateInvoices throws LightningNodeUnavailableException if LND doesn't respond within twice the call deadline"(){
+        setup:
+        handler.connected = true
+        handler.configuredNodeInfo = new NodeInfo("abc@10.10.10.11:9001")
+        handler.callDeadline = 50
+        def preImages = [new PreImageData([1] as byte[], [1, 1] as byte[])]
+        def orders = [new ConvertedOrder(new Order([1] as byte[], "test", null, null), null)]
+        when:
+        handler.generateInvoices(preImages, orders)
+        then:
+        1 * handler.lndHelper.genLNDInvoice(_, _) >> new LndInvoice()
+        1 * handler.asynchronousLndAPI.addInvoice(_, _) // Never responds
+        def e = thrown LightningNodeUnavailableException
+        e.message == "Error generating invoices in LND, no response received within 100 ms."
+        !e.callRejected
+    }
+
+    def "Verify that generateInvoices throws IllegalArgumentException if number of pre images and orders differ"(){
+        when:
+        handler.generateInvoices([new PreImageData([1] as byte[], [1] as byte[])], [])
+        then:
+        def e = thrown IllegalArgumentException
+        e.message == "Error generating invoices, number of pre images 1 doesn't match number of orders 0."
+    }
+
+    def "Verify that call guard settings have expected defaults"(){
+        expect:
+        handler.getCallDeadline() == 10000
+        handler.getMaxConcurrentCalls() == 50
+        handler.getCircuitBreakerFailureThreshold() == 5
+        handler.getCircuitBreakerOpenTime() == 30000
+    }
+
+    def "Verify that invoice cache is disabled if cache size is 0"(){
+        setup:
+        handler.invoiceCacheSize = 0
+        expect:
+        handler.getInvoiceCache() == null
+    }
+
     def "Verify that getNodeInfo returns configured node info if configuration exists"(){
         setup:
         handler.configuredNodeInfo = new NodeInfo("abcdef@10.10.10.12:9002")
@@ -157,6 +400,24 @@ class BaseLNDLightningHandlerSpec extends Specification {
         handler.getNodeInfo().connectString == "abcdef@10.10.10.12:9002"
     }
 
+    def "Verify that getNodeInfo fetches node info from LND once and again after clearCache"(){
+        setup:
+        handler.connected = true
+        when:
+        def nodeInfos = (1..3).collect{ handler.getNodeInfo() }
+        then:
+        1 * handler.synchronousLndAPI.getInfo() >> new GetInfoResponse()
+        1 * handler.lndHelper.parseNodeInfo(_) >> new NodeInfo("abc@10.10.10.11:9001")
+        nodeInfos.every{ it.connectString == "abc@10.10.10.11:9001" }
+        when:
+        handler.clearCache()
+        def nodeInfo = handler.getNodeInfo()
+        then:
+        1 * handler.synchronousLndAPI.getInfo() >> new GetInfoResponse()
+        1 * handler.lndHelper.parseNodeInfo(_) >> new NodeInfo("def@10.10.10.12:9001")
+        nodeInfo.connectString == "def@10.10.10.12:9001"
+    }
+
     @Unroll
     def "Verify that genCurrentContext generates expected LNDLightningHandlerContext"(){
         setup:
@@ -193,6 +454,14 @@ class BaseLNDLightningHandlerSpec extends Specification {
         newCtx.settleIndex == 1
     }
 
+    static Invoice genInvoice(byte[] preImageHash, boolean settled){
+        def invoice = new Invoice()
+        invoice.preImageHash = preImageHash
+        invoice.bolt11Invoice = "lntb1"
+        invoice.settled = settled
+        return invoice
+    }
+
     static LndInvoice toInvoice(String invoiceData){
         def reader = Json.createReader(new StringReader(invoiceData))
 
@@ -200,6 +469,13 @@ class BaseLNDLightningHandlerSpec extends Specification {
         return i
     }
 
+    static void waitUntil(Closure<Boolean> condition){
+        long deadline = System.currentTimeMillis() + 5000
+        while(!condition() && System.currentTimeMillis() < deadline){
+            Thread.sleep(10)
+        }
+    }
+
     static class TestLightningEventListener implements LightningEventListener{
 
         List<LightningEvent> eventList = []
@@ -221,6 +497,9 @@ class BaseLNDLightningHandlerSpec extends Specification {
         LNDLightningHandlerContext context
         LNDHelper lndHelper
         NodeInfo configuredNodeInfo
+        boolean connected = false
+        int invoiceCacheSize = DEFAULT_INVOICE_CACHE_SIZE
+        Long callDeadline = null
 
         TestDefaultLNDLightningHandler(){
         }
@@ -233,7 +512,17 @@ class BaseLNDLightningHandlerSpec extends Specification {
 
         @Override
         boolean isConnected() throws IOException, InternalErrorException {
-            return false
+            return connected
+        }
+
+        @Override
+        protected int getInvoiceCacheSize() throws InternalErrorException {
+            return invoiceCacheSize
+        }
+
+        @Override
+        protected long getCallDeadline() throws InternalErrorException {
+            return callDeadline != null ? callDeadline : super.getCallDeadline()
         }
 
 
@@ -0,0 +1,99 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler.lnd
+
+import org.lightningj.paywall.vo.Invoice
+import spock.lang.Specification
+
+import java.time.Clock
+
+/**
+ * Unit tests for InvoiceCache.
+ */
+class InvoiceCacheSpec extends Specification {
+
+    InvoiceCache cache
+    long now = 10000
+
+    def setup(){
+        cache = new InvoiceCache(2, 1000)
+        cache.clock = Mock(Clock)
+        cache.clock.millis() >> { now }
+    }
+
+    def "Verify that constructor checks max size"(){
+        when:
+        new InvoiceCache(0, 1000)
+        then:
+        def e = thrown IllegalArgumentException
+        e.message == "Invalid invoice cache size 0, must be at least 1."
+    }
+
+    def "Verify that unsettled invoices are only returned when subscription is active and entry is fresh"(){
+        setup:
+        cache.put(genInvoice(1, false))
+        expect:
+        cache.get(hash(1), true) != null
+        cache.get(hash(1), false) == null
+        when:
+        now += 1001
+        then:
+        cache.get(hash(1), true) == null
+        cache.hits == 1
+        cache.misses == 2
+    }
+
+    def "Verify that settled invoices are always returned and never replaced by unsettled invoices"(){
+        setup:
+        cache.put(genInvoice(1, true))
+        cache.put(genInvoice(1, false))
+        now += 100000
+        expect:
+        cache.get(hash(1), false).settled
+    }
+
+    def "Verify that invoices are copied and that least recently used invoice is evicted"(){
+        setup:
+        def invoice = genInvoice(1, false)
+        cache.put(invoice)
+        invoice.sourceNode = "modified"
+        cache.put(genInvoice(2, false))
+        when:
+        def cached = cache.get(hash(1), true)
+        cached.sourceNode = "modified"
+        cache.put(genInvoice(3, false))
+        then:
+        cache.get(hash(1), true).sourceNode == null
+        cache.get(hash(2), true) == null
+        cache.size() == 2
+        when:
+        cache.put(null)
+        cache.put(new Invoice())
+        cache.clear()
+        then:
+        cache.size() == 0
+    }
+
+    static byte[] hash(int i){
+        return [i, i] as byte[]
+    }
+
+    static Invoice genInvoice(int i, boolean settled){
+        def invoice = new Invoice()
+        invoice.preImageHash = hash(i)
+        invoice.settled = settled
+        return invoice
+    }
+}
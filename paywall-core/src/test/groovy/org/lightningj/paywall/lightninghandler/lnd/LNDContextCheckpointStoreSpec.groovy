@@ -0,0 +1,169 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler.lnd
+
+import org.lightningj.paywall.InternalErrorException
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Unit tests for LNDContextCheckpointStore.
+ */
+class LNDContextCheckpointStoreSpec extends Specification {
+
+    Path dir
+    Path file
+
+    def setup(){
+        dir = Files.createTempDirectory("checkpointspec")
+        file = dir.resolve("lndcontext.json")
+        LNDContextCheckpointStore.log = Mock(Logger)
+    }
+
+    def cleanup(){
+        dir.toFile().deleteDir()
+    }
+
+    def "Verify that constructor throws IllegalArgumentException for invalid parameters"(){
+        when:
+        new LNDContextCheckpointStore(null)
+        then:
+        def e = thrown IllegalArgumentException
+        e.message == "Invalid LND context checkpoint file, path cannot be null."
+        when:
+        new LNDContextCheckpointStore(file, 0, 1000)
+        then:
+        e = thrown IllegalArgumentException
+        e.message == "Invalid LND context checkpoint batch size 0, must be at least 1."
+    }
+
+    def "Verify that load returns empty context if no checkpoint file exists"(){
+        setup:
+        def store = new LNDContextCheckpointStore(file, 10, 0)
+        when:
+        def ctx = store.load()
+        then:
+        ctx.addIndex == null
+        ctx.settleIndex == null
+        store.flushScheduler == null
+    }
+
+    def "Verify that checkpoint is written after batch size updates and can be loaded by a new store"(){
+        setup:
+        def store = new LNDContextCheckpointStore(file, 3, 0)
+        store.load()
+        when:
+        store.update(new LNDLightningHandlerContext(10,0))
+        store.update(new LNDLightningHandlerContext(11,5))
+        then:
+        !Files.exists(file)
+        store.unwrittenUpdates == 2
+        when:
+        store.update(new LNDLightningHandlerContext(12,5))
+        then:
+        Files.exists(file)
+        store.unwrittenUpdates == 0
+        !Files.exists(dir.resolve("lndcontext.json.tmp"))
+        when:
+        def ctx = new LNDContextCheckpointStore(file).load()
+        then:
+        ctx.addIndex == 12
+        ctx.settleIndex == 5
+    }
+
+    def "Verify that indices never move backwards and that unchanged contexts isn't counted as updates"(){
+        setup:
+        def store = new LNDContextCheckpointStore(file, 10, 0)
+        store.load()
+        when:
+        store.update(new LNDLightningHandlerContext(20,10))
+        store.update(new LNDLightningHandlerContext(15,null))
+        store.update(new LNDLightningHandlerContext(20,10))
+        store.update(null)
+        then:
+        store.currentContext.addIndex == 20
+        store.currentContext.settleIndex == 10
+        store.unwrittenUpdates == 1
+    }
+
+    def "Verify that multi node contexts are merged per node and can be loaded by a new store"(){
+        setup:
+        def store = new LNDContextCheckpointStore(file, 1, 0)
+        store.load()
+        when:
+        store.update(new MultiNodeLNDLightningHandlerContext([node1: new LNDLightningHandlerContext(10,5), node2: new LNDLightningHandlerContext()]))
+        store.update(new MultiNodeLNDLightningHandlerContext([node1: new LNDLightningHandlerContext(8,5), node2: new LNDLightningHandlerContext(3,1)]))
+        store.update(new MultiNodeLNDLightningHandlerContext([node1: new LNDLightningHandlerContext(10,5)]))
+        then:
+        store.unwrittenUpdates == 0
+        when:
+        MultiNodeLNDLightningHandlerContext ctx = new LNDContextCheckpointStore(file).load()
+        then:
+        ctx.getNodeContext("node1").addIndex == 10
+        ctx.getNodeContext("node1").settleIndex == 5
+        ctx.getNodeContext("node2").addIndex == 3
+        ctx.getNodeContext("node2").settleIndex == 1
+    }
+
+    def "Verify that background flush writes checkpoint after flush interval and close stops scheduler and writes remaining updates"(){
+        setup:
+        def store = new LNDContextCheckpointStore(file, 100, 50)
+        store.load()
+        when:
+        store.update(new LNDLightningHandlerContext(1,1))
+        long deadline = System.currentTimeMillis() + 5000
+        while(!Files.exists(file) && System.currentTimeMillis() < deadline){
+            Thread.sleep(10)
+        }
+        then:
+        Files.exists(file)
+        new LNDContextCheckpointStore(file, 1, 0).load().addIndex == 1
+        when:
+        store.update(new LNDLightningHandlerContext(2,2))
+        store.close()
+        then:
+        store.flushScheduler == null
+        store.unwrittenUpdates == 0
+        new LNDContextCheckpointStore(file, 1, 0).load().settleIndex == 2
+    }
+
+    def "Verify that load throws InternalErrorException for corrupt checkpoint file"(){
+        setup:
+        file.toFile().text = "{invalid"
+        when:
+        new LNDContextCheckpointStore(file, 1, 0).load()
+        then:
+        def e = thrown InternalErrorException
+        e.message.startsWith("Error reading LND context checkpoint from file " + file)
+    }
+
+    def "Verify that flushIfDueQuietly logs error instead of throwing if checkpoint couldn't be written"(){
+        setup:
+        Path notADir = dir.resolve("notadir")
+        notADir.toFile().text = "file"
+        def store = new LNDContextCheckpointStore(notADir.resolve("ctx.json"), 100, 50)
+        store.update(new LNDLightningHandlerContext(1,1))
+        Thread.sleep(60)
+        when:
+        store.flushIfDueQuietly()
+        then:
+        1 * LNDContextCheckpointStore.log.log(Level.SEVERE, { it.startsWith("Error writing LND context checkpoint: ")}, _ as InternalErrorException)
+        store.unwrittenUpdates == 1
+    }
+}
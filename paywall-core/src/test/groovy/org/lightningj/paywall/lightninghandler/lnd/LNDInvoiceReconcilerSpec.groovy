@@ -0,0 +1,239 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler.lnd
+
+import org.lightningj.lnd.wrapper.AsynchronousLndAPI
+import org.lightningj.lnd.wrapper.SynchronousLndAPI
+import org.lightningj.lnd.wrapper.message.Invoice as LndInvoice
+import org.lightningj.lnd.wrapper.message.ListInvoiceRequest
+import org.lightningj.lnd.wrapper.message.ListInvoiceResponse
+import org.lightningj.paywall.lightninghandler.LightningEventListener
+import org.lightningj.paywall.lightninghandler.LightningNodeUnavailableException
+import org.lightningj.paywall.lightninghandler.LightningEventType
+import org.lightningj.paywall.lightninghandler.lnd.BaseLNDLightningHandlerSpec.TestDefaultLNDLightningHandler
+import org.lightningj.paywall.lightninghandler.lnd.BaseLNDLightningHandlerSpec.TestLightningEventListener
+import org.lightningj.paywall.vo.Invoice
+import org.lightningj.paywall.vo.NodeInfo
+import spock.lang.Specification
+
+import java.time.Clock
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Unit tests for LNDInvoiceReconciler.
+ */
+class LNDInvoiceReconcilerSpec extends Specification {
+
+    TestDefaultLNDLightningHandler handler
+    TestLightningEventListener listener = new TestLightningEventListener()
+    LNDInvoiceReconciler reconciler
+    long now = 1000000000L
+
+    def setup(){
+        handler = new TestDefaultLNDLightningHandler()
+        handler.asynchronousLndAPI = Mock(AsynchronousLndAPI)
+        handler.synchronousLndAPI = Mock(SynchronousLndAPI)
+        handler.lndHelper = Mock(LNDHelper)
+        handler.lndHelper.convert(_,_) >> { NodeInfo n, LndInvoice i ->
+            def invoice = new Invoice()
+            invoice.preImageHash = [i.addIndex] as byte[]
+            invoice.settled = i.settled
+            return invoice
+        }
+        handler.configuredNodeInfo = new NodeInfo("abc@10.10.10.11:9001")
+        handler.registerListener(listener)
+        handler.lightningInvoiceListenerRunnable = new BaseLNDLightningHandler.LightningInvoiceListenerRunnable(handler, new LNDLightningHandlerContext(4,1))
+        reconciler = new LNDInvoiceReconciler(handler, new LNDLightningHandlerContext(0,1), 1000, 2)
+        reconciler.clock = Mock(Clock)
+        reconciler.clock.millis() >> { now * 1000 }
+        LNDInvoiceReconciler.log = Mock(Logger)
+    }
+
+    def "Verify that constructor checks interval and batch size"(){
+        when:
+        new LNDInvoiceReconciler(handler, null, 0, 10)
+        then:
+        def e = thrown IllegalArgumentException
+        e.message == "Invalid invoice reconciler configuration, interval and batch size must be at least 1."
+    }
+
+    def "Verify that sweep pages through invoices, sends missed settlements once and advances reconciled index"(){
+        setup:
+        def invoices = [
+                genInvoice(1, 1, now - 10),   // Settled before connect
+                genInvoice(2, 0, 0, now - 7200), // Expired
+                genInvoice(3, 2, now - 5),    // Missed settlement
+                genInvoice(4, 0, 0),          // Pending
+                genInvoice(5, 3, now - 1)]    // Missed settlement
+        List<Long> offsets = []
+        handler.synchronousLndAPI.listInvoices(_ as ListInvoiceRequest) >> { ListInvoiceRequest r ->
+            offsets << r.indexOffset
+            assert r.numMaxInvoices == 2
+            return genResponse(invoices.findAll{ it.addIndex > r.indexOffset }.take(2))
+        }
+        when:
+        int found = reconciler.sweep()
+        then:
+        found == 2
+        offsets == [0L, 2L, 4L]
+        listener.eventList.size() == 2
+        listener.eventList.every { it.type == LightningEventType.SETTLEMENT }
+        listener.eventList[0].invoice.preImageHash == [3] as byte[]
+        listener.eventList[1].invoice.preImageHash == [5] as byte[]
+        ((LNDLightningHandlerContext) listener.eventList[0].context).settleIndex == 1
+        reconciler.reconciledIndex == 3
+        reconciler.latestIndex == 5
+        reconciler.indexLag == 2
+        reconciler.missedSettlements == 2
+        reconciler.lastSettlementLag == 1000
+        handler.getInvoiceCache().get([3] as byte[], false).settled
+        2 * LNDInvoiceReconciler.log.log(Level.INFO, { it =~ "Reconciled settlement missed by invoice subscription"})
+        when:
+        offsets.clear()
+        found = reconciler.sweep()
+        then:
+        found == 0
+        offsets == [3L, 5L]
+        listener.eventList.size() == 2
+        reconciler.sweeps == 2
+    }
+
+    def "Verify that settlements of invoices no listener awaits are not sent"(){
+        setup:
+        def awaiting = Mock(LightningEventListener)
+        handler.unregisterListener(listener)
+        handler.registerListener(awaiting)
+        handler.synchronousLndAPI.listInvoices(_) >> genResponse([genInvoice(3, 2, now), genInvoice(5, 3, now)])
+        when:
+        int found = reconciler.sweep()
+        then:
+        found == 1
+        1 * awaiting.isAwaitingSettlement([3] as byte[]) >> false
+        1 * awaiting.isAwaitingSettlement([5] as byte[]) >> true
+        1 * awaiting.onLightningEvent({ it.invoice.preImageHash == [5] as byte[] })
+        reconciler.reconciledIndex == 5
+        reconciler.missedSettlements == 1
+    }
+
+    def "Verify that sweep starts from indexes of start context"(){
+        setup:
+        reconciler = new LNDInvoiceReconciler(handler, new LNDLightningHandlerContext(3,2), 1000, 10)
+        List<Long> offsets = []
+        handler.synchronousLndAPI.listInvoices(_ as ListInvoiceRequest) >> { ListInvoiceRequest r ->
+            offsets << r.indexOffset
+            return genResponse([genInvoice(4, 2, now), genInvoice(5, 3, now)])
+        }
+        when:
+        int found = reconciler.sweep()
+        then:
+        found == 1
+        offsets == [3L]
+        listener.eventList.size() == 1
+        listener.eventList[0].invoice.preImageHash == [5] as byte[]
+    }
+
+    def "Verify that sweep starts from current indexes of node if start context has no indexes"(){
+        setup:
+        reconciler = new LNDInvoiceReconciler(handler, new LNDLightningHandlerContext(), 1000, 10)
+        List<ListInvoiceRequest> requests = []
+        handler.synchronousLndAPI.listInvoices(_ as ListInvoiceRequest) >> { ListInvoiceRequest r ->
+            requests << r
+            return r.reversed ? genResponse([genInvoice(7, 4, now)]) : genResponse([genInvoice(8, 5, now)])
+        }
+        when:
+        int found = reconciler.sweep()
+        then:
+        found == 1
+        requests.size() == 2
+        requests[0].reversed
+        requests[0].numMaxInvoices == 1
+        requests[1].indexOffset == 7
+        listener.eventList.size() == 1
+        listener.eventList[0].invoice.preImageHash == [8] as byte[]
+        reconciler.reconciledIndex == 8
+    }
+
+    def "Verify that settle index floor advances to settle index received by subscription and skips delivered settlements"(){
+        setup:
+        def awaiting = Mock(LightningEventListener)
+        handler.unregisterListener(listener)
+        handler.registerListener(awaiting)
+        handler.lightningInvoiceListenerRunnable.lastKnownContext = new LNDLightningHandlerContext(5,2)
+        handler.synchronousLndAPI.listInvoices(_) >> genResponse([genInvoice(3, 2, now), genInvoice(4, 0, 0), genInvoice(5, 3, now)])
+        when:
+        int found = reconciler.sweep()
+        then:
+        found == 1
+        reconciler.settleIndexFloor == 2
+        0 * awaiting.isAwaitingSettlement([3] as byte[])
+        1 * awaiting.isAwaitingSettlement([5] as byte[]) >> true
+        1 * awaiting.onLightningEvent({ it.invoice.preImageHash == [5] as byte[] })
+        when: "Subscription has received the settlement before the next sweep"
+        handler.lightningInvoiceListenerRunnable.lastKnownContext = new LNDLightningHandlerContext(5,3)
+        found = reconciler.sweep()
+        then:
+        found == 0
+        reconciler.settleIndexFloor == 3
+        0 * awaiting.isAwaitingSettlement(_)
+        0 * handler.lndHelper.convert(_, _)
+    }
+
+    def "Verify that list invoice calls pass the call guard of the handler"(){
+        setup:
+        handler.synchronousLndAPI.listInvoices(_) >> { throw new IOException("Connection refused") }
+        (1..handler.getCircuitBreakerFailureThreshold()).each {
+            try {
+                reconciler.sweep()
+            }catch(IOException e){}
+        }
+        when:
+        reconciler.sweep()
+        then:
+        def e = thrown LightningNodeUnavailableException
+        e.callRejected
+        0 * handler.synchronousLndAPI.listInvoices(_)
+    }
+
+    def "Verify that failed sweeps are counted and logged"(){
+        setup:
+        handler.synchronousLndAPI.listInvoices(_) >> { throw new IOException("Connection refused") }
+        when:
+        reconciler.sweepQuietly()
+        then:
+        reconciler.failedSweeps == 1
+        reconciler.sweeps == 0
+        1 * LNDInvoiceReconciler.log.log(Level.WARNING, "Error performing invoice reconciliation sweep: Connection refused", _ as IOException)
+    }
+
+    static LndInvoice genInvoice(long addIndex, long settleIndex, long settleDate, long creationDate = 1000000000L){
+        def invoice = new LndInvoice()
+        invoice.addIndex = addIndex
+        invoice.setRHash([addIndex] as byte[])
+        invoice.settleIndex = settleIndex
+        invoice.settled = settleIndex > 0
+        invoice.settleDate = settleDate
+        invoice.creationDate = creationDate
+        invoice.expiry = 3600
+        return invoice
+    }
+
+    static ListInvoiceResponse genResponse(List<LndInvoice> invoices){
+        def response = new ListInvoiceResponse()
+        response.invoices = invoices
+        response.lastIndexOffset = invoices.isEmpty() ? 0 : invoices.last().addIndex
+        return response
+    }
+}
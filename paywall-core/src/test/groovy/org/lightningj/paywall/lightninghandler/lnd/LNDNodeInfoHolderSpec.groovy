@@ -0,0 +1,138 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler.lnd
+
+import org.lightningj.lnd.wrapper.AsynchronousLndAPI
+import org.lightningj.lnd.wrapper.SynchronousLndAPI
+import org.lightningj.lnd.wrapper.message.GetInfoResponse
+import org.lightningj.paywall.InternalErrorException
+import org.lightningj.paywall.lightninghandler.lnd.BaseLNDLightningHandlerSpec.TestDefaultLNDLightningHandler
+import org.lightningj.paywall.vo.NodeInfo
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+import java.util.logging.Logger
+
+/**
+ * Unit tests for LNDNodeInfoHolder.
+ */
+class LNDNodeInfoHolderSpec extends Specification {
+
+    TestDefaultLNDLightningHandler handler
+    LNDNodeInfoHolder holder
+    volatile String connectString = "abc@10.10.10.11:9001"
+
+    def setup(){
+        handler = new TestDefaultLNDLightningHandler()
+        handler.connected = true
+        handler.asynchronousLndAPI = Mock(AsynchronousLndAPI)
+        handler.synchronousLndAPI = Mock(SynchronousLndAPI)
+        handler.lndHelper = Mock(LNDHelper)
+        handler.lndHelper.parseNodeInfo(_) >> { new NodeInfo(connectString) }
+        holder = new LNDNodeInfoHolder(handler)
+        LNDNodeInfoHolder.log = Mock(Logger)
+    }
+
+    def cleanup(){
+        holder.close()
+    }
+
+    def "Verify that concurrent callers share one fetch of node info"(){
+        setup:
+        def fetchStarted = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        handler.synchronousLndAPI.getInfo() >> {
+            fetchStarted.countDown()
+            release.await(5, TimeUnit.SECONDS)
+            new GetInfoResponse()
+        }
+        List<NodeInfo> results = new CopyOnWriteArrayList<>()
+        when:
+        def threads = (1..5).collect{ Thread.start { results << holder.get() } }
+        fetchStarted.await(5, TimeUnit.SECONDS)
+        Thread.sleep(100)
+        release.countDown()
+        threads.each{ it.join(5000) }
+        then:
+        results.size() == 5
+        results.every{ it.is(results[0]) }
+        holder.getFetches() == 1
+        when:
+        def nodeInfo = holder.get()
+        then:
+        nodeInfo.is(results[0])
+        holder.getFetches() == 1
+    }
+
+    def "Verify that invalidate without background refresh removes node info so it is fetched again"(){
+        setup:
+        handler.synchronousLndAPI.getInfo() >> new GetInfoResponse()
+        holder.get()
+        when:
+        connectString = "def@10.10.10.12:9001"
+        holder.invalidate()
+        then:
+        holder.get().connectString == "def@10.10.10.12:9001"
+        holder.getFetches() == 2
+    }
+
+    def "Verify that background refresh fetches directly, swaps node info after invalidate and keeps previous value if refresh fails"(){
+        setup:
+        boolean fail = false
+        handler.synchronousLndAPI.getInfo() >> {
+            if(fail){
+                throw new IOException("Unavailable")
+            }
+            new GetInfoResponse()
+        }
+        when:
+        holder.start(100000)
+        waitUntil { holder.getFetches() == 1 }
+        then:
+        holder.get().connectString == "abc@10.10.10.11:9001"
+        when:
+        connectString = "def@10.10.10.12:9001"
+        holder.invalidate()
+        waitUntil { holder.get().connectString == "def@10.10.10.12:9001" }
+        then:
+        holder.getFetches() == 2
+        holder.get().connectString == "def@10.10.10.12:9001"
+        when:
+        fail = true
+        holder.invalidate()
+        waitUntil { holder.getFailedRefreshes() == 1 }
+        then:
+        holder.get().connectString == "def@10.10.10.12:9001"
+    }
+
+    def "Verify that refresh throws exception if node info couldn't be fetched"(){
+        setup:
+        handler.synchronousLndAPI.getInfo() >> { throw new IOException("Unavailable") }
+        when:
+        holder.refresh()
+        then:
+        def e = thrown InternalErrorException
+        e.message == "Internal error fetching node info from LND Node: Unavailable"
+    }
+
+    static void waitUntil(Closure<Boolean> condition){
+        long end = System.currentTimeMillis() + 5000
+        while(!condition() && System.currentTimeMillis() < end){
+            Thread.sleep(10)
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler.lnd
+
+import org.lightningj.paywall.lightninghandler.LightningHandlerContext
+import spock.lang.Specification
+
+import static org.lightningj.paywall.JSONParsableSpec.toJsonObject
+
+/**
+ * Unit tests for MultiNodeLNDLightningHandlerContext
+ */
+class MultiNodeLNDLightningHandlerContextSpec extends Specification {
+
+    def "Verify constructors and getters"(){
+        when:
+        def ctx = new MultiNodeLNDLightningHandlerContext()
+        then:
+        ctx.getNodeContexts().isEmpty()
+        ctx.getNodeContext("node1") == null
+        when:
+        ctx = new MultiNodeLNDLightningHandlerContext(["node1": new LNDLightningHandlerContext(1,2)])
+        then:
+        ctx.getNodeContext("node1").addIndex == 1
+        ctx.getNodeContexts().size() == 1
+    }
+
+    def "Verify that toJsonAsString works as expected"(){
+        expect:
+        new MultiNodeLNDLightningHandlerContext().toJsonAsString(false) == """{"type":"multinode","nodes":[]}"""
+        new MultiNodeLNDLightningHandlerContext(["node1": new LNDLightningHandlerContext(1,2), "node2": new LNDLightningHandlerContext()]).toJsonAsString(false) ==
+                """{"type":"multinode","nodes":[{"nodeId":"node1","context":{"type":"lnd","addIndex":1,"settleIndex":2}},{"nodeId":"node2","context":{"type":"lnd"}}]}"""
+    }
+
+    def "Verify that parsing of JSON data works as expected and is supported by parseContext"(){
+        when:
+        def ctx = LightningHandlerContext.parseContext(toJsonObject("""{"type":"multinode","nodes":[{"nodeId":"node1","context":{"type":"lnd","addIndex":1,"settleIndex":2}},{"nodeId":"node2"}]}"""))
+        then:
+        ctx instanceof MultiNodeLNDLightningHandlerContext
+        ((MultiNodeLNDLightningHandlerContext) ctx).getNodeContext("node1").settleIndex == 2
+        ((MultiNodeLNDLightningHandlerContext) ctx).getNodeContexts().containsKey("node2")
+        ((MultiNodeLNDLightningHandlerContext) ctx).getNodeContext("node2") == null
+        when:
+        ctx = new MultiNodeLNDLightningHandlerContext(toJsonObject("""{}"""))
+        then:
+        ctx.getNodeContexts().isEmpty()
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.lightninghandler.lnd
+
+import org.lightningj.paywall.InternalErrorException
+import org.lightningj.paywall.lightninghandler.LightningEvent
+import org.lightningj.paywall.lightninghandler.LightningEventListener
+import org.lightningj.paywall.lightninghandler.LightningEventType
+import org.lightningj.paywall.lightninghandler.LightningHandler
+import org.lightningj.paywall.lightninghandler.LightningNodeUnavailableException
+import org.lightningj.paywall.vo.ConvertedOrder
+import org.lightningj.paywall.vo.Invoice
+import org.lightningj.paywall.vo.NodeInfo
+import org.lightningj.paywall.vo.PreImageData
+import spock.lang.Specification
+
+import java.time.Clock
+import java.util.logging.Logger
+
+import static org.lightningj.paywall.lightninghandler.lnd.MultiNodeLNDLightningHandler.RoutingStrategy.*
+
+/**
+ * Unit tests for MultiNodeLNDLightningHandler.
+ */
+class MultiNodeLNDLightningHandlerSpec extends Specification {
+
+    MultiNodeLNDLightningHandler handler
+    LightningHandler node1 = Mock(LightningHandler)
+    LightningHandler node2 = Mock(LightningHandler)
+    ConvertedOrder order = new ConvertedOrder()
+    long now = 10000
+
+    def setup(){
+        handler = new MultiNodeLNDLightningHandler(WEIGHTED_ROUND_ROBIN, 2, 1000, 100)
+        handler.clock = Mock(Clock)
+        handler.clock.millis() >> { now }
+        handler.addNode("node1", node1, 2)
+        handler.addNode("node2", node2, 1)
+        node1.isConnected() >> true
+        node2.isConnected() >> true
+        MultiNodeLNDLightningHandler.log = Mock(Logger)
+    }
+
+    def "Verify that constructor and addNode checks arguments"(){
+        when:
+        new MultiNodeLNDLightningHandler(null)
+        then:
+        def e = thrown IllegalArgumentException
+        e.message == "Invalid multi node lightning handler configuration, routing strategy cannot be null."
+        when:
+        new MultiNodeLNDLightningHandler(LEAST_OUTSTANDING_REQUESTS, 0, 1000, 100)
+        then:
+        e = thrown IllegalArgumentException
+        e.message == "Invalid multi node lightning handler configuration, max failures must be at least 1."
+        when:
+        handler.addNode("node1", Mock(LightningHandler), 1)
+        then:
+        e = thrown IllegalArgumentException
+        e.message == "Lightning node with id node1 already exists."
+        when:
+        handler.addNode("node3", Mock(LightningHandler), 0)
+        then:
+        e = thrown IllegalArgumentException
+        e.message == "Invalid weight 0 of lightning node node3, must be at least 1."
+    }
+
+    def "Verify that connect uses node contexts and ejects nodes that fails to connect"(){
+        setup:
+        def ctx1 = new LNDLightningHandlerContext(1,2)
+        def ctx = new MultiNodeLNDLightningHandlerContext(["node1": ctx1])
+        when:
+        handler.connect(ctx)
+        then:
+        1 * node1.registerListener(_)
+        1 * node1.connect(ctx1)
+        1 * node2.registerListener(_)
+        1 * node2.connect({ it instanceof LNDLightningHandlerContext && it.addIndex == null}) >> { throw new IOException("Unreachable")}
+        1 * MultiNodeLNDLightningHandler.log.log(java.util.logging.Level.SEVERE, "Error connecting to lightning node node2, node is ejected: Unreachable", _ as IOException)
+        handler.getAvailableNodeIds() == ["node1"]
+    }
+
+    def "Verify that connect throws InternalErrorException if no node could be connected"(){
+        setup:
+        node1.connect(_) >> { throw new IOException("Unreachable")}
+        node2.connect(_) >> { throw new InternalErrorException("Bad macaroon")}
+        when:
+        handler.connect(null)
+        then:
+        def e = thrown InternalErrorException
+        e.message == "Error connecting multi node lightning handler, none of the 2 lightning nodes could be connected."
+    }
+
+    def "Verify that weighted round robin distributes invoices according to weight and sets source node"(){
+        setup:
+        node1.generateInvoice(_,_) >> { PreImageData p, ConvertedOrder o -> genInvoice(p)}
+        node2.generateInvoice(_,_) >> { PreImageData p, ConvertedOrder o -> genInvoice(p)}
+        when:
+        def sourceNodes = (1..6).collect{ handler.generateInvoice(genPreImageData(it), order).sourceNode }
+        then:
+        sourceNodes == ["node1","node2","node1","node1","node2","node1"]
+    }
+
+    def "Verify that least outstanding requests selects node with lowest load relative to weight"(){
+        setup:
+        handler = new MultiNodeLNDLightningHandler(LEAST_OUTSTANDING_REQUESTS)
+        handler.addNode("node1", node1, 2)
+        handler.addNode("node2", node2, 1)
+        handler.nodes[0].outstandingRequests.set(3)
+        handler.nodes[1].outstandingRequests.set(1)
+        when:
+        def node = handler.selectNode([])
+        then:
+        node.id == "node2"
+        when:
+        handler.nodes[1].outstandingRequests.set(2)
+        node = handler.selectNode([])
+        then:
+        node.id == "node1"
+    }
+
+    def "Verify that generateInvoice fails over to next node and ejects node after max failures"(){
+        setup:
+        node1.generateInvoice(_,_) >> { throw new IOException("Timeout")}
+        node2.generateInvoice(_,_) >> { PreImageData p, ConvertedOrder o -> genInvoice(p)}
+        when:
+        def sourceNodes = (1..3).collect{ handler.generateInvoice(genPreImageData(it), order).sourceNode }
+        then:
+        sourceNodes == ["node2","node2","node2"]
+        handler.getAvailableNodeIds() == ["node2"]
+        handler.getOutstandingRequests("node1") == 0
+        when:
+        now += 1001
+        then:
+        handler.getAvailableNodeIds() == ["node1","node2"]
+    }
+
+    def "Verify that generateInvoice throws last exception if all nodes fails"(){
+        setup:
+        node1.generateInvoice(_,_) >> { throw new IOException("Timeout")}
+        node2.generateInvoice(_,_) >> { throw new InternalErrorException("Internal")}
+        when:
+        handler.generateInvoice(genPreImageData(1), order)
+        then:
+        def e = thrown InternalErrorException
+        e.message == "Internal"
+    }
+
+    def "Verify that generateInvoices creates whole batch on one node, fails over and remembers issuing node"(){
+        setup:
+        def preImages = [genPreImageData(1), genPreImageData(2)]
+        node1.generateInvoices(_,_) >> { throw new IOException("Timeout")}
+        node2.generateInvoices(_,_) >> { List<PreImageData> p, List<ConvertedOrder> o -> p.collect{ genInvoice(it) } }
+        when:
+        def invoices = handler.generateInvoices(preImages, [order, order])
+        then:
+        invoices.collect { it.sourceNode } == ["node2","node2"]
+        handler.getOutstandingRequests("node1") == 0
+        when:
+        handler.lookupInvoice(preImages[1].preImageHash)
+        then:
+        0 * node1.lookupInvoice(_)
+        1 * node2.lookupInvoice(preImages[1].preImageHash) >> genInvoice(preImages[1])
+    }
+
+    def "Verify that generateInvoice returns invoice added on failing node instead of failing over"(){
+        setup:
+        def preImageData = genPreImageData(1)
+        when:
+        def invoice = handler.generateInvoice(preImageData, order)
+        then:
+        1 * node1.generateInvoice(_,_) >> { throw new LightningNodeUnavailableException("Deadline exceeded", new IOException("Deadline exceeded"))}
+        1 * node1.lookupInvoice(preImageData.preImageHash) >> genInvoice(preImageData)
+        0 * node2.generateInvoice(_,_)
+        invoice.sourceNode == "node1"
+    }
+
+    def "Verify that generateInvoice doesn't fail over if invoice couldn't be looked up on failing node"(){
+        when:
+        handler.generateInvoice(genPreImageData(1), order)
+        then:
+        1 * node1.generateInvoice(_,_) >> { throw new IOException("Timeout")}
+        1 * node1.lookupInvoice(_) >> { throw new IOException("Lookup failed")}
+        0 * node2.generateInvoice(_,_)
+        def e = thrown IOException
+        e.message == "Timeout"
+    }
+
+    def "Verify that generateInvoice fails over without lookup if call was rejected or node isn't connected"(){
+        when:
+        def invoice = handler.generateInvoice(genPreImageData(1), order)
+        then:
+        1 * node1.generateInvoice(_,_) >> { throw new LightningNodeUnavailableException("Circuit breaker open", true)}
+        0 * node1.lookupInvoice(_)
+        1 * node2.generateInvoice(_,_) >> { PreImageData p, ConvertedOrder o -> genInvoice(p)}
+        invoice.sourceNode == "node2"
+        when:
+        invoice = handler.generateInvoice(genPreImageData(2), order)
+        then:
+        1 * node1.isConnected() >> false
+        0 * node1.generateInvoice(_,_)
+        0 * node1.lookupInvoice(_)
+        1 * node2.generateInvoice(_,_) >> { PreImageData p, ConvertedOrder o -> genInvoice(p)}
+        invoice.sourceNode == "node2"
+    }
+
+    def "Verify that generateInvoices only fails over invoices that weren't added on failing node"(){
+        setup:
+        def preImages = [genPreImageData(1), genPreImageData(2)]
+        when:
+        def invoices = handler.generateInvoices(preImages, [order, order])
+        then:
+        1 * node1.generateInvoices(_,_) >> { throw new IOException("Timeout")}
+        1 * node1.lookupInvoice(preImages[0].preImageHash) >> genInvoice(preImages[0])
+        1 * node1.lookupInvoice(preImages[1].preImageHash) >> null
+        1 * node2.generateInvoices(_,_) >> { List<PreImageData> p, List<ConvertedOrder> o ->
+            assert p == [preImages[1]]
+            p.collect{ genInvoice(it) }
+        }
+        invoices.collect { it.preImageHash[0] } == [1, 2]
+        invoices.collect { it.sourceNode } == ["node1","node2"]
+    }
+
+    def "Verify that lookupInvoice is sent to issuing node and falls back to all nodes if unknown"(){
+        setup:
+        node1.generateInvoice(_,_) >> { PreImageData p, ConvertedOrder o -> genInvoice(p)}
+        def preImageData = genPreImageData(1)
+        handler.generateInvoice(preImageData, order)
+        when:
+        def invoice = handler.lookupInvoice(preImageData.preImageHash)
+        then:
+        1 * node1.lookupInvoice(preImageData.preImageHash) >> genInvoice(preImageData)
+        0 * node2.lookupInvoice(_)
+        invoice.sourceNode == "node1"
+        when:
+        def unknownHash = genPreImageData(2).preImageHash
+        invoice = handler.lookupInvoice(unknownHash)
+        then:
+        1 * node1.lookupInvoice(unknownHash) >> null
+        1 * node2.lookupInvoice(unknownHash) >> genInvoice(genPreImageData(2))
+        invoice.sourceNode == "node2"
+        when:
+        invoice = handler.lookupInvoice(unknownHash)
+        then:
+        0 * node1.lookupInvoice(_)
+        1 * node2.lookupInvoice(unknownHash) >> genInvoice(genPreImageData(2))
+        invoice.sourceNode == "node2"
+    }
+
+    def "Verify that node events are merged into one stream with multi node context"(){
+        setup:
+        def listener = Mock(LightningEventListener)
+        handler.registerListener(listener)
+        def nodeListeners = [:]
+        node1.registerListener(_) >> { LightningEventListener l -> nodeListeners["node1"] = l}
+        node2.registerListener(_) >> { LightningEventListener l -> nodeListeners["node2"] = l}
+        handler.connect(null)
+        LightningEvent event = null
+        when:
+        nodeListeners["node2"].onLightningEvent(new LightningEvent(LightningEventType.SETTLEMENT, genInvoice(genPreImageData(1)), new LNDLightningHandlerContext(3,4)))
+        then:
+        1 * listener.onLightningEvent(_) >> { LightningEvent e -> event = e}
+        event.type == LightningEventType.SETTLEMENT
+        event.invoice.sourceNode == "node2"
+        event.context instanceof MultiNodeLNDLightningHandlerContext
+        ((MultiNodeLNDLightningHandlerContext) event.context).getNodeContext("node2").addIndex == 3
+        ((MultiNodeLNDLightningHandlerContext) event.context).getNodeContext("node1").addIndex == null
+        when:
+        handler.unregisterListener(listener)
+        nodeListeners["node1"].onLightningEvent(new LightningEvent(LightningEventType.ADDED, genInvoice(genPreImageData(2)), null))
+        then:
+        0 * listener.onLightningEvent(_)
+    }
+
+    def "Verify that node awaits settlement if any listener of the multi node handler awaits it"(){
+        setup:
+        def listener1 = Mock(LightningEventListener)
+        def listener2 = Mock(LightningEventListener)
+        handler.registerListener(listener1)
+        handler.registerListener(listener2)
+        def nodeListeners = [:]
+        node1.registerListener(_) >> { LightningEventListener l -> nodeListeners["node1"] = l}
+        handler.connect(null)
+        when:
+        boolean result = nodeListeners["node1"].isAwaitingSettlement("abc".bytes)
+        then:
+        result
+        1 * listener1.isAwaitingSettlement("abc".bytes) >> false
+        1 * listener2.isAwaitingSettlement("abc".bytes) >> true
+        when:
+        result = nodeListeners["node1"].isAwaitingSettlement("abc".bytes)
+        then:
+        !result
+        1 * listener1.isAwaitingSettlement("abc".bytes) >> false
+        1 * listener2.isAwaitingSettlement("abc".bytes) >> false
+    }
+
+    def "Verify that isConnected, getNodeInfo and close delegates to nodes"(){
+        setup:
+        def nodeInfo = new NodeInfo()
+        when:
+        def connected = handler.isConnected()
+        then:
+        1 * node1.isConnected() >> false
+        1 * node2.isConnected() >> true
+        connected
+        when:
+        handler.nodes[0].eject()
+        def result = handler.getNodeInfo()
+        then:
+        1 * node2.getNodeInfo() >> nodeInfo
+        result == nodeInfo
+        when:
+        handler.close()
+        then:
+        1 * node1.close() >> { throw new IOException("Closed")}
+        1 * node2.close()
+        def e = thrown InternalErrorException
+        e.message == "Internal error closing lightning node connections: Closed"
+    }
+
+    static PreImageData genPreImageData(int i){
+        return new PreImageData([i] as byte[], [i, i] as byte[])
+    }
+
+    static Invoice genInvoice(PreImageData preImageData){
+        def invoice = new Invoice()
+        invoice.preImageHash = preImageData.preImageHash
+        return invoice
+    }
+}
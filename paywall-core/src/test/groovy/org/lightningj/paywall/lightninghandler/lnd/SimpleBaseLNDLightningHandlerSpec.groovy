@@ -14,13 +14,22 @@
  *************************************************************************/
 package org.lightningj.paywall.lightninghandler.lnd
 
+import io.grpc.CallOptions
+import io.grpc.Channel
+import io.grpc.ClientCall
+import io.grpc.Metadata
+import io.grpc.MethodDescriptor
 import org.lightningj.lnd.wrapper.AsynchronousLndAPI
 import org.lightningj.lnd.wrapper.SynchronousLndAPI
 import org.lightningj.paywall.InternalErrorException
+import org.lightningj.paywall.lightninghandler.LightningHandlerContext
+import org.lightningj.paywall.util.HexUtils
 import org.lightningj.paywall.vo.NodeInfo
 import org.lightningj.paywall.vo.amount.CryptoAmount
 import spock.lang.Specification
 
+import java.util.concurrent.TimeUnit
+
 /**
  * Unit tests for SimpleBaseLNDLightningHandler.
  * Created by Philip Vendil on 2018-12-02.
@@ -104,12 +113,126 @@ class SimpleBaseLNDLightningHandlerSpec extends Specification {
 
     }
 
+    def "Verify that credentials are loaded into memory and that reconnect only replaces the channel shared by both apis"(){
+        when:
+        handler.loadCredentials()
+        handler.openAPIConnectios()
+        handler.connected = true
+        def firstChannel = handler.channel
+        then:
+        firstChannel != null
+        handler.tlsCert == new File("src/test/resources/testtlscert.pem").bytes
+        handler.macaroon == HexUtils.encodeHexString(new File("src/test/resources/testmacaroon").bytes)
+        handler.asynchronousLndAPI != null
+        handler.synchronousLndAPI != null
+        when: // Files are not read again during reconnect.
+        handler.tlsCertPath = "src/test/resources/invalidpath.pem"
+        handler.macaroonPath = "src/test/resources/invalidmacaroon"
+        handler.reconnect()
+        then:
+        handler.channel != null
+        handler.channel != firstChannel
+        firstChannel.isShutdown()
+        when:
+        def secondChannel = handler.channel
+        handler.close()
+        then:
+        secondChannel.isShutdown()
+        handler.channel == null
+        !handler.connected
+    }
+
+    def "Verify that connect marks handler as connected before background work is started and resets it if it fails"(){
+        when:
+        handler.connect(null)
+        then:
+        handler.connectedDuringListen
+        handler.connected
+        when:
+        handler.close()
+        handler.listenException = new InternalErrorException("Subscription failed")
+        handler.connect(null)
+        then:
+        thrown InternalErrorException
+        !handler.connected
+    }
+
+    def "Verify that reconnect invalidates node info after the new connection is opened"(){
+        setup:
+        handler.loadCredentials()
+        handler.openAPIConnectios()
+        handler.connected = true
+        handler.nodeInfoHolderMock = Mock(LNDNodeInfoHolder)
+        def firstChannel = handler.channel
+        when:
+        handler.reconnect()
+        then:
+        1 * handler.nodeInfoHolderMock.invalidate() >> {
+            assert handler.channel != firstChannel
+            assert handler.synchronousLndAPI != null
+        }
+        cleanup:
+        handler.close()
+    }
+
+    def "Verify that MacaroonInterceptor adds macaroon header to each call"(){
+        setup:
+        def channel = Mock(Channel)
+        def call = Mock(ClientCall)
+        def headers = new Metadata()
+        when:
+        def interceptedCall = new SimpleBaseLNDLightningHandler.MacaroonInterceptor("0201abcd").interceptCall(null, CallOptions.DEFAULT, channel)
+        interceptedCall.start(Mock(ClientCall.Listener), headers)
+        then:
+        1 * channel.newCall(null, CallOptions.DEFAULT) >> call
+        1 * call.start(_, headers)
+        headers.get(SimpleBaseLNDLightningHandler.MACAROON_KEY) == "0201abcd"
+    }
+
+    def "Verify that DeadlineInterceptor sets deadline on unary calls only"(){
+        setup:
+        def channel = Mock(Channel)
+        def interceptor = new SimpleBaseLNDLightningHandler.DeadlineInterceptor(5000)
+        CallOptions usedOptions = null
+        channel.newCall(_, _) >> { MethodDescriptor m, CallOptions o -> usedOptions = o; return Mock(ClientCall) }
+        when:
+        interceptor.interceptCall(genMethod(MethodDescriptor.MethodType.UNARY), CallOptions.DEFAULT, channel)
+        then:
+        usedOptions.deadline != null
+        usedOptions.deadline.timeRemaining(TimeUnit.MILLISECONDS) <= 5000
+        when:
+        interceptor.interceptCall(genMethod(MethodDescriptor.MethodType.SERVER_STREAMING), CallOptions.DEFAULT, channel)
+        then:
+        usedOptions.deadline == null
+    }
+
+    def "Verify that channel settings have expected defaults"(){
+        expect:
+        handler.getKeepAliveTime() == 60000
+        handler.getKeepAliveTimeout() == 20000
+        handler.getFlowControlWindow() == 1048576
+        handler.getMaxInboundMessageSize() == 16777216
+        handler.getChannelExecutor() == null
+    }
+
+    private MethodDescriptor genMethod(MethodDescriptor.MethodType type){
+        return MethodDescriptor.newBuilder()
+                .setType(type)
+                .setFullMethodName("lnrpc.Lightning/Test")
+                .setRequestMarshaller(Mock(MethodDescriptor.Marshaller))
+                .setResponseMarshaller(Mock(MethodDescriptor.Marshaller))
+                .build()
+    }
+
     static class TestDefaultLNDLightningHandler extends SimpleBaseLNDLightningHandler{
 
         private String host
         private int port
         private String tlsCertPath
         private String macaroonPath
+        Boolean connectedDuringListen = null
+        Exception listenException = null
+        LNDNodeInfoHolder nodeInfoHolderMock = null
 
         TestDefaultLNDLightningHandler(String host, int port, String tlsCertPath, String macaroonPath){
             this.host = host
@@ -147,5 +270,18 @@ class SimpleBaseLNDLightningHandlerSpec extends Specification {
         protected String getSupportedCurrencyCode() throws InternalErrorException {
             return CryptoAmount.CURRENCY_CODE_BTC
         }
+
+        @Override
+        protected void listenToInvoices(LightningHandlerContext context) throws IOException, InternalErrorException {
+            connectedDuringListen = connected
+            if(listenException != null){
+                throw listenException
+            }
+        }
+
+        @Override
+        LNDNodeInfoHolder getNodeInfoHolder() {
+            return nodeInfoHolderMock != null ? nodeInfoHolderMock : super.getNodeInfoHolder()
+        }
     }
 }
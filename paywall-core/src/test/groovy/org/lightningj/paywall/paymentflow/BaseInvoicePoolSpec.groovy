@@ -0,0 +1,207 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.paymentflow
+
+import org.lightningj.paywall.currencyconverter.CurrencyConverter
+import org.lightningj.paywall.currencyconverter.SameCryptoCurrencyConverter
+import org.lightningj.paywall.lightninghandler.LightningHandler
+import org.lightningj.paywall.paymenthandler.PaymentHandler
+import org.lightningj.paywall.tokengenerator.TokenGenerator
+import org.lightningj.paywall.vo.ConvertedOrder
+import org.lightningj.paywall.vo.Invoice
+import org.lightningj.paywall.vo.Order
+import org.lightningj.paywall.vo.OrderRequest
+import org.lightningj.paywall.vo.PreImageData
+import org.lightningj.paywall.vo.amount.BTC
+import spock.lang.Specification
+
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Unit tests for BaseInvoicePool.
+ */
+class BaseInvoicePoolSpec extends Specification {
+
+    TestInvoicePool pool
+    Instant currentTime = Instant.ofEpochMilli(1546606166000L)
+    int preImageCounter = 0
+
+    def setup(){
+        BaseInvoicePool.log = Mock(Logger)
+        pool = new TestInvoicePool()
+        pool.tokenGenerator = Mock(TokenGenerator)
+        pool.tokenGenerator.genPreImageData() >> {
+            preImageCounter++
+            return new PreImageData(("preimage" + preImageCounter).bytes, ("hash" + preImageCounter).bytes)
+        }
+        pool.paymentHandler = Mock(PaymentHandler)
+        pool.paymentHandler.createOrder(_,_) >> { byte[] preImageHash, OrderRequest orderRequest ->
+            new Order(preImageHash, "desc", new BTC(10 * orderRequest.units), currentTime.plus(Duration.ofHours(1)))
+        }
+        pool.lightningHandler = Mock(LightningHandler)
+        pool.lightningHandler.generateInvoice(_,_) >> { PreImageData preImageData, ConvertedOrder order ->
+            new Invoice(preImageData.preImageHash, "bolt11", order.description, order.convertedAmount, null, order.expireDate, currentTime)
+        }
+        pool.clock = Mock(Clock)
+        pool.clock.instant() >> { currentTime }
+    }
+
+    def cleanup(){
+        pool.close()
+    }
+
+    def "Verify that poll returns null if pool isn't initialized, enabled or order request isn't pooled"(){
+        when:
+        Invoice invoice = pool.poll(new OrderRequest("abc", 1, [], false))
+        then:
+        invoice == null
+        when:
+        pool.enabled = false
+        pool.init()
+        then:
+        pool.poll(new OrderRequest("abc", 1, [], false)) == null
+        when:
+        pool.enabled = true
+        pool.init()
+        then:
+        pool.poll(new OrderRequest("notpooled", 1, [], false)) == null
+        pool.poll(null) == null
+        pool.misses == 0
+    }
+
+    def "Verify that refill creates invoices up to pool size using payment handler and lightning handler"(){
+        setup:
+        OrderRequest orderRequest = new OrderRequest("abc", 2, [], true)
+        BaseInvoicePool.PoolKey key = new BaseInvoicePool.PoolKey(orderRequest)
+        BaseInvoicePool.Pool p = new BaseInvoicePool.Pool()
+        when:
+        pool.refill(key, p)
+        then:
+        p.size.get() == 3
+        p.invoices.size() == 3
+        p.invoices.every { it.invoiceAmount.value == 20 }
+        p.invoices.collect { new String(it.preImageHash) } as Set == ["hash1", "hash2", "hash3"] as Set
+        !p.refilling.get()
+    }
+
+    def "Verify that poll returns pooled invoice, counts hits and misses and refills pool in background"(){
+        setup:
+        pool.init()
+        OrderRequest orderRequest = new OrderRequest("abc", 1, [], false)
+        when:
+        Invoice first = pool.poll(orderRequest)
+        then:
+        first == null
+        pool.misses == 1
+        when:
+        waitForPoolSize(orderRequest, 3)
+        Invoice second = pool.poll(orderRequest)
+        then:
+        second != null
+        second.bolt11Invoice == "bolt11"
+        pool.hits == 1
+        when:
+        waitForPoolSize(orderRequest, 3)
+        then:
+        pool.pools.get(new BaseInvoicePool.PoolKey(orderRequest)).size.get() == 3
+    }
+
+    def "Verify that poll and maintain discards invoices expiring within minimum remaining validity"(){
+        setup:
+        OrderRequest orderRequest = new OrderRequest("abc", 1, [], false)
+        BaseInvoicePool.PoolKey key = new BaseInvoicePool.PoolKey(orderRequest)
+        BaseInvoicePool.Pool p = new BaseInvoicePool.Pool()
+        pool.pools.put(key, p)
+        pool.refill(key, p)
+        when: "Time passes so all pooled invoices expire within minimum validity of 10 minutes"
+        currentTime = currentTime.plus(Duration.ofMinutes(55))
+        pool.maintain()
+        then:
+        pool.discarded == 3
+        p.size.get() == 3
+        p.invoices.every { it.expireDate.isAfter(currentTime.plus(Duration.ofMinutes(10))) }
+        when:
+        currentTime = currentTime.plus(Duration.ofMinutes(55))
+        pool.init()
+        Invoice invoice = pool.poll(orderRequest)
+        then:
+        invoice == null
+        pool.discarded == 6
+        pool.misses == 1
+    }
+
+    def "Verify that errors during refill are logged and refill flag is cleared"(){
+        setup:
+        pool.lightningHandler = Mock(LightningHandler)
+        pool.lightningHandler.generateInvoice(_,_) >> { throw new IOException("test") }
+        BaseInvoicePool.PoolKey key = new BaseInvoicePool.PoolKey(new OrderRequest("abc", 1, [], false))
+        BaseInvoicePool.Pool p = new BaseInvoicePool.Pool()
+        when:
+        pool.refill(key, p)
+        then:
+        1 * BaseInvoicePool.log.log(Level.SEVERE, "Error pre-generating invoice for article id abc, units 1: test", _ as IOException)
+        p.size.get() == 0
+        !p.refilling.get()
+    }
+
+    private void waitForPoolSize(OrderRequest orderRequest, int size){
+        long timeout = System.currentTimeMillis() + 5000
+        while(System.currentTimeMillis() < timeout){
+            BaseInvoicePool.Pool p = pool.pools.get(new BaseInvoicePool.PoolKey(orderRequest))
+            if(p != null && p.size.get() >= size && !p.refilling.get()){
+                return
+            }
+            Thread.sleep(10)
+        }
+    }
+
+    static class TestInvoicePool extends BaseInvoicePool{
+
+        boolean enabled = true
+        PaymentHandler paymentHandler
+        LightningHandler lightningHandler
+        TokenGenerator tokenGenerator
+        CurrencyConverter currencyConverter = new SameCryptoCurrencyConverter()
+
+        @Override
+        protected boolean isEnabled() {
+            return enabled
+        }
+
+        @Override
+        protected boolean isPooled(OrderRequest orderRequest) {
+            return orderRequest.articleId == "abc"
+        }
+
+        @Override
+        protected int getPoolSize() {
+            return 3
+        }
+
+        @Override
+        protected Duration getMinRemainingValidity() {
+            return Duration.ofMinutes(10)
+        }
+
+        @Override
+        protected Duration getMaintenanceInterval() {
+            return Duration.ofMinutes(10)
+        }
+    }
+}
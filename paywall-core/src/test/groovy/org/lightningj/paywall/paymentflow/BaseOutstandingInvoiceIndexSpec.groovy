@@ -0,0 +1,178 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.paymentflow
+
+import org.lightningj.paywall.AlreadyExecutedException
+import org.lightningj.paywall.paymenthandler.PaymentHandler
+import org.lightningj.paywall.vo.Invoice
+import org.lightningj.paywall.vo.OrderRequest
+import org.lightningj.paywall.vo.RequestData
+import org.lightningj.paywall.vo.Settlement
+import org.lightningj.paywall.vo.amount.BTC
+import org.lightningj.paywall.web.CachableHttpServletRequest
+import spock.lang.Specification
+
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.util.logging.Logger
+
+/**
+ * Unit tests for BaseOutstandingInvoiceIndex.
+ */
+class BaseOutstandingInvoiceIndexSpec extends Specification {
+
+    TestOutstandingInvoiceIndex index
+    Instant currentTime = Instant.ofEpochMilli(1546606166000L)
+    CachableHttpServletRequest request = Mock(CachableHttpServletRequest)
+    OrderRequest orderRequest = new OrderRequest("abc", 1, [], false)
+    RequestData requestData = new RequestData("digest1".bytes, currentTime)
+
+    def setup(){
+        BaseOutstandingInvoiceIndex.log = Mock(Logger)
+        index = new TestOutstandingInvoiceIndex()
+        index.paymentHandler = Mock(PaymentHandler)
+        index.clock = Mock(Clock)
+        index.clock.instant() >> { currentTime }
+        request.getRemoteAddr() >> "10.0.0.1"
+        request.getMethod() >> "GET"
+        request.getRequestURI() >> "/test"
+    }
+
+    def "Verify that lookup returns indexed invoice for identical request if still unsettled and valid"(){
+        setup:
+        InvoiceResult invoiceResult = genInvoiceResult("hash1", Duration.ofMinutes(30))
+        when:
+        index.add(request, orderRequest, requestData, invoiceResult)
+        InvoiceResult result = index.lookup(request, new OrderRequest("abc", 1, [], false), new RequestData("digest1".bytes, currentTime.plusSeconds(10)))
+        then:
+        result == invoiceResult
+        1 * index.paymentHandler.checkSettlement("hash1".bytes, false) >> null
+        index.hits == 1
+        index.misses == 0
+        index.size() == 1
+    }
+
+    def "Verify that lookup returns null for requests differing in client, endpoint, request data or order"(){
+        setup:
+        index.add(request, orderRequest, requestData, genInvoiceResult("hash1", Duration.ofMinutes(30)))
+        CachableHttpServletRequest otherClient = Mock(CachableHttpServletRequest)
+        otherClient.getRemoteAddr() >> "10.0.0.2"
+        otherClient.getMethod() >> "GET"
+        otherClient.getRequestURI() >> "/test"
+        CachableHttpServletRequest otherURI = Mock(CachableHttpServletRequest)
+        otherURI.getRemoteAddr() >> "10.0.0.1"
+        otherURI.getMethod() >> "GET"
+        otherURI.getRequestURI() >> "/other"
+        expect:
+        index.lookup(otherClient, orderRequest, requestData) == null
+        index.lookup(otherURI, orderRequest, requestData) == null
+        index.lookup(request, orderRequest, new RequestData("digest2".bytes, currentTime)) == null
+        index.lookup(request, new OrderRequest("abc", 2, [], false), requestData) == null
+        index.lookup(request, new OrderRequest("abc", 1, [], true), requestData) == null
+        index.misses == 5
+        index.hits == 0
+    }
+
+    def "Verify that lookup removes invoice that is settled, within minimum validity or if settlement check fails"(){
+        when: "settled"
+        index.add(request, orderRequest, requestData, genInvoiceResult("hash1", Duration.ofMinutes(30)))
+        then:
+        index.lookup(request, orderRequest, requestData) == null
+        1 * index.paymentHandler.checkSettlement(_, false) >> new Settlement()
+        index.size() == 0
+        when: "already executed"
+        index.add(request, orderRequest, requestData, genInvoiceResult("hash2", Duration.ofMinutes(30)))
+        then:
+        index.lookup(request, orderRequest, requestData) == null
+        1 * index.paymentHandler.checkSettlement(_, false) >> { throw new AlreadyExecutedException("hash2".bytes, "executed") }
+        index.size() == 0
+        when: "about to expire"
+        index.add(request, orderRequest, requestData, genInvoiceResult("hash3", Duration.ofSeconds(30)))
+        then:
+        index.lookup(request, orderRequest, requestData) == null
+        0 * index.paymentHandler.checkSettlement(_, _)
+        index.size() == 0
+        index.misses == 3
+    }
+
+    def "Verify that add removes expired entries first and then arbitrary entries when index is full"(){
+        setup:
+        index.maxEntries = 2
+        when:
+        index.add(request, orderRequest, new RequestData("d1".bytes), genInvoiceResult("hash1", Duration.ofMinutes(30)))
+        index.add(request, orderRequest, new RequestData("d2".bytes), genInvoiceResult("hash2", Duration.ofMinutes(5)))
+        currentTime = currentTime.plus(Duration.ofMinutes(10))
+        index.add(request, orderRequest, new RequestData("d3".bytes), genInvoiceResult("hash3", Duration.ofMinutes(30)))
+        then:
+        index.size() == 2
+        index.entries.values().collect { new String(it.invoice.preImageHash) } as Set == ["hash1", "hash3"] as Set
+        when:
+        index.add(request, orderRequest, new RequestData("d4".bytes), genInvoiceResult("hash4", Duration.ofMinutes(30)))
+        then:
+        index.size() == 2
+        index.entries.values().any { new String(it.invoice.preImageHash) == "hash4" }
+    }
+
+    def "Verify that nothing is indexed or returned if index isn't enabled or client key is null"(){
+        when:
+        index.enabled = false
+        index.add(request, orderRequest, requestData, genInvoiceResult("hash1", Duration.ofMinutes(30)))
+        then:
+        index.size() == 0
+        index.lookup(request, orderRequest, requestData) == null
+        when:
+        index.enabled = true
+        index.clientKey = null
+        index.add(request, orderRequest, requestData, genInvoiceResult("hash1", Duration.ofMinutes(30)))
+        then:
+        index.size() == 0
+        index.lookup(request, orderRequest, requestData) == null
+        index.misses == 0
+    }
+
+    private InvoiceResult genInvoiceResult(String preImageHash, Duration validity){
+        Invoice invoice = new Invoice(preImageHash.bytes, "bolt11" + preImageHash, "desc", new BTC(10), null, currentTime.plus(validity), currentTime)
+        return new InvoiceResult(invoice, "token" + preImageHash)
+    }
+
+    static class TestOutstandingInvoiceIndex extends BaseOutstandingInvoiceIndex{
+
+        boolean enabled = true
+        int maxEntries = 10
+        String clientKey = "default"
+        PaymentHandler paymentHandler
+
+        @Override
+        protected String getClientKey(CachableHttpServletRequest request) {
+            return clientKey == "default" ? super.getClientKey(request) : clientKey
+        }
+
+        @Override
+        protected boolean isEnabled() {
+            return enabled
+        }
+
+        @Override
+        protected Duration getMinRemainingValidity() {
+            return Duration.ofMinutes(1)
+        }
+
+        @Override
+        protected int getMaxEntries() {
+            return maxEntries
+        }
+    }
+}
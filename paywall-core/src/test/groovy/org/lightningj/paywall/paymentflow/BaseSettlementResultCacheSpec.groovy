@@ -0,0 +1,193 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.paymentflow
+
+import org.lightningj.paywall.AlreadyExecutedException
+import org.lightningj.paywall.paymenthandler.PaymentHandler
+import org.lightningj.paywall.tokengenerator.TokenGenerator
+import org.lightningj.paywall.vo.RequestData
+import org.lightningj.paywall.vo.Settlement
+import spock.lang.Specification
+
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.CountDownLatch
+import java.util.logging.Logger
+
+/**
+ * Unit tests for BaseSettlementResultCache.
+ */
+class BaseSettlementResultCacheSpec extends Specification {
+
+    TestSettlementResultCache cache
+    Instant currentTime = Instant.ofEpochMilli(1546606166000L)
+    RequestData requestData = new RequestData("digest1".bytes, currentTime)
+    int tokenCounter = 0
+
+    def setup(){
+        BaseSettlementResultCache.log = Mock(Logger)
+        cache = new TestSettlementResultCache()
+        cache.paymentHandler = Mock(PaymentHandler)
+        cache.tokenGenerator = Mock(TokenGenerator)
+        cache.tokenGenerator.generateSettlementToken(_,_,_,_,_,_) >> { "token" + (++tokenCounter) }
+        cache.clock = Mock(Clock)
+        cache.clock.millis() >> { currentTime.toEpochMilli() }
+    }
+
+    def "Verify that settled result is cached until time to live has passed"(){
+        when:
+        SettlementResult result1 = cache.getSettlementResult("hash1".bytes, requestData, false, null)
+        SettlementResult result2 = cache.getSettlementResult("hash1".bytes, new RequestData("digest1".bytes, currentTime.plusSeconds(5)), false, null)
+        then:
+        1 * cache.paymentHandler.checkSettlement("hash1".bytes, false) >> genSettlement("hash1", Duration.ofHours(1))
+        result1.token == "token1"
+        result2.is(result1)
+        cache.hits == 1
+        cache.misses == 1
+        cache.size() == 1
+        when:
+        currentTime = currentTime.plusSeconds(31)
+        SettlementResult result3 = cache.getSettlementResult("hash1".bytes, requestData, false, null)
+        then:
+        1 * cache.paymentHandler.checkSettlement("hash1".bytes, false) >> genSettlement("hash1", Duration.ofHours(1))
+        result3.token == "token2"
+    }
+
+    def "Verify that result isn't cached longer than minimum remaining validity of settlement"(){
+        when:
+        cache.getSettlementResult("hash1".bytes, requestData, false, null)
+        currentTime = currentTime.plusSeconds(11)
+        cache.getSettlementResult("hash1".bytes, requestData, false, null)
+        then:
+        2 * cache.paymentHandler.checkSettlement("hash1".bytes, false) >> genSettlement("hash1", Duration.ofSeconds(20))
+        cache.misses == 2
+    }
+
+    def "Verify that unsettled results and exceptions are not cached"(){
+        when:
+        SettlementResult result = cache.getSettlementResult("hash1".bytes, requestData, false, null)
+        then:
+        result == null
+        1 * cache.paymentHandler.checkSettlement(_, false) >> null
+        cache.size() == 0
+        when:
+        cache.getSettlementResult("hash1".bytes, requestData, false, null)
+        then:
+        thrown AlreadyExecutedException
+        1 * cache.paymentHandler.checkSettlement(_, false) >> { throw new AlreadyExecutedException("hash1".bytes, "executed") }
+        cache.size() == 0
+    }
+
+    def "Verify that different preImageHash, request data or settlement variant are cached separately"(){
+        when:
+        cache.getSettlementResult("hash1".bytes, requestData, false, null)
+        cache.getSettlementResult("hash2".bytes, requestData, false, null)
+        cache.getSettlementResult("hash1".bytes, new RequestData("digest2".bytes, currentTime), false, null)
+        cache.getSettlementResult("hash1".bytes, requestData, true, null)
+        then:
+        4 * cache.paymentHandler.checkSettlement(_, _) >> genSettlement("hash1", Duration.ofHours(1))
+        cache.size() == 4
+        cache.hits == 0
+    }
+
+    def "Verify that payment handler is called for each check if cache isn't enabled"(){
+        setup:
+        cache.enabled = false
+        when:
+        cache.getSettlementResult("hash1".bytes, requestData, false, null)
+        cache.getSettlementResult("hash1".bytes, requestData, false, null)
+        then:
+        2 * cache.paymentHandler.checkSettlement(_, false) >> genSettlement("hash1", Duration.ofHours(1))
+        cache.size() == 0
+        cache.misses == 0
+    }
+
+    def "Verify that concurrent checks of same payment share one call to payment handler"(){
+        setup:
+        CountDownLatch started = new CountDownLatch(1)
+        CountDownLatch release = new CountDownLatch(1)
+        cache.paymentHandler.checkSettlement(_, false) >> {
+            started.countDown()
+            release.await()
+            return null
+        }
+        List results = Collections.synchronizedList([])
+        when:
+        Thread first = Thread.start { results << cache.getSettlementResult("hash1".bytes, requestData, false, null) }
+        started.await()
+        Thread second = Thread.start { results << cache.getSettlementResult("hash1".bytes, requestData, false, null) }
+        while(cache.hits == 0){
+            Thread.sleep(5)
+        }
+        release.countDown()
+        first.join()
+        second.join()
+        then:
+        results == [null, null]
+        cache.misses == 1
+        cache.hits == 1
+        cache.size() == 0
+    }
+
+    def "Verify that expired entries are removed when cache is full and result not cached if still full"(){
+        setup:
+        cache.maxEntries = 1
+        cache.paymentHandler.checkSettlement(_, _) >> { byte[] preImageHash, boolean includeInvoice -> genSettlement(new String(preImageHash), Duration.ofHours(1)) }
+        when:
+        cache.getSettlementResult("hash1".bytes, requestData, false, null)
+        cache.getSettlementResult("hash2".bytes, requestData, false, null)
+        then:
+        cache.size() == 1
+        cache.entries.keySet().collect { new String(it.preImageHash) } == ["hash1"]
+        when:
+        currentTime = currentTime.plusSeconds(60)
+        cache.getSettlementResult("hash2".bytes, requestData, false, null)
+        then:
+        cache.entries.keySet().collect { new String(it.preImageHash) } == ["hash2"]
+    }
+
+    private Settlement genSettlement(String preImageHash, Duration validity){
+        return new Settlement(preImageHash.bytes, null, currentTime.plus(validity), currentTime, false)
+    }
+
+    static class TestSettlementResultCache extends BaseSettlementResultCache{
+
+        boolean enabled = true
+        int maxEntries = 10
+        PaymentHandler paymentHandler
+        TokenGenerator tokenGenerator
+
+        @Override
+        protected boolean isEnabled() {
+            return enabled
+        }
+
+        @Override
+        protected Duration getTimeToLive() {
+            return Duration.ofSeconds(30)
+        }
+
+        @Override
+        protected Duration getMinRemainingValidity() {
+            return Duration.ofSeconds(10)
+        }
+
+        @Override
+        protected int getMaxEntries() {
+            return maxEntries
+        }
+    }
+}
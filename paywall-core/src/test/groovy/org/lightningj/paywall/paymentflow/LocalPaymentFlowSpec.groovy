@@ -25,6 +25,7 @@ import org.lightningj.paywall.keymgmt.SymmetricKeyManager
 import org.lightningj.paywall.lightninghandler.LightningHandler
 import org.lightningj.paywall.orderrequestgenerator.OrderRequestGeneratorFactory
 import org.lightningj.paywall.paymenthandler.PaymentHandler
+import org.lightningj.paywall.qrcode.QRCodePreRenderer
 import org.lightningj.paywall.requestpolicy.RequestPolicyFactory
 import org.lightningj.paywall.requestpolicy.RequestPolicyType
 import org.lightningj.paywall.tokengenerator.SymmetricKeyTokenGenerator
@@ -39,6 +40,7 @@ import org.lightningj.paywall.vo.NodeInfo
 import org.lightningj.paywall.vo.Order
 import org.lightningj.paywall.vo.OrderRequest
 import org.lightningj.paywall.vo.PreImageData
+import org.lightningj.paywall.vo.RequestData
 import org.lightningj.paywall.vo.Settlement
 import org.lightningj.paywall.vo.amount.BTC
 import org.lightningj.paywall.web.CachableHttpServletRequest
@@ -423,6 +425,229 @@ class LocalPaymentFlowSpec extends Specification {
     }
 
 
+    def "Verify that requestPayment uses pooled invoice if invoice pool returns an invoice"(){
+        setup:
+        BaseInvoicePool invoicePool = Mock(BaseInvoicePool)
+        localFlowManager.invoicePool = invoicePool
+        PaymentRequired paymentRequired = findAnnotation("paywalledMethod")
+        PaymentFlow paymentFlow = localFlowManager.getPaymentFlowByAnnotation(paymentRequired,request)
+        setClock(paymentFlow)
+        Invoice pooledInvoice = new Invoice("pooledhash".bytes, "pooledbolt11invoice", "desc", new BTC(10000), nodeInfo,
+                inFuture(Duration.ofMinutes(60)), clock.instant())
+        when:
+        InvoiceResult result = paymentFlow.requestPayment()
+        then:
+        1 * request.getMethod() >> "POST"
+        1 * request.getRequestURL() >> new StringBuffer("http://test1/test")
+        1 * invoicePool.poll({ it.articleId == paymentRequired.articleId() }) >> pooledInvoice
+        0 * paymentHandler.createOrder(_,_)
+        0 * lightningHandler.generateInvoice(_,_)
+        result.invoice == pooledInvoice
+        paymentFlow.getPreImageHash() == "pooledhash".bytes
+        new MinimalInvoice(tokenGenerator.parseToken(TokenContext.CONTEXT_INVOICE_TOKEN_TYPE, result.token)).preImageHash == "pooledhash".bytes
+    }
+
+    def "Verify that requestPayment starts pre-rendering of invoice QR code if QR code pre-renderer is configured"(){
+        setup:
+        BaseInvoicePool invoicePool = Mock(BaseInvoicePool)
+        QRCodePreRenderer qrCodePreRenderer = Mock(QRCodePreRenderer)
+        localFlowManager.invoicePool = invoicePool
+        localFlowManager.qrCodePreRenderer = qrCodePreRenderer
+        PaymentRequired paymentRequired = findAnnotation("paywalledMethod")
+        PaymentFlow paymentFlow = localFlowManager.getPaymentFlowByAnnotation(paymentRequired,request)
+        setClock(paymentFlow)
+        Invoice pooledInvoice = new Invoice("pooledhash".bytes, "pooledbolt11invoice", "desc", new BTC(10000), nodeInfo,
+                inFuture(Duration.ofMinutes(60)), clock.instant())
+        when:
+        paymentFlow.requestPayment()
+        then:
+        1 * request.getMethod() >> "POST"
+        1 * request.getRequestURL() >> new StringBuffer("http://test1/test")
+        1 * invoicePool.poll(_) >> pooledInvoice
+        1 * qrCodePreRenderer.preRender("pooledbolt11invoice")
+    }
+
+    def "Verify that requestPayment creates invoice synchronously if invoice pool has no ready invoice"(){
+        setup:
+        BaseInvoicePool invoicePool = Mock(BaseInvoicePool)
+        localFlowManager.invoicePool = invoicePool
+        PaymentRequired paymentRequired = findAnnotation("paywalledMethod")
+        PaymentFlow paymentFlow = localFlowManager.getPaymentFlowByAnnotation(paymentRequired,request)
+        setClock(paymentFlow)
+        when:
+        InvoiceResult result = paymentFlow.requestPayment()
+        then:
+        1 * request.getMethod() >> "POST"
+        1 * request.getRequestURL() >> new StringBuffer("http://test1/test")
+        1 * invoicePool.poll(_) >> null
+        1 * paymentHandler.createOrder(_,_) >> { byte[] preImageHash, OrderRequest orderRequest ->
+            return new Order(preImageHash, "Some description",new BTC(10000), inFuture(Duration.ofMinutes(60)))
+        }
+        1 * lightningHandler.generateInvoice(_,_) >> { PreImageData preImageData, ConvertedOrder convertedOrder ->
+            return new Invoice(preImageData.preImageHash, "somebolt11invoice", convertedOrder.description,
+                    convertedOrder.convertedAmount, nodeInfo, inFuture(Duration.ofMinutes(60)), clock.instant())
+        }
+        result.invoice.bolt11Invoice == "somebolt11invoice"
+    }
+
+    def "Verify that requestPayment returns outstanding invoice for identical request without polling pool or creating order"(){
+        setup:
+        BaseInvoicePool invoicePool = Mock(BaseInvoicePool)
+        BaseOutstandingInvoiceIndex outstandingInvoiceIndex = Mock(BaseOutstandingInvoiceIndex)
+        localFlowManager.invoicePool = invoicePool
+        localFlowManager.outstandingInvoiceIndex = outstandingInvoiceIndex
+        PaymentRequired paymentRequired = findAnnotation("paywalledMethod")
+        PaymentFlow paymentFlow = localFlowManager.getPaymentFlowByAnnotation(paymentRequired,request)
+        setClock(paymentFlow)
+        Invoice outstandingInvoice = new Invoice("outstandinghash".bytes, "outstandingbolt11invoice", "desc", new BTC(10000), nodeInfo,
+                inFuture(Duration.ofMinutes(60)), clock.instant())
+        InvoiceResult outstandingResult = new InvoiceResult(outstandingInvoice, "outstandingtoken")
+        when:
+        InvoiceResult result = paymentFlow.requestPayment()
+        then:
+        1 * request.getMethod() >> "POST"
+        1 * request.getRequestURL() >> new StringBuffer("http://test1/test")
+        1 * outstandingInvoiceIndex.lookup(request, { it.articleId == paymentRequired.articleId() }, { it.significantData != null }) >> outstandingResult
+        0 * invoicePool.poll(_)
+        0 * paymentHandler.createOrder(_,_)
+        0 * outstandingInvoiceIndex.add(_,_,_,_)
+        result == outstandingResult
+        paymentFlow.getPreImageHash() == "outstandinghash".bytes
+    }
+
+    def "Verify that lookupOutstandingInvoice returns indexed invoice for identical request without creating order"(){
+        setup:
+        BaseOutstandingInvoiceIndex outstandingInvoiceIndex = Mock(BaseOutstandingInvoiceIndex)
+        localFlowManager.outstandingInvoiceIndex = outstandingInvoiceIndex
+        PaymentRequired paymentRequired = findAnnotation("paywalledMethod")
+        PaymentFlow paymentFlow = localFlowManager.getPaymentFlowByAnnotation(paymentRequired,request)
+        setClock(paymentFlow)
+        Invoice outstandingInvoice = new Invoice("outstandinghash".bytes, "outstandingbolt11invoice", "desc", new BTC(10000), nodeInfo,
+                inFuture(Duration.ofMinutes(60)), clock.instant())
+        InvoiceResult outstandingResult = new InvoiceResult(outstandingInvoice, "outstandingtoken")
+        request.getMethod() >> "POST"
+        request.getRequestURL() >> new StringBuffer("http://test1/test")
+        when:
+        InvoiceResult result = paymentFlow.lookupOutstandingInvoice()
+        then:
+        1 * outstandingInvoiceIndex.lookup(request, _, _) >> outstandingResult
+        0 * paymentHandler.createOrder(_,_)
+        result == outstandingResult
+        paymentFlow.getPreImageHash() == "outstandinghash".bytes
+        when: "Later calls return the result of the first lookup"
+        result = paymentFlow.lookupOutstandingInvoice()
+        then:
+        0 * outstandingInvoiceIndex.lookup(_, _, _)
+        result == outstandingResult
+    }
+
+    def "Verify that requestPayment doesn't look up outstanding invoice again if already looked up"(){
+        setup:
+        BaseOutstandingInvoiceIndex outstandingInvoiceIndex = Mock(BaseOutstandingInvoiceIndex)
+        localFlowManager.outstandingInvoiceIndex = outstandingInvoiceIndex
+        PaymentRequired paymentRequired = findAnnotation("paywalledMethod")
+        PaymentFlow paymentFlow = localFlowManager.getPaymentFlowByAnnotation(paymentRequired,request)
+        setClock(paymentFlow)
+        request.getMethod() >> "POST"
+        request.getRequestURL() >> new StringBuffer("http://test1/test")
+        when:
+        InvoiceResult result = paymentFlow.lookupOutstandingInvoice()
+        then:
+        1 * outstandingInvoiceIndex.lookup(request, _, _) >> null
+        result == null
+        when: "An identical request indexes an invoice in between, it isn't returned after admission"
+        result = paymentFlow.requestPayment()
+        then:
+        0 * outstandingInvoiceIndex.lookup(_, _, _)
+        1 * paymentHandler.createOrder(_,_) >> { byte[] preImageHash, OrderRequest orderRequest ->
+            return new Order(preImageHash, "Some description",new BTC(10000), inFuture(Duration.ofMinutes(60)))
+        }
+        1 * lightningHandler.generateInvoice(_,_) >> { PreImageData preImageData, ConvertedOrder convertedOrder ->
+            return new Invoice(preImageData.preImageHash, "somebolt11invoice", convertedOrder.description,
+                    convertedOrder.convertedAmount, nodeInfo, inFuture(Duration.ofMinutes(60)), clock.instant())
+        }
+        1 * outstandingInvoiceIndex.add(request, _, _, { it.invoice.bolt11Invoice == "somebolt11invoice" })
+        result.invoice.bolt11Invoice == "somebolt11invoice"
+    }
+
+    def "Verify that requestPayment indexes new invoice result if no outstanding invoice exists"(){
+        setup:
+        BaseOutstandingInvoiceIndex outstandingInvoiceIndex = Mock(BaseOutstandingInvoiceIndex)
+        localFlowManager.outstandingInvoiceIndex = outstandingInvoiceIndex
+        PaymentRequired paymentRequired = findAnnotation("paywalledMethod")
+        PaymentFlow paymentFlow = localFlowManager.getPaymentFlowByAnnotation(paymentRequired,request)
+        setClock(paymentFlow)
+        when:
+        InvoiceResult result = paymentFlow.requestPayment()
+        then:
+        1 * request.getMethod() >> "POST"
+        1 * request.getRequestURL() >> new StringBuffer("http://test1/test")
+        1 * outstandingInvoiceIndex.lookup(request,_,_) >> null
+        1 * paymentHandler.createOrder(_,_) >> { byte[] preImageHash, OrderRequest orderRequest ->
+            return new Order(preImageHash, "Some description",new BTC(10000), inFuture(Duration.ofMinutes(60)))
+        }
+        1 * lightningHandler.generateInvoice(_,_) >> { PreImageData preImageData, ConvertedOrder convertedOrder ->
+            return new Invoice(preImageData.preImageHash, "somebolt11invoice", convertedOrder.description,
+                    convertedOrder.convertedAmount, nodeInfo, inFuture(Duration.ofMinutes(60)), clock.instant())
+        }
+        1 * outstandingInvoiceIndex.add(request, { it.articleId == paymentRequired.articleId() }, { it.significantData != null }, { it.invoice.bolt11Invoice == "somebolt11invoice" })
+        result.invoice.bolt11Invoice == "somebolt11invoice"
+    }
+
+    def "Verify that isSettled and getSettlement use settlement result cache if configured"(){
+        setup:
+        BaseSettlementResultCache settlementResultCache = Mock(BaseSettlementResultCache)
+        localFlowManager.settlementResultCache = settlementResultCache
+        PaymentRequired paymentRequired = findAnnotation("paywalledMethod")
+        LocalPaymentFlow paymentFlow = localFlowManager.getPaymentFlowByAnnotation(paymentRequired,request)
+        RequestData requestData = new RequestData("digest".bytes, clock.instant())
+        paymentFlow.@preImageHash = "hash1".bytes
+        paymentFlow.@requestData = requestData
+        SettlementResult cachedResult = new SettlementResult(new Settlement("hash1".bytes,null,inFuture(Duration.ofMinutes(180)), null,false), "cachedtoken")
+        when:
+        boolean isSettled = paymentFlow.isSettled()
+        SettlementResult result = paymentFlow.getSettlement()
+        then:
+        isSettled
+        1 * settlementResultCache.getSettlementResult("hash1".bytes, requestData, false, null) >> cachedResult
+        0 * paymentHandler.checkSettlement(_,_)
+        result.is(cachedResult)
+        paymentFlow.@settlement == cachedResult.settlement
+    }
+
+    def "Verify that requestPayments generates invoices of all flows without pooled invoice in one batch"(){
+        setup:
+        BaseInvoicePool invoicePool = Mock(BaseInvoicePool)
+        localFlowManager.invoicePool = invoicePool
+        PaymentRequired paymentRequired = findAnnotation("paywalledMethod")
+        List<PaymentFlow> paymentFlows = (1..3).collect{ localFlowManager.getPaymentFlowByAnnotation(paymentRequired,request) }
+        paymentFlows.each{ setClock(it) }
+        Invoice pooledInvoice = new Invoice("pooledhash".bytes, "pooledbolt11invoice", "desc", new BTC(10000), nodeInfo,
+                inFuture(Duration.ofMinutes(60)), clock.instant())
+        when:
+        List<InvoiceResult> results = localFlowManager.requestPayments(paymentFlows)
+        then:
+        3 * request.getMethod() >> "POST"
+        3 * request.getRequestURL() >> new StringBuffer("http://test1/test")
+        3 * invoicePool.poll(_) >>> [null, pooledInvoice, null]
+        0 * paymentHandler.createOrder(_,_)
+        1 * paymentHandler.createOrders(_,_) >> { List<byte[]> preImageHashes, List<OrderRequest> orderRequests ->
+            assert preImageHashes.size() == 2
+            assert orderRequests.size() == 2
+            return preImageHashes.collect{ new Order(it, "Some description",new BTC(10000), inFuture(Duration.ofMinutes(60))) }
+        }
+        0 * lightningHandler.generateInvoice(_,_)
+        1 * lightningHandler.generateInvoices(_,_) >> { List<PreImageData> preImageData, List<ConvertedOrder> convertedOrders ->
+            assert preImageData.size() == 2
+            return (0..1).collect{ new Invoice(preImageData[it].preImageHash, "somebolt11invoice" + it, convertedOrders[it].description,
+                    convertedOrders[it].convertedAmount, nodeInfo, inFuture(Duration.ofMinutes(60)), clock.instant()) }
+        }
+        results.collect{ it.invoice.bolt11Invoice } == ["somebolt11invoice0", "pooledbolt11invoice", "somebolt11invoice1"]
+        results.every{ it.token != null }
+        paymentFlows[0].getPreImageHash() == results[0].invoice.preImageHash
+        paymentFlows[2].getPreImageHash() == results[2].invoice.preImageHash
+    }
+
     def "Verify getNotBeforeDate return null if notBeforeDuration is null"(){
         setup:
         localFlowManager = new TestPaymentFlowManager(PaymentFlowMode.LOCAL,tokenGenerator,
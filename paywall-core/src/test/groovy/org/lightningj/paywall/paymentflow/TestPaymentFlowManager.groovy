@@ -18,6 +18,7 @@ import org.lightningj.paywall.currencyconverter.CurrencyConverter
 import org.lightningj.paywall.lightninghandler.LightningHandler
 import org.lightningj.paywall.orderrequestgenerator.OrderRequestGeneratorFactory
 import org.lightningj.paywall.paymenthandler.PaymentHandler
+import org.lightningj.paywall.qrcode.QRCodePreRenderer
 import org.lightningj.paywall.requestpolicy.RequestPolicyFactory
 import org.lightningj.paywall.tokengenerator.TokenGenerator
 import org.lightningj.paywall.vo.OrderRequest
@@ -39,6 +40,10 @@ class TestPaymentFlowManager extends BasePaymentFlowManager{
     OrderRequestGeneratorFactory orderRequestGeneratorFactory
     String centralSystemRecipientId
     boolean registerNew
+    BaseInvoicePool invoicePool
+    QRCodePreRenderer qrCodePreRenderer
+    BaseOutstandingInvoiceIndex outstandingInvoiceIndex
+    BaseSettlementResultCache settlementResultCache
 
     List getPaymentFlowModeCalls = []
 
@@ -102,6 +107,26 @@ class TestPaymentFlowManager extends BasePaymentFlowManager{
         return orderRequestGeneratorFactory
     }
 
+    @Override
+    protected BaseInvoicePool getInvoicePool() {
+        return invoicePool
+    }
+
+    @Override
+    protected QRCodePreRenderer getQRCodePreRenderer() {
+        return qrCodePreRenderer
+    }
+
+    @Override
+    protected BaseOutstandingInvoiceIndex getOutstandingInvoiceIndex() {
+        return outstandingInvoiceIndex
+    }
+
+    @Override
+    protected BaseSettlementResultCache getSettlementResultCache() {
+        return settlementResultCache
+    }
+
     @Override
     protected String getCentralSystemRecipientId() {
         return centralSystemRecipientId
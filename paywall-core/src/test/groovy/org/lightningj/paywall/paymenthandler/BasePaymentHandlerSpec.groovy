@@ -16,20 +16,29 @@ package org.lightningj.paywall.paymenthandler
 
 import org.lightningj.paywall.AlreadyExecutedException
 import org.lightningj.paywall.InternalErrorException
+import org.lightningj.paywall.articlecatalog.ArticleCatalog
 import org.lightningj.paywall.lightninghandler.LightningEvent
 import org.lightningj.paywall.lightninghandler.LightningEventType
 import org.lightningj.paywall.lightninghandler.LightningHandler
 import org.lightningj.paywall.lightninghandler.LightningHandlerContext
+import org.lightningj.paywall.lightninghandler.lnd.LNDContextCheckpointStore
 import org.lightningj.paywall.lightninghandler.lnd.LNDLightningHandlerContext
 import org.lightningj.paywall.paymenthandler.data.PaymentData
 import org.lightningj.paywall.util.Base58
+import org.lightningj.paywall.util.StripedLock
 import org.lightningj.paywall.vo.Invoice
 import org.lightningj.paywall.vo.Order
 import org.lightningj.paywall.vo.OrderRequest
 import org.lightningj.paywall.vo.Settlement
+import org.lightningj.paywall.vo.amount.Amount
 import org.lightningj.paywall.vo.amount.BTC
+import org.lightningj.paywall.vo.amount.CryptoAmount
+import org.lightningj.paywall.vo.amount.FiatAmount
+import org.lightningj.paywall.vo.amount.Magnetude
 import spock.lang.Specification
+import spock.lang.Unroll
 
+import java.nio.file.Files
 import java.time.Clock
 import java.time.Duration
 import java.time.Instant
@@ -67,6 +76,7 @@ class BasePaymentHandlerSpec extends Specification {
         paymentHandler.init()
         then:
         paymentHandler.paymentEventBus != null
+        paymentHandler.paymentLocks.size() >= StripedLock.DEFAULT_STRIPES
         paymentHandler.paymentDataConverter.lightningHandler == lightningHandler
         paymentHandler.paymentDataConverter.defaultSettlementValidity.toMinutes() == 5
         paymentHandler.paymentDataConverter.defaultInvoiceValidity.toMinutes() == 60
@@ -378,6 +388,26 @@ PerRequestPaymentData even though OrderRequest contains payPerRequest flag."""()
         ctx.settleIndex == null
     }
 
+    def "Verify that getLightningHandlerContext returns last checkpoint if checkpoint store is configured and onLightningEvent updates the checkpoint."(){
+        setup:
+        def dir = Files.createTempDirectory("checkpoint")
+        paymentHandler.contextStore = new LNDContextCheckpointStore(dir.resolve("ctx.json"), 1, 0)
+        paymentHandler.paymentEventBus = Mock(PaymentEventBus)
+        when:
+        LNDLightningHandlerContext ctx = paymentHandler.getLightningHandlerContext()
+        then:
+        ctx.addIndex == null
+        ctx.settleIndex == null
+        when:
+        paymentHandler.onLightningEvent(new LightningEvent(LightningEventType.SETTLEMENT,genFullInvoiceData(true), context))
+        ctx = new LNDContextCheckpointStore(dir.resolve("ctx.json")).load()
+        then:
+        ctx.addIndex == 10
+        ctx.settleIndex == 20
+        cleanup:
+        dir.toFile().deleteDir()
+    }
+
     def "Verify that onLightningEvent calls updatePaymentData properly for PaymentEventType INVOICE_CREATED"(){
         setup:
         paymentHandler.paymentEventBus = Mock(PaymentEventBus)
@@ -411,6 +441,43 @@ PerRequestPaymentData even though OrderRequest contains payPerRequest flag."""()
         }
     }
 
+    def "Verify that onLightningEvent publishes event on settlement notification bus and that listeners of other instances are notified"(){
+        setup:
+        LoopbackSettlementNotificationTransport transport = new LoopbackSettlementNotificationTransport()
+        TestPaymentHandler otherPaymentHandler = new TestPaymentHandler(Mock(LightningHandler))
+        otherPaymentHandler.notificationBus = new DefaultSettlementNotificationBus(transport.connect())
+        otherPaymentHandler.init()
+        paymentHandler.notificationBus = new DefaultSettlementNotificationBus(transport)
+        paymentHandler.init()
+        def localListener = new TestPaymentEventListener(null, PaymentEventType.INVOICE_SETTLED, false)
+        def otherListener = new TestPaymentEventListener(null, PaymentEventType.INVOICE_SETTLED, false)
+        paymentHandler.registerListener(localListener)
+        otherPaymentHandler.registerListener(otherListener)
+        when:
+        paymentHandler.onLightningEvent(new LightningEvent(LightningEventType.SETTLEMENT,genFullInvoiceData(true), context))
+        then:
+        localListener.events.size() == 1
+        localListener.events[0].payment instanceof Settlement
+        otherListener.events.size() == 1
+        otherListener.events[0].type == PaymentEventType.INVOICE_SETTLED
+        otherListener.events[0].payment instanceof Settlement
+        otherListener.events[0].payment.preImageHash == Base58.decode("HXRC")
+        ((Settlement) otherListener.events[0].payment).validUntil.toEpochMilli() == 1544917414514
+        ((Settlement) otherListener.events[0].payment).invoice.bolt11Invoice == "fksjeoskajduakdfhaskdismensuduajseusdke"
+        otherPaymentHandler.updatePaymentDataCalls.size() == 0
+    }
+
+    def "Verify that onLightningEvent logs error if publishing on settlement notification bus fails"(){
+        setup:
+        paymentHandler.settlementNotificationBus = Mock(SettlementNotificationBus)
+        when:
+        paymentHandler.onLightningEvent(new LightningEvent(LightningEventType.SETTLEMENT,genFullInvoiceData(true), context))
+        then:
+        1 * paymentHandler.settlementNotificationBus.publish({ it.type == PaymentEventType.INVOICE_SETTLED }) >> { throw new InternalErrorException("Some Error")}
+        1 * BasePaymentHandler.log.log(Level.SEVERE, "Error publishing payment event of type INVOICE_SETTLED on settlement notification bus: Some Error",_ as InternalErrorException)
+        0 * BasePaymentHandler.log.log(Level.SEVERE, {it =~ "Error updating payment data"}, _)
+    }
+
     def "Verify that onLightningEvent logs info about skipping an invoice it hasn't created before hand."(){
         setup:
         paymentHandler.paymentEventBus = Mock(PaymentEventBus)
@@ -424,6 +491,13 @@ PerRequestPaymentData even though OrderRequest contains payPerRequest flag."""()
 
     }
 
+    def "Verify that isAwaitingSettlement returns true only for existing payment data not already settled"(){
+        expect:
+        paymentHandler.isAwaitingSettlement("abc".bytes)
+        !paymentHandler.isAwaitingSettlement("HXRCSettled".bytes)
+        !paymentHandler.isAwaitingSettlement("unknown".bytes)
+    }
+
     def "Verify that onLightningEvent logs error if any exception occurs during processing"(){
         setup:
         paymentHandler.paymentEventBus = Mock(PaymentEventBus)
@@ -435,9 +509,121 @@ PerRequestPaymentData even though OrderRequest contains payPerRequest flag."""()
         1 * BasePaymentHandler.log.log(Level.SEVERE, "Error updating payment data on Lightning event of type SETTLEMENT, invoice preimage hash: HXRC, message: Some Error",_ as InternalErrorException)
     }
 
+    def "Verify that purgeExpired removes expired payment data in batches until a batch isn't full and updates metrics"(){
+        setup:
+        Instant expiredBefore = Instant.ofEpochMilli(1544917114514L)
+        paymentHandler.removeExpiredResults = [500, 500, 12]
+        when:
+        long purged = paymentHandler.purgeExpired(expiredBefore)
+        then:
+        purged == 1012
+        paymentHandler.removeExpiredCalls.size() == 3
+        paymentHandler.removeExpiredCalls.every { it.expiredBefore == expiredBefore && it.maxRows == 500 }
+        paymentHandler.purgeMetrics.sweeps == 1
+        paymentHandler.purgeMetrics.totalRowsPurged == 1012
+        paymentHandler.purgeMetrics.lastRowsPurged == 1012
+        paymentHandler.purgeMetrics.failedSweeps == 0
+        1 * BasePaymentHandler.log.log(Level.FINE, {it =~ "Purged 1012 expired payment data in"})
+    }
+
+    def "Verify that default removeExpiredPaymentData removes nothing"(){
+        expect:
+        new BasePaymentHandler(){
+            protected LightningHandler getLightningHandler() { return null }
+            protected Duration getDefaultInvoiceValidity() { return null }
+            protected Duration getDefaultSettlementValidity() { return null }
+            protected boolean isLightningHandlerAutoconnect() { return false }
+            protected PaymentData newPaymentData(byte[] preImageHash, OrderRequest orderRequest) { return null }
+            protected PaymentData findPaymentData(byte[] preImageHash) { return null }
+            protected void updatePaymentData(PaymentEventType type, PaymentData paymentData, LightningHandlerContext context) { }
+        }.purgeExpired(Instant.now()) == 0
+    }
+
+    def "Verify that purgeExpired registers a failed sweep if removeExpiredPaymentData throws exception"(){
+        setup:
+        paymentHandler.removeExpiredResults = [new InternalErrorException("test")]
+        when:
+        paymentHandler.purgeExpired(Instant.now())
+        then:
+        thrown InternalErrorException
+        paymentHandler.purgeMetrics.failedSweeps == 1
+        paymentHandler.purgeMetrics.sweeps == 0
+    }
+
+    def "Verify that createOrder prices order request with article catalog before calling newPaymentData"(){
+        setup:
+        paymentHandler.articleCatalog = Mock(ArticleCatalog)
+        OrderRequest or = new OrderRequest("article1", 3, [], false)
+        when:
+        Order order = paymentHandler.createOrder("abc".bytes, or)
+        then:
+        1 * paymentHandler.articleCatalog.getUnitPrice("article1") >> new BTC(100)
+        order.orderAmount instanceof BTC
+        order.orderAmount.value == 300
+        paymentHandler.newPaymentDataCalls.size() == 1
+        paymentHandler.newPaymentDataCalls[0].orderAmount.value == 300
+        paymentHandler.newPaymentDataCalls[0].paymentData.orderAmount.value == 300
+    }
+
+    def "Verify that createOrder calls newPaymentData without order amount if no article catalog is configured"(){
+        when:
+        Order order = paymentHandler.createOrder("abc".bytes, new OrderRequest("article1", 3, [], false))
+        then:
+        paymentHandler.newPaymentDataCalls[0].orderAmount == null
+        order.orderAmount.value == 1000
+    }
+
+    def "Verify that createOrder doesn't create payment data if article doesn't exist in article catalog"(){
+        setup:
+        paymentHandler.articleCatalog = Mock(ArticleCatalog)
+        when:
+        paymentHandler.createOrder("abc".bytes, new OrderRequest("unknown", 1, [], false))
+        then:
+        def e = thrown InternalErrorException
+        e.message == "Internal error calculating order amount, article id unknown doesn't exist in article catalog."
+        paymentHandler.newPaymentDataCalls.size() == 0
+    }
+
+    @Unroll
+    def "Verify that calculateOrderAmount multiplies unit price #unitPrice with #units units"(){
+        setup:
+        paymentHandler.articleCatalog = Mock(ArticleCatalog)
+        paymentHandler.articleCatalog.getUnitPrice("article1") >> unitPrice
+        when:
+        def amount = paymentHandler.calculateOrderAmount(new OrderRequest("article1", units, [], false))
+        then:
+        amount.class == unitPrice.class
+        amount.value == expectedValue
+        amount.currencyCode == unitPrice.currencyCode
+        where:
+        unitPrice                                   | units | expectedValue
+        new BTC(10)                                 | 5     | 50
+        new BTC(10, Magnetude.MILLI)                | 2     | 20
+        new CryptoAmount(10, "LTC", Magnetude.NONE) | 3     | 30
+        new FiatAmount(1.5, "USD")                  | 2     | 3.0
+        new BTC(10)                                 | 0     | 10
+    }
+
+    def "Verify that calculateOrderAmount throws InternalErrorException if no catalog is configured or article doesn't exist"(){
+        when:
+        paymentHandler.calculateOrderAmount(new OrderRequest("article1", 1, [], false))
+        then:
+        def e = thrown InternalErrorException
+        e.message == "Internal error calculating order amount, no article catalog configured in payment handler."
+        when:
+        paymentHandler.articleCatalog = Mock(ArticleCatalog)
+        paymentHandler.calculateOrderAmount(new OrderRequest("article1", 1, [], false))
+        then:
+        e = thrown InternalErrorException
+        e.message == "Internal error calculating order amount, article id article1 doesn't exist in article catalog."
+    }
+
     static class TestPaymentHandler extends BasePaymentHandler{
 
         boolean autoconnect = false
+        ArticleCatalog articleCatalog
+        LNDContextCheckpointStore contextStore
+        SettlementNotificationBus notificationBus
 
         TestPaymentHandler(LightningHandler lightningHandler){
             this.lightningHandler = lightningHandler
@@ -445,6 +631,8 @@ PerRequestPaymentData even though OrderRequest contains payPerRequest flag."""()
         List newPaymentDataCalls = []
         List findPaymentDataCalls = []
         List updatePaymentDataCalls = []
+        List removeExpiredCalls = []
+        List removeExpiredResults = []
         LightningHandler lightningHandler
 
         @Override
@@ -452,6 +640,21 @@ PerRequestPaymentData even though OrderRequest contains payPerRequest flag."""()
             return this.lightningHandler
         }
 
+        @Override
+        protected ArticleCatalog getArticleCatalog() {
+            return articleCatalog
+        }
+
+        @Override
+        protected LNDContextCheckpointStore getLightningHandlerContextStore() {
+            return contextStore
+        }
+
+        @Override
+        protected SettlementNotificationBus getSettlementNotificationBus() {
+            return notificationBus
+        }
+
         @Override
         protected Duration getDefaultInvoiceValidity() {
             return Duration.ofMinutes(60)
@@ -469,8 +672,16 @@ PerRequestPaymentData even though OrderRequest contains payPerRequest flag."""()
 
         @Override
         protected PaymentData newPaymentData(byte[] preImageHash, OrderRequest orderRequest) throws IOException, InternalErrorException {
-            newPaymentDataCalls << [preImageHash: preImageHash, orderRequest: orderRequest]
-            return new TestMinimalData(preImageHash: preImageHash, orderAmount: new BTC(1000))
+            PaymentData paymentData = new TestMinimalData(preImageHash: preImageHash, orderAmount: new BTC(1000))
+            newPaymentDataCalls << [preImageHash: preImageHash, orderRequest: orderRequest, paymentData: paymentData]
+            return paymentData
+        }
+
+        @Override
+        protected PaymentData newPaymentData(byte[] preImageHash, OrderRequest orderRequest, Amount orderAmount) throws IOException, InternalErrorException {
+            PaymentData paymentData = new TestMinimalData(preImageHash: preImageHash, orderAmount: orderAmount)
+            newPaymentDataCalls << [preImageHash: preImageHash, orderRequest: orderRequest, orderAmount: orderAmount, paymentData: paymentData]
+            return paymentData
         }
 
         @Override
@@ -495,6 +706,16 @@ PerRequestPaymentData even though OrderRequest contains payPerRequest flag."""()
         protected void updatePaymentData(PaymentEventType type, PaymentData paymentData, LightningHandlerContext context) throws IOException, InternalErrorException {
             updatePaymentDataCalls << [type: type, paymentData: paymentData, context: context]
         }
+
+        @Override
+        protected int removeExpiredPaymentData(Instant expiredBefore, int maxRows) throws IOException, InternalErrorException {
+            removeExpiredCalls << [expiredBefore: expiredBefore, maxRows: maxRows]
+            def result = removeExpiredResults.remove(0)
+            if(result instanceof Exception){
+                throw result
+            }
+            return result
+        }
     }
 
 }
@@ -0,0 +1,113 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.paymenthandler
+
+import org.lightningj.paywall.InternalErrorException
+import org.lightningj.paywall.vo.Invoice
+import org.lightningj.paywall.vo.InvoiceSpec
+import spock.lang.Specification
+
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Unit tests for DefaultSettlementNotificationBus and LoopbackSettlementNotificationTransport.
+ */
+class DefaultSettlementNotificationBusSpec extends Specification {
+
+    Invoice invoice = InvoiceSpec.genFullInvoiceData()
+
+    List<PaymentEvent> receivedA = []
+    List<PaymentEvent> receivedB = []
+
+    LoopbackSettlementNotificationTransport transportA = new LoopbackSettlementNotificationTransport()
+    LoopbackSettlementNotificationTransport transportB = transportA.connect()
+    DefaultSettlementNotificationBus busA = new DefaultSettlementNotificationBus(transportA)
+    DefaultSettlementNotificationBus busB = new DefaultSettlementNotificationBus(transportB)
+
+    def setup(){
+        DefaultSettlementNotificationBus.log = Mock(Logger)
+        busA.start({ receivedA << it })
+        busB.start({ receivedB << it })
+    }
+
+    def "Verify that published events are delivered once to local receiver and to receivers of other instances"(){
+        when:
+        busA.publish(new PaymentEvent(PaymentEventType.INVOICE_CREATED, invoice))
+        then:
+        receivedA.size() == 1
+        receivedA[0].payment == invoice
+        receivedB.size() == 1
+        receivedB[0].type == PaymentEventType.INVOICE_CREATED
+        receivedB[0].payment.preImageHash == invoice.preImageHash
+        busA.origin != busB.origin
+    }
+
+    def "Verify that bus without transport only delivers to local receiver"(){
+        setup:
+        List<PaymentEvent> received = []
+        DefaultSettlementNotificationBus bus = new DefaultSettlementNotificationBus()
+        bus.start({ received << it })
+        when:
+        bus.publish(new PaymentEvent(PaymentEventType.INVOICE_CREATED, invoice))
+        then:
+        received.size() == 1
+        receivedA.size() == 0
+        receivedB.size() == 0
+    }
+
+    def "Verify that event is delivered locally and error is logged if transport fails to send"(){
+        setup:
+        SettlementNotificationTransport transport = Mock(SettlementNotificationTransport)
+        List<PaymentEvent> received = []
+        DefaultSettlementNotificationBus bus = new DefaultSettlementNotificationBus(transport)
+        bus.start({ received << it })
+        when:
+        bus.publish(new PaymentEvent(PaymentEventType.INVOICE_CREATED, invoice))
+        then:
+        1 * transport.send(_) >> { throw new IOException("Some error") }
+        received.size() == 1
+        1 * DefaultSettlementNotificationBus.log.log(Level.SEVERE, "Error sending INVOICE_CREATED notification to other instances: Some error", _ as IOException)
+    }
+
+    def "Verify that start throws InternalErrorException if transport subscription fails"(){
+        setup:
+        SettlementNotificationTransport transport = Mock(SettlementNotificationTransport)
+        transport.subscribe(_) >> { throw new IOException("Some error") }
+        when:
+        new DefaultSettlementNotificationBus(transport).start({})
+        then:
+        def e = thrown(InternalErrorException)
+        e.message == "Error subscribing to settlement notification transport: Some error"
+    }
+
+    def "Verify that invalid received messages are logged and ignored"(){
+        when:
+        transportA.send("invalid")
+        then:
+        receivedA.size() == 0
+        receivedB.size() == 0
+        2 * DefaultSettlementNotificationBus.log.log(Level.SEVERE, {it =~ "Error processing received settlement notification"}, _)
+    }
+
+    def "Verify that closed instances no longer receives events"(){
+        when:
+        busB.close()
+        busA.publish(new PaymentEvent(PaymentEventType.INVOICE_CREATED, invoice))
+        then:
+        receivedA.size() == 1
+        receivedB.size() == 0
+    }
+}
@@ -16,9 +16,11 @@ package org.lightningj.paywall.paymenthandler
 
 import org.lightningj.paywall.vo.Invoice
 import org.lightningj.paywall.vo.InvoiceSpec
+import org.lightningj.paywall.vo.Settlement
 import spock.lang.Specification
 
 import javax.json.JsonException
+import java.time.Instant
 
 import static org.lightningj.paywall.JSONParsableSpec.toJsonObject
 
@@ -88,4 +90,19 @@ class PaymentEventSpec extends Specification {
         e = thrown(JsonException)
         e.message == "Error parsing JSON data, field key payment is required."
     }
+
+    def "Verify that settled events with settlement payment is parsed as Settlement and other payments as Invoice"(){
+        setup:
+        Settlement settlement = new Settlement(invoiceData.preImageHash, invoiceData, Instant.ofEpochMilli(12345), null, false)
+        when:
+        PaymentEvent d = new PaymentEvent(toJsonObject(new PaymentEvent(PaymentEventType.INVOICE_SETTLED, settlement).toJsonAsString(false)))
+        then:
+        d.payment instanceof Settlement
+        ((Settlement) d.payment).validUntil.toEpochMilli() == 12345
+        ((Settlement) d.payment).invoice.bolt11Invoice == invoiceData.bolt11Invoice
+        when:
+        d = new PaymentEvent(toJsonObject(new PaymentEvent(PaymentEventType.INVOICE_SETTLED, invoiceData).toJsonAsString(false)))
+        then:
+        d.payment instanceof Invoice
+    }
 }
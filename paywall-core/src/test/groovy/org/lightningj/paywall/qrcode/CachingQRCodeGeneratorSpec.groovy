@@ -0,0 +1,150 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.qrcode
+
+import spock.lang.Specification
+
+import java.util.concurrent.ThreadPoolExecutor
+
+/**
+ * Unit tests for CachingQRCodeGenerator.
+ */
+class CachingQRCodeGeneratorSpec extends Specification {
+
+    TestCachingQRCodeGenerator generator = new TestCachingQRCodeGenerator()
+
+    def cleanup(){
+        generator.close()
+    }
+
+    def "Verify that generated images are cached by data, width and height"(){
+        expect:
+        generator.generatePNG(null,10,10) == null
+        when:
+        byte[] image1 = generator.generatePNG("abc", 100, 100)
+        byte[] image2 = generator.generatePNG("abc", 100, 100)
+        byte[] image3 = generator.generatePNG("abc", 120, 100)
+        byte[] image4 = generator.generatePNG("abd", 100, 100)
+        then:
+        image1.is(image2)
+        !image1.is(image3)
+        !image1.is(image4)
+        generator.cacheHits == 1
+        generator.cacheMisses == 3
+        generator.cachedImages == 3
+        generator.cachedBytes == image1.length + image3.length + image4.length
+    }
+
+    def "Verify that SVG images and module matrixes are cached separately from PNG images"(){
+        expect:
+        generator.generateSVG(null,10,10) == null
+        generator.generateMatrix(null) == null
+        when:
+        byte[] png = generator.generatePNG("abc", 100, 100)
+        String svg1 = generator.generateSVG("abc", 100, 100)
+        String svg2 = generator.generateSVG("abc", 100, 100)
+        byte[] matrix1 = generator.generateMatrix("abc")
+        byte[] matrix2 = generator.generateMatrix("abc")
+        then:
+        svg1.is(svg2)
+        matrix1.is(matrix2)
+        generator.cacheHits == 2
+        generator.cacheMisses == 3
+        generator.cachedImages == 3
+        generator.cachedBytes == png.length + 2 * svg1.length() + matrix1.length
+    }
+
+    def "Verify that least recently used images are evicted when total size exceeds maximum cache bytes"(){
+        setup:
+        byte[] image1 = generator.generatePNG("abc1", 100, 100)
+        generator.maxBytes = image1.length * 2 + image1.length.intdiv(2)
+        byte[] image2 = generator.generatePNG("abc2", 100, 100)
+        when: "Access first image to make second image least recently used"
+        generator.generatePNG("abc1", 100, 100)
+        generator.generatePNG("abc3", 100, 100)
+        then:
+        generator.cachedImages == 2
+        generator.cachedBytes <= generator.maxBytes
+        generator.generatePNG("abc1", 100, 100).is(image1)
+        !generator.generatePNG("abc2", 100, 100).is(image2)
+    }
+
+    def "Verify that images aren't cached if max cache bytes is 0"(){
+        setup:
+        generator.maxBytes = 0
+        when:
+        generator.generatePNG("abc", 100, 100)
+        generator.generatePNG("abc", 100, 100)
+        then:
+        generator.cachedImages == 0
+        generator.cacheMisses == 2
+    }
+
+    def "Verify that preRender renders QR code with default dimensions in background only if enabled"(){
+        when:
+        generator.preRender("abc")
+        then:
+        generator.cachedImages == 0
+        when:
+        generator.preRenderFlag = true
+        generator.preRender("abc")
+        long deadline = System.currentTimeMillis() + 5000
+        while(generator.cachedImages == 0 && System.currentTimeMillis() < deadline){
+            Thread.sleep(10)
+        }
+        generator.generatePNG("abc", CachingQRCodeGenerator.DEFAULT_PRE_RENDER_WIDTH, CachingQRCodeGenerator.DEFAULT_PRE_RENDER_HEIGHT)
+        then:
+        generator.cachedImages == 1
+        generator.cacheHits == 1
+    }
+
+    def "Verify that pre-render requests are queued in a bounded queue and discarded when it is full"(){
+        setup:
+        generator.preRenderFlag = true
+        generator.preRenderQueueSize = 2
+        when:
+        generator.preRender("abc")
+        ThreadPoolExecutor executor = generator.preRenderExecutor
+        then:
+        executor.maximumPoolSize == 1
+        executor.queue.size() + executor.queue.remainingCapacity() == 2
+        executor.rejectedExecutionHandler instanceof ThreadPoolExecutor.DiscardPolicy
+        when:
+        10.times { generator.preRender("abc" + it) }
+        then:
+        notThrown Exception
+    }
+
+    static class TestCachingQRCodeGenerator extends CachingQRCodeGenerator{
+        long maxBytes = DEFAULT_MAX_CACHE_BYTES
+        boolean preRenderFlag = false
+        int preRenderQueueSize = DEFAULT_PRE_RENDER_QUEUE_SIZE
+
+        @Override
+        protected long getMaxCacheBytes() {
+            return maxBytes
+        }
+
+        @Override
+        protected boolean isPreRenderEnabled() {
+            return preRenderFlag
+        }
+
+        @Override
+        protected int getPreRenderQueueSize() {
+            return preRenderQueueSize
+        }
+    }
+}
@@ -19,10 +19,12 @@ import com.google.zxing.MultiFormatReader
 import com.google.zxing.Result
 import com.google.zxing.client.j2se.BufferedImageLuminanceSource
 import com.google.zxing.common.HybridBinarizer
+import org.lightningj.paywall.InternalErrorException
 import org.lightningj.paywall.util.Base64Utils
 import spock.lang.Specification
 
 import javax.imageio.ImageIO
+import java.awt.image.BufferedImage
 
 /**
  * Unit tests for DefaultQRCodeGenerator.
@@ -43,6 +45,54 @@ class DefaultQRCodeGeneratorSpec extends Specification {
 
     }
 
+    def "Verify that generateSVG generates a scalable QRCode with one path of dark modules"(){
+        expect:
+        generator.generateSVG(null,10,10) == null
+        when:
+        String svg = generator.generateSVG("lntb500u1pwpj37x",200,200)
+        byte[] matrix = generator.generateMatrix("lntb500u1pwpj37x")
+        int size = (matrix[0] & 0xFF) << 8 | (matrix[1] & 0xFF)
+        int total = size + 2 * DefaultQRCodeGenerator.QUIET_ZONE
+        then:
+        svg.startsWith('<svg xmlns="http://www.w3.org/2000/svg" width="200" height="200" viewBox="0 0 ' + total + ' ' + total + '"')
+        svg.contains('<rect width="' + total + '" height="' + total + '" fill="#fff"/>')
+        svg.findAll(/<path /).size() == 1
+        svg.contains('<path fill="#000" d="M4 4h7v1h-7z')
+        svg.endsWith("</svg>")
+    }
+
+    def "Verify that generateMatrix generates a packed module matrix that decodes to the same data"(){
+        expect:
+        generator.generateMatrix(null) == null
+        when:
+        byte[] matrix = generator.generateMatrix("lntb500u1pwpj37xpp55935pf8dl3ky5ppzqp08axy4h4a7vuyu9dgzycln38s4nr45xhrsdqqcqzys")
+        int size = (matrix[0] & 0xFF) << 8 | (matrix[1] & 0xFF)
+        then:
+        size >= 21
+        (size - 17) % 4 == 0
+        matrix.length == 2 + (size * size + 7).intdiv(8)
+        readMatrix(matrix, size) == "lntb500u1pwpj37xpp55935pf8dl3ky5ppzqp08axy4h4a7vuyu9dgzycln38s4nr45xhrsdqqcqzys"
+    }
+
+    private String readMatrix(byte[] matrix, int size){
+        int scale = 4
+        int total = (size + 2 * DefaultQRCodeGenerator.QUIET_ZONE) * scale
+        BufferedImage image = new BufferedImage(total, total, BufferedImage.TYPE_INT_RGB)
+        for(int y=0; y<total; y++){
+            for(int x=0; x<total; x++){
+                int mx = x.intdiv(scale) - DefaultQRCodeGenerator.QUIET_ZONE
+                int my = y.intdiv(scale) - DefaultQRCodeGenerator.QUIET_ZONE
+                boolean dark = false
+                if(mx >= 0 && my >= 0 && mx < size && my < size){
+                    int bit = my * size + mx
+                    dark = (matrix[2 + (bit >> 3)] & (0x80 >> (bit & 7))) != 0
+                }
+                image.setRGB(x, y, dark ? 0x000000 : 0xFFFFFF)
+            }
+        }
+        Result result = new MultiFormatReader().decode(new BinaryBitmap(new HybridBinarizer(new BufferedImageLuminanceSource(image))))
+        return result.getText()
+    }
 
     private String readQRCode(byte[] data){
         BinaryBitmap binaryBitmap = new BinaryBitmap(new HybridBinarizer(
@@ -52,6 +102,28 @@ class DefaultQRCodeGeneratorSpec extends Specification {
         return qrCodeResult.getText()
     }
 
+    def "Verify that QRCodeGenerator implementations only supporting PNG throws InternalErrorException for SVG and matrix"(){
+        setup:
+        QRCodeGenerator pngOnly = new PNGOnlyQRCodeGenerator()
+        when:
+        pngOnly.generateSVG("abc", 100, 100)
+        then:
+        def e = thrown InternalErrorException
+        e.message == "Error generating QR Code, SVG format is not supported by " + PNGOnlyQRCodeGenerator.name + "."
+        when:
+        pngOnly.generateMatrix("abc")
+        then:
+        e = thrown InternalErrorException
+        e.message == "Error generating QR Code, matrix format is not supported by " + PNGOnlyQRCodeGenerator.name + "."
+    }
+
+    static class PNGOnlyQRCodeGenerator implements QRCodeGenerator{
+        @Override
+        byte[] generatePNG(String data, int width, int height) throws InternalErrorException {
+            return new byte[0]
+        }
+    }
+
     def expectedQRCode = "iVBORw0KGgoAAAANSUhEUgAAAMgAAADIAQAAAACFI5MzAAADMUlEQVR42u3XPdKtKBAGYEhgC5DI1jTBLUjCT6JbkAS3hglsAROYnppgzrlV3tvxzGf6VHkQmrf7kPH2kB/5kR/570onvMYYg98EP8VMHEZcsWsYIxzeztvaUTKvWY6Yl3oXlzXDiaaJmCS9NVljZd153BnRQptQcOKKMEk1K7TyvHaUEKb/fb737U3guZI7hTXnJOsv5/MincwuyaeTyd1tlhEjI7vnqFnwJtYxjgMjnXo1br94HuKxK+8QMrwV8koTI3bjt7cY6YLGzuQpmLpOLe+BkBEez5+itXBlcuFAyTii17LTImTdp69TeJNurifTbsrSN9q0GQgZWavghQmnqvAFxWEkdNlNp83FXaidD4yMLMSSLa+hzUuaHUa6TIzv0svhTWwCJSHUczbjajT66XvVbwIlqF0svE3uaCbUgZCRaJb1ZEuj187s5/m8SqcnT8zVQrtenn8K8Y9CZrmvzy5PFRvjFSPjHs352d1JHddTL4x0iBW+Cwe3y667ag4hI8ldZk1vCCV5NTUwshPCmIHwu599JtphpNvliHm2LtxXsnIgBBJWrElvmo6rML05hIxkyVKPZnm38rQWJZ7o1euJEPcUQuhASF/i/TyxqOcJaVsfjIyrendf58ToqQnPDiHdQiSN0MwdvUnT5+68i7oz0bJJP0k/s4/b+BsRKtaY+X2fTEGkD4zQkDd1Gi+YKWQ5HUKgeq8Llg6JucHbxkAJ1CD8cBbmymRjDiNpM7XmSTW5T+o+UTKODn2MekZjpjWhJKT1PhIksp3hFDaMdMtjJyZ6JqMXM8PI8NPsrjKbBmnU+efuvEo3nsO4UY8iR/D0s5++yzTxeFo2L10bmL0GRuQNUxD0isk9sKmfVfUqY980NEAGsQ/z0/OZb++SmRWmCbghT2Hss2O8Smdm12uCqwIL6PJECS1MENmINTGTzxR7l78z1j2ZWJm0EF/59iowpW0GbpV2NVavv+e3N3HVz9D+rSpW5q+3vcusFXQZT7YVJumv7/mdEOVhfk6y9olNSNlU4YeHFlPoU1DiiqZQ6nZiAiImoYQwlZkZAYL23GTGyM//rB/5kf+R/AUYW4TuGDPk5wAAAABJRU5ErkJggg=="
 
 
@@ -0,0 +1,119 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.util
+
+import spock.lang.Specification
+
+import java.time.Clock
+
+/**
+ * Unit tests for HashedTimerWheel
+ */
+class HashedTimerWheelSpec extends Specification {
+
+    long currentTime = 10000
+    Clock clock = Mock(Clock)
+
+    def setup(){
+        clock.millis() >> { currentTime }
+    }
+
+    def "Verify that entries expires first after the tick of their deadline have passed"(){
+        setup:
+        HashedTimerWheel<String> wheel = new HashedTimerWheel<>(1000, 8, clock)
+        when:
+        wheel.schedule("a", 10500)
+        wheel.schedule("b", 11200)
+        wheel.schedule("c", 12999)
+        then:
+        wheel.size() == 3
+        wheel.advance() == []
+        when:
+        currentTime = 11000
+        then:
+        wheel.advance() == ["a"]
+        wheel.size() == 2
+        when:
+        currentTime = 14000
+        then:
+        wheel.advance().sort() == ["b","c"]
+        wheel.size() == 0
+    }
+
+    def "Verify that entries with deadline more than one revolution away stays until their round"(){
+        setup:
+        HashedTimerWheel<String> wheel = new HashedTimerWheel<>(1000, 4, clock)
+        when:
+        wheel.schedule("far", 10000 + 4 * 1000 + 500)
+        wheel.schedule("near", 10500)
+        currentTime = 11000
+        then:
+        wheel.advance() == ["near"]
+        when:
+        currentTime = 14000
+        then:
+        wheel.advance() == []
+        when:
+        currentTime = 15000
+        then:
+        wheel.advance() == ["far"]
+    }
+
+    def "Verify that entries with passed deadline expires at next advance and that a long pause processes all buckets"(){
+        setup:
+        HashedTimerWheel<String> wheel = new HashedTimerWheel<>(1000, 4, clock)
+        currentTime = 12000
+        wheel.advance()
+        when:
+        wheel.schedule("passed", 5000)
+        wheel.schedule("later", 13500)
+        currentTime = 13000
+        then:
+        wheel.advance() == ["passed"]
+        when:
+        currentTime = 100000
+        then:
+        wheel.advance() == ["later"]
+    }
+
+    def "Verify that cancelled entries are never expired"(){
+        setup:
+        HashedTimerWheel<String> wheel = new HashedTimerWheel<>(clock)
+        def timeout = wheel.schedule("a", 10500)
+        when:
+        boolean cancelled = wheel.cancel(timeout)
+        currentTime = 20000
+        then:
+        cancelled
+        !wheel.cancel(timeout)
+        wheel.size() == 0
+        wheel.advance() == []
+        timeout.key == "a"
+        timeout.deadline == 10500
+    }
+
+    def "Verify that invalid tick duration or wheel size throws IllegalArgumentException"(){
+        when:
+        new HashedTimerWheel<String>(0, 8, clock)
+        then:
+        def e = thrown(IllegalArgumentException)
+        e.message == "Invalid timer wheel tick duration 0, must be at least 1."
+        when:
+        new HashedTimerWheel<String>(1000, 0, clock)
+        then:
+        e = thrown(IllegalArgumentException)
+        e.message == "Invalid timer wheel size 0, must be at least 1."
+    }
+}
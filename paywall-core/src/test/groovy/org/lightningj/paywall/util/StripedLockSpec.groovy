@@ -0,0 +1,79 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.util
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Unit tests for StripedLock
+ */
+class StripedLockSpec extends Specification {
+
+    @Unroll
+    def "Verify that #stripes requested stripes allocates #expected locks"(){
+        expect:
+        new StripedLock(stripes).size() == expected
+        where:
+        stripes | expected
+        1       | 1
+        2       | 2
+        3       | 4
+        16      | 16
+        17      | 32
+    }
+
+    def "Verify that default constructor allocates at least DEFAULT_STRIPES locks"(){
+        expect:
+        new StripedLock().size() >= StripedLock.DEFAULT_STRIPES
+    }
+
+    def "Verify that constructor throws IllegalArgumentException for less than one stripe"(){
+        when:
+        new StripedLock(0)
+        then:
+        def e = thrown IllegalArgumentException
+        e.message == "Invalid number of lock stripes 0, must be at least 1."
+    }
+
+    def "Verify that same key always returns the same lock and equal content keys map to same lock"(){
+        setup:
+        StripedLock stripedLock = new StripedLock(64)
+        expect:
+        stripedLock.get("abc".bytes).is(stripedLock.get("abc".bytes))
+        stripedLock.indexOf("abc".bytes) < 64
+    }
+
+    def "Verify that a locked key blocks other threads using the same key"(){
+        setup:
+        StripedLock stripedLock = new StripedLock(1)
+        CountDownLatch latch = new CountDownLatch(1)
+        boolean acquired = true
+        when:
+        stripedLock.get("abc".bytes).lock()
+        Thread t = new Thread({
+            acquired = stripedLock.get("def".bytes).tryLock(50, TimeUnit.MILLISECONDS)
+            latch.countDown()
+        })
+        t.start()
+        latch.await()
+        stripedLock.get("abc".bytes).unlock()
+        then:
+        !acquired
+    }
+}
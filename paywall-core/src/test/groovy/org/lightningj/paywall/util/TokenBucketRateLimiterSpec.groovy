@@ -0,0 +1,94 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.util
+
+import spock.lang.Specification
+
+import java.time.Clock
+
+/**
+ * Unit tests for TokenBucketRateLimiter
+ */
+class TokenBucketRateLimiterSpec extends Specification {
+
+    long currentTime = 1000000L
+    Clock clock = Mock(Clock)
+
+    def setup(){
+        clock.millis() >> { currentTime }
+    }
+
+    def "Verify that each key has its own bucket"(){
+        setup:
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(60, 1, 10, clock)
+        expect:
+        limiter.tryAcquire("client1") == 0
+        limiter.tryAcquire("client1") == 1000
+        limiter.tryAcquire("client2") == 0
+        limiter.size() == 2
+    }
+
+    def "Verify that keys used in previous generation keep their bucket while unused keys are evicted"(){
+        setup:
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(60, 1, 4, clock)
+        limiter.tryAcquire("abuser")
+        limiter.tryAcquire("client1")
+        when: "New keys rotate the generations, the abuser keeps sending requests"
+        limiter.tryAcquire("client2")
+        limiter.tryAcquire("client3")
+        def abuserWait = limiter.tryAcquire("abuser")
+        limiter.tryAcquire("client4")
+        then:
+        abuserWait == 1000
+        limiter.size() == 4
+        limiter.tryAcquire("abuser") == 1000
+        when: "client1 wasn't used during a whole generation"
+        def client1Wait = limiter.tryAcquire("client1")
+        then:
+        client1Wait == 0
+    }
+
+    def "Verify that number of keys never exceeds max keys"(){
+        setup:
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(60, 1, 4, clock)
+        when:
+        for(int i = 0; i < 100; i++){
+            assert limiter.tryAcquire("client" + i) == 0
+        }
+        then:
+        limiter.size() == 4
+    }
+
+    def "Verify that release gives back token to the bucket of the key"(){
+        setup:
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(60, 1, 10, clock)
+        limiter.tryAcquire("client1")
+        when:
+        limiter.release("client1")
+        limiter.release("unknown")
+        then:
+        limiter.tryAcquire("client1") == 0
+        limiter.tryAcquire("client1") == 1000
+        limiter.size() == 1
+    }
+
+    def "Verify that invalid max keys throws IllegalArgumentException"(){
+        when:
+        new TokenBucketRateLimiter(60, 1, 0, clock)
+        then:
+        def e = thrown IllegalArgumentException
+        e.message == "Invalid rate limiter max keys 0, must be at least 1."
+    }
+}
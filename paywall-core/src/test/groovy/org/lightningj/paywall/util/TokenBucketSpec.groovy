@@ -0,0 +1,104 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.util
+
+import spock.lang.Specification
+
+import java.time.Clock
+
+/**
+ * Unit tests for TokenBucket
+ */
+class TokenBucketSpec extends Specification {
+
+    long currentTime = 1000000L
+    Clock clock = Mock(Clock)
+
+    def setup(){
+        clock.millis() >> { currentTime }
+    }
+
+    def "Verify that a new bucket admits burst size tokens and then returns time until next token"(){
+        setup:
+        TokenBucket bucket = new TokenBucket(60, 3, clock)
+        expect:
+        bucket.isFull()
+        bucket.tryAcquire() == 0
+        !bucket.isFull()
+        bucket.tryAcquire() == 0
+        bucket.tryAcquire() == 0
+        bucket.tryAcquire() == 1000
+        when:
+        currentTime += 400
+        then:
+        bucket.tryAcquire() == 600
+        when:
+        currentTime += 600
+        then:
+        bucket.tryAcquire() == 0
+        bucket.tryAcquire() == 1000
+    }
+
+    def "Verify that bucket is refilled with the configured rate up to burst size"(){
+        setup:
+        TokenBucket bucket = new TokenBucket(120, 2, clock)
+        bucket.tryAcquire()
+        bucket.tryAcquire()
+        when:
+        currentTime += 500
+        then:
+        !bucket.isFull()
+        when:
+        currentTime += 10000
+        then:
+        bucket.isFull()
+        bucket.tryAcquire() == 0
+        bucket.tryAcquire() == 0
+        bucket.tryAcquire() == 500
+    }
+
+    def "Verify that released token can be taken again but bucket never exceeds burst size"(){
+        setup:
+        TokenBucket bucket = new TokenBucket(60, 2, clock)
+        bucket.tryAcquire()
+        bucket.tryAcquire()
+        when:
+        bucket.release()
+        then:
+        bucket.isFull() == false
+        bucket.tryAcquire() == 0
+        bucket.tryAcquire() == 1000
+        when:
+        currentTime += 10000
+        bucket.release()
+        then:
+        bucket.tryAcquire() == 0
+        bucket.tryAcquire() == 0
+        bucket.tryAcquire() == 1000
+    }
+
+    def "Verify that invalid rate or burst size throws IllegalArgumentException"(){
+        when:
+        new TokenBucket(0, 1, clock)
+        then:
+        def e = thrown IllegalArgumentException
+        e.message == "Invalid token bucket rate 0, must be at least 1 per minute."
+        when:
+        new TokenBucket(1, 0, clock)
+        then:
+        e = thrown IllegalArgumentException
+        e.message == "Invalid token bucket burst size 0, must be at least 1."
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.jdbc;
+
+import org.lightningj.paywall.paymenthandler.data.FullPaymentData;
+import org.lightningj.paywall.vo.amount.Amount;
+import org.lightningj.paywall.vo.amount.CryptoAmount;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * FullPaymentData implementation used by JDBCPaymentHandler, each field
+ * is mapped to a typed column in the payment data table by JDBCPaymentDataDAO.
+ */
+public class JDBCPaymentData implements FullPaymentData {
+
+    private byte[] preImageHash;
+    private Amount orderAmount;
+    private boolean settled = false;
+    private String description;
+    private CryptoAmount invoiceAmount;
+    private Instant invoiceDate;
+    private Instant invoiceExpireDate;
+    private CryptoAmount settledAmount;
+    private Instant settlementDate;
+    private Duration settlementDuration;
+    private boolean payPerRequest = false;
+    private boolean executed = false;
+    private String bolt11Invoice;
+    private Instant settlementValidFrom;
+    private Instant settlementExpireDate;
+
+    /**
+     * Empty Constructor
+     */
+    public JDBCPaymentData(){
+    }
+
+    /**
+     * Copy constructor creating a shallow copy of all fields in given payment data.
+     *
+     * @param other the payment data to copy.
+     */
+    public JDBCPaymentData(JDBCPaymentData other){
+        this.preImageHash = other.preImageHash;
+        this.orderAmount = other.orderAmount;
+        this.settled = other.settled;
+        this.description = other.description;
+        this.invoiceAmount = other.invoiceAmount;
+        this.invoiceDate = other.invoiceDate;
+        this.invoiceExpireDate = other.invoiceExpireDate;
+        this.settledAmount = other.settledAmount;
+        this.settlementDate = other.settlementDate;
+        this.settlementDuration = other.settlementDuration;
+        this.payPerRequest = other.payPerRequest;
+        this.executed = other.executed;
+        this.bolt11Invoice = other.bolt11Invoice;
+        this.settlementValidFrom = other.settlementValidFrom;
+        this.settlementExpireDate = other.settlementExpireDate;
+    }
+
+    /**
+     * @return the unique preImageHash of the payment, used as primary key in database.
+     */
+    @Override
+    public byte[] getPreImageHash() {
+        return preImageHash;
+    }
+
+    /**
+     * @param preImageHash the unique preImageHash of the payment, used as primary key in database.
+     */
+    @Override
+    public void setPreImageHash(byte[] preImageHash) {
+        this.preImageHash = preImageHash;
+    }
+
+    /**
+     * @return the requested amount for payment, either a FiatAmount or CryptoAmount.
+     */
+    @Override
+    public Amount getOrderAmount() {
+        return orderAmount;
+    }
+
+    /**
+     * @param orderAmount the requested amount for payment, either a FiatAmount or CryptoAmount.
+     */
+    @Override
+    public void setOrderAmount(Amount orderAmount) {
+        this.orderAmount = orderAmount;
+    }
+
+    /**
+     * @return true if related invoice have been settled in full.
+     */
+    @Override
+    public boolean isSettled() {
+        return settled;
+    }
+
+    /**
+     * @param settled true if related invoice have been settled in full.
+     */
+    @Override
+    public void setSettled(boolean settled) {
+        this.settled = settled;
+    }
+
+    /**
+     * @return a short description of the payment used in the lightning invoice.
+     */
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @param description a short description of the payment used in the lightning invoice.
+     */
+    @Override
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    /**
+     * @return the amount set in the lightning invoice.
+     */
+    @Override
+    public CryptoAmount getInvoiceAmount() {
+        return invoiceAmount;
+    }
+
+    /**
+     * @param invoiceAmount the amount set in the lightning invoice.
+     */
+    @Override
+    public void setInvoiceAmount(CryptoAmount invoiceAmount) {
+        this.invoiceAmount = invoiceAmount;
+    }
+
+    /**
+     * @return the date the invoice was created in LightningHandler.
+     */
+    @Override
+    public Instant getInvoiceDate() {
+        return invoiceDate;
+    }
+
+    /**
+     * @param invoiceDate the date the invoice was created in LightningHandler.
+     */
+    @Override
+    public void setInvoiceDate(Instant invoiceDate) {
+        this.invoiceDate = invoiceDate;
+    }
+
+    /**
+     * @return the date a generated invoice should expire.
+     */
+    @Override
+    public Instant getInvoiceExpireDate() {
+        return invoiceExpireDate;
+    }
+
+    /**
+     * @param invoiceExpireDate the date a generated invoice should expire.
+     */
+    @Override
+    public void setInvoiceExpireDate(Instant invoiceExpireDate) {
+        this.invoiceExpireDate = invoiceExpireDate;
+    }
+
+    /**
+     * @return the amount that was settled, null if invoice isn't settled yet.
+     */
+    @Override
+    public CryptoAmount getSettledAmount() {
+        return settledAmount;
+    }
+
+    /**
+     * @param settledAmount the amount that was settled, null if invoice isn't settled yet.
+     */
+    @Override
+    public void setSettledAmount(CryptoAmount settledAmount) {
+        this.settledAmount = settledAmount;
+    }
+
+    /**
+     * @return the timestamp the invoice was settled in LightningHandler. Null if not settled yet.
+     */
+    @Override
+    public Instant getSettlementDate() {
+        return settlementDate;
+    }
+
+    /**
+     * @param settlementDate the timestamp the invoice was settled in LightningHandler. Null if not settled yet.
+     */
+    @Override
+    public void setSettlementDate(Instant settlementDate) {
+        this.settlementDate = settlementDate;
+    }
+
+    /**
+     * @return the duration the settlement should be valid, null if default settlement duration
+     * should be used or if a fixed expiration date should be used.
+     */
+    @Override
+    public Duration getSettlementDuration() {
+        return settlementDuration;
+    }
+
+    /**
+     * @param settlementDuration the duration the settlement should be valid, null if default settlement duration
+     * should be used or if a fixed expiration date should be used.
+     */
+    @Override
+    public void setSettlementDuration(Duration settlementDuration) {
+        this.settlementDuration = settlementDuration;
+    }
+
+    /**
+     * @return true if payment is for one request only.
+     */
+    @Override
+    public boolean isPayPerRequest() {
+        return payPerRequest;
+    }
+
+    /**
+     * @param payPerRequest true if payment is for one request only.
+     */
+    @Override
+    public void setPayPerRequest(boolean payPerRequest) {
+        this.payPerRequest = payPerRequest;
+    }
+
+    /**
+     * @return true if related pay per request payment have been executed.
+     */
+    @Override
+    public boolean isExecuted() {
+        return executed;
+    }
+
+    /**
+     * @param executed true if related pay per request payment have been executed.
+     */
+    @Override
+    public void setExecuted(boolean executed) {
+        this.executed = executed;
+    }
+
+    /**
+     * @return the bolt11 lightning invoice displayed to the end user before paying.
+     */
+    @Override
+    public String getBolt11Invoice() {
+        return bolt11Invoice;
+    }
+
+    /**
+     * @param bolt11Invoice the bolt11 lightning invoice displayed to the end user before paying.
+     */
+    @Override
+    public void setBolt11Invoice(String bolt11Invoice) {
+        this.bolt11Invoice = bolt11Invoice;
+    }
+
+    /**
+     * @return the valid from timestamp used in generated settlement tokens, null if not used.
+     */
+    @Override
+    public Instant getSettlementValidFrom() {
+        return settlementValidFrom;
+    }
+
+    /**
+     * @param settlementValidFrom the valid from timestamp used in generated settlement tokens, null if not used.
+     */
+    @Override
+    public void setSettlementValidFrom(Instant settlementValidFrom) {
+        this.settlementValidFrom = settlementValidFrom;
+    }
+
+    /**
+     * @return a fixed expire date of generated settlements, null if settlement duration should be used.
+     */
+    @Override
+    public Instant getSettlementExpireDate() {
+        return settlementExpireDate;
+    }
+
+    /**
+     * @param settlementExpireDate a fixed expire date of generated settlements, null if settlement duration should be used.
+     */
+    @Override
+    public void setSettlementExpireDate(Instant settlementExpireDate) {
+        this.settlementExpireDate = settlementExpireDate;
+    }
+}
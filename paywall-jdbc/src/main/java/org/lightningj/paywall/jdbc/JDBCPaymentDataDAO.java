@@ -0,0 +1,509 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.jdbc;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.vo.amount.Amount;
+import org.lightningj.paywall.vo.amount.CryptoAmount;
+import org.lightningj.paywall.vo.amount.FiatAmount;
+import org.lightningj.paywall.vo.amount.Magnetude;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Data access object mapping JDBCPaymentData to a single table with
+ * typed columns and the 32 byte preImageHash as BINARY primary key.
+ * <p>
+ * All SQL statements are built once per DAO instance so connection pools or
+ * drivers with prepared statement caching enabled reuse the same statements, and
+ * batch methods reuse a single prepared statement for all rows in one round trip.
+ * </p>
+ * <p>
+ * Amounts are stored as value, currency code and magnetude ordinal columns and
+ * timestamps as epoch milliseconds in BIGINT columns. The DDL in
+ * {@link #getCreateTableSQL()} and {@link #getCreateIndexSQL()} is written for H2 and MySQL/MariaDB, other
+ * databases might need to replace BINARY(32) with their binary type, for example
+ * BYTEA in PostgreSQL.
+ * </p>
+ */
+public class JDBCPaymentDataDAO {
+
+    /**
+     * Default name of payment data table.
+     */
+    public static final String DEFAULT_TABLE_NAME = "PAYWALL_PAYMENT_DATA";
+
+    /**
+     * Default settlement validity used when calculating the expire date of settled
+     * rows without settlement expire date or duration.
+     */
+    public static final Duration DEFAULT_SETTLEMENT_VALIDITY = Duration.ofHours(24);
+
+    static final int AMOUNT_TYPE_CRYPTO = 0;
+    static final int AMOUNT_TYPE_FIAT = 1;
+
+    private static final String COLUMNS = "ORDER_AMOUNT_TYPE, ORDER_AMOUNT_VALUE, ORDER_AMOUNT_FIAT_VALUE, ORDER_AMOUNT_CURRENCY, ORDER_AMOUNT_MAGNETUDE, " +
+            "DESCRIPTION, INVOICE_AMOUNT_VALUE, INVOICE_AMOUNT_CURRENCY, INVOICE_AMOUNT_MAGNETUDE, INVOICE_DATE, INVOICE_EXPIRE_DATE, " +
+            "SETTLED, SETTLED_AMOUNT_VALUE, SETTLED_AMOUNT_CURRENCY, SETTLED_AMOUNT_MAGNETUDE, SETTLEMENT_DATE, SETTLEMENT_DURATION, " +
+            "SETTLEMENT_VALID_FROM, SETTLEMENT_EXPIRE_DATE, PAY_PER_REQUEST, EXECUTED, BOLT11_INVOICE";
+
+    private static final String UPDATE_COLUMNS = COLUMNS.replace(",", " = ?,") + " = ?";
+
+    private final DataSource dataSource;
+    private final String tableName;
+    private final Duration defaultSettlementValidity;
+
+    private final String createTableSQL;
+    private final String createIndexSQL;
+    private final String insertSQL;
+    private final String updateSQL;
+    private final String updateIfNotSettledSQL;
+    private final String findSQL;
+    private final String deleteSQL;
+    private final String findExpiredSQL;
+
+    /**
+     * Constructor of DAO using the default table name.
+     *
+     * @param dataSource the data source to fetch connections from.
+     */
+    public JDBCPaymentDataDAO(DataSource dataSource){
+        this(dataSource, DEFAULT_TABLE_NAME);
+    }
+
+    /**
+     * Constructor of DAO.
+     *
+     * @param dataSource the data source to fetch connections from.
+     * @param tableName the name of the payment data table.
+     */
+    public JDBCPaymentDataDAO(DataSource dataSource, String tableName){
+        this(dataSource, tableName, DEFAULT_SETTLEMENT_VALIDITY);
+    }
+
+    /**
+     * Constructor of DAO.
+     *
+     * @param dataSource the data source to fetch connections from.
+     * @param tableName the name of the payment data table.
+     * @param defaultSettlementValidity the settlement validity used to calculate the expire date
+     *                                  of settled rows without settlement expire date or duration.
+     */
+    public JDBCPaymentDataDAO(DataSource dataSource, String tableName, Duration defaultSettlementValidity){
+        this.dataSource = dataSource;
+        this.tableName = tableName;
+        this.defaultSettlementValidity = defaultSettlementValidity;
+
+        createTableSQL = "CREATE TABLE IF NOT EXISTS " + tableName + " (" +
+                "PRE_IMAGE_HASH BINARY(32) NOT NULL PRIMARY KEY, " +
+                "ORDER_AMOUNT_TYPE SMALLINT, " +
+                "ORDER_AMOUNT_VALUE BIGINT, " +
+                "ORDER_AMOUNT_FIAT_VALUE DOUBLE, " +
+                "ORDER_AMOUNT_CURRENCY VARCHAR(10), " +
+                "ORDER_AMOUNT_MAGNETUDE SMALLINT, " +
+                "DESCRIPTION VARCHAR(640), " +
+                "INVOICE_AMOUNT_VALUE BIGINT, " +
+                "INVOICE_AMOUNT_CURRENCY VARCHAR(10), " +
+                "INVOICE_AMOUNT_MAGNETUDE SMALLINT, " +
+                "INVOICE_DATE BIGINT, " +
+                "INVOICE_EXPIRE_DATE BIGINT, " +
+                "SETTLED BOOLEAN NOT NULL, " +
+                "SETTLED_AMOUNT_VALUE BIGINT, " +
+                "SETTLED_AMOUNT_CURRENCY VARCHAR(10), " +
+                "SETTLED_AMOUNT_MAGNETUDE SMALLINT, " +
+                "SETTLEMENT_DATE BIGINT, " +
+                "SETTLEMENT_DURATION BIGINT, " +
+                "SETTLEMENT_VALID_FROM BIGINT, " +
+                "SETTLEMENT_EXPIRE_DATE BIGINT, " +
+                "PAY_PER_REQUEST BOOLEAN NOT NULL, " +
+                "EXECUTED BOOLEAN NOT NULL, " +
+                "BOLT11_INVOICE VARCHAR(2048), " +
+                "EXPIRE_DATE BIGINT)";
+        createIndexSQL = "CREATE INDEX IF NOT EXISTS " + tableName + "_EXP_IDX ON " + tableName + " (EXPIRE_DATE)";
+        insertSQL = "INSERT INTO " + tableName + " (" + COLUMNS + ", EXPIRE_DATE, PRE_IMAGE_HASH) VALUES (" +
+                "?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        updateSQL = "UPDATE " + tableName + " SET " + UPDATE_COLUMNS + ", EXPIRE_DATE = ? WHERE PRE_IMAGE_HASH = ?";
+        updateIfNotSettledSQL = updateSQL + " AND SETTLED = FALSE";
+        findSQL = "SELECT " + COLUMNS + ", PRE_IMAGE_HASH FROM " + tableName + " WHERE PRE_IMAGE_HASH = ?";
+        deleteSQL = "DELETE FROM " + tableName + " WHERE PRE_IMAGE_HASH = ?";
+        findExpiredSQL = "SELECT PRE_IMAGE_HASH FROM " + tableName + " WHERE EXPIRE_DATE < ?";
+    }
+
+    /**
+     * Method to create the payment data table and the index on its expire
+     * date if they don't exist.
+     *
+     * @throws InternalErrorException if problems occurred creating the table.
+     */
+    public void createTable() throws InternalErrorException{
+        try(Connection connection = dataSource.getConnection();
+            Statement statement = connection.createStatement()){
+            statement.execute(createTableSQL);
+            statement.execute(createIndexSQL);
+        }catch(SQLException e){
+            throw new InternalErrorException("Error creating payment data table " + tableName + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Method to insert a new payment data row.
+     *
+     * @param paymentData the payment data to insert.
+     * @throws InternalErrorException if problems occurred inserting the payment data.
+     */
+    public void insert(JDBCPaymentData paymentData) throws InternalErrorException{
+        try(Connection connection = dataSource.getConnection();
+            PreparedStatement statement = connection.prepareStatement(insertSQL)){
+            setParameters(statement, paymentData);
+            statement.executeUpdate();
+        }catch(SQLException e){
+            throw new InternalErrorException("Error inserting payment data into table " + tableName + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Method to insert a collection of payment data rows in one batch.
+     *
+     * @param paymentDatas the payment data to insert.
+     * @throws InternalErrorException if problems occurred inserting the payment data.
+     */
+    public void insertBatch(Collection<JDBCPaymentData> paymentDatas) throws InternalErrorException{
+        if(paymentDatas.isEmpty()){
+            return;
+        }
+        try(Connection connection = dataSource.getConnection();
+            PreparedStatement statement = connection.prepareStatement(insertSQL)){
+            for(JDBCPaymentData paymentData : paymentDatas) {
+                setParameters(statement, paymentData);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }catch(SQLException e){
+            throw new InternalErrorException("Error batch inserting payment data into table " + tableName + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Method to update an existing payment data row.
+     *
+     * @param paymentData the payment data to update.
+     * @param onlyIfNotSettled if true is the row only updated if it isn't already marked as settled
+     *                         in database, used to avoid that delayed writes overwrites newer state.
+     * @return true if a row was updated.
+     * @throws InternalErrorException if problems occurred updating the payment data.
+     */
+    public boolean update(JDBCPaymentData paymentData, boolean onlyIfNotSettled) throws InternalErrorException{
+        try(Connection connection = dataSource.getConnection();
+            PreparedStatement statement = connection.prepareStatement(onlyIfNotSettled ? updateIfNotSettledSQL : updateSQL)){
+            setParameters(statement, paymentData);
+            return statement.executeUpdate() > 0;
+        }catch(SQLException e){
+            throw new InternalErrorException("Error updating payment data in table " + tableName + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Method to update a collection of payment data rows in one batch.
+     *
+     * @param paymentDatas the payment data to update.
+     * @param onlyIfNotSettled if true is the rows only updated if they aren't already marked as settled
+     *                         in database, used to avoid that delayed writes overwrites newer state.
+     * @throws InternalErrorException if problems occurred updating the payment data.
+     */
+    public void updateBatch(Collection<JDBCPaymentData> paymentDatas, boolean onlyIfNotSettled) throws InternalErrorException{
+        if(paymentDatas.isEmpty()){
+            return;
+        }
+        try(Connection connection = dataSource.getConnection();
+            PreparedStatement statement = connection.prepareStatement(onlyIfNotSettled ? updateIfNotSettledSQL : updateSQL)){
+            for(JDBCPaymentData paymentData : paymentDatas) {
+                setParameters(statement, paymentData);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }catch(SQLException e){
+            throw new InternalErrorException("Error batch updating payment data in table " + tableName + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Method to find a payment data by its preImageHash.
+     *
+     * @param preImageHash the preImageHash of the payment.
+     * @return the related payment data or null if not found.
+     * @throws InternalErrorException if problems occurred reading the payment data.
+     */
+    public JDBCPaymentData find(byte[] preImageHash) throws InternalErrorException{
+        try(Connection connection = dataSource.getConnection();
+            PreparedStatement statement = connection.prepareStatement(findSQL)){
+            statement.setBytes(1, preImageHash);
+            try(ResultSet resultSet = statement.executeQuery()){
+                if(!resultSet.next()){
+                    return null;
+                }
+                return toPaymentData(resultSet);
+            }
+        }catch(SQLException e){
+            throw new InternalErrorException("Error reading payment data from table " + tableName + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Method to remove a payment data row.
+     *
+     * @param preImageHash the preImageHash of the payment.
+     * @return true if a row was removed.
+     * @throws InternalErrorException if problems occurred removing the payment data.
+     */
+    public boolean delete(byte[] preImageHash) throws InternalErrorException{
+        try(Connection connection = dataSource.getConnection();
+            PreparedStatement statement = connection.prepareStatement(deleteSQL)){
+            statement.setBytes(1, preImageHash);
+            return statement.executeUpdate() > 0;
+        }catch(SQLException e){
+            throw new InternalErrorException("Error removing payment data from table " + tableName + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Method to find the preImageHash of payment data expired before given time using the
+     * indexed expire date column calculated when the row was written, see {@link #getExpireDate(JDBCPaymentData)}.
+     *
+     * @param expiredBefore rows expired before this time are returned.
+     * @param maxRows the maximum number of preImageHashes to return.
+     * @return list of preImageHashes of expired rows, never null.
+     * @throws InternalErrorException if problems occurred reading the payment data.
+     */
+    public List<byte[]> findExpired(Instant expiredBefore, int maxRows) throws InternalErrorException{
+        try(Connection connection = dataSource.getConnection();
+            PreparedStatement statement = connection.prepareStatement(findExpiredSQL)){
+            statement.setMaxRows(maxRows);
+            statement.setLong(1, expiredBefore.toEpochMilli());
+            List<byte[]> retval = new ArrayList<>();
+            try(ResultSet resultSet = statement.executeQuery()){
+                while(resultSet.next() && retval.size() < maxRows){
+                    retval.add(resultSet.getBytes(1));
+                }
+            }
+            return retval;
+        }catch(SQLException e){
+            throw new InternalErrorException("Error finding expired payment data in table " + tableName + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Method to remove a collection of payment data rows in one batch.
+     *
+     * @param preImageHashes the preImageHashes of the rows to remove.
+     * @return the number of removed rows.
+     * @throws InternalErrorException if problems occurred removing the payment data.
+     */
+    public int deleteBatch(Collection<byte[]> preImageHashes) throws InternalErrorException{
+        if(preImageHashes.isEmpty()){
+            return 0;
+        }
+        try(Connection connection = dataSource.getConnection();
+            PreparedStatement statement = connection.prepareStatement(deleteSQL)){
+            for(byte[] preImageHash : preImageHashes) {
+                statement.setBytes(1, preImageHash);
+                statement.addBatch();
+            }
+            int removed = 0;
+            for(int count : statement.executeBatch()){
+                // Drivers might return SUCCESS_NO_INFO (-2) instead of actual count.
+                removed += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+            }
+            return removed;
+        }catch(SQLException e){
+            throw new InternalErrorException("Error batch removing payment data from table " + tableName + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     *
+     * @return the DDL statement used to create the payment data table.
+     */
+    public String getCreateTableSQL(){
+        return createTableSQL;
+    }
+
+    /**
+     *
+     * @return the DDL statement used to create the index on the expire date column.
+     */
+    public String getCreateIndexSQL(){
+        return createIndexSQL;
+    }
+
+    /**
+     *
+     * @return the name of the payment data table.
+     */
+    public String getTableName(){
+        return tableName;
+    }
+
+    /**
+     * Help method setting all column parameters in the same order as COLUMNS
+     * followed by the expire date and the preImageHash.
+     */
+    private void setParameters(PreparedStatement s, JDBCPaymentData d) throws SQLException{
+        int i = 1;
+        Amount orderAmount = d.getOrderAmount();
+        if(orderAmount instanceof FiatAmount){
+            s.setInt(i++, AMOUNT_TYPE_FIAT);
+            s.setNull(i++, Types.BIGINT);
+            s.setDouble(i++, ((FiatAmount) orderAmount).getValue());
+            s.setString(i++, ((FiatAmount) orderAmount).getCurrencyCode());
+            s.setNull(i++, Types.SMALLINT);
+        }else{
+            if(orderAmount == null){
+                s.setNull(i++, Types.SMALLINT);
+            }else{
+                s.setInt(i++, AMOUNT_TYPE_CRYPTO);
+            }
+            i = setCryptoAmount(s, i, (CryptoAmount) orderAmount, true);
+        }
+        s.setString(i++, d.getDescription());
+        i = setCryptoAmount(s, i, d.getInvoiceAmount(), false);
+        setInstant(s, i++, d.getInvoiceDate());
+        setInstant(s, i++, d.getInvoiceExpireDate());
+        s.setBoolean(i++, d.isSettled());
+        i = setCryptoAmount(s, i, d.getSettledAmount(), false);
+        setInstant(s, i++, d.getSettlementDate());
+        if(d.getSettlementDuration() != null){
+            s.setLong(i++, d.getSettlementDuration().toMillis());
+        }else{
+            s.setNull(i++, Types.BIGINT);
+        }
+        setInstant(s, i++, d.getSettlementValidFrom());
+        setInstant(s, i++, d.getSettlementExpireDate());
+        s.setBoolean(i++, d.isPayPerRequest());
+        s.setBoolean(i++, d.isExecuted());
+        s.setString(i++, d.getBolt11Invoice());
+        setInstant(s, i++, getExpireDate(d));
+        s.setBytes(i, d.getPreImageHash());
+    }
+
+    /**
+     * Help method calculating the time a row can be purged. Unsettled rows expire at
+     * invoice expire date and settled rows at settlement expire date or settlement date
+     * plus settlement duration, or default settlement validity if no duration is set.
+     *
+     * @param d the payment data to calculate expire date for.
+     * @return the expire date or null if the row shouldn't be purged.
+     */
+    Instant getExpireDate(JDBCPaymentData d){
+        if(!d.isSettled()){
+            return d.getInvoiceExpireDate();
+        }
+        if(d.getSettlementExpireDate() != null){
+            return d.getSettlementExpireDate();
+        }
+        if(d.getSettlementDate() != null){
+            return d.getSettlementDate().plus(d.getSettlementDuration() != null ? d.getSettlementDuration() : defaultSettlementValidity);
+        }
+        return null;
+    }
+
+    /**
+     * Help method setting value, currency code and magnetude parameters of a crypto amount,
+     * if withFiatValue is true is also an empty fiat value column set after the value.
+     *
+     * @return the next parameter index.
+     */
+    private int setCryptoAmount(PreparedStatement s, int i, CryptoAmount amount, boolean withFiatValue) throws SQLException{
+        if(amount == null){
+            s.setNull(i++, Types.BIGINT);
+            if(withFiatValue){
+                s.setNull(i++, Types.DOUBLE);
+            }
+            s.setNull(i++, Types.VARCHAR);
+            s.setNull(i++, Types.SMALLINT);
+        }else{
+            s.setLong(i++, amount.getValue());
+            if(withFiatValue){
+                s.setNull(i++, Types.DOUBLE);
+            }
+            s.setString(i++, amount.getCurrencyCode());
+            s.setInt(i++, amount.getMagnetude().ordinal());
+        }
+        return i;
+    }
+
+    private void setInstant(PreparedStatement s, int i, Instant instant) throws SQLException{
+        if(instant == null){
+            s.setNull(i, Types.BIGINT);
+        }else{
+            s.setLong(i, instant.toEpochMilli());
+        }
+    }
+
+    /**
+     * Help method converting the current row in result set to a JDBCPaymentData.
+     */
+    private JDBCPaymentData toPaymentData(ResultSet r) throws SQLException{
+        JDBCPaymentData d = new JDBCPaymentData();
+        int type = r.getInt("ORDER_AMOUNT_TYPE");
+        if(!r.wasNull()){
+            if(type == AMOUNT_TYPE_FIAT){
+                d.setOrderAmount(new FiatAmount(r.getDouble("ORDER_AMOUNT_FIAT_VALUE"), r.getString("ORDER_AMOUNT_CURRENCY")));
+            }else{
+                d.setOrderAmount(getCryptoAmount(r, "ORDER_AMOUNT"));
+            }
+        }
+        d.setDescription(r.getString("DESCRIPTION"));
+        d.setInvoiceAmount(getCryptoAmount(r, "INVOICE_AMOUNT"));
+        d.setInvoiceDate(getInstant(r, "INVOICE_DATE"));
+        d.setInvoiceExpireDate(getInstant(r, "INVOICE_EXPIRE_DATE"));
+        d.setSettled(r.getBoolean("SETTLED"));
+        d.setSettledAmount(getCryptoAmount(r, "SETTLED_AMOUNT"));
+        d.setSettlementDate(getInstant(r, "SETTLEMENT_DATE"));
+        long settlementDuration = r.getLong("SETTLEMENT_DURATION");
+        if(!r.wasNull()){
+            d.setSettlementDuration(Duration.ofMillis(settlementDuration));
+        }
+        d.setSettlementValidFrom(getInstant(r, "SETTLEMENT_VALID_FROM"));
+        d.setSettlementExpireDate(getInstant(r, "SETTLEMENT_EXPIRE_DATE"));
+        d.setPayPerRequest(r.getBoolean("PAY_PER_REQUEST"));
+        d.setExecuted(r.getBoolean("EXECUTED"));
+        d.setBolt11Invoice(r.getString("BOLT11_INVOICE"));
+        d.setPreImageHash(r.getBytes("PRE_IMAGE_HASH"));
+        return d;
+    }
+
+    private CryptoAmount getCryptoAmount(ResultSet r, String prefix) throws SQLException{
+        long value = r.getLong(prefix + "_VALUE");
+        if(r.wasNull()){
+            return null;
+        }
+        return new CryptoAmount(value, r.getString(prefix + "_CURRENCY"),
+                Magnetude.values()[r.getInt(prefix + "_MAGNETUDE")]);
+    }
+
+    private Instant getInstant(ResultSet r, String column) throws SQLException{
+        long value = r.getLong(column);
+        if(r.wasNull()){
+            return null;
+        }
+        return Instant.ofEpochMilli(value);
+    }
+}
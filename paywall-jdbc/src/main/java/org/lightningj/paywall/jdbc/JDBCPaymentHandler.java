@@ -0,0 +1,392 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.jdbc;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.lightninghandler.LightningHandlerContext;
+import org.lightningj.paywall.paymenthandler.BasePaymentHandler;
+import org.lightningj.paywall.paymenthandler.PaymentEventType;
+import org.lightningj.paywall.paymenthandler.data.PaymentData;
+import org.lightningj.paywall.vo.OrderRequest;
+import org.lightningj.paywall.vo.amount.Amount;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Abstract PaymentHandler persisting JDBCPaymentData over plain JDBC using
+ * JDBCPaymentDataDAO, without any ORM overhead per payment event.
+ * <p>
+ * Implementing classes only need to provide the DataSource and populate the
+ * order amount (and optionally description or settlement validity) of new payment
+ * data from an order request. If order amount isn't populated is it calculated
+ * from the ArticleCatalog if configured.
+ * </p>
+ * <p>
+ * New payment data and settlement or execution updates are written directly, payment data of
+ * orders created together through createOrders() are inserted in one JDBC batch. INVOICE_CREATED
+ * updates, which are not required to be durable before a settlement arrives, are
+ * collected in a write-behind buffer and flushed in a single JDBC batch when
+ * the buffer reaches the write batch size or at the write batch interval. Buffered
+ * entries are always consulted before the database on lookups, and a delayed batch
+ * never overwrites a row that have been marked as settled in the database.
+ * The lightning handler context checkpoint of processed events is only updated
+ * after all buffered updates up to that event have been written.
+ * Set the write batch interval to zero to disable write-behind and write all
+ * updates directly.
+ * </p>
+ * <p>
+ * Expired payment data is removed in batches by purgeExpired(), new payment data
+ * gets an invoice expire date of now plus default invoice validity unless set by the
+ * implementation so unpaid orders never invoiced are also purged.
+ * </p>
+ */
+public abstract class JDBCPaymentHandler extends BasePaymentHandler {
+
+    protected static Logger log = Logger.getLogger(JDBCPaymentHandler.class.getName());
+
+    /**
+     * Default maximum number of buffered updates before a batch is written.
+     */
+    public static final int DEFAULT_WRITE_BATCH_SIZE = 100;
+
+    /**
+     * Default maximum time updates are buffered before a batch is written.
+     */
+    public static final Duration DEFAULT_WRITE_BATCH_INTERVAL = Duration.ofMillis(500);
+
+    protected JDBCPaymentDataDAO paymentDataDAO;
+
+    protected Map<ByteBuffer, JDBCPaymentData> pendingWrites = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService writeScheduler;
+
+    // Context of the last processed lightning event with buffered updates not yet written, guarded by this.
+    private LightningHandlerContext unflushedContext;
+
+    protected Clock clock = Clock.systemDefaultZone();
+
+    /**
+     * Method that is called during the startup the application to
+     * set up the DAO and write-behind scheduler before initializing the
+     * base payment handler.
+     *
+     * @throws InternalErrorException if internal error occurred setting
+     * up the PaymentHandler.
+     */
+    @Override
+    public void init() throws InternalErrorException {
+        paymentDataDAO = new JDBCPaymentDataDAO(getDataSource(), getTableName(), getDefaultSettlementValidity());
+        if(isCreateTable()){
+            paymentDataDAO.createTable();
+        }
+        long interval = getWriteBatchInterval().toMillis();
+        if(interval > 0) {
+            writeScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "paywall-jdbc-writer");
+                t.setDaemon(true);
+                return t;
+            });
+            writeScheduler.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        super.init();
+    }
+
+    /**
+     * Method that creates and inserts a new JDBCPaymentData, the order data is
+     * populated by {@link #populatePaymentData(JDBCPaymentData, OrderRequest)}.
+     *
+     * @param preImageHash the unique preImageHash used to identify a payment flow
+     *                     withing a lightning payment.
+     * @param orderRequest the specification of the payment data that should be created calculated
+     *                     from data in the PaymentRequired annotation.
+     * @return a newly generated PaymentData signaling a new payment flow used to
+     * create an Order value object.
+     * @throws IOException if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred generating new payment data.
+     */
+    @Override
+    protected PaymentData newPaymentData(byte[] preImageHash, OrderRequest orderRequest) throws IOException, InternalErrorException {
+        return newPaymentData(preImageHash, orderRequest, null);
+    }
+
+    /**
+     * Method that creates and inserts a new JDBCPaymentData with the order amount
+     * calculated from the article catalog.
+     *
+     * @param preImageHash the unique preImageHash used to identify a payment flow
+     *                     withing a lightning payment.
+     * @param orderRequest the specification of the payment data that should be created calculated
+     *                     from data in the PaymentRequired annotation.
+     * @param orderAmount the order amount calculated by the article catalog, null if not priced.
+     * @return a newly generated PaymentData signaling a new payment flow used to
+     * create an Order value object.
+     * @throws IOException if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred generating new payment data.
+     */
+    @Override
+    protected PaymentData newPaymentData(byte[] preImageHash, OrderRequest orderRequest, Amount orderAmount) throws IOException, InternalErrorException {
+        JDBCPaymentData paymentData = genPaymentData(preImageHash, orderRequest, orderAmount);
+        paymentDataDAO.insert(paymentData);
+        return paymentData;
+    }
+
+    /**
+     * Method that creates new JDBCPaymentData for a list of order requests and inserts
+     * all of them in one JDBC batch.
+     *
+     * @param preImageHashes the unique preImageHashes of each payment flow.
+     * @param orderRequests the order requests in same order as preImageHashes.
+     * @return a list of newly generated PaymentData in same order as given preImageHashes.
+     * @throws IOException if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred generating new payment data.
+     */
+    @Override
+    protected List<PaymentData> newPaymentDatas(List<byte[]> preImageHashes, List<OrderRequest> orderRequests) throws IOException, InternalErrorException {
+        List<JDBCPaymentData> paymentDatas = new ArrayList<>(preImageHashes.size());
+        for(int i=0; i<preImageHashes.size(); i++){
+            paymentDatas.add(genPaymentData(preImageHashes.get(i), orderRequests.get(i), null));
+        }
+        paymentDataDAO.insertBatch(paymentDatas);
+        return new ArrayList<>(paymentDatas);
+    }
+
+    /**
+     * Help method creating a new JDBCPaymentData populated from order request, with order
+     * amount and invoice expire date set. The given order amount is used if not null.
+     */
+    private JDBCPaymentData genPaymentData(byte[] preImageHash, OrderRequest orderRequest, Amount orderAmount) throws IOException, InternalErrorException {
+        JDBCPaymentData paymentData = new JDBCPaymentData();
+        paymentData.setPreImageHash(preImageHash);
+        paymentData.setPayPerRequest(orderRequest.isPayPerRequest());
+        paymentData.setOrderAmount(orderAmount);
+        populatePaymentData(paymentData, orderRequest);
+        if(paymentData.getOrderAmount() == null && getArticleCatalog() != null){
+            paymentData.setOrderAmount(calculateOrderAmount(orderRequest));
+        }
+        if(paymentData.getOrderAmount() == null){
+            throw new InternalErrorException("Internal error creating payment data, no order amount set for article id " + orderRequest.getArticleId() + ".");
+        }
+        if(paymentData.getInvoiceExpireDate() == null){
+            paymentData.setInvoiceExpireDate(clock.instant().plus(getDefaultInvoiceValidity()));
+        }
+        return paymentData;
+    }
+
+    /**
+     * Method to lookup a payment data, buffered updates not yet written
+     * to database are returned before querying the database.
+     *
+     * @param preImageHash the unique preImageHash used to identify a payment flow
+     *                     withing a lightning payment.
+     * @return return related payment data or null if not found.
+     * @throws InternalErrorException if internal exception occurred fetching related payment data.
+     */
+    @Override
+    protected PaymentData findPaymentData(byte[] preImageHash) throws InternalErrorException {
+        JDBCPaymentData pending = pendingWrites.get(ByteBuffer.wrap(preImageHash));
+        if(pending != null){
+            // Return a copy so the buffered snapshot isn't modified while being flushed.
+            return new JDBCPaymentData(pending);
+        }
+        return paymentDataDAO.find(preImageHash);
+    }
+
+    /**
+     * Method called on update events about a given payment data. INVOICE_CREATED events
+     * are buffered if write-behind is enabled, all other events are written directly.
+     *
+     * @param type the type of event such as INVOICE_CREATED or INVOICE_SETTLED.
+     * @param paymentData the payment data to update and persist.
+     * @param context the latest known state of the lightning handler.  Null if no known state exists.
+     * @throws InternalErrorException if internal exception occurred updating related payment data.
+     */
+    @Override
+    protected void updatePaymentData(PaymentEventType type, PaymentData paymentData, LightningHandlerContext context) throws InternalErrorException {
+        assert paymentData instanceof JDBCPaymentData;
+        JDBCPaymentData jdbcPaymentData = (JDBCPaymentData) paymentData;
+        ByteBuffer key = ByteBuffer.wrap(jdbcPaymentData.getPreImageHash());
+        if(type == PaymentEventType.INVOICE_CREATED && writeScheduler != null){
+            pendingWrites.put(key, new JDBCPaymentData(jdbcPaymentData));
+            if(pendingWrites.size() >= getWriteBatchSize()){
+                writeScheduler.execute(this::flushQuietly);
+            }
+            return;
+        }
+        paymentDataDAO.update(jdbcPaymentData, false);
+        pendingWrites.remove(key);
+    }
+
+    /**
+     * Method removing at most maxRows payment data expired before given time. Buffered
+     * updates are flushed first so the database reflects the latest known state.
+     *
+     * @param expiredBefore payment data expired before this time should be removed.
+     * @param maxRows the maximum number of payment data to remove in this call.
+     * @return the number of removed payment data.
+     * @throws InternalErrorException if internal exception occurred removing payment data.
+     */
+    @Override
+    protected int removeExpiredPaymentData(Instant expiredBefore, int maxRows) throws InternalErrorException {
+        flush();
+        List<byte[]> expired = paymentDataDAO.findExpired(expiredBefore, maxRows);
+        int removed = paymentDataDAO.deleteBatch(expired);
+        for(byte[] preImageHash : expired){
+            pendingWrites.remove(ByteBuffer.wrap(preImageHash));
+        }
+        return removed;
+    }
+
+    /**
+     * Method to write all buffered updates to database in one batch, and then update
+     * the lightning handler context checkpoint with the last event included in the batch.
+     *
+     * @throws InternalErrorException if problems occurred writing the batch, the updates
+     * are kept in the buffer and retried in next flush.
+     */
+    public synchronized void flush() throws InternalErrorException{
+        // All updates of the events up to this context are in the buffer since checkpoint() is
+        // called after updatePaymentData() and both checkpoint() and flush() are synchronized.
+        LightningHandlerContext context = unflushedContext;
+        if(!pendingWrites.isEmpty()) {
+            Map<ByteBuffer, JDBCPaymentData> batch = new HashMap<>(pendingWrites);
+            paymentDataDAO.updateBatch(batch.values(), true);
+            for (Map.Entry<ByteBuffer, JDBCPaymentData> entry : batch.entrySet()) {
+                pendingWrites.remove(entry.getKey(), entry.getValue());
+            }
+            if (log.isLoggable(Level.FINE)) {
+                log.log(Level.FINE, "Flushed " + batch.size() + " buffered payment data updates to database.");
+            }
+        }
+        if(context != null){
+            unflushedContext = null;
+            super.checkpoint(context);
+        }
+    }
+
+    /**
+     * Method that updates the lightning handler context checkpoint directly if there are no
+     * buffered updates, otherwise is the checkpoint updated after next flush so a restart never
+     * skips events whose updates weren't written to database.
+     *
+     * @param context the lightning handler context of the processed event, might be null.
+     */
+    @Override
+    protected synchronized void checkpoint(LightningHandlerContext context) {
+        if(context == null){
+            return;
+        }
+        if(pendingWrites.isEmpty()){
+            unflushedContext = null;
+            super.checkpoint(context);
+        }else{
+            unflushedContext = context;
+        }
+    }
+
+    /**
+     * Method to stop the write-behind scheduler and write all buffered updates.
+     *
+     * @throws InternalErrorException if problems occurred writing buffered updates.
+     */
+    public void close() throws InternalErrorException{
+        if(writeScheduler != null){
+            writeScheduler.shutdown();
+            try {
+                writeScheduler.awaitTermination(getWriteBatchInterval().toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writeScheduler = null;
+        }
+        flush();
+    }
+
+    /**
+     * Method that should populate at least the order amount of a new payment data from the
+     * order request, for example by looking up the price of the article id. If an article
+     * catalog is configured is the order amount already set.
+     *
+     * @param paymentData the new payment data with preImageHash, payPerRequest and, if priced by
+     *                    the article catalog, order amount already set.
+     * @param orderRequest the specification of the payment data that should be created calculated
+     *                     from data in the PaymentRequired annotation.
+     * @throws IOException if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred populating the payment data.
+     */
+    protected abstract void populatePaymentData(JDBCPaymentData paymentData, OrderRequest orderRequest) throws IOException, InternalErrorException;
+
+    /**
+     *
+     * @return the data source used to connect to the database.
+     */
+    protected abstract DataSource getDataSource();
+
+    /**
+     *
+     * @return the name of the payment data table, default is PAYWALL_PAYMENT_DATA.
+     */
+    protected String getTableName(){
+        return JDBCPaymentDataDAO.DEFAULT_TABLE_NAME;
+    }
+
+    /**
+     *
+     * @return true if the payment data table should be created during init if it
+     * doesn't exist. Default is false.
+     */
+    protected boolean isCreateTable(){
+        return false;
+    }
+
+    /**
+     *
+     * @return the maximum number of buffered updates before a batch is written.
+     */
+    protected int getWriteBatchSize(){
+        return DEFAULT_WRITE_BATCH_SIZE;
+    }
+
+    /**
+     *
+     * @return the maximum time updates are buffered before written, zero disables
+     * write-behind buffering.
+     */
+    protected Duration getWriteBatchInterval(){
+        return DEFAULT_WRITE_BATCH_INTERVAL;
+    }
+
+    private void flushQuietly(){
+        try{
+            flush();
+        }catch(Exception e){
+            log.log(Level.SEVERE, "Error writing buffered payment data updates to database: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.jdbc
+
+import org.h2.jdbcx.JdbcDataSource
+import org.lightningj.paywall.vo.amount.BTC
+import org.lightningj.paywall.vo.amount.CryptoAmount
+import org.lightningj.paywall.vo.amount.FiatAmount
+import org.lightningj.paywall.vo.amount.Magnetude
+import spock.lang.Specification
+
+import java.time.Duration
+import java.time.Instant
+
+/**
+ * Unit tests for JDBCPaymentDataDAO using an embedded H2 database.
+ */
+class JDBCPaymentDataDAOSpec extends Specification {
+
+    JDBCPaymentDataDAO dao
+
+    def setup(){
+        JdbcDataSource dataSource = new JdbcDataSource()
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1")
+        dao = new JDBCPaymentDataDAO(dataSource, JDBCPaymentDataDAO.DEFAULT_TABLE_NAME, Duration.ofSeconds(50))
+        dao.createTable()
+    }
+
+    def "Verify that all fields are stored and read back from database"(){
+        setup:
+        JDBCPaymentData d = genPaymentData(1)
+        d.description = "Some description"
+        d.invoiceAmount = new BTC(12000, Magnetude.MILLI)
+        d.invoiceDate = Instant.ofEpochMilli(1000)
+        d.invoiceExpireDate = Instant.ofEpochMilli(2000)
+        d.settled = true
+        d.settledAmount = new BTC(12000, Magnetude.MILLI)
+        d.settlementDate = Instant.ofEpochMilli(3000)
+        d.settlementDuration = Duration.ofMinutes(5)
+        d.settlementValidFrom = Instant.ofEpochMilli(4000)
+        d.settlementExpireDate = Instant.ofEpochMilli(5000)
+        d.payPerRequest = true
+        d.executed = true
+        d.bolt11Invoice = "lntb10u1pwt6nk9pp5"
+        when:
+        dao.insert(d)
+        JDBCPaymentData r = dao.find(d.preImageHash)
+        then:
+        r.preImageHash == d.preImageHash
+        r.orderAmount.value == 10000
+        r.orderAmount.currencyCode == "BTC"
+        r.orderAmount.magnetude == Magnetude.NONE
+        r.description == "Some description"
+        r.invoiceAmount.value == 12000
+        r.invoiceAmount.magnetude == Magnetude.MILLI
+        r.invoiceDate == Instant.ofEpochMilli(1000)
+        r.invoiceExpireDate == Instant.ofEpochMilli(2000)
+        r.settled
+        r.settledAmount.value == 12000
+        r.settlementDate == Instant.ofEpochMilli(3000)
+        r.settlementDuration == Duration.ofMinutes(5)
+        r.settlementValidFrom == Instant.ofEpochMilli(4000)
+        r.settlementExpireDate == Instant.ofEpochMilli(5000)
+        r.payPerRequest
+        r.executed
+        r.bolt11Invoice == "lntb10u1pwt6nk9pp5"
+    }
+
+    def "Verify that null fields and fiat order amounts are stored and read back from database"(){
+        setup:
+        JDBCPaymentData d = genPaymentData(2)
+        d.orderAmount = new FiatAmount(1.5, "USD")
+        when:
+        dao.insert(d)
+        JDBCPaymentData r = dao.find(d.preImageHash)
+        then:
+        r.orderAmount instanceof FiatAmount
+        r.orderAmount.value == 1.5
+        r.orderAmount.currencyCode == "USD"
+        r.invoiceAmount == null
+        r.settledAmount == null
+        r.invoiceDate == null
+        r.settlementDuration == null
+        !r.settled
+        !r.payPerRequest
+    }
+
+    def "Verify that find returns null for non existing preImageHash"(){
+        expect:
+        dao.find(genPaymentData(3).preImageHash) == null
+    }
+
+    def "Verify that update with onlyIfNotSettled doesn't overwrite settled rows"(){
+        setup:
+        JDBCPaymentData d = genPaymentData(4)
+        dao.insert(d)
+        when:
+        d.bolt11Invoice = "invoice1"
+        then:
+        dao.update(d, true)
+        dao.find(d.preImageHash).bolt11Invoice == "invoice1"
+        when:
+        d.settled = true
+        dao.update(d, false)
+        d.settled = false
+        d.bolt11Invoice = "invoice2"
+        then:
+        !dao.update(d, true)
+        dao.find(d.preImageHash).settled
+        dao.find(d.preImageHash).bolt11Invoice == "invoice1"
+    }
+
+    def "Verify that batch insert and update writes all rows"(){
+        setup:
+        List<JDBCPaymentData> datas = (10..19).collect{ genPaymentData(it)}
+        when:
+        dao.insertBatch(datas)
+        datas.each{ it.description = "updated"}
+        dao.updateBatch(datas, true)
+        then:
+        datas.every { dao.find(it.preImageHash).description == "updated" }
+        when:
+        dao.insertBatch([])
+        dao.updateBatch([], false)
+        then:
+        true
+    }
+
+    def "Verify that delete removes row"(){
+        setup:
+        JDBCPaymentData d = genPaymentData(5)
+        dao.insert(d)
+        expect:
+        dao.delete(d.preImageHash)
+        dao.find(d.preImageHash) == null
+        !dao.delete(d.preImageHash)
+    }
+
+    def "Verify that findExpired returns expired unsettled and settled rows and deleteBatch removes them"(){
+        setup:
+        Instant now = Instant.ofEpochMilli(1000000)
+        JDBCPaymentData unpaidExpired = genPaymentData(20)
+        unpaidExpired.invoiceExpireDate = now.minusSeconds(1)
+        JDBCPaymentData unpaidValid = genPaymentData(21)
+        unpaidValid.invoiceExpireDate = now.plusSeconds(1)
+        JDBCPaymentData settledFixedExpired = genPaymentData(22)
+        settledFixedExpired.settled = true
+        settledFixedExpired.invoiceExpireDate = now.minusSeconds(100)
+        settledFixedExpired.settlementExpireDate = now.minusSeconds(1)
+        JDBCPaymentData settledDurationValid = genPaymentData(23)
+        settledDurationValid.settled = true
+        settledDurationValid.settlementDate = now.minusSeconds(10)
+        settledDurationValid.settlementDuration = Duration.ofSeconds(20)
+        JDBCPaymentData settledDefaultExpired = genPaymentData(24)
+        settledDefaultExpired.settled = true
+        settledDefaultExpired.settlementDate = now.minusSeconds(100)
+        dao.insertBatch([unpaidExpired, unpaidValid, settledFixedExpired, settledDurationValid, settledDefaultExpired])
+        when:
+        List<byte[]> expired = dao.findExpired(now, 10)
+        then:
+        expired.size() == 3
+        expired.collect{ it[0] }.sort() == [20, 22, 24]
+        dao.findExpired(now, 2).size() == 2
+        when:
+        int removed = dao.deleteBatch(expired)
+        then:
+        removed == 3
+        dao.find(unpaidExpired.preImageHash) == null
+        dao.find(unpaidValid.preImageHash) != null
+        dao.find(settledDurationValid.preImageHash) != null
+        dao.findExpired(now, 10).isEmpty()
+        dao.deleteBatch([]) == 0
+        when: "Verify that expire date is recalculated when row is updated to settled"
+        unpaidValid.settled = true
+        unpaidValid.settlementExpireDate = now.minusSeconds(1)
+        dao.update(unpaidValid, true)
+        then:
+        dao.findExpired(now, 10).collect{ it[0] } == [21]
+    }
+
+    def "Verify that getExpireDate uses invoice expire date for unsettled rows and settlement validity for settled rows"(){
+        setup:
+        Instant now = Instant.ofEpochMilli(1000000)
+        JDBCPaymentData d = genPaymentData(30)
+        d.invoiceExpireDate = now
+        expect:
+        dao.getExpireDate(d) == now
+        when:
+        d.settled = true
+        then:
+        dao.getExpireDate(d) == null
+        when:
+        d.settlementDate = now
+        then:
+        dao.getExpireDate(d) == now.plusSeconds(50)
+        when:
+        d.settlementDuration = Duration.ofSeconds(20)
+        then:
+        dao.getExpireDate(d) == now.plusSeconds(20)
+        when:
+        d.settlementExpireDate = now.plusSeconds(5)
+        then:
+        dao.getExpireDate(d) == now.plusSeconds(5)
+    }
+
+    def "Verify that the table name is used in generated SQL"(){
+        when:
+        JDBCPaymentDataDAO customDAO = new JDBCPaymentDataDAO(null, "CUSTOM_TABLE")
+        then:
+        customDAO.tableName == "CUSTOM_TABLE"
+        customDAO.createTableSQL.startsWith("CREATE TABLE IF NOT EXISTS CUSTOM_TABLE (PRE_IMAGE_HASH BINARY(32) NOT NULL PRIMARY KEY")
+        customDAO.createIndexSQL == "CREATE INDEX IF NOT EXISTS CUSTOM_TABLE_EXP_IDX ON CUSTOM_TABLE (EXPIRE_DATE)"
+        customDAO.findExpiredSQL == "SELECT PRE_IMAGE_HASH FROM CUSTOM_TABLE WHERE EXPIRE_DATE < ?"
+    }
+
+    static JDBCPaymentData genPaymentData(int id){
+        byte[] preImageHash = new byte[32]
+        preImageHash[0] = (byte) id
+        return new JDBCPaymentData(preImageHash: preImageHash, orderAmount: new BTC(10000))
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.jdbc
+
+import org.h2.jdbcx.JdbcDataSource
+import org.lightningj.paywall.InternalErrorException
+import org.lightningj.paywall.articlecatalog.ArticleCatalog
+import org.lightningj.paywall.lightninghandler.LightningHandler
+import org.lightningj.paywall.lightninghandler.lnd.LNDContextCheckpointStore
+import org.lightningj.paywall.lightninghandler.lnd.LNDLightningHandlerContext
+import org.lightningj.paywall.paymenthandler.PaymentEventType
+import org.lightningj.paywall.vo.Order
+import org.lightningj.paywall.vo.OrderRequest
+import org.lightningj.paywall.vo.amount.BTC
+import spock.lang.Specification
+
+import javax.sql.DataSource
+import java.nio.ByteBuffer
+import java.time.Duration
+import java.time.Instant
+
+import static org.lightningj.paywall.jdbc.JDBCPaymentDataDAOSpec.genPaymentData
+
+/**
+ * Unit tests for JDBCPaymentHandler using an embedded H2 database.
+ */
+class JDBCPaymentHandlerSpec extends Specification {
+
+    LightningHandler lightningHandler = Mock(LightningHandler)
+    JdbcDataSource dataSource
+    TestJDBCPaymentHandler paymentHandler
+
+    def setup(){
+        dataSource = new JdbcDataSource()
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1")
+        paymentHandler = new TestJDBCPaymentHandler(lightningHandler, dataSource)
+        // Use a long interval so buffered writes are only flushed explicitly or by batch size in tests.
+        paymentHandler.writeBatchInterval = Duration.ofMinutes(10)
+        paymentHandler.init()
+    }
+
+    def cleanup(){
+        paymentHandler.close()
+    }
+
+    def "Verify that init creates table and registers handler as lightning listener"(){
+        setup:
+        paymentHandler.close()
+        when:
+        paymentHandler.init()
+        then:
+        paymentHandler.paymentDataDAO.tableName == "PAYWALL_PAYMENT_DATA"
+        paymentHandler.paymentDataDAO.find(new byte[32]) == null
+        1 * lightningHandler.registerListener(paymentHandler)
+    }
+
+    def "Verify that newPaymentData inserts payment data populated from order request"(){
+        setup:
+        byte[] preImageHash = genPaymentData(1).preImageHash
+        when:
+        JDBCPaymentData d = paymentHandler.newPaymentData(preImageHash, new OrderRequest("abc", 2, [], true))
+        then:
+        d.orderAmount.value == 2000
+        d.description == "Article abc"
+        d.payPerRequest
+        JDBCPaymentData r = paymentHandler.paymentDataDAO.find(preImageHash)
+        r.orderAmount.value == 2000
+        r.payPerRequest
+    }
+
+    def "Verify that createOrder inserts payment data priced by article catalog"(){
+        setup:
+        paymentHandler.articleCatalog = Mock(ArticleCatalog)
+        byte[] preImageHash = genPaymentData(14).preImageHash
+        when:
+        Order order = paymentHandler.createOrder(preImageHash, new OrderRequest("catalogArticle", 2, [], false))
+        then:
+        1 * paymentHandler.articleCatalog.getUnitPrice("catalogArticle") >> new BTC(50)
+        order.orderAmount.value == 100
+        paymentHandler.paymentDataDAO.find(preImageHash).orderAmount.value == 100
+    }
+
+    def "Verify that createOrders inserts payment data of all orders in one batch"(){
+        setup:
+        JDBCPaymentDataDAO dao = Spy(JDBCPaymentDataDAO, constructorArgs: [dataSource])
+        paymentHandler.paymentDataDAO = dao
+        byte[] preImageHash1 = genPaymentData(11).preImageHash
+        byte[] preImageHash2 = genPaymentData(12).preImageHash
+        when:
+        List<Order> orders = paymentHandler.createOrders([preImageHash1, preImageHash2],
+                [new OrderRequest("abc", 1, [], false), new OrderRequest("abc", 3, [], false)])
+        then:
+        orders.size() == 2
+        orders[0].preImageHash == preImageHash1
+        orders[0].orderAmount.value == 1000
+        orders[1].preImageHash == preImageHash2
+        orders[1].orderAmount.value == 3000
+        1 * dao.insertBatch({ it.size() == 2 })
+        0 * dao.insert(_)
+        paymentHandler.paymentDataDAO.find(preImageHash1).orderAmount.value == 1000
+        paymentHandler.paymentDataDAO.find(preImageHash2).orderAmount.value == 3000
+    }
+
+    def "Verify that newPaymentData sets invoice expire date to default invoice validity if not set"(){
+        setup:
+        paymentHandler.clock = Mock(java.time.Clock)
+        paymentHandler.clock.instant() >> Instant.ofEpochMilli(1000000)
+        when:
+        JDBCPaymentData d = paymentHandler.newPaymentData(genPaymentData(7).preImageHash, new OrderRequest("abc", 1, [], false))
+        then:
+        d.invoiceExpireDate == Instant.ofEpochMilli(1000000).plus(Duration.ofMinutes(60))
+    }
+
+    def "Verify that purgeExpired flushes buffered updates and removes expired payment data in batches"(){
+        setup:
+        paymentHandler.purgeBatchSize = 2
+        List<JDBCPaymentData> datas = (30..34).collect{
+            paymentHandler.newPaymentData(genPaymentData(it).preImageHash, new OrderRequest("abc", 1, [], false))
+        }
+        JDBCPaymentData notExpired = paymentHandler.newPaymentData(genPaymentData(35).preImageHash, new OrderRequest("abc", 1, [], false))
+        notExpired.invoiceExpireDate = Instant.now().plus(Duration.ofDays(1))
+        paymentHandler.updatePaymentData(PaymentEventType.INVOICE_CREATED, notExpired, null)
+        when:
+        long purged = paymentHandler.purgeExpired(Instant.now().plus(Duration.ofHours(2)))
+        then:
+        purged == 5
+        paymentHandler.purgeMetrics.totalRowsPurged == 5
+        datas.every { paymentHandler.paymentDataDAO.find(it.preImageHash) == null }
+        paymentHandler.pendingWrites.isEmpty()
+        paymentHandler.paymentDataDAO.find(notExpired.preImageHash) != null
+    }
+
+    def "Verify that newPaymentData throws InternalErrorException if no order amount was populated"(){
+        when:
+        paymentHandler.newPaymentData(genPaymentData(2).preImageHash, new OrderRequest("unknown", 1, [], false))
+        then:
+        def e = thrown InternalErrorException
+        e.message == "Internal error creating payment data, no order amount set for article id unknown."
+    }
+
+    def "Verify that INVOICE_CREATED updates are buffered, returned by findPaymentData and written on flush"(){
+        setup:
+        byte[] preImageHash = genPaymentData(3).preImageHash
+        JDBCPaymentData d = paymentHandler.newPaymentData(preImageHash, new OrderRequest("abc", 1, [], false))
+        d.bolt11Invoice = "invoice1"
+        when:
+        paymentHandler.updatePaymentData(PaymentEventType.INVOICE_CREATED, d, null)
+        then:
+        paymentHandler.pendingWrites.size() == 1
+        paymentHandler.paymentDataDAO.find(preImageHash).bolt11Invoice == null
+        JDBCPaymentData found = paymentHandler.findPaymentData(preImageHash)
+        found.bolt11Invoice == "invoice1"
+        !found.is(paymentHandler.pendingWrites.get(ByteBuffer.wrap(preImageHash)))
+        when:
+        paymentHandler.flush()
+        then:
+        paymentHandler.pendingWrites.isEmpty()
+        paymentHandler.paymentDataDAO.find(preImageHash).bolt11Invoice == "invoice1"
+    }
+
+    def "Verify that lightning handler checkpoint is only updated after buffered updates are flushed"(){
+        setup:
+        paymentHandler.contextStore = Mock(LNDContextCheckpointStore)
+        LNDLightningHandlerContext context1 = new LNDLightningHandlerContext(1, 0)
+        LNDLightningHandlerContext context2 = new LNDLightningHandlerContext(2, 0)
+        JDBCPaymentData d = paymentHandler.newPaymentData(genPaymentData(13).preImageHash, new OrderRequest("abc", 1, [], false))
+        when:
+        paymentHandler.checkpoint(context1)
+        then:
+        1 * paymentHandler.contextStore.update(context1)
+        when:
+        paymentHandler.updatePaymentData(PaymentEventType.INVOICE_CREATED, d, context2)
+        paymentHandler.checkpoint(context2)
+        then:
+        0 * paymentHandler.contextStore.update(_)
+        when:
+        paymentHandler.flush()
+        then:
+        1 * paymentHandler.contextStore.update(context2)
+        paymentHandler.pendingWrites.isEmpty()
+        when:
+        paymentHandler.flush()
+        then:
+        0 * paymentHandler.contextStore.update(_)
+    }
+
+    def "Verify that settlement updates are written directly and removes buffered update"(){
+        setup:
+        byte[] preImageHash = genPaymentData(4).preImageHash
+        JDBCPaymentData d = paymentHandler.newPaymentData(preImageHash, new OrderRequest("abc", 1, [], false))
+        paymentHandler.updatePaymentData(PaymentEventType.INVOICE_CREATED, d, null)
+        when:
+        d.settled = true
+        paymentHandler.updatePaymentData(PaymentEventType.INVOICE_SETTLED, d, null)
+        then:
+        paymentHandler.pendingWrites.isEmpty()
+        paymentHandler.paymentDataDAO.find(preImageHash).settled
+    }
+
+    def "Verify that a delayed buffered update never overwrites a settled row"(){
+        setup:
+        byte[] preImageHash = genPaymentData(5).preImageHash
+        JDBCPaymentData d = paymentHandler.newPaymentData(preImageHash, new OrderRequest("abc", 1, [], false))
+        paymentHandler.updatePaymentData(PaymentEventType.INVOICE_CREATED, d, null)
+        JDBCPaymentData settled = new JDBCPaymentData(d)
+        settled.settled = true
+        paymentHandler.paymentDataDAO.update(settled, false)
+        when:
+        paymentHandler.flush()
+        then:
+        paymentHandler.paymentDataDAO.find(preImageHash).settled
+    }
+
+    def "Verify that reaching write batch size triggers a flush"(){
+        setup:
+        paymentHandler.writeBatchSize = 3
+        List<JDBCPaymentData> datas = (10..12).collect{
+            JDBCPaymentData d = paymentHandler.newPaymentData(genPaymentData(it).preImageHash, new OrderRequest("abc", 1, [], false))
+            d.bolt11Invoice = "invoice" + it
+            d
+        }
+        when:
+        datas.each { paymentHandler.updatePaymentData(PaymentEventType.INVOICE_CREATED, it, null) }
+        long timeout = System.currentTimeMillis() + 5000
+        while(!paymentHandler.pendingWrites.isEmpty() && System.currentTimeMillis() < timeout){
+            Thread.sleep(10)
+        }
+        then:
+        paymentHandler.pendingWrites.isEmpty()
+        datas.every { paymentHandler.paymentDataDAO.find(it.preImageHash).bolt11Invoice == "invoice" + it.preImageHash[0] }
+    }
+
+    def "Verify that all updates are written directly if write batch interval is zero"(){
+        setup:
+        TestJDBCPaymentHandler directHandler = new TestJDBCPaymentHandler(lightningHandler, dataSource)
+        directHandler.writeBatchInterval = Duration.ZERO
+        directHandler.init()
+        byte[] preImageHash = genPaymentData(6).preImageHash
+        JDBCPaymentData d = directHandler.newPaymentData(preImageHash, new OrderRequest("abc", 1, [], false))
+        d.bolt11Invoice = "invoice1"
+        when:
+        directHandler.updatePaymentData(PaymentEventType.INVOICE_CREATED, d, null)
+        then:
+        directHandler.pendingWrites.isEmpty()
+        directHandler.paymentDataDAO.find(preImageHash).bolt11Invoice == "invoice1"
+        cleanup:
+        directHandler.close()
+    }
+
+    static class TestJDBCPaymentHandler extends JDBCPaymentHandler{
+
+        LightningHandler lightningHandler
+        DataSource dataSource
+        int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE
+        int purgeBatchSize = 500
+        Duration writeBatchInterval = DEFAULT_WRITE_BATCH_INTERVAL
+        LNDContextCheckpointStore contextStore
+        ArticleCatalog articleCatalog
+
+        TestJDBCPaymentHandler(LightningHandler lightningHandler, DataSource dataSource){
+            this.lightningHandler = lightningHandler
+            this.dataSource = dataSource
+        }
+
+        @Override
+        protected void populatePaymentData(JDBCPaymentData paymentData, OrderRequest orderRequest) throws IOException, InternalErrorException {
+            if(orderRequest.articleId == "abc") {
+                paymentData.orderAmount = new BTC(1000 * orderRequest.units)
+                paymentData.description = "Article abc"
+            }
+        }
+
+        @Override
+        protected DataSource getDataSource() {
+            return dataSource
+        }
+
+        @Override
+        protected boolean isCreateTable() {
+            return true
+        }
+
+        @Override
+        protected int getWriteBatchSize() {
+            return writeBatchSize
+        }
+
+        @Override
+        protected int getPurgeBatchSize() {
+            return purgeBatchSize
+        }
+
+        @Override
+        protected Duration getWriteBatchInterval() {
+            return writeBatchInterval
+        }
+
+        @Override
+        protected LightningHandler getLightningHandler() {
+            return lightningHandler
+        }
+
+        @Override
+        protected LNDContextCheckpointStore getLightningHandlerContextStore() {
+            return contextStore
+        }
+
+        @Override
+        protected ArticleCatalog getArticleCatalog() {
+            return articleCatalog
+        }
+
+        @Override
+        protected Duration getDefaultInvoiceValidity() {
+            return Duration.ofMinutes(60)
+        }
+
+        @Override
+        protected Duration getDefaultSettlementValidity() {
+            return Duration.ofMinutes(5)
+        }
+
+        @Override
+        protected boolean isLightningHandlerAutoconnect() throws InternalErrorException {
+            return false
+        }
+    }
+}
@@ -16,8 +16,9 @@ package org.lightningj.paywall.spring;
 
 import org.lightningj.paywall.currencyconverter.CurrencyConverter;
 import org.lightningj.paywall.currencyconverter.SameCryptoCurrencyConverter;
-import org.lightningj.paywall.qrcode.DefaultQRCodeGenerator;
 import org.lightningj.paywall.qrcode.QRCodeGenerator;
+import org.lightningj.paywall.spring.util.InvoiceRateLimiter;
+import org.lightningj.paywall.spring.util.SseHeartbeatScheduler;
 import org.springframework.context.annotation.Bean;
 
 /**
@@ -39,6 +40,16 @@ public class CommonBeanConfiguration {
 
     @Bean("qrCodeGenerator")
     public QRCodeGenerator getQRCodeGenerator(){
-        return new DefaultQRCodeGenerator();
+        return new SpringCachingQRCodeGenerator();
+    }
+
+    @Bean("sseHeartbeatScheduler")
+    public SseHeartbeatScheduler getSseHeartbeatScheduler(){
+        return new SseHeartbeatScheduler();
+    }
+
+    @Bean("invoiceRateLimiter")
+    public InvoiceRateLimiter getInvoiceRateLimiter(){
+        return new InvoiceRateLimiter();
     }
 }
@@ -16,6 +16,7 @@ package org.lightningj.paywall.spring;
 
 import org.lightningj.paywall.AlreadyExecutedException;
 import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.RateLimitExceededException;
 import org.lightningj.paywall.annotations.PaymentRequired;
 import org.lightningj.paywall.currencyconverter.CurrencyConverter;
 import org.lightningj.paywall.lightninghandler.LightningHandler;
@@ -25,6 +26,8 @@ import org.lightningj.paywall.paymentflow.PaymentFlow;
 import org.lightningj.paywall.paymentflow.PaymentFlowManager;
 import org.lightningj.paywall.paymenthandler.PaymentHandler;
 import org.lightningj.paywall.spring.response.InvoiceResponse;
+import org.lightningj.paywall.spring.util.InvoiceRateLimiter;
+import org.lightningj.paywall.spring.util.PaywallResponseWriter;
 import org.lightningj.paywall.spring.util.RequestHelper;
 import org.lightningj.paywall.spring.util.SpringCachableHttpServletRequest;
 import org.lightningj.paywall.spring.websocket.PaywallWebSocketConfig;
@@ -48,8 +51,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.Base64;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -76,9 +80,15 @@ public class PaywallInterceptor implements HandlerInterceptor {
      * Request attribute containing the related payment pre image hash.
      */
     public static final String REQUEST_ATTRIBUTE_PREIMAGE_HASH = "PAYWALL_PRE_IMAGEHASH";
+    /**
+     * Response header set with number of seconds to wait if invoice rate limit was exceeded.
+     */
+    public static final String HEADER_RETRY_AFTER = "Retry-After";
 
     RequestHelper requestHelper = new RequestHelper();
 
+    PaywallResponseWriter responseWriter = new PaywallResponseWriter();
+
     @Autowired
     PaywallProperties paywallProperties;
 
@@ -106,6 +116,9 @@ public class PaywallInterceptor implements HandlerInterceptor {
     @Autowired
     PaywallExceptionHandler paywallExceptionHandler;
 
+    @Autowired
+    InvoiceRateLimiter invoiceRateLimiter;
+
     Logger log = Logger.getLogger(PaywallInterceptor.class.getName());
 
     /**
@@ -141,7 +154,13 @@ public class PaywallInterceptor implements HandlerInterceptor {
                     }
 
                     if (isPaymentRequired) {
-                      InvoiceResult requestPaymentResult = paymentFlow.requestPayment();
+                      // Clients retrying an identical request get their outstanding invoice again without being charged.
+                      InvoiceResult requestPaymentResult = paymentFlow.lookupOutstandingInvoice();
+                      if(requestPaymentResult == null) {
+                          // Check rate limit before any payment data is stored or invoice is created.
+                          invoiceRateLimiter.checkAdmission(request);
+                          requestPaymentResult = paymentFlow.requestPayment();
+                      }
                       InvoiceResponse invoiceResponse = genInvoiceResponse(requestPaymentResult,paymentRequired);
                       generatePaymentRequiredResponse(requestType,invoiceResponse,response);
                       if(log.isLoggable(Level.FINE)){
@@ -164,6 +183,9 @@ public class PaywallInterceptor implements HandlerInterceptor {
                 }
             }catch(Exception e){
                 logError(e);
+                if(e instanceof RateLimitExceededException){
+                    response.setHeader(HEADER_RETRY_AFTER, Long.toString((((RateLimitExceededException) e).getRetryAfter() + 999) / 1000));
+                }
                 ResponseEntity<Object> responseEntity = paywallExceptionHandler.handleException(request,response,e);
                 generateExceptionResponse(requestType,responseEntity,response);
                 return false;
@@ -266,7 +288,8 @@ public class PaywallInterceptor implements HandlerInterceptor {
      * Method that sets payment required resposne data in JSON or XML depending on
      * request type.
      * <p>
-     *     Also sets the content type and HTTP status to SC_PAYMENT_REQUIRED (402)
+     *     Also sets the content type and HTTP status to SC_PAYMENT_REQUIRED (402). The
+     *     invoice is streamed directly to the servlet output stream by the PaywallResponseWriter.
      * </p>
      *
      * @param requestType the request type of expected response.
@@ -279,16 +302,15 @@ public class PaywallInterceptor implements HandlerInterceptor {
         response.setStatus(HttpServletResponse.SC_PAYMENT_REQUIRED);
         response.setContentType(requestType.getContentType());
         response.setHeader(HEADER_PAYWALL_MESSAGE, HEADER_PAYWALL_MESSAGE_VALUE);
-        HttpMessageConverter converter = getHttpMessageConverter(requestType);
-        ServletServerHttpResponse servletServerHttpResponse = new ServletServerHttpResponse(response);
-        converter.write(invoiceResponse, requestType.getMediaType(), servletServerHttpResponse);
+        responseWriter.write(requestType, invoiceResponse, response.getOutputStream());
     }
 
     /**
      * Method that generates response data in either Json or XML depending on request type.
      * <p>
      *     Content type and status is set depending on the type of exception determined by the used
-     *     exception handler.
+     *     exception handler. APIError bodies are streamed by the PaywallResponseWriter, other bodies
+     *     are converted by the registered HttpMessageConverter.
      * </p>
      * @param requestType the request type of expected response.
      * @param responseEntity the response entity generated by the exception handler.
@@ -300,9 +322,13 @@ public class PaywallInterceptor implements HandlerInterceptor {
         response.setStatus(responseEntity.getStatusCodeValue());
         response.setContentType(requestType.getContentType());
         response.setHeader(HEADER_PAYWALL_MESSAGE, HEADER_PAYWALL_MESSAGE_VALUE);
-        HttpMessageConverter converter = getHttpMessageConverter(requestType);
-        ServletServerHttpResponse servletServerHttpResponse = new ServletServerHttpResponse(response);
-        converter.write(responseEntity.getBody(), requestType.getMediaType(), servletServerHttpResponse);
+        if(responseWriter.canWrite(responseEntity.getBody())){
+            responseWriter.write(requestType, responseEntity.getBody(), response.getOutputStream());
+        }else {
+            HttpMessageConverter converter = getHttpMessageConverter(requestType);
+            ServletServerHttpResponse servletServerHttpResponse = new ServletServerHttpResponse(response);
+            converter.write(responseEntity.getBody(), requestType.getMediaType(), servletServerHttpResponse);
+        }
     }
 
     /**
@@ -310,7 +336,7 @@ public class PaywallInterceptor implements HandlerInterceptor {
      * builds a cache of requestType -> HttpMessageConverter used to convert message to
      * http response data.
      */
-    private HashMap<MediaType, HttpMessageConverter> converterCache = new HashMap<>();
+    private Map<MediaType, HttpMessageConverter> converterCache = new ConcurrentHashMap<>();
     private HttpMessageConverter getHttpMessageConverter(RequestHelper.RequestType requestType) throws InternalErrorException{
         HttpMessageConverter retval = converterCache.get(requestType.getMediaType());
         if(retval == null){
@@ -330,8 +356,8 @@ public class PaywallInterceptor implements HandlerInterceptor {
     }
 
     /**
-     * Help method logging an exception with level fine for IllegalArgumentException, info for TokenException and
-     * severe for other errors.
+     * Help method logging an exception with level fine for IllegalArgumentException and RateLimitExceededException,
+     * info for TokenException and severe for other errors.
      * @param e the expection to log.
      */
     private void logError(Exception e){
@@ -340,6 +366,8 @@ public class PaywallInterceptor implements HandlerInterceptor {
         }else {
             if(e instanceof TokenException){
                 log.log(Level.INFO,"Paywall Interceptor: JWT Token exception: " + e.getMessage(),e);
+            }else if(e instanceof RateLimitExceededException){
+                log.log(Level.FINE,"Paywall Interceptor: " + e.getMessage());
             }else {
                 log.log(Level.SEVERE,"Paywall Interceptor: Error occurred processing payment data (" + e.getClass().getSimpleName() + "): " + e.getMessage(),e);
             }
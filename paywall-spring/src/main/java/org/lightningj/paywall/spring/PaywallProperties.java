@@ -36,9 +36,42 @@ public class PaywallProperties {
     public static final String LND_NETWORK = "paywall.lnd.network";
     public static final String DEFAULT_LND_CURRENCY_CODE = CryptoAmount.CURRENCY_CODE_BTC;
     public static final String LND_CURRENCY_CODE = "paywall.lnd.currency";
+    public static final long DEFAULT_LND_KEEPALIVE_TIME = 60000;
+    public static final String LND_KEEPALIVE_TIME = "paywall.lnd.keepalive.time";
+    public static final long DEFAULT_LND_KEEPALIVE_TIMEOUT = 20000;
+    public static final String LND_KEEPALIVE_TIMEOUT = "paywall.lnd.keepalive.timeout";
+    public static final int DEFAULT_LND_FLOWCONTROLWINDOW = 1048576;
+    public static final String LND_FLOWCONTROLWINDOW = "paywall.lnd.flowcontrolwindow";
+    public static final int DEFAULT_LND_MAXINBOUNDMESSAGESIZE = 16777216;
+    public static final String LND_MAXINBOUNDMESSAGESIZE = "paywall.lnd.maxinboundmessagesize";
+    public static final long DEFAULT_LND_CALLDEADLINE = 10000;
+    public static final String LND_CALLDEADLINE = "paywall.lnd.calldeadline";
+    public static final int DEFAULT_LND_MAXCONCURRENTCALLS = 50;
+    public static final String LND_MAXCONCURRENTCALLS = "paywall.lnd.maxconcurrentcalls";
+    public static final int DEFAULT_LND_CIRCUITBREAKER_FAILURETHRESHOLD = 5;
+    public static final String LND_CIRCUITBREAKER_FAILURETHRESHOLD = "paywall.lnd.circuitbreaker.failurethreshold";
+    public static final long DEFAULT_LND_CIRCUITBREAKER_OPENTIME = 30000;
+    public static final String LND_CIRCUITBREAKER_OPENTIME = "paywall.lnd.circuitbreaker.opentime";
+    public static final int DEFAULT_LND_INVOICEBATCH_CONCURRENCY = 10;
+    public static final String LND_INVOICEBATCH_CONCURRENCY = "paywall.lnd.invoicebatch.concurrency";
+    public static final long DEFAULT_LND_NODEINFO_REFRESHINTERVAL = 600000;
+    public static final String LND_NODEINFO_REFRESHINTERVAL = "paywall.lnd.nodeinfo.refreshinterval";
+    public static final int DEFAULT_LND_INVOICECACHE_SIZE = 10000;
+    public static final String LND_INVOICECACHE_SIZE = "paywall.lnd.invoicecache.size";
+    public static final long DEFAULT_LND_INVOICECACHE_MAXAGE = 30000;
+    public static final String LND_INVOICECACHE_MAXAGE = "paywall.lnd.invoicecache.maxage";
+    public static final long DEFAULT_LND_RECONCILIATION_INTERVAL = 60000;
+    public static final String LND_RECONCILIATION_INTERVAL = "paywall.lnd.reconciliation.interval";
+    public static final int DEFAULT_LND_RECONCILIATION_BATCHSIZE = 1000;
+    public static final String LND_RECONCILIATION_BATCHSIZE = "paywall.lnd.reconciliation.batchsize";
 
     public static final boolean DEFAULT_LIGHTNINGHANDLER_AUTOCONNECT = true;
     public static final String LIGHTNINGHANDLER_AUTOCONNECT = "paywall.lightninghandler.autoconnect";
+    public static final String LIGHTNINGHANDLER_CHECKPOINT_FILE = "paywall.lightninghandler.checkpoint.file";
+    public static final int DEFAULT_LIGHTNINGHANDLER_CHECKPOINT_BATCHSIZE = 100;
+    public static final String LIGHTNINGHANDLER_CHECKPOINT_BATCHSIZE = "paywall.lightninghandler.checkpoint.batchsize";
+    public static final long DEFAULT_LIGHTNINGHANDLER_CHECKPOINT_INTERVAL = 1000;
+    public static final String LIGHTNINGHANDLER_CHECKPOINT_INTERVAL = "paywall.lightninghandler.checkpoint.interval";
     // Key Store Manager Settings
     public static final String KEYMGR_ASYMTRUSTSTOREPATH = "paywall.keys.truststorepath";
     public static final String KEYMGR_KEYSTOREPATH = "paywall.keys.keystorepath";
@@ -59,6 +92,12 @@ public class PaywallProperties {
 
     public static final String DEFAULT_CHECK_SETTLEMENT_URL = "/paywall/api/checkSettlement";
     public static final String CHECK_SETTLEMENT_URL = "paywall.settlement.url";
+    public static final long DEFAULT_CHECK_SETTLEMENT_MAXWAIT = 60000;
+    public static final String CHECK_SETTLEMENT_MAXWAIT = "paywall.settlement.longpoll.maxwait";
+    public static final long DEFAULT_CHECK_SETTLEMENT_SSE_TIMEOUT = 300000;
+    public static final String CHECK_SETTLEMENT_SSE_TIMEOUT = "paywall.settlement.sse.timeout";
+    public static final long DEFAULT_CHECK_SETTLEMENT_SSE_HEARTBEAT = 15000;
+    public static final String CHECK_SETTLEMENT_SSE_HEARTBEAT = "paywall.settlement.sse.heartbeat";
 
     // QR Code Default settings
     public static final int DEFAULT_QR_CODE_DEFAULT_WIDTH = 300;
@@ -67,6 +106,10 @@ public class PaywallProperties {
     public static final String QR_CODE_DEFAULT_HEIGHT = "paywall.qrcode.height.default";
     public static final String DEFAULT_QR_CODE_URL = "/paywall/genqrcode";
     public static final String QR_CODE_DEFAULT_URL = "paywall.qrcode.url";
+    public static final long DEFAULT_QR_CODE_CACHE_MAXBYTES = 4 * 1024 * 1024;
+    public static final String QR_CODE_CACHE_MAXBYTES = "paywall.qrcode.cache.maxbytes";
+    public static final boolean DEFAULT_QR_CODE_PRERENDER = false;
+    public static final String QR_CODE_PRERENDER = "paywall.qrcode.prerender";
 
     public static final boolean DEFAULT_WEBSOCKET_ENABLE = true;
     public static final String WEBSOCKET_ENABLE = "paywall.websocket.enable";
@@ -74,6 +117,60 @@ public class PaywallProperties {
     public static final String DEFAULT_WEBSOCKET_CHECK_SETTLEMENT_URL = "/paywall/api/websocket/checksettlement";
     public static final String WEBSOCKET_CHECK_SETTLEMENT_URL = "paywall.websocket.settlement.url";
 
+    // Invoice Pool Settings
+    public static final boolean DEFAULT_INVOICE_POOL_ENABLE = false;
+    public static final String INVOICE_POOL_ENABLE = "paywall.invoicepool.enable";
+    public static final int DEFAULT_INVOICE_POOL_SIZE = 10;
+    public static final String INVOICE_POOL_SIZE = "paywall.invoicepool.size";
+    public static final String INVOICE_POOL_ARTICLES = "paywall.invoicepool.articles";
+    public static final long DEFAULT_INVOICE_POOL_MINVALIDITY = 10 * 60; // 10 minutes
+    public static final String INVOICE_POOL_MINVALIDITY = "paywall.invoicepool.minvalidity";
+    public static final long DEFAULT_INVOICE_POOL_INTERVAL = 30;
+    public static final String INVOICE_POOL_INTERVAL = "paywall.invoicepool.interval";
+
+    // Payment Data Purge Settings
+    public static final boolean DEFAULT_PURGE_ENABLE = false;
+    public static final String PURGE_ENABLE = "paywall.purge.enable";
+    public static final long DEFAULT_PURGE_INTERVAL = 5 * 60; // 5 minutes
+    public static final String PURGE_INTERVAL = "paywall.purge.interval";
+    public static final long DEFAULT_PURGE_GRACEPERIOD = 60 * 60; // 1 Hour
+    public static final String PURGE_GRACEPERIOD = "paywall.purge.graceperiod";
+    public static final int DEFAULT_PURGE_BATCHSIZE = 500;
+    public static final String PURGE_BATCHSIZE = "paywall.purge.batchsize";
+
+    // Invoice Rate Limit Settings
+    public static final boolean DEFAULT_RATE_LIMIT_ENABLE = false;
+    public static final String RATE_LIMIT_ENABLE = "paywall.ratelimit.enable";
+    public static final String RATE_LIMIT_CLIENT_KEY_HEADER = "paywall.ratelimit.client.header";
+    public static final long DEFAULT_RATE_LIMIT_CLIENT_RATE = 30;
+    public static final String RATE_LIMIT_CLIENT_RATE = "paywall.ratelimit.client.rate";
+    public static final int DEFAULT_RATE_LIMIT_CLIENT_BURST = 10;
+    public static final String RATE_LIMIT_CLIENT_BURST = "paywall.ratelimit.client.burst";
+    public static final int DEFAULT_RATE_LIMIT_MAXCLIENTS = 10000;
+    public static final String RATE_LIMIT_MAXCLIENTS = "paywall.ratelimit.maxclients";
+    public static final long DEFAULT_RATE_LIMIT_GLOBAL_RATE = 600;
+    public static final String RATE_LIMIT_GLOBAL_RATE = "paywall.ratelimit.global.rate";
+    public static final int DEFAULT_RATE_LIMIT_GLOBAL_BURST = 100;
+    public static final String RATE_LIMIT_GLOBAL_BURST = "paywall.ratelimit.global.burst";
+
+    // Outstanding Invoice Reuse Settings
+    public static final boolean DEFAULT_INVOICE_REUSE_ENABLE = false;
+    public static final String INVOICE_REUSE_ENABLE = "paywall.invoicereuse.enable";
+    public static final long DEFAULT_INVOICE_REUSE_MINVALIDITY = 60;
+    public static final String INVOICE_REUSE_MINVALIDITY = "paywall.invoicereuse.minvalidity";
+    public static final int DEFAULT_INVOICE_REUSE_MAXENTRIES = 10000;
+    public static final String INVOICE_REUSE_MAXENTRIES = "paywall.invoicereuse.maxentries";
+
+    // Settlement Result Cache Settings
+    public static final boolean DEFAULT_SETTLEMENT_CACHE_ENABLE = false;
+    public static final String SETTLEMENT_CACHE_ENABLE = "paywall.settlementcache.enable";
+    public static final long DEFAULT_SETTLEMENT_CACHE_TTL = 30;
+    public static final String SETTLEMENT_CACHE_TTL = "paywall.settlementcache.ttl";
+    public static final long DEFAULT_SETTLEMENT_CACHE_MINVALIDITY = 10;
+    public static final String SETTLEMENT_CACHE_MINVALIDITY = "paywall.settlementcache.minvalidity";
+    public static final int DEFAULT_SETTLEMENT_CACHE_MAXENTRIES = 10000;
+    public static final String SETTLEMENT_CACHE_MAXENTRIES = "paywall.settlementcache.maxentries";
+
     @Value("${" + LND_HOSTNAME +  ":}")
     private String lndHostname;
 
@@ -95,9 +192,60 @@ public class PaywallProperties {
     @Value("${" + LND_CURRENCY_CODE +  ":" + DEFAULT_LND_CURRENCY_CODE + "}")
     private String lndCurrencyCode;
 
+    @Value("${" + LND_KEEPALIVE_TIME +  ":" + DEFAULT_LND_KEEPALIVE_TIME + "}")
+    private String lndKeepAliveTime;
+
+    @Value("${" + LND_KEEPALIVE_TIMEOUT +  ":" + DEFAULT_LND_KEEPALIVE_TIMEOUT + "}")
+    private String lndKeepAliveTimeout;
+
+    @Value("${" + LND_FLOWCONTROLWINDOW +  ":" + DEFAULT_LND_FLOWCONTROLWINDOW + "}")
+    private String lndFlowControlWindow;
+
+    @Value("${" + LND_MAXINBOUNDMESSAGESIZE +  ":" + DEFAULT_LND_MAXINBOUNDMESSAGESIZE + "}")
+    private String lndMaxInboundMessageSize;
+
+    @Value("${" + LND_CALLDEADLINE +  ":" + DEFAULT_LND_CALLDEADLINE + "}")
+    private String lndCallDeadline;
+
+    @Value("${" + LND_MAXCONCURRENTCALLS +  ":" + DEFAULT_LND_MAXCONCURRENTCALLS + "}")
+    private String lndMaxConcurrentCalls;
+
+    @Value("${" + LND_CIRCUITBREAKER_FAILURETHRESHOLD +  ":" + DEFAULT_LND_CIRCUITBREAKER_FAILURETHRESHOLD + "}")
+    private String lndCircuitBreakerFailureThreshold;
+
+    @Value("${" + LND_CIRCUITBREAKER_OPENTIME +  ":" + DEFAULT_LND_CIRCUITBREAKER_OPENTIME + "}")
+    private String lndCircuitBreakerOpenTime;
+
+    @Value("${" + LND_INVOICEBATCH_CONCURRENCY +  ":" + DEFAULT_LND_INVOICEBATCH_CONCURRENCY + "}")
+    private String lndInvoiceBatchConcurrency;
+
+    @Value("${" + LND_NODEINFO_REFRESHINTERVAL +  ":" + DEFAULT_LND_NODEINFO_REFRESHINTERVAL + "}")
+    private String lndNodeInfoRefreshInterval;
+
+    @Value("${" + LND_INVOICECACHE_SIZE +  ":" + DEFAULT_LND_INVOICECACHE_SIZE + "}")
+    private String lndInvoiceCacheSize;
+
+    @Value("${" + LND_INVOICECACHE_MAXAGE +  ":" + DEFAULT_LND_INVOICECACHE_MAXAGE + "}")
+    private String lndInvoiceCacheMaxAge;
+
+    @Value("${" + LND_RECONCILIATION_INTERVAL +  ":" + DEFAULT_LND_RECONCILIATION_INTERVAL + "}")
+    private String lndReconciliationInterval;
+
+    @Value("${" + LND_RECONCILIATION_BATCHSIZE +  ":" + DEFAULT_LND_RECONCILIATION_BATCHSIZE + "}")
+    private String lndReconciliationBatchSize;
+
     @Value("${" + LIGHTNINGHANDLER_AUTOCONNECT +  ":" + DEFAULT_LIGHTNINGHANDLER_AUTOCONNECT + "}")
     private String lightningHandlerAutoconnect;
 
+    @Value("${" + LIGHTNINGHANDLER_CHECKPOINT_FILE +  ":}")
+    private String lightningHandlerCheckpointFile;
+
+    @Value("${" + LIGHTNINGHANDLER_CHECKPOINT_BATCHSIZE +  ":" + DEFAULT_LIGHTNINGHANDLER_CHECKPOINT_BATCHSIZE + "}")
+    private String lightningHandlerCheckpointBatchSize;
+
+    @Value("${" + LIGHTNINGHANDLER_CHECKPOINT_INTERVAL +  ":" + DEFAULT_LIGHTNINGHANDLER_CHECKPOINT_INTERVAL + "}")
+    private String lightningHandlerCheckpointInterval;
+
     @Value("${" + KEYMGR_ASYMTRUSTSTOREPATH +  ":}")
     private String keymgrAsymTruststorePath;
 
@@ -125,6 +273,15 @@ public class PaywallProperties {
     @Value("${" + CHECK_SETTLEMENT_URL +  ":" + DEFAULT_CHECK_SETTLEMENT_URL + "}")
     private String checkSettlementUrl;
 
+    @Value("${" + CHECK_SETTLEMENT_MAXWAIT +  ":" + DEFAULT_CHECK_SETTLEMENT_MAXWAIT + "}")
+    private String checkSettlementMaxWait;
+
+    @Value("${" + CHECK_SETTLEMENT_SSE_TIMEOUT +  ":" + DEFAULT_CHECK_SETTLEMENT_SSE_TIMEOUT + "}")
+    private String checkSettlementSseTimeout;
+
+    @Value("${" + CHECK_SETTLEMENT_SSE_HEARTBEAT +  ":" + DEFAULT_CHECK_SETTLEMENT_SSE_HEARTBEAT + "}")
+    private String checkSettlementSseHeartbeat;
+
     @Value("${" + QR_CODE_DEFAULT_WIDTH +  ":" + DEFAULT_QR_CODE_DEFAULT_WIDTH + "}")
     private String qrCodeDefaultWidth;
 
@@ -134,12 +291,87 @@ public class PaywallProperties {
     @Value("${" + QR_CODE_DEFAULT_URL +  ":" + DEFAULT_QR_CODE_URL + "}")
     private String qrCodeUrl;
 
+    @Value("${" + QR_CODE_CACHE_MAXBYTES +  ":" + DEFAULT_QR_CODE_CACHE_MAXBYTES + "}")
+    private String qrCodeCacheMaxBytes;
+
+    @Value("${" + QR_CODE_PRERENDER +  ":" + DEFAULT_QR_CODE_PRERENDER + "}")
+    private String qrCodePreRender;
+
     @Value("${" + WEBSOCKET_ENABLE +  ":" + DEFAULT_WEBSOCKET_ENABLE + "}")
     private String webSocketEnable;
 
     @Value("${" + WEBSOCKET_CHECK_SETTLEMENT_URL +  ":" + DEFAULT_WEBSOCKET_CHECK_SETTLEMENT_URL+ "}")
     private String webSocketCheckSettlementUrl;
 
+    @Value("${" + INVOICE_POOL_ENABLE +  ":" + DEFAULT_INVOICE_POOL_ENABLE + "}")
+    private String invoicePoolEnable;
+
+    @Value("${" + INVOICE_POOL_SIZE +  ":" + DEFAULT_INVOICE_POOL_SIZE + "}")
+    private String invoicePoolSize;
+
+    @Value("${" + INVOICE_POOL_ARTICLES +  ":}")
+    private String invoicePoolArticles;
+
+    @Value("${" + INVOICE_POOL_MINVALIDITY +  ":" + DEFAULT_INVOICE_POOL_MINVALIDITY + "}")
+    private String invoicePoolMinValidity;
+
+    @Value("${" + INVOICE_POOL_INTERVAL +  ":" + DEFAULT_INVOICE_POOL_INTERVAL + "}")
+    private String invoicePoolInterval;
+
+    @Value("${" + PURGE_ENABLE +  ":" + DEFAULT_PURGE_ENABLE + "}")
+    private String purgeEnable;
+
+    @Value("${" + PURGE_INTERVAL +  ":" + DEFAULT_PURGE_INTERVAL + "}")
+    private String purgeInterval;
+
+    @Value("${" + PURGE_GRACEPERIOD +  ":" + DEFAULT_PURGE_GRACEPERIOD + "}")
+    private String purgeGracePeriod;
+
+    @Value("${" + PURGE_BATCHSIZE +  ":" + DEFAULT_PURGE_BATCHSIZE + "}")
+    private String purgeBatchSize;
+
+    @Value("${" + RATE_LIMIT_ENABLE +  ":" + DEFAULT_RATE_LIMIT_ENABLE + "}")
+    private String rateLimitEnable;
+
+    @Value("${" + RATE_LIMIT_CLIENT_KEY_HEADER +  ":}")
+    private String rateLimitClientKeyHeader;
+
+    @Value("${" + RATE_LIMIT_CLIENT_RATE +  ":" + DEFAULT_RATE_LIMIT_CLIENT_RATE + "}")
+    private String rateLimitClientRate;
+
+    @Value("${" + RATE_LIMIT_CLIENT_BURST +  ":" + DEFAULT_RATE_LIMIT_CLIENT_BURST + "}")
+    private String rateLimitClientBurst;
+
+    @Value("${" + RATE_LIMIT_MAXCLIENTS +  ":" + DEFAULT_RATE_LIMIT_MAXCLIENTS + "}")
+    private String rateLimitMaxClients;
+
+    @Value("${" + RATE_LIMIT_GLOBAL_RATE +  ":" + DEFAULT_RATE_LIMIT_GLOBAL_RATE + "}")
+    private String rateLimitGlobalRate;
+
+    @Value("${" + RATE_LIMIT_GLOBAL_BURST +  ":" + DEFAULT_RATE_LIMIT_GLOBAL_BURST + "}")
+    private String rateLimitGlobalBurst;
+
+    @Value("${" + INVOICE_REUSE_ENABLE +  ":" + DEFAULT_INVOICE_REUSE_ENABLE + "}")
+    private String invoiceReuseEnable;
+
+    @Value("${" + INVOICE_REUSE_MINVALIDITY +  ":" + DEFAULT_INVOICE_REUSE_MINVALIDITY + "}")
+    private String invoiceReuseMinValidity;
+
+    @Value("${" + INVOICE_REUSE_MAXENTRIES +  ":" + DEFAULT_INVOICE_REUSE_MAXENTRIES + "}")
+    private String invoiceReuseMaxEntries;
+
+    @Value("${" + SETTLEMENT_CACHE_ENABLE +  ":" + DEFAULT_SETTLEMENT_CACHE_ENABLE + "}")
+    private String settlementCacheEnable;
+
+    @Value("${" + SETTLEMENT_CACHE_TTL +  ":" + DEFAULT_SETTLEMENT_CACHE_TTL + "}")
+    private String settlementCacheTTL;
+
+    @Value("${" + SETTLEMENT_CACHE_MINVALIDITY +  ":" + DEFAULT_SETTLEMENT_CACHE_MINVALIDITY + "}")
+    private String settlementCacheMinValidity;
+
+    @Value("${" + SETTLEMENT_CACHE_MAXENTRIES +  ":" + DEFAULT_SETTLEMENT_CACHE_MAXENTRIES + "}")
+    private String settlementCacheMaxEntries;
+
     /**
      * Method that should return the hostname of IP address of the LND node to connect to.
      *
@@ -347,4 +579,367 @@ public class PaywallProperties {
     public String getWebSocketCheckSettlementUrl() {
         return webSocketCheckSettlementUrl;
     }
+
+    /**
+     *
+     * @return returns string "true" if invoices should be pre-generated in an invoice pool.
+     */
+    public String getInvoicePoolEnable() {
+        return invoicePoolEnable;
+    }
+
+    /**
+     *
+     * @return the number of ready invoices to keep per article id and units.
+     */
+    public String getInvoicePoolSize() {
+        return invoicePoolSize;
+    }
+
+    /**
+     *
+     * @return comma separated list of article ids to pool invoices for, empty for all articles.
+     */
+    public String getInvoicePoolArticles() {
+        return invoicePoolArticles;
+    }
+
+    /**
+     *
+     * @return the minimum remaining validity in seconds of a pooled invoice when handed out.
+     */
+    public String getInvoicePoolMinValidity() {
+        return invoicePoolMinValidity;
+    }
+
+    /**
+     *
+     * @return the interval in seconds between each discard of expiring invoices and refill of pools.
+     */
+    public String getInvoicePoolInterval() {
+        return invoicePoolInterval;
+    }
+
+    /**
+     *
+     * @return returns string "true" if expired payment data should be purged periodically.
+     */
+    public String getPurgeEnable() {
+        return purgeEnable;
+    }
+
+    /**
+     *
+     * @return the interval in seconds between each purge of expired payment data.
+     */
+    public String getPurgeInterval() {
+        return purgeInterval;
+    }
+
+    /**
+     *
+     * @return the time in seconds payment data is kept after it expired before it is purged.
+     */
+    public String getPurgeGracePeriod() {
+        return purgeGracePeriod;
+    }
+
+    /**
+     *
+     * @return the maximum number of payment data removed in each batch during a purge.
+     */
+    public String getPurgeBatchSize() {
+        return purgeBatchSize;
+    }
+
+    /**
+     *
+     * @return path to the file where the last processed lightning handler context is stored, empty to disable.
+     */
+    public String getLightningHandlerCheckpointFile() {
+        return lightningHandlerCheckpointFile;
+    }
+
+    /**
+     *
+     * @return the number of processed invoice events before the lightning handler checkpoint is written.
+     */
+    public String getLightningHandlerCheckpointBatchSize() {
+        return lightningHandlerCheckpointBatchSize;
+    }
+
+    /**
+     *
+     * @return the maximum time in milliseconds before a processed invoice event is written to the checkpoint.
+     */
+    public String getLightningHandlerCheckpointInterval() {
+        return lightningHandlerCheckpointInterval;
+    }
+
+    /**
+     *
+     * @return the maximum number of recent invoices cached by the LND lightning handler, 0 disables the cache.
+     */
+    public String getLndInvoiceCacheSize() {
+        return lndInvoiceCacheSize;
+    }
+
+    /**
+     *
+     * @return the maximum time in milliseconds a cached unsettled invoice is used before it is looked up in LND again.
+     */
+    public String getLndInvoiceCacheMaxAge() {
+        return lndInvoiceCacheMaxAge;
+    }
+
+    /**
+     *
+     * @return the time in milliseconds between settlement reconciliation sweeps, 0 disables reconciliation.
+     */
+    public String getLndReconciliationInterval() {
+        return lndReconciliationInterval;
+    }
+
+    /**
+     *
+     * @return the number of invoices fetched from LND in each page during settlement reconciliation.
+     */
+    public String getLndReconciliationBatchSize() {
+        return lndReconciliationBatchSize;
+    }
+
+    /**
+     *
+     * @return the time in milliseconds without activity before a keep alive ping is sent to LND, 0 disables keep alive.
+     */
+    public String getLndKeepAliveTime() {
+        return lndKeepAliveTime;
+    }
+
+    /**
+     *
+     * @return the time in milliseconds to wait for a keep alive ping response from LND.
+     */
+    public String getLndKeepAliveTimeout() {
+        return lndKeepAliveTimeout;
+    }
+
+    /**
+     *
+     * @return the HTTP/2 flow control window in bytes of the LND channel.
+     */
+    public String getLndFlowControlWindow() {
+        return lndFlowControlWindow;
+    }
+
+    /**
+     *
+     * @return the maximum size in bytes of a message received from LND.
+     */
+    public String getLndMaxInboundMessageSize() {
+        return lndMaxInboundMessageSize;
+    }
+
+    /**
+     *
+     * @return the deadline in milliseconds of each call to LND, 0 for no deadline.
+     */
+    public String getLndCallDeadline() {
+        return lndCallDeadline;
+    }
+
+    /**
+     *
+     * @return the maximum number of concurrent calls to generate or lookup invoices in LND, 0 for no limit.
+     */
+    public String getLndMaxConcurrentCalls() {
+        return lndMaxConcurrentCalls;
+    }
+
+    /**
+     *
+     * @return the number of consecutive failed LND calls before the circuit breaker opens, 0 disables the circuit breaker.
+     */
+    public String getLndCircuitBreakerFailureThreshold() {
+        return lndCircuitBreakerFailureThreshold;
+    }
+
+    /**
+     *
+     * @return the time in milliseconds the circuit breaker stays open before a probe call is made to LND.
+     */
+    public String getLndCircuitBreakerOpenTime() {
+        return lndCircuitBreakerOpenTime;
+    }
+
+    /**
+     *
+     * @return the maximum number of pipelined add invoice calls when generating a batch of invoices in LND.
+     */
+    public String getLndInvoiceBatchConcurrency() {
+        return lndInvoiceBatchConcurrency;
+    }
+
+    /**
+     *
+     * @return the interval in milliseconds between background refreshes of the LND node info included in invoices.
+     */
+    public String getLndNodeInfoRefreshInterval() {
+        return lndNodeInfoRefreshInterval;
+    }
+
+    /**
+     *
+     * @return the maximum time in milliseconds a long poll check settlement request waits for settlement.
+     */
+    public String getCheckSettlementMaxWait() {
+        return checkSettlementMaxWait;
+    }
+
+    /**
+     *
+     * @return the time in milliseconds a Server-Sent Events check settlement stream is kept open
+     * waiting for settlement.
+     */
+    public String getCheckSettlementSseTimeout() {
+        return checkSettlementSseTimeout;
+    }
+
+    /**
+     *
+     * @return the interval in milliseconds between heartbeats sent to open Server-Sent Events check
+     * settlement streams, 0 to disable heartbeats.
+     */
+    public String getCheckSettlementSseHeartbeat() {
+        return checkSettlementSseHeartbeat;
+    }
+
+    /**
+     *
+     * @return the maximum total size in bytes of cached QR code images.
+     */
+    public String getQrCodeCacheMaxBytes() {
+        return qrCodeCacheMaxBytes;
+    }
+
+    /**
+     *
+     * @return true if QR code images should be rendered in the background when invoices are created.
+     */
+    public String getQrCodePreRender() {
+        return qrCodePreRender;
+    }
+
+    /**
+     *
+     * @return true if rate limiting of invoice creation should be enabled.
+     */
+    public String getRateLimitEnable() {
+        return rateLimitEnable;
+    }
+
+    /**
+     *
+     * @return name of HTTP header identifying the client when rate limiting, if not set is
+     * the remote IP address used.
+     */
+    public String getRateLimitClientKeyHeader() {
+        return rateLimitClientKeyHeader;
+    }
+
+    /**
+     *
+     * @return the number of invoices a single client may create per minute.
+     */
+    public String getRateLimitClientRate() {
+        return rateLimitClientRate;
+    }
+
+    /**
+     *
+     * @return the number of invoices a single client may create in a burst.
+     */
+    public String getRateLimitClientBurst() {
+        return rateLimitClientBurst;
+    }
+
+    /**
+     *
+     * @return the maximum number of clients to keep rate limit state for.
+     */
+    public String getRateLimitMaxClients() {
+        return rateLimitMaxClients;
+    }
+
+    /**
+     *
+     * @return the total number of invoices the paywall may create per minute.
+     */
+    public String getRateLimitGlobalRate() {
+        return rateLimitGlobalRate;
+    }
+
+    /**
+     *
+     * @return the total number of invoices the paywall may create in a burst.
+     */
+    public String getRateLimitGlobalBurst() {
+        return rateLimitGlobalBurst;
+    }
+
+    /**
+     *
+     * @return if an outstanding unpaid invoice should be returned again for identical requests of the same client.
+     */
+    public String getInvoiceReuseEnable() {
+        return invoiceReuseEnable;
+    }
+
+    /**
+     *
+     * @return the minimum remaining validity in seconds of an outstanding invoice to be returned again.
+     */
+    public String getInvoiceReuseMinValidity() {
+        return invoiceReuseMinValidity;
+    }
+
+    /**
+     *
+     * @return the maximum number of outstanding invoices to keep in the index.
+     */
+    public String getInvoiceReuseMaxEntries() {
+        return invoiceReuseMaxEntries;
+    }
+
+    /**
+     *
+     * @return if concurrent settlement checks of the same payment should share one check and settlement token.
+     */
+    public String getSettlementCacheEnable() {
+        return settlementCacheEnable;
+    }
+
+    /**
+     *
+     * @return the maximum time in seconds a settled result is cached.
+     */
+    public String getSettlementCacheTTL() {
+        return settlementCacheTTL;
+    }
+
+    /**
+     *
+     * @return the minimum remaining validity in seconds of a settlement for a cached result to be returned.
+     */
+    public String getSettlementCacheMinValidity() {
+        return settlementCacheMinValidity;
+    }
+
+    /**
+     *
+     * @return the maximum number of cached settlement results.
+     */
+    public String getSettlementCacheMaxEntries() {
+        return settlementCacheMaxEntries;
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.qrcode.CachingQRCodeGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.logging.Logger;
+
+import static org.lightningj.paywall.spring.PaywallProperties.*;
+import static org.lightningj.paywall.util.SettingUtils.checkBooleanWithDefault;
+import static org.lightningj.paywall.util.SettingUtils.checkIntegerWithDefault;
+import static org.lightningj.paywall.util.SettingUtils.checkLongWithDefault;
+
+/**
+ * Spring implementation of Caching QR Code Generator, pre-rendered QR codes uses the
+ * configured default QR code width and height.
+ */
+public class SpringCachingQRCodeGenerator extends CachingQRCodeGenerator {
+
+    static Logger log = Logger.getLogger(SpringCachingQRCodeGenerator.class.getName());
+
+    @Autowired
+    PaywallProperties paywallProperties;
+
+    /**
+     * @return the maximum total size in bytes of cached images.
+     */
+    @Override
+    protected long getMaxCacheBytes() {
+        try {
+            return checkLongWithDefault(paywallProperties.getQrCodeCacheMaxBytes(), QR_CODE_CACHE_MAXBYTES, DEFAULT_QR_CODE_CACHE_MAXBYTES);
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + QR_CODE_CACHE_MAXBYTES + " should be an integer, not " + paywallProperties.getQrCodeCacheMaxBytes() + ", using default value: " + DEFAULT_QR_CODE_CACHE_MAXBYTES);
+        }
+        return DEFAULT_QR_CODE_CACHE_MAXBYTES;
+    }
+
+    /**
+     * @return true if QR codes should be rendered when invoices are created.
+     */
+    @Override
+    protected boolean isPreRenderEnabled() {
+        try {
+            return checkBooleanWithDefault(paywallProperties.getQrCodePreRender(), QR_CODE_PRERENDER, DEFAULT_QR_CODE_PRERENDER);
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + QR_CODE_PRERENDER + " should be true or false, not " + paywallProperties.getQrCodePreRender() + ", using default value: " + DEFAULT_QR_CODE_PRERENDER);
+        }
+        return DEFAULT_QR_CODE_PRERENDER;
+    }
+
+    /**
+     * @return the configured default QR code width.
+     */
+    @Override
+    protected int getPreRenderWidth() {
+        try {
+            return checkIntegerWithDefault(paywallProperties.getQrCodeDefaultWidth(), QR_CODE_DEFAULT_WIDTH, DEFAULT_QR_CODE_DEFAULT_WIDTH);
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + QR_CODE_DEFAULT_WIDTH + " should be an integer, not " + paywallProperties.getQrCodeDefaultWidth() + ", using default value: " + DEFAULT_QR_CODE_DEFAULT_WIDTH);
+        }
+        return DEFAULT_QR_CODE_DEFAULT_WIDTH;
+    }
+
+    /**
+     * @return the configured default QR code height.
+     */
+    @Override
+    protected int getPreRenderHeight() {
+        try {
+            return checkIntegerWithDefault(paywallProperties.getQrCodeDefaultHeight(), QR_CODE_DEFAULT_HEIGHT, DEFAULT_QR_CODE_DEFAULT_HEIGHT);
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + QR_CODE_DEFAULT_HEIGHT + " should be an integer, not " + paywallProperties.getQrCodeDefaultHeight() + ", using default value: " + DEFAULT_QR_CODE_DEFAULT_HEIGHT);
+        }
+        return DEFAULT_QR_CODE_DEFAULT_HEIGHT;
+    }
+}
@@ -121,4 +121,158 @@ public class SpringLNDLightningHandler extends SimpleBaseLNDLightningHandler {
     protected String getSupportedCurrencyCode() {
         return paywallProperties.getLndCurrencyCode();
     }
+
+    /**
+     * Method to retrieve the time in milliseconds without read activity before a keep alive ping is sent.
+     *
+     * @return the keep alive time in milliseconds, 0 or less disables keep alive.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    @Override
+    protected long getKeepAliveTime() throws InternalErrorException {
+        return checkLongWithDefault(paywallProperties.getLndKeepAliveTime(), LND_KEEPALIVE_TIME, DEFAULT_LND_KEEPALIVE_TIME);
+    }
+
+    /**
+     * Method to retrieve the time in milliseconds to wait for a keep alive ping response.
+     *
+     * @return the keep alive timeout in milliseconds.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    @Override
+    protected long getKeepAliveTimeout() throws InternalErrorException {
+        return checkLongWithDefault(paywallProperties.getLndKeepAliveTimeout(), LND_KEEPALIVE_TIMEOUT, DEFAULT_LND_KEEPALIVE_TIMEOUT);
+    }
+
+    /**
+     * Method to retrieve the HTTP/2 flow control window in bytes of the channel.
+     *
+     * @return the flow control window in bytes.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    @Override
+    protected int getFlowControlWindow() throws InternalErrorException {
+        return checkIntegerWithDefault(paywallProperties.getLndFlowControlWindow(), LND_FLOWCONTROLWINDOW, DEFAULT_LND_FLOWCONTROLWINDOW);
+    }
+
+    /**
+     * Method to retrieve the maximum size in bytes of a message received from the LND node.
+     *
+     * @return the max inbound message size in bytes.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    @Override
+    protected int getMaxInboundMessageSize() throws InternalErrorException {
+        return checkIntegerWithDefault(paywallProperties.getLndMaxInboundMessageSize(), LND_MAXINBOUNDMESSAGESIZE, DEFAULT_LND_MAXINBOUNDMESSAGESIZE);
+    }
+
+    /**
+     * Method to retrieve the deadline in milliseconds of unary calls to LND.
+     *
+     * @return the call deadline in milliseconds, 0 or less for no deadline.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    @Override
+    protected long getCallDeadline() throws InternalErrorException {
+        return checkLongWithDefault(paywallProperties.getLndCallDeadline(), LND_CALLDEADLINE, DEFAULT_LND_CALLDEADLINE);
+    }
+
+    /**
+     * Method to retrieve the maximum number of concurrent calls to generate or lookup invoices in LND.
+     *
+     * @return the maximum number of concurrent calls, 0 or less for no limit.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    @Override
+    protected int getMaxConcurrentCalls() throws InternalErrorException {
+        return checkIntegerWithDefault(paywallProperties.getLndMaxConcurrentCalls(), LND_MAXCONCURRENTCALLS, DEFAULT_LND_MAXCONCURRENTCALLS);
+    }
+
+    /**
+     * Method to retrieve the number of consecutive failed calls before the circuit breaker opens.
+     *
+     * @return the failure threshold, 0 or less disables the circuit breaker.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    @Override
+    protected int getCircuitBreakerFailureThreshold() throws InternalErrorException {
+        return checkIntegerWithDefault(paywallProperties.getLndCircuitBreakerFailureThreshold(), LND_CIRCUITBREAKER_FAILURETHRESHOLD, DEFAULT_LND_CIRCUITBREAKER_FAILURETHRESHOLD);
+    }
+
+    /**
+     * Method to retrieve the time in milliseconds the circuit breaker stays open.
+     *
+     * @return the open time in milliseconds.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    @Override
+    protected long getCircuitBreakerOpenTime() throws InternalErrorException {
+        return checkLongWithDefault(paywallProperties.getLndCircuitBreakerOpenTime(), LND_CIRCUITBREAKER_OPENTIME, DEFAULT_LND_CIRCUITBREAKER_OPENTIME);
+    }
+
+    /**
+     * Method to retrieve the maximum number of pipelined add invoice calls in a batch.
+     *
+     * @return the maximum number of add invoice calls in progress in a batch.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    @Override
+    protected int getInvoiceBatchConcurrency() throws InternalErrorException {
+        return checkIntegerWithDefault(paywallProperties.getLndInvoiceBatchConcurrency(), LND_INVOICEBATCH_CONCURRENCY, DEFAULT_LND_INVOICEBATCH_CONCURRENCY);
+    }
+
+    /**
+     * Method to retrieve the interval between background refreshes of the node info.
+     *
+     * @return the refresh interval in milliseconds.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    @Override
+    protected long getNodeInfoRefreshInterval() throws InternalErrorException {
+        return checkLongWithDefault(paywallProperties.getLndNodeInfoRefreshInterval(), LND_NODEINFO_REFRESHINTERVAL, DEFAULT_LND_NODEINFO_REFRESHINTERVAL);
+    }
+
+    /**
+     * Method to retrieve the maximum number of recent invoices to keep in cache.
+     *
+     * @return the maximum number of cached invoices, 0 or less disables the cache.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    @Override
+    protected int getInvoiceCacheSize() throws InternalErrorException {
+        return checkIntegerWithDefault(paywallProperties.getLndInvoiceCacheSize(), LND_INVOICECACHE_SIZE, DEFAULT_LND_INVOICECACHE_SIZE);
+    }
+
+    /**
+     * Method to retrieve the maximum age in milliseconds of a cached unsettled invoice.
+     *
+     * @return the maximum age of cached unsettled invoices in milliseconds.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    @Override
+    protected long getInvoiceCacheMaxAge() throws InternalErrorException {
+        return checkLongWithDefault(paywallProperties.getLndInvoiceCacheMaxAge(), LND_INVOICECACHE_MAXAGE, DEFAULT_LND_INVOICECACHE_MAXAGE);
+    }
+
+    /**
+     * Method to retrieve the interval in milliseconds between settlement reconciliation sweeps.
+     *
+     * @return the reconciliation interval in milliseconds, 0 or less disables reconciliation.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    @Override
+    protected long getReconciliationInterval() throws InternalErrorException {
+        return checkLongWithDefault(paywallProperties.getLndReconciliationInterval(), LND_RECONCILIATION_INTERVAL, DEFAULT_LND_RECONCILIATION_INTERVAL);
+    }
+
+    /**
+     * Method to retrieve the number of invoices fetched in each ListInvoices call during settlement reconciliation.
+     *
+     * @return the reconciliation batch size.
+     * @throws InternalErrorException if problems occurred parsing the configuration.
+     */
+    @Override
+    protected int getReconciliationBatchSize() throws InternalErrorException {
+        return checkIntegerWithDefault(paywallProperties.getLndReconciliationBatchSize(), LND_RECONCILIATION_BATCHSIZE, DEFAULT_LND_RECONCILIATION_BATCHSIZE);
+    }
 }
@@ -15,24 +15,49 @@
 package org.lightningj.paywall.spring;
 
 import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.articlecatalog.ArticleCatalog;
 import org.lightningj.paywall.lightninghandler.LightningHandler;
+import org.lightningj.paywall.lightninghandler.lnd.LNDContextCheckpointStore;
 import org.lightningj.paywall.paymenthandler.BasePaymentHandler;
+import org.lightningj.paywall.paymenthandler.SettlementNotificationBus;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.lightningj.paywall.util.SettingUtils.checkBooleanWithDefault;
+import static org.lightningj.paywall.util.SettingUtils.checkIntegerWithDefault;
 import static org.lightningj.paywall.util.SettingUtils.checkLongWithDefault;
+import static org.lightningj.paywall.util.SettingUtils.isEmpty;
 
 /**
  * A Spring bean enhanced base Payment Handler the implementing application
  * should inherit.
+ * <p>
+ * If setting paywall.purge.enable is true is a background thread started that
+ * calls purgeExpired() every paywall.purge.interval seconds.
+ * <p>
+ * If an ArticleCatalog bean exists in the application context it is used to price
+ * orders, the catalog is initialized before the payment handler and closed on destruction.
+ * <p>
+ * If a SettlementNotificationBus bean exists in the application context are payment events
+ * distributed to all application instances through it, the bus is closed on destruction.
+ * <p>
+ * If setting paywall.lightninghandler.checkpoint.file is set is the context of the
+ * last processed invoice event stored in the file and used when connecting to the
+ * lightning node after restart.
  *
  * @author philip 2019-02-09
  */
-public abstract class SpringPaymentHandler extends BasePaymentHandler implements InitializingBean {
+public abstract class SpringPaymentHandler extends BasePaymentHandler implements InitializingBean, DisposableBean {
 
     static Logger log = Logger.getLogger(SpringPaymentHandler.class.getName());
 
@@ -42,6 +67,16 @@ public abstract class SpringPaymentHandler extends BasePaymentHandler implements
     @Autowired
     PaywallProperties paywallProperties;
 
+    @Autowired(required = false)
+    ArticleCatalog articleCatalog;
+
+    @Autowired(required = false)
+    SettlementNotificationBus notificationBus;
+
+    ScheduledExecutorService purgeScheduler;
+
+    LNDContextCheckpointStore lightningHandlerContextStore;
+
     /**
      * Invoked by the containing {@code BeanFactory} after it has set all bean properties
      * and satisfied {@link org.springframework.beans.factory.BeanFactoryAware}, {@code ApplicationContextAware} etc.
@@ -53,7 +88,54 @@ public abstract class SpringPaymentHandler extends BasePaymentHandler implements
      */
     @Override
     public void afterPropertiesSet() throws Exception {
+        if(!isEmpty(paywallProperties.getLightningHandlerCheckpointFile())){
+            lightningHandlerContextStore = new LNDContextCheckpointStore(Paths.get(paywallProperties.getLightningHandlerCheckpointFile().trim()),
+                    getLightningHandlerCheckpointBatchSize(), getLightningHandlerCheckpointInterval());
+        }
+        if(articleCatalog != null){
+            articleCatalog.init();
+        }
         init();
+        if(checkBooleanWithDefault(paywallProperties.getPurgeEnable(), PaywallProperties.PURGE_ENABLE, PaywallProperties.DEFAULT_PURGE_ENABLE)){
+            long interval = checkLongWithDefault(paywallProperties.getPurgeInterval(), PaywallProperties.PURGE_INTERVAL, PaywallProperties.DEFAULT_PURGE_INTERVAL);
+            long gracePeriod = checkLongWithDefault(paywallProperties.getPurgeGracePeriod(), PaywallProperties.PURGE_GRACEPERIOD, PaywallProperties.DEFAULT_PURGE_GRACEPERIOD);
+            purgeScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "paywall-purge");
+                t.setDaemon(true);
+                return t;
+            });
+            purgeScheduler.scheduleWithFixedDelay(() -> purgeExpiredQuietly(gracePeriod), interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Invoked by the containing {@code BeanFactory} on destruction of a bean,
+     * stops the purge scheduler if started, closes the settlement notification bus and article
+     * catalog and writes the last lightning handler checkpoint.
+     */
+    @Override
+    public void destroy() {
+        if(purgeScheduler != null){
+            purgeScheduler.shutdownNow();
+            purgeScheduler = null;
+        }
+        if(settlementNotificationBus != null){
+            try {
+                settlementNotificationBus.close();
+            }catch (Exception e){
+                log.log(Level.SEVERE, "Error closing settlement notification bus on shutdown: " + e.getMessage(), e);
+            }
+        }
+        if(articleCatalog != null){
+            articleCatalog.close();
+        }
+        if(lightningHandlerContextStore != null){
+            try {
+                lightningHandlerContextStore.close();
+            }catch (Exception e){
+                log.log(Level.SEVERE, "Error writing lightning handler context checkpoint on shutdown: " + e.getMessage(), e);
+            }
+        }
     }
 
     /**
@@ -66,6 +148,30 @@ public abstract class SpringPaymentHandler extends BasePaymentHandler implements
         return lightningHandler;
     }
 
+    /**
+     * @return the article catalog bean if defined in application context, otherwise null.
+     */
+    @Override
+    protected ArticleCatalog getArticleCatalog() {
+        return articleCatalog;
+    }
+
+    /**
+     * @return the settlement notification bus bean if defined in application context, otherwise null.
+     */
+    @Override
+    protected SettlementNotificationBus getSettlementNotificationBus() {
+        return notificationBus;
+    }
+
+    /**
+     * @return the checkpoint store if paywall.lightninghandler.checkpoint.file is set, otherwise null.
+     */
+    @Override
+    protected LNDContextCheckpointStore getLightningHandlerContextStore() {
+        return lightningHandlerContextStore;
+    }
+
     /**
      * @return the default validity for generated invoices if no expire date have
      * been set explicit in PaymentData.
@@ -96,6 +202,43 @@ public abstract class SpringPaymentHandler extends BasePaymentHandler implements
         return Duration.ofSeconds(PaywallProperties.DEFAULT_SETTLEMENT_DEFAULT_VALIDITY);
     }
 
+    /**
+     * @return the maximum number of payment data removed in one batch when purging expired payment data.
+     */
+    @Override
+    protected int getPurgeBatchSize() {
+        try {
+            return checkIntegerWithDefault(paywallProperties.getPurgeBatchSize(), PaywallProperties.PURGE_BATCHSIZE, PaywallProperties.DEFAULT_PURGE_BATCHSIZE);
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + PaywallProperties.PURGE_BATCHSIZE + " should be an integer, not " + paywallProperties.getPurgeBatchSize() + ", using default value: " + PaywallProperties.DEFAULT_PURGE_BATCHSIZE);
+        }
+        return PaywallProperties.DEFAULT_PURGE_BATCHSIZE;
+    }
+
+    /**
+     * @return the number of processed invoice events before the lightning handler checkpoint is written.
+     */
+    protected int getLightningHandlerCheckpointBatchSize() {
+        try {
+            return checkIntegerWithDefault(paywallProperties.getLightningHandlerCheckpointBatchSize(), PaywallProperties.LIGHTNINGHANDLER_CHECKPOINT_BATCHSIZE, PaywallProperties.DEFAULT_LIGHTNINGHANDLER_CHECKPOINT_BATCHSIZE);
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + PaywallProperties.LIGHTNINGHANDLER_CHECKPOINT_BATCHSIZE + " should be an integer, not " + paywallProperties.getLightningHandlerCheckpointBatchSize() + ", using default value: " + PaywallProperties.DEFAULT_LIGHTNINGHANDLER_CHECKPOINT_BATCHSIZE);
+        }
+        return PaywallProperties.DEFAULT_LIGHTNINGHANDLER_CHECKPOINT_BATCHSIZE;
+    }
+
+    /**
+     * @return the maximum time in milliseconds before a processed invoice event is written to the checkpoint.
+     */
+    protected long getLightningHandlerCheckpointInterval() {
+        try {
+            return checkLongWithDefault(paywallProperties.getLightningHandlerCheckpointInterval(), PaywallProperties.LIGHTNINGHANDLER_CHECKPOINT_INTERVAL, PaywallProperties.DEFAULT_LIGHTNINGHANDLER_CHECKPOINT_INTERVAL);
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + PaywallProperties.LIGHTNINGHANDLER_CHECKPOINT_INTERVAL + " should be an integer, not " + paywallProperties.getLightningHandlerCheckpointInterval() + ", using default value: " + PaywallProperties.DEFAULT_LIGHTNINGHANDLER_CHECKPOINT_INTERVAL);
+        }
+        return PaywallProperties.DEFAULT_LIGHTNINGHANDLER_CHECKPOINT_INTERVAL;
+    }
+
     /**
      * @return true if base payment handler should try to connect to lightning handler automatically upon restart.
      */
@@ -103,4 +246,19 @@ public abstract class SpringPaymentHandler extends BasePaymentHandler implements
     protected boolean isLightningHandlerAutoconnect() throws InternalErrorException {
         return checkBooleanWithDefault(paywallProperties.getLightningHandlerAutoconnect(), PaywallProperties.LIGHTNINGHANDLER_AUTOCONNECT, PaywallProperties.DEFAULT_LIGHTNINGHANDLER_AUTOCONNECT);
     }
+
+    /**
+     * Help method called by purge scheduler that logs instead of throws errors
+     * in order to keep the scheduled task running.
+     */
+    void purgeExpiredQuietly(long gracePeriod){
+        try{
+            long purged = purgeExpired(Instant.now().minusSeconds(gracePeriod));
+            if(log.isLoggable(Level.FINE)){
+                log.fine("Scheduled purge removed " + purged + " expired payment data, metrics: " + getPurgeMetrics());
+            }
+        }catch(Exception e){
+            log.log(Level.SEVERE, "Error purging expired payment data: " + e.getMessage(), e);
+        }
+    }
 }
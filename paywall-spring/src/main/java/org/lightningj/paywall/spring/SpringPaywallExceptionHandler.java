@@ -15,6 +15,8 @@
 package org.lightningj.paywall.spring;
 
 import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.RateLimitExceededException;
+import org.lightningj.paywall.lightninghandler.LightningNodeUnavailableException;
 import org.lightningj.paywall.spring.util.PaywallRuntimeException;
 import org.lightningj.paywall.spring.util.RequestHelper;
 import org.lightningj.paywall.tokengenerator.TokenException;
@@ -43,11 +45,15 @@ public class SpringPaywallExceptionHandler implements PaywallExceptionHandler{
         // Default is 500
         statusCodeMap.put(IllegalArgumentException.class,HttpStatus.BAD_REQUEST);
         statusCodeMap.put(IOException.class,HttpStatus.SERVICE_UNAVAILABLE);
+        statusCodeMap.put(LightningNodeUnavailableException.class,HttpStatus.SERVICE_UNAVAILABLE);
         statusCodeMap.put(TokenException.class,HttpStatus.UNAUTHORIZED);
+        statusCodeMap.put(RateLimitExceededException.class,HttpStatus.TOO_MANY_REQUESTS);
 
         errorMsgPrefix.put(IllegalArgumentException.class, "Invalid Request");
         errorMsgPrefix.put(IOException.class, "Internal Communication Problems");
+        errorMsgPrefix.put(LightningNodeUnavailableException.class, "Lightning Node Unavailable");
         errorMsgPrefix.put(TokenException.class, "JWT Token Problem");
+        errorMsgPrefix.put(RateLimitExceededException.class, "Too Many Requests");
     }
 
     RequestHelper requestHelper = new RequestHelper();
@@ -18,27 +18,46 @@ import org.lightningj.paywall.paymentflow.ExpectedTokenType;
 import org.lightningj.paywall.paymentflow.PaymentFlow;
 import org.lightningj.paywall.paymentflow.PaymentFlowManager;
 import org.lightningj.paywall.paymentflow.SettlementResult;
+import org.lightningj.paywall.spring.APIError;
 import org.lightningj.paywall.spring.PaywallExceptionHandler;
 import org.lightningj.paywall.spring.PaywallProperties;
+import org.lightningj.paywall.spring.local.LongPollSettledPaymentHandler;
 import org.lightningj.paywall.spring.response.SettlementResponse;
 import org.lightningj.paywall.spring.util.PaywallRuntimeException;
 import org.lightningj.paywall.spring.util.RequestHelper;
 import org.lightningj.paywall.spring.util.SpringCachableHttpServletRequest;
+import org.lightningj.paywall.spring.util.SseHeartbeatScheduler;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import static org.lightningj.paywall.spring.PaywallProperties.CHECK_SETTLEMENT_MAXWAIT;
+import static org.lightningj.paywall.spring.PaywallProperties.CHECK_SETTLEMENT_SSE_TIMEOUT;
+import static org.lightningj.paywall.spring.PaywallProperties.DEFAULT_CHECK_SETTLEMENT_MAXWAIT;
+import static org.lightningj.paywall.spring.PaywallProperties.DEFAULT_CHECK_SETTLEMENT_SSE_TIMEOUT;
+import static org.lightningj.paywall.util.SettingUtils.checkLongWithDefault;
 import static org.lightningj.paywall.web.HTTPConstants.HEADER_PAYWALL_MESSAGE;
 import static org.lightningj.paywall.web.HTTPConstants.HEADER_PAYWALL_MESSAGE_VALUE;
 
 /**
  * Controller for checking settlement using REST, either json or xml is
  * supported.
+ * <p>
+ *     If the parameter 'wait' is set is the request long polled, i.e. parked until
+ *     the payment is settled or the wait time has passed.
+ * </p>
+ * <p>
+ *     If the client accepts 'text/event-stream' is the settlement streamed using Server-Sent Events,
+ *     a lighter alternative to the STOMP WebSocket end-point.
+ * </p>
  */
 @RestController
 public class CheckSettlementController {
@@ -46,6 +65,11 @@ public class CheckSettlementController {
     // TODO enable settings were settlement controller is disabled, when supporting other
     // than local payment flow.
 
+    public static final String PARAMETER_WAIT = "wait";
+
+    public static final String EVENT_SETTLEMENT = "settlement";
+    public static final String EVENT_ERROR = "error";
+
     RequestHelper requestHelper = new RequestHelper();
 
     @Autowired
@@ -54,6 +78,15 @@ public class CheckSettlementController {
     @Autowired
     PaywallExceptionHandler paywallExceptionHandler;
 
+    @Autowired
+    PaywallProperties paywallProperties;
+
+    @Autowired(required = false)
+    LongPollSettledPaymentHandler longPollSettledPaymentHandler;
+
+    @Autowired
+    SseHeartbeatScheduler sseHeartbeatScheduler;
+
 
     /**
      * Main controller action checking settlement for a generated invoice token set in header wih name
@@ -69,23 +102,169 @@ public class CheckSettlementController {
         SpringCachableHttpServletRequest cachableHttpServletRequest = new SpringCachableHttpServletRequest(request);
 
         try {
-            SettlementResponse settlementResponse;
             PaymentFlow paymentFlow = paymentFlowManager.getPaymentFlowFromToken(cachableHttpServletRequest, ExpectedTokenType.INVOICE_TOKEN);
+            SettlementResponse settlementResponse = genSettlementResponse(paymentFlow);
+            response.setHeader(HEADER_PAYWALL_MESSAGE, HEADER_PAYWALL_MESSAGE_VALUE);
+            response.setContentType(requestType.getContentType());
+            return settlementResponse;
+        }catch (Exception e){
+            throw new PaywallRuntimeException(e);
+        }
+    }
 
+    /**
+     * Long poll variant of check settlement, used when the parameter 'wait' is set to the time to wait
+     * for settlement, for example '30s' or '30000ms' (seconds is used if no unit is given). The request is
+     * parked until the payment is settled or the wait time, limited by setting paywall.settlement.longpoll.maxwait,
+     * has passed, then is the same response as checkSettlement returned.
+     *
+     * @param request the related http request.
+     * @param response the related http response.
+     * @return a deferred settlement response containing either settled=false of a settlement token with meta data.
+     */
+    @RequestMapping(value = "${" + PaywallProperties.CHECK_SETTLEMENT_URL +  ":" + PaywallProperties.DEFAULT_CHECK_SETTLEMENT_URL + "}", params = PARAMETER_WAIT)
+    public DeferredResult<SettlementResponse> checkSettlementLongPoll(HttpServletRequest request, HttpServletResponse response) {
+
+        RequestHelper.RequestType requestType = requestHelper.getRequestType(request, RequestHelper.RequestType.JSON);
+        SpringCachableHttpServletRequest cachableHttpServletRequest = new SpringCachableHttpServletRequest(request);
+
+        try {
+            long maxWait = checkLongWithDefault(paywallProperties.getCheckSettlementMaxWait(), CHECK_SETTLEMENT_MAXWAIT, DEFAULT_CHECK_SETTLEMENT_MAXWAIT);
+            long wait = Math.min(parseWait(request.getParameter(PARAMETER_WAIT)), maxWait);
+            PaymentFlow paymentFlow = paymentFlowManager.getPaymentFlowFromToken(cachableHttpServletRequest, ExpectedTokenType.INVOICE_TOKEN);
+            response.setHeader(HEADER_PAYWALL_MESSAGE, HEADER_PAYWALL_MESSAGE_VALUE);
+            response.setContentType(requestType.getContentType());
+
+            DeferredResult<SettlementResponse> result = new DeferredResult<>(wait, new SettlementResponse());
+            if(wait <= 0 || longPollSettledPaymentHandler == null){
+                result.setResult(genSettlementResponse(paymentFlow));
+                return result;
+            }
+
+            byte[] preImageHash = paymentFlow.getPreImageHash();
+            Runnable waiter = () -> {
+                try {
+                    result.setResult(genSettlementResponse(paymentFlow));
+                }catch (Exception e){
+                    result.setErrorResult(new PaywallRuntimeException(e));
+                }
+            };
+            result.onCompletion(() -> longPollSettledPaymentHandler.removeWaiter(preImageHash, waiter));
+            // Waiter is added before checking settlement to avoid missing settlements in between.
+            longPollSettledPaymentHandler.addWaiter(preImageHash, waiter);
             if(paymentFlow.isSettled()){
-                SettlementResult settlementResult = paymentFlow.getSettlement();
-                settlementResponse = new SettlementResponse(settlementResult);
-            }else{
-                settlementResponse = new SettlementResponse();
+                result.setResult(new SettlementResponse(paymentFlow.getSettlement()));
             }
+            return result;
+        }catch (Exception e){
+            throw new PaywallRuntimeException(e);
+        }
+    }
+
+    /**
+     * Server-Sent Events variant of check settlement, used when the client accepts 'text/event-stream',
+     * for example a browser EventSource. The invoice token is verified once when the stream is opened,
+     * then is one 'settlement' event, containing the same JSON as checkSettlement, sent when the payment
+     * is settled and the stream completed. If the payment isn't settled before the time set by
+     * paywall.settlement.sse.timeout is the stream closed without any event and the client might reconnect.
+     * Heartbeat comments are sent on open streams by the shared SseHeartbeatScheduler.
+     *
+     * @param request the related http request.
+     * @param response the related http response.
+     * @return a Server-Sent Events emitter sending the settlement event.
+     */
+    @RequestMapping(value = "${" + PaywallProperties.CHECK_SETTLEMENT_URL +  ":" + PaywallProperties.DEFAULT_CHECK_SETTLEMENT_URL + "}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter checkSettlementStream(HttpServletRequest request, HttpServletResponse response) {
+
+        SpringCachableHttpServletRequest cachableHttpServletRequest = new SpringCachableHttpServletRequest(request);
+
+        try {
+            long timeout = checkLongWithDefault(paywallProperties.getCheckSettlementSseTimeout(), CHECK_SETTLEMENT_SSE_TIMEOUT, DEFAULT_CHECK_SETTLEMENT_SSE_TIMEOUT);
+            PaymentFlow paymentFlow = paymentFlowManager.getPaymentFlowFromToken(cachableHttpServletRequest, ExpectedTokenType.INVOICE_TOKEN);
             response.setHeader(HEADER_PAYWALL_MESSAGE, HEADER_PAYWALL_MESSAGE_VALUE);
-            response.setContentType(requestType.getContentType());
-            return settlementResponse;
+
+            SseEmitter emitter = new SseEmitter(timeout);
+            Runnable waiter = () -> sendSettlementEvent(emitter, paymentFlow);
+            if(longPollSettledPaymentHandler == null){
+                waiter.run();
+                return emitter;
+            }
+
+            byte[] preImageHash = paymentFlow.getPreImageHash();
+            Runnable cleanup = () -> {
+                longPollSettledPaymentHandler.removeWaiter(preImageHash, waiter);
+                sseHeartbeatScheduler.unregister(emitter);
+            };
+            emitter.onCompletion(cleanup);
+            emitter.onTimeout(emitter::complete);
+            // Waiter is added before checking settlement to avoid missing settlements in between.
+            longPollSettledPaymentHandler.addWaiter(preImageHash, waiter);
+            sseHeartbeatScheduler.register(emitter);
+            if(paymentFlow.isSettled()){
+                waiter.run();
+            }
+            return emitter;
         }catch (Exception e){
             throw new PaywallRuntimeException(e);
         }
     }
 
+    /**
+     * Help method sending the settlement event, or an error event if settlement couldn't be
+     * fetched, and completing the stream. Nothing is sent if the payment isn't settled.
+     */
+    void sendSettlementEvent(SseEmitter emitter, PaymentFlow paymentFlow){
+        try{
+            if(!paymentFlow.isSettled()){
+                return;
+            }
+            SettlementResponse settlementResponse = genSettlementResponse(paymentFlow);
+            emitter.send(SseEmitter.event().name(EVENT_SETTLEMENT).data(settlementResponse.toJsonAsString(false)));
+            emitter.complete();
+        }catch (Exception e){
+            try {
+                ResponseEntity<Object> errorResponse = paywallExceptionHandler.handleException(RequestHelper.RequestType.JSON, e);
+                emitter.send(SseEmitter.event().name(EVENT_ERROR).data(((APIError) errorResponse.getBody()).toJsonAsString(false)));
+                emitter.complete();
+            }catch (Exception e1){
+                emitter.completeWithError(e1);
+            }
+        }
+    }
+
+    /**
+     * Help method generating the settlement response for current state of a payment flow.
+     */
+    private SettlementResponse genSettlementResponse(PaymentFlow paymentFlow) throws Exception{
+        if(paymentFlow.isSettled()){
+            SettlementResult settlementResult = paymentFlow.getSettlement();
+            return new SettlementResponse(settlementResult);
+        }
+        return new SettlementResponse();
+    }
+
+    /**
+     * Help method parsing the wait parameter.
+     * @param value the value of the wait parameter, for example '30s', '500ms' or '30'.
+     * @return the wait time in milliseconds.
+     * @throws IllegalArgumentException if the value isn't a valid wait time.
+     */
+    long parseWait(String value) throws IllegalArgumentException{
+        String trimmed = value == null ? "" : value.trim().toLowerCase();
+        long factor = 1000;
+        if(trimmed.endsWith("ms")){
+            trimmed = trimmed.substring(0, trimmed.length() - 2);
+            factor = 1;
+        }else if(trimmed.endsWith("s")){
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        try{
+            return Long.parseLong(trimmed) * factor;
+        }catch (NumberFormatException e){
+            throw new IllegalArgumentException("Invalid parameter " + PARAMETER_WAIT + " value: " + value + ", should be a number of seconds, for example '30s' or milliseconds, for example '500ms'.");
+        }
+    }
+
     /**
      * Exception handler for this controller.
      * @param request the related http request.
@@ -18,6 +18,8 @@ import org.lightningj.paywall.InternalErrorException;
 import org.lightningj.paywall.qrcode.QRCodeGenerator;
 import org.lightningj.paywall.spring.PaywallExceptionHandler;
 import org.lightningj.paywall.spring.PaywallProperties;
+import org.lightningj.paywall.util.Base58;
+import org.lightningj.paywall.util.DigestUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -27,16 +29,22 @@ import org.springframework.web.bind.annotation.GetMapping;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 /**
- * Controller to generate a QR Code and return a PNG Image.
+ * Controller to generate a QR Code and return a PNG Image, SVG Image or raw module matrix.
  * Has the following parameters:
  * <ul>
  *   <li>d: the string to generate qr code for (Required).</li>
  *   <li>w: custom width of generated image (Optional).</li>
  *   <li>h: custom height of generated image (Optional).</li>
+ *   <li>f: output format, one of 'png', 'svg' or 'matrix', default is 'png' (Optional).</li>
  * </ul>
+ * Since the image of given parameters never changes is the response sent with an ETag and
+ * an immutable Cache-Control header, and requests with matching If-None-Match header are
+ * answered with 304 Not Modified without generating the image.
  */
 @Controller
 public class GenerateQRCodeController {
@@ -49,8 +57,20 @@ public class GenerateQRCodeController {
     public static final String PARAMETER_DATA = "d";
     public static final String PARAMETER_WIDTH = "w";
     public static final String PARAMETER_HEIGHT = "h";
+    public static final String PARAMETER_FORMAT = "f";
+
+    public static final String FORMAT_PNG = "png";
+    public static final String FORMAT_SVG = "svg";
+    public static final String FORMAT_MATRIX = "matrix";
 
     public static final String PNG_CONTENT_TYPE = "image/png";
+    public static final String SVG_CONTENT_TYPE = "image/svg+xml";
+    public static final String MATRIX_CONTENT_TYPE = "application/octet-stream";
+
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    public static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    public static final String CACHE_CONTROL_IMMUTABLE = "public, max-age=31536000, immutable";
 
     @Autowired
     PaywallProperties paywallProperties;
@@ -73,18 +93,54 @@ public class GenerateQRCodeController {
         String data = getData(request);
         int width = getParameterWithDefaultAsInt(request, PARAMETER_WIDTH, PaywallProperties.QR_CODE_DEFAULT_WIDTH, paywallProperties.getQrCodeDefaultWidth());
         int height = getParameterWithDefaultAsInt(request, PARAMETER_HEIGHT, PaywallProperties.QR_CODE_DEFAULT_HEIGHT, paywallProperties.getQrCodeDefaultHeight());
+        String format = getFormat(request);
+
+        // The QR Code of given parameters never changes, so the client may cache it forever.
+        String eTag = genETag(format, data, width, height);
+        response.setHeader(HEADER_ETAG, eTag);
+        response.setHeader(HEADER_CACHE_CONTROL, CACHE_CONTROL_IMMUTABLE);
+        if(eTag.equals(request.getHeader(HEADER_IF_NONE_MATCH))){
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
 
         // Generate QR Code
-        byte[] imageData = qrCodeGenerator.generatePNG(data, width, height);
+        byte[] imageData;
+        switch (format){
+            case FORMAT_SVG:
+                imageData = qrCodeGenerator.generateSVG(data, width, height).getBytes(StandardCharsets.UTF_8);
+                response.setContentType(SVG_CONTENT_TYPE);
+                break;
+            case FORMAT_MATRIX:
+                imageData = qrCodeGenerator.generateMatrix(data);
+                response.setContentType(MATRIX_CONTENT_TYPE);
+                break;
+            default:
+                imageData = qrCodeGenerator.generatePNG(data, width, height);
+                response.setContentType(PNG_CONTENT_TYPE);
+        }
 
         // Generate Response
-        response.setContentType(PNG_CONTENT_TYPE);
         response.setContentLength(imageData.length);
         response.getOutputStream().write(imageData);
         response.getOutputStream().close();
     }
 
 
+    /**
+     * Help method generating a strong ETag of the QR code parameters.
+     * @param format the output format of the QR code.
+     * @param data the data of the QR code.
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @return a quoted ETag value.
+     * @throws InternalErrorException if internal error occurred calculating the digest.
+     */
+    String genETag(String format, String data, int width, int height) throws InternalErrorException {
+        byte[] digest = DigestUtils.sha256((format + ":" + width + ":" + height + ":" + data).getBytes(StandardCharsets.UTF_8));
+        return "\"" + Base58.encodeToString(Arrays.copyOf(digest, 16)) + "\"";
+    }
+
     /**
      * Method returning the required data parameter 'd' or throws IllegalArgumentException if not set.
      * @param request the http request to parse d parameter for.
@@ -99,6 +155,24 @@ public class GenerateQRCodeController {
         return retval;
     }
 
+    /**
+     * Method returning the optional format parameter 'f', defaults to 'png' if not set.
+     * @param request the http request to parse f parameter for.
+     * @return one of the supported formats.
+     * @throws IllegalArgumentException if an unsupported format was requested.
+     */
+    private String getFormat(HttpServletRequest request) {
+        String retval = request.getParameter(PARAMETER_FORMAT);
+        if(retval == null || retval.trim().length() == 0){
+            return FORMAT_PNG;
+        }
+        retval = retval.trim().toLowerCase();
+        if(!retval.equals(FORMAT_PNG) && !retval.equals(FORMAT_SVG) && !retval.equals(FORMAT_MATRIX)){
+            throw new IllegalArgumentException("Invalid parameter '" + PARAMETER_FORMAT + "', should be one of 'png', 'svg' or 'matrix', not " + retval);
+        }
+        return retval;
+    }
+
     /**
      * Help method to parse width and heigth parameters with fallback to configured options.
      * @param request the http request to parse parameter for.
@@ -18,6 +18,9 @@ import org.lightningj.paywall.keymgmt.KeyManager;
 import org.lightningj.paywall.keymgmt.SymmetricKeyManager;
 import org.lightningj.paywall.lightninghandler.LightningHandler;
 import org.lightningj.paywall.orderrequestgenerator.OrderRequestGeneratorFactory;
+import org.lightningj.paywall.paymentflow.BaseInvoicePool;
+import org.lightningj.paywall.paymentflow.BaseOutstandingInvoiceIndex;
+import org.lightningj.paywall.paymentflow.BaseSettlementResultCache;
 import org.lightningj.paywall.paymentflow.PaymentFlowManager;
 import org.lightningj.paywall.requestpolicy.RequestPolicyFactory;
 import org.lightningj.paywall.spring.CommonBeanConfiguration;
@@ -65,10 +68,30 @@ public abstract class BaseLocalProfileBeanConfiguration extends CommonBeanConfig
         return new SpringLocalPaymentFlowManager();
     }
 
+    @Bean("invoicePool")
+    public BaseInvoicePool getInvoicePool(){
+        return new SpringInvoicePool();
+    }
+
+    @Bean("outstandingInvoiceIndex")
+    public BaseOutstandingInvoiceIndex getOutstandingInvoiceIndex(){
+        return new SpringOutstandingInvoiceIndex();
+    }
+
+    @Bean("settlementResultCache")
+    public BaseSettlementResultCache getSettlementResultCache(){
+        return new SpringSettlementResultCache();
+    }
+
     @Bean("webSocketSettledPaymentHandler")
     public WebSocketSettledPaymentHandler getWebSocketSettledPaymentHandler(){
         return new WebSocketSettledPaymentHandler();
     }
 
+    @Bean("longPollSettledPaymentHandler")
+    public LongPollSettledPaymentHandler getLongPollSettledPaymentHandler(){
+        return new LongPollSettledPaymentHandler();
+    }
+
     public abstract KeyManager getKeyManager();
 }
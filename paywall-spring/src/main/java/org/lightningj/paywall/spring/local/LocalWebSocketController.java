@@ -15,7 +15,9 @@
 package org.lightningj.paywall.spring.local;
 
 import org.jose4j.jwt.JwtClaims;
+import org.lightningj.paywall.AlreadyExecutedException;
 import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.paymentflow.BaseSettlementResultCache;
 import org.lightningj.paywall.paymentflow.SettlementResult;
 import org.lightningj.paywall.paymenthandler.PaymentEvent;
 import org.lightningj.paywall.paymenthandler.PaymentEventType;
@@ -71,6 +73,9 @@ public class LocalWebSocketController {
     @Autowired
     PaywallExceptionHandler paywallExceptionHandler;
 
+    @Autowired(required = false)
+    BaseSettlementResultCache settlementResultCache;
+
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
 
@@ -98,11 +103,11 @@ public class LocalWebSocketController {
             if (!preImageHash.equals(Base58.encodeToString(invoice.getPreImageHash()))) {
                 throw new IllegalArgumentException("Token preImageHash doesn't match WebSocket name.");
             }
-            Settlement settlement = paymentHandler.checkSettlement(invoice.getPreImageHash(), true);
-            if (settlement == null) {
+            SettlementResult settlementResult = checkSettlement(invoice.getPreImageHash(), requestData);
+            if (settlementResult == null) {
                 webSocketSettledPaymentHandler.registerPaymentListener(preImageHash,expireDate ,new LocalWebSocketPaymentListener(invoice.getPreImageHash(), requestData));
             } else {
-                return generateSettlementResponse(requestData, settlement);
+                return new SettlementResponse(settlementResult).toJsonAsString(false);
             }
         }catch(Exception e){
             return generateErrorResponse(e);
@@ -110,6 +115,29 @@ public class LocalWebSocketController {
         return null;
     }
 
+    /**
+     * Help method checking settlement of a payment, through the settlement result cache if configured
+     * so concurrent subscriptions of the same payment share one check and settlement token.
+     * @param preImageHash the preImageHash of the payment to check.
+     * @param requestData the request data parsed from the JWT sent in the WebSocket subscription header.
+     * @return the settlement result or null if not settled.
+     * @throws AlreadyExecutedException if the payment is pay per request and already executed.
+     * @throws InternalErrorException if internal error happened checking settlement or generating the settlement token.
+     * @throws IOException if communication problems occurred communication with underlying components.
+     * @throws TokenException if JWT generation problems occurred.
+     */
+    private SettlementResult checkSettlement(byte[] preImageHash, RequestData requestData) throws AlreadyExecutedException, InternalErrorException, IOException, TokenException {
+        if (settlementResultCache != null) {
+            return settlementResultCache.getSettlementResult(preImageHash, requestData, true, null);
+        }
+        Settlement settlement = paymentHandler.checkSettlement(preImageHash, true);
+        if (settlement == null) {
+            return null;
+        }
+        String settlementToken = tokenGenerator.generateSettlementToken(null,settlement,requestData,settlement.getValidUntil(),settlement.getValidFrom(), null); // Source Node is null for local implementation.
+        return new SettlementResult(settlement,settlementToken);
+    }
+
     /**
      * Help method to generate a settlement JSOM response to a WebSocket.
      * @param requestData the request data parsed from the JWT sent in the WebSocket subscription header.
@@ -0,0 +1,141 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring.local;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.paymenthandler.PaymentEvent;
+import org.lightningj.paywall.paymenthandler.PaymentEventType;
+import org.lightningj.paywall.paymenthandler.PaymentHandler;
+import org.lightningj.paywall.paymenthandler.PaymentListener;
+import org.lightningj.paywall.util.Base58;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Long poll specific implementation of listening for settled payments, used by CheckSettlementController
+ * when the client asks to wait for settlement or opens a Server-Sent Events stream.
+ * <p>
+ *     One payment listener is registered in the PaymentHandler for all INVOICE_SETTLED events, and each
+ *     waiting request is registered as a waiter on its preImageHash. When a matching event is triggered
+ *     are all waiters of the preImageHash notified and removed. Waiters must be removed by the caller
+ *     if they time out.
+ * </p>
+ */
+public class LongPollSettledPaymentHandler implements PaymentListener {
+
+    protected static Logger log = Logger.getLogger(LongPollSettledPaymentHandler.class.getName());
+
+    @Autowired
+    PaymentHandler paymentHandler;
+
+    /**
+     * Map of base58 preImageHash to the waiters of the payment.
+     */
+    protected Map<String,Set<Runnable>> waiters = new ConcurrentHashMap<>();
+
+    private volatile boolean registered = false;
+
+    /**
+     * Method to add a waiter that is run when the related payment is settled.
+     *
+     * @param preImageHash the preImageHash of the payment to wait for.
+     * @param waiter the waiter to run when settled.
+     * @throws InternalErrorException if internal exception occurred registering the payment listener.
+     */
+    public void addWaiter(byte[] preImageHash, Runnable waiter) throws InternalErrorException{
+        if(!registered){
+            synchronized (this){
+                if(!registered){
+                    paymentHandler.registerListener(this);
+                    registered = true;
+                }
+            }
+        }
+        // Added inside compute so a concurrent settlement or removal can't drop the set in between.
+        waiters.compute(Base58.encodeToString(preImageHash), (k, s) -> {
+            Set<Runnable> retval = s != null ? s : ConcurrentHashMap.newKeySet();
+            retval.add(waiter);
+            return retval;
+        });
+    }
+
+    /**
+     * Method to remove a waiter, for instance after a time out.
+     *
+     * @param preImageHash the preImageHash of the payment waited for.
+     * @param waiter the waiter to remove.
+     */
+    public void removeWaiter(byte[] preImageHash, Runnable waiter){
+        waiters.computeIfPresent(Base58.encodeToString(preImageHash), (k, s) -> {
+            s.remove(waiter);
+            return s.isEmpty() ? null : s;
+        });
+    }
+
+    /**
+     * @return the total number of waiting requests.
+     */
+    public int getWaiterCount(){
+        return waiters.values().stream().mapToInt(Set::size).sum();
+    }
+
+    /**
+     * @return null since the listener is interested in settlement of all payments.
+     */
+    @Override
+    public byte[] getPreImageHash() {
+        return null;
+    }
+
+    /**
+     * @return always INVOICE_SETTLED.
+     */
+    @Override
+    public PaymentEventType getType() {
+        return PaymentEventType.INVOICE_SETTLED;
+    }
+
+    /**
+     * @return false, the listener is registered for the lifetime of the application.
+     */
+    @Override
+    public boolean unregisterAfterEvent() {
+        return false;
+    }
+
+    /**
+     * Method notifying all waiters of the settled payment.
+     *
+     * @param event the related payment event.
+     */
+    @Override
+    public void onPaymentEvent(PaymentEvent event) {
+        Set<Runnable> settledWaiters = waiters.remove(Base58.encodeToString(event.getPayment().getPreImageHash()));
+        if(settledWaiters != null){
+            for(Runnable waiter : settledWaiters){
+                try{
+                    waiter.run();
+                }catch (Exception e){
+                    log.log(Level.SEVERE, "Error notifying long poll request about settlement: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+}
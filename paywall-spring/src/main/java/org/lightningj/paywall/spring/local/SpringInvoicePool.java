@@ -0,0 +1,178 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring.local;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.currencyconverter.CurrencyConverter;
+import org.lightningj.paywall.lightninghandler.LightningHandler;
+import org.lightningj.paywall.paymentflow.BaseInvoicePool;
+import org.lightningj.paywall.paymenthandler.PaymentHandler;
+import org.lightningj.paywall.spring.PaywallProperties;
+import org.lightningj.paywall.tokengenerator.TokenGenerator;
+import org.lightningj.paywall.vo.OrderRequest;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import static org.lightningj.paywall.util.SettingUtils.*;
+
+/**
+ * A Spring implementation of the invoice pool configured by the paywall.invoicepool
+ * settings in application properties. Only started if paywall.invoicepool.enable is true.
+ */
+public class SpringInvoicePool extends BaseInvoicePool implements InitializingBean, DisposableBean {
+
+    static Logger log = Logger.getLogger(SpringInvoicePool.class.getName());
+
+    @Autowired
+    PaywallProperties paywallProperties;
+
+    @Autowired
+    LightningHandler lightningHandler;
+
+    @Autowired
+    PaymentHandler paymentHandler;
+
+    @Autowired
+    TokenGenerator tokenGenerator;
+
+    @Autowired
+    CurrencyConverter currencyConverter;
+
+    private Set<String> pooledArticleIds;
+
+    /**
+     * Invoked by the containing {@code BeanFactory} after it has set all bean properties,
+     * starts the pool if enabled.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        init();
+    }
+
+    /**
+     * Invoked by the containing {@code BeanFactory} on destruction of a bean,
+     * stops the background thread.
+     */
+    @Override
+    public void destroy() {
+        close();
+    }
+
+    /**
+     * @return true if setting paywall.invoicepool.enable is true.
+     */
+    @Override
+    protected boolean isEnabled() {
+        try {
+            return checkBooleanWithDefault(paywallProperties.getInvoicePoolEnable(), PaywallProperties.INVOICE_POOL_ENABLE, PaywallProperties.DEFAULT_INVOICE_POOL_ENABLE);
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + PaywallProperties.INVOICE_POOL_ENABLE + " should be true or false, not " + paywallProperties.getInvoicePoolEnable() + ", using default value: " + PaywallProperties.DEFAULT_INVOICE_POOL_ENABLE);
+        }
+        return PaywallProperties.DEFAULT_INVOICE_POOL_ENABLE;
+    }
+
+    /**
+     * @param orderRequest the order request to check.
+     * @return true if the article id is in setting paywall.invoicepool.articles or if setting is empty.
+     */
+    @Override
+    protected boolean isPooled(OrderRequest orderRequest) {
+        if(pooledArticleIds == null){
+            String articles = paywallProperties.getInvoicePoolArticles();
+            pooledArticleIds = isEmpty(articles) ? new HashSet<>() :
+                    Arrays.stream(articles.split(",")).map(String::trim).filter(a -> !a.isEmpty()).collect(Collectors.toSet());
+        }
+        return pooledArticleIds.isEmpty() || pooledArticleIds.contains(orderRequest.getArticleId());
+    }
+
+    /**
+     * @return the pool size from setting paywall.invoicepool.size.
+     */
+    @Override
+    protected int getPoolSize() {
+        try {
+            return checkIntegerWithDefault(paywallProperties.getInvoicePoolSize(), PaywallProperties.INVOICE_POOL_SIZE, PaywallProperties.DEFAULT_INVOICE_POOL_SIZE);
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + PaywallProperties.INVOICE_POOL_SIZE + " should be an integer, not " + paywallProperties.getInvoicePoolSize() + ", using default value: " + PaywallProperties.DEFAULT_INVOICE_POOL_SIZE);
+        }
+        return PaywallProperties.DEFAULT_INVOICE_POOL_SIZE;
+    }
+
+    /**
+     * @return the minimum remaining validity from setting paywall.invoicepool.minvalidity.
+     */
+    @Override
+    protected Duration getMinRemainingValidity() {
+        try {
+            return Duration.ofSeconds(checkLongWithDefault(paywallProperties.getInvoicePoolMinValidity(), PaywallProperties.INVOICE_POOL_MINVALIDITY, PaywallProperties.DEFAULT_INVOICE_POOL_MINVALIDITY));
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + PaywallProperties.INVOICE_POOL_MINVALIDITY + " should be an integer, not " + paywallProperties.getInvoicePoolMinValidity() + ", using default value: " + PaywallProperties.DEFAULT_INVOICE_POOL_MINVALIDITY);
+        }
+        return Duration.ofSeconds(PaywallProperties.DEFAULT_INVOICE_POOL_MINVALIDITY);
+    }
+
+    /**
+     * @return the maintenance interval from setting paywall.invoicepool.interval.
+     */
+    @Override
+    protected Duration getMaintenanceInterval() {
+        try {
+            return Duration.ofSeconds(checkLongWithDefault(paywallProperties.getInvoicePoolInterval(), PaywallProperties.INVOICE_POOL_INTERVAL, PaywallProperties.DEFAULT_INVOICE_POOL_INTERVAL));
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + PaywallProperties.INVOICE_POOL_INTERVAL + " should be an integer, not " + paywallProperties.getInvoicePoolInterval() + ", using default value: " + PaywallProperties.DEFAULT_INVOICE_POOL_INTERVAL);
+        }
+        return Duration.ofSeconds(PaywallProperties.DEFAULT_INVOICE_POOL_INTERVAL);
+    }
+
+    /**
+     * @return the used PaymentHandler.
+     */
+    @Override
+    protected PaymentHandler getPaymentHandler() {
+        return paymentHandler;
+    }
+
+    /**
+     * @return the used LightningHandler.
+     */
+    @Override
+    protected LightningHandler getLightningHandler() {
+        return lightningHandler;
+    }
+
+    /**
+     * @return the used TokenGenerator.
+     */
+    @Override
+    protected TokenGenerator getTokenGenerator() {
+        return tokenGenerator;
+    }
+
+    /**
+     * @return the used CurrencyConverter.
+     */
+    @Override
+    protected CurrencyConverter getCurrencyConverter() {
+        return currencyConverter;
+    }
+}
@@ -18,9 +18,14 @@ import org.lightningj.paywall.InternalErrorException;
 import org.lightningj.paywall.currencyconverter.CurrencyConverter;
 import org.lightningj.paywall.lightninghandler.LightningHandler;
 import org.lightningj.paywall.orderrequestgenerator.OrderRequestGeneratorFactory;
+import org.lightningj.paywall.paymentflow.BaseInvoicePool;
+import org.lightningj.paywall.paymentflow.BaseOutstandingInvoiceIndex;
+import org.lightningj.paywall.paymentflow.BaseSettlementResultCache;
 import org.lightningj.paywall.paymentflow.BasePaymentFlowManager;
 import org.lightningj.paywall.paymentflow.PaymentFlowMode;
 import org.lightningj.paywall.paymenthandler.PaymentHandler;
+import org.lightningj.paywall.qrcode.QRCodeGenerator;
+import org.lightningj.paywall.qrcode.QRCodePreRenderer;
 import org.lightningj.paywall.requestpolicy.RequestPolicyFactory;
 import org.lightningj.paywall.spring.PaywallProperties;
 import org.lightningj.paywall.tokengenerator.TokenGenerator;
@@ -64,6 +69,18 @@ public class SpringLocalPaymentFlowManager extends BasePaymentFlowManager {
     @Autowired
     PaymentHandler paymentHandler;
 
+    @Autowired(required = false)
+    BaseInvoicePool invoicePool;
+
+    @Autowired(required = false)
+    BaseOutstandingInvoiceIndex outstandingInvoiceIndex;
+
+    @Autowired(required = false)
+    BaseSettlementResultCache settlementResultCache;
+
+    @Autowired(required = false)
+    QRCodeGenerator qrCodeGenerator;
+
     /**
      * Method that must be implemented and return the TokenGenerator used.
      *
@@ -165,4 +182,36 @@ public class SpringLocalPaymentFlowManager extends BasePaymentFlowManager {
     protected OrderRequestGeneratorFactory getOrderRequestGeneratorFactory() {
         return orderRequestGeneratorFactory;
     }
+
+    /**
+     * @return the invoice pool bean used to pre-generate invoices, null if not defined.
+     */
+    @Override
+    protected BaseInvoicePool getInvoicePool() {
+        return invoicePool;
+    }
+
+    /**
+     * @return the QR code generator bean if it supports pre-rendering of QR codes, otherwise null.
+     */
+    @Override
+    protected QRCodePreRenderer getQRCodePreRenderer() {
+        return qrCodeGenerator instanceof QRCodePreRenderer ? (QRCodePreRenderer) qrCodeGenerator : null;
+    }
+
+    /**
+     * @return the outstanding invoice index bean used to reuse unpaid invoices, null if not defined.
+     */
+    @Override
+    protected BaseOutstandingInvoiceIndex getOutstandingInvoiceIndex() {
+        return outstandingInvoiceIndex;
+    }
+
+    /**
+     * @return the settlement result cache bean used to share settlement checks, null if not defined.
+     */
+    @Override
+    protected BaseSettlementResultCache getSettlementResultCache() {
+        return settlementResultCache;
+    }
 }
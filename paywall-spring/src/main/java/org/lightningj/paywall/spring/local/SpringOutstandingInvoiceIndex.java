@@ -0,0 +1,106 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring.local;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.paymentflow.BaseOutstandingInvoiceIndex;
+import org.lightningj.paywall.paymenthandler.PaymentHandler;
+import org.lightningj.paywall.spring.PaywallProperties;
+import org.lightningj.paywall.spring.util.InvoiceRateLimiter;
+import org.lightningj.paywall.web.CachableHttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.time.Duration;
+import java.util.logging.Logger;
+
+import static org.lightningj.paywall.util.SettingUtils.*;
+
+/**
+ * A Spring implementation of the outstanding invoice index configured by the paywall.invoicereuse
+ * settings in application properties. Only active if paywall.invoicereuse.enable is true.
+ * <p>
+ * Clients are identified by the header in setting paywall.ratelimit.client.header if set,
+ * otherwise by the remote address of the request.
+ * </p>
+ */
+public class SpringOutstandingInvoiceIndex extends BaseOutstandingInvoiceIndex {
+
+    static Logger log = Logger.getLogger(SpringOutstandingInvoiceIndex.class.getName());
+
+    @Autowired
+    PaywallProperties paywallProperties;
+
+    @Autowired
+    PaymentHandler paymentHandler;
+
+    /**
+     * @param request the related HTTP request.
+     * @return the client key in the same way as the InvoiceRateLimiter, i.e. the last value of the
+     * header in setting paywall.ratelimit.client.header if set and available in request, otherwise
+     * the remote address.
+     */
+    @Override
+    protected String getClientKey(CachableHttpServletRequest request) {
+        String header = paywallProperties.getRateLimitClientKeyHeader();
+        return InvoiceRateLimiter.getClientKey(request, isEmpty(header) ? null : header.trim());
+    }
+
+    /**
+     * @return true if setting paywall.invoicereuse.enable is true.
+     */
+    @Override
+    protected boolean isEnabled() {
+        try {
+            return checkBooleanWithDefault(paywallProperties.getInvoiceReuseEnable(), PaywallProperties.INVOICE_REUSE_ENABLE, PaywallProperties.DEFAULT_INVOICE_REUSE_ENABLE);
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + PaywallProperties.INVOICE_REUSE_ENABLE + " should be true or false, not " + paywallProperties.getInvoiceReuseEnable() + ", using default value: " + PaywallProperties.DEFAULT_INVOICE_REUSE_ENABLE);
+        }
+        return PaywallProperties.DEFAULT_INVOICE_REUSE_ENABLE;
+    }
+
+    /**
+     * @return the minimum remaining validity from setting paywall.invoicereuse.minvalidity.
+     */
+    @Override
+    protected Duration getMinRemainingValidity() {
+        try {
+            return Duration.ofSeconds(checkLongWithDefault(paywallProperties.getInvoiceReuseMinValidity(), PaywallProperties.INVOICE_REUSE_MINVALIDITY, PaywallProperties.DEFAULT_INVOICE_REUSE_MINVALIDITY));
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + PaywallProperties.INVOICE_REUSE_MINVALIDITY + " should be an integer, not " + paywallProperties.getInvoiceReuseMinValidity() + ", using default value: " + PaywallProperties.DEFAULT_INVOICE_REUSE_MINVALIDITY);
+        }
+        return Duration.ofSeconds(PaywallProperties.DEFAULT_INVOICE_REUSE_MINVALIDITY);
+    }
+
+    /**
+     * @return the maximum number of indexed invoices from setting paywall.invoicereuse.maxentries.
+     */
+    @Override
+    protected int getMaxEntries() {
+        try {
+            return checkIntegerWithDefault(paywallProperties.getInvoiceReuseMaxEntries(), PaywallProperties.INVOICE_REUSE_MAXENTRIES, PaywallProperties.DEFAULT_INVOICE_REUSE_MAXENTRIES);
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + PaywallProperties.INVOICE_REUSE_MAXENTRIES + " should be an integer, not " + paywallProperties.getInvoiceReuseMaxEntries() + ", using default value: " + PaywallProperties.DEFAULT_INVOICE_REUSE_MAXENTRIES);
+        }
+        return PaywallProperties.DEFAULT_INVOICE_REUSE_MAXENTRIES;
+    }
+
+    /**
+     * @return the used PaymentHandler.
+     */
+    @Override
+    protected PaymentHandler getPaymentHandler() {
+        return paymentHandler;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring.local;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.paymentflow.BaseSettlementResultCache;
+import org.lightningj.paywall.paymenthandler.PaymentHandler;
+import org.lightningj.paywall.spring.PaywallProperties;
+import org.lightningj.paywall.tokengenerator.TokenGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.time.Duration;
+import java.util.logging.Logger;
+
+import static org.lightningj.paywall.util.SettingUtils.*;
+
+/**
+ * A Spring implementation of the settlement result cache configured by the paywall.settlementcache
+ * settings in application properties. Only active if paywall.settlementcache.enable is true.
+ */
+public class SpringSettlementResultCache extends BaseSettlementResultCache {
+
+    static Logger log = Logger.getLogger(SpringSettlementResultCache.class.getName());
+
+    @Autowired
+    PaywallProperties paywallProperties;
+
+    @Autowired
+    PaymentHandler paymentHandler;
+
+    @Autowired
+    TokenGenerator tokenGenerator;
+
+    /**
+     * @return true if setting paywall.settlementcache.enable is true.
+     */
+    @Override
+    protected boolean isEnabled() {
+        try {
+            return checkBooleanWithDefault(paywallProperties.getSettlementCacheEnable(), PaywallProperties.SETTLEMENT_CACHE_ENABLE, PaywallProperties.DEFAULT_SETTLEMENT_CACHE_ENABLE);
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + PaywallProperties.SETTLEMENT_CACHE_ENABLE + " should be true or false, not " + paywallProperties.getSettlementCacheEnable() + ", using default value: " + PaywallProperties.DEFAULT_SETTLEMENT_CACHE_ENABLE);
+        }
+        return PaywallProperties.DEFAULT_SETTLEMENT_CACHE_ENABLE;
+    }
+
+    /**
+     * @return the maximum time a settled result is cached from setting paywall.settlementcache.ttl.
+     */
+    @Override
+    protected Duration getTimeToLive() {
+        try {
+            return Duration.ofSeconds(checkLongWithDefault(paywallProperties.getSettlementCacheTTL(), PaywallProperties.SETTLEMENT_CACHE_TTL, PaywallProperties.DEFAULT_SETTLEMENT_CACHE_TTL));
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + PaywallProperties.SETTLEMENT_CACHE_TTL + " should be an integer, not " + paywallProperties.getSettlementCacheTTL() + ", using default value: " + PaywallProperties.DEFAULT_SETTLEMENT_CACHE_TTL);
+        }
+        return Duration.ofSeconds(PaywallProperties.DEFAULT_SETTLEMENT_CACHE_TTL);
+    }
+
+    /**
+     * @return the minimum remaining validity from setting paywall.settlementcache.minvalidity.
+     */
+    @Override
+    protected Duration getMinRemainingValidity() {
+        try {
+            return Duration.ofSeconds(checkLongWithDefault(paywallProperties.getSettlementCacheMinValidity(), PaywallProperties.SETTLEMENT_CACHE_MINVALIDITY, PaywallProperties.DEFAULT_SETTLEMENT_CACHE_MINVALIDITY));
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + PaywallProperties.SETTLEMENT_CACHE_MINVALIDITY + " should be an integer, not " + paywallProperties.getSettlementCacheMinValidity() + ", using default value: " + PaywallProperties.DEFAULT_SETTLEMENT_CACHE_MINVALIDITY);
+        }
+        return Duration.ofSeconds(PaywallProperties.DEFAULT_SETTLEMENT_CACHE_MINVALIDITY);
+    }
+
+    /**
+     * @return the maximum number of cached results from setting paywall.settlementcache.maxentries.
+     */
+    @Override
+    protected int getMaxEntries() {
+        try {
+            return checkIntegerWithDefault(paywallProperties.getSettlementCacheMaxEntries(), PaywallProperties.SETTLEMENT_CACHE_MAXENTRIES, PaywallProperties.DEFAULT_SETTLEMENT_CACHE_MAXENTRIES);
+        }catch (InternalErrorException e){
+            log.severe("Error parsing application properties, setting " + PaywallProperties.SETTLEMENT_CACHE_MAXENTRIES + " should be an integer, not " + paywallProperties.getSettlementCacheMaxEntries() + ", using default value: " + PaywallProperties.DEFAULT_SETTLEMENT_CACHE_MAXENTRIES);
+        }
+        return PaywallProperties.DEFAULT_SETTLEMENT_CACHE_MAXENTRIES;
+    }
+
+    /**
+     * @return the used PaymentHandler.
+     */
+    @Override
+    protected PaymentHandler getPaymentHandler() {
+        return paymentHandler;
+    }
+
+    /**
+     * @return the used TokenGenerator.
+     */
+    @Override
+    protected TokenGenerator getTokenGenerator() {
+        return tokenGenerator;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring.util;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.RateLimitExceededException;
+import org.lightningj.paywall.spring.PaywallProperties;
+import org.lightningj.paywall.util.TokenBucket;
+import org.lightningj.paywall.util.TokenBucketRateLimiter;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.servlet.http.HttpServletRequest;
+import java.time.Clock;
+import java.util.logging.Logger;
+
+import static org.lightningj.paywall.spring.PaywallProperties.*;
+import static org.lightningj.paywall.util.SettingUtils.*;
+
+/**
+ * Admission control of invoice creation, limiting the rate of new invoices per client
+ * with one token bucket per client key and for the paywall as a whole with a global token
+ * bucket.
+ * <p>
+ *     The client key is the remote IP address or the value of a configured HTTP header. Rate
+ *     limiting is disabled by default, see paywall.ratelimit settings.
+ * </p>
+ */
+public class InvoiceRateLimiter {
+
+    protected static Logger log = Logger.getLogger(InvoiceRateLimiter.class.getName());
+
+    @Autowired
+    PaywallProperties paywallProperties;
+
+    protected Clock clock = Clock.systemDefaultZone();
+
+    private volatile boolean initialized = false;
+    private boolean enabled;
+    private String clientKeyHeader;
+    private TokenBucketRateLimiter clientLimiter;
+    private TokenBucket globalLimiter;
+
+    /**
+     * Method to check if a new invoice may be created for the given request. Should be called
+     * before any payment data is stored or any invoice is created.
+     *
+     * @param request the related http request.
+     * @throws RateLimitExceededException if the client or the paywall as a whole has exceeded the
+     * configured rate of invoice creation. A request rejected by the global rate limit doesn't consume
+     * any token of the client.
+     * @throws InternalErrorException if rate limit settings were invalid.
+     */
+    public void checkAdmission(HttpServletRequest request) throws RateLimitExceededException, InternalErrorException {
+        init();
+        if(!enabled){
+            return;
+        }
+        String clientKey = getClientKey(request);
+        long retryAfter = clientLimiter.tryAcquire(clientKey);
+        if(retryAfter > 0){
+            throw new RateLimitExceededException("Invoice rate limit exceeded for client, retry after " + retryAfter + " ms.", retryAfter);
+        }
+        retryAfter = globalLimiter.tryAcquire();
+        if(retryAfter > 0){
+            // The invoice isn't created, so the client shouldn't be charged for the request.
+            clientLimiter.release(clientKey);
+            throw new RateLimitExceededException("Invoice rate limit exceeded for paywall, retry after " + retryAfter + " ms.", retryAfter);
+        }
+    }
+
+    /**
+     *
+     * @return the number of clients currently having rate limit state, 0 if not enabled.
+     */
+    public int getClientCount(){
+        return clientLimiter != null ? clientLimiter.size() : 0;
+    }
+
+    /**
+     * Help method returning the client key, either the value of configured header or the remote
+     * address.
+     */
+    String getClientKey(HttpServletRequest request){
+        return getClientKey(request, clientKeyHeader);
+    }
+
+    /**
+     * Method returning the key identifying a client, either the value of the given header or the
+     * remote address. For comma separated header values such as X-Forwarded-For is the last value
+     * used, since it is the one added by the proxy in front of the paywall while values before it
+     * are controlled by the client.
+     *
+     * @param request the related http request.
+     * @param clientKeyHeader the name of the header identifying the client, null to use the remote address.
+     * @return the client key.
+     */
+    public static String getClientKey(HttpServletRequest request, String clientKeyHeader){
+        if(clientKeyHeader != null){
+            String value = request.getHeader(clientKeyHeader);
+            if(value != null && value.trim().length() > 0){
+                String clientKey = value.substring(value.lastIndexOf(',') + 1).trim();
+                if(clientKey.length() > 0){
+                    return clientKey;
+                }
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    /**
+     * Help method parsing the rate limit settings at first call.
+     */
+    private void init() throws InternalErrorException {
+        if(!initialized){
+            synchronized (this){
+                if(!initialized){
+                    enabled = checkBooleanWithDefault(paywallProperties.getRateLimitEnable(), RATE_LIMIT_ENABLE, DEFAULT_RATE_LIMIT_ENABLE);
+                    if(enabled){
+                        String header = paywallProperties.getRateLimitClientKeyHeader();
+                        clientKeyHeader = isEmpty(header) ? null : header.trim();
+                        try {
+                            clientLimiter = new TokenBucketRateLimiter(
+                                    checkLongWithDefault(paywallProperties.getRateLimitClientRate(), RATE_LIMIT_CLIENT_RATE, DEFAULT_RATE_LIMIT_CLIENT_RATE),
+                                    checkIntegerWithDefault(paywallProperties.getRateLimitClientBurst(), RATE_LIMIT_CLIENT_BURST, DEFAULT_RATE_LIMIT_CLIENT_BURST),
+                                    checkIntegerWithDefault(paywallProperties.getRateLimitMaxClients(), RATE_LIMIT_MAXCLIENTS, DEFAULT_RATE_LIMIT_MAXCLIENTS),
+                                    clock);
+                            globalLimiter = new TokenBucket(
+                                    checkLongWithDefault(paywallProperties.getRateLimitGlobalRate(), RATE_LIMIT_GLOBAL_RATE, DEFAULT_RATE_LIMIT_GLOBAL_RATE),
+                                    checkIntegerWithDefault(paywallProperties.getRateLimitGlobalBurst(), RATE_LIMIT_GLOBAL_BURST, DEFAULT_RATE_LIMIT_GLOBAL_BURST),
+                                    clock);
+                        }catch (IllegalArgumentException e){
+                            log.severe("Error in paywall rate limit settings: " + e.getMessage());
+                            throw new InternalErrorException("Invalid paywall rate limit settings: " + e.getMessage(), e);
+                        }
+                    }
+                    initialized = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring.util;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.spring.APIError;
+import org.lightningj.paywall.spring.response.CryptoAmount;
+import org.lightningj.paywall.spring.response.InvoiceResponse;
+import org.lightningj.paywall.spring.response.NodeInfo;
+import org.lightningj.paywall.spring.response.SettlementResponse;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Streaming writer of the most frequent paywall responses, InvoiceResponse, SettlementResponse
+ * and APIError, writing JSON or XML directly to an output stream without looking up a
+ * HttpMessageConverter and without reflection.
+ * <p>
+ * JSON is written with the same field names, field order and date format as the Jackson
+ * converter, where all constant field name fragments are pre-encoded. XML is written with
+ * StAX using the same elements and namespace as the JAXB converter.
+ * </p>
+ */
+public class PaywallResponseWriter {
+
+    /**
+     * The XML namespace of InvoiceResponse and SettlementResponse.
+     */
+    public static final String XML_NAMESPACE = "http://lightningj.org/xsd/paywallspringapi_1_0";
+
+    private static final DateTimeFormatter JSON_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter XML_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX").withZone(ZoneOffset.UTC);
+
+    private static final byte[] JSON_NULL = ascii("null");
+    private static final byte[] JSON_TRUE = ascii("true");
+    private static final byte[] JSON_FALSE = ascii("false");
+
+    private static final byte[] JSON_STATUS = ascii("{\"status\":");
+    private static final byte[] JSON_TYPE_INVOICE = ascii(",\"type\":\"" + InvoiceResponse.TYPE + "\",\"preImageHash\":");
+    private static final byte[] JSON_BOLT11_INVOICE = ascii(",\"bolt11Invoice\":");
+    private static final byte[] JSON_DESCRIPTION = ascii(",\"description\":");
+    private static final byte[] JSON_INVOICE_AMOUNT = ascii(",\"invoiceAmount\":");
+    private static final byte[] JSON_NODE_INFO = ascii(",\"nodeInfo\":");
+    private static final byte[] JSON_TOKEN = ascii(",\"token\":");
+    private static final byte[] JSON_INVOICE_DATE = ascii(",\"invoiceDate\":");
+    private static final byte[] JSON_INVOICE_EXPIRE_DATE = ascii(",\"invoiceExpireDate\":");
+    private static final byte[] JSON_PAY_PER_REQUEST = ascii(",\"payPerRequest\":");
+    private static final byte[] JSON_REQUEST_POLICY_TYPE = ascii(",\"requestPolicyType\":");
+    private static final byte[] JSON_CHECK_SETTLEMENT_LINK = ascii(",\"checkSettlementLink\":");
+    private static final byte[] JSON_QR_LINK = ascii(",\"qrLink\":");
+    private static final byte[] JSON_CHECK_SETTLEMENT_WEBSOCKET_ENDPOINT = ascii(",\"checkSettlementWebSocketEndpoint\":");
+    private static final byte[] JSON_CHECK_SETTLEMENT_WEBSOCKET_QUEUE = ascii(",\"checkSettlementWebSocketQueue\":");
+
+    private static final byte[] JSON_AMOUNT_VALUE = ascii("{\"value\":");
+    private static final byte[] JSON_AMOUNT_CURRENCY_CODE = ascii(",\"currencyCode\":");
+    private static final byte[] JSON_AMOUNT_MAGNETUDE = ascii(",\"magnetude\":");
+
+    private static final byte[] JSON_NODE_PUBLIC_KEY_INFO = ascii("{\"publicKeyInfo\":");
+    private static final byte[] JSON_NODE_ADDRESS = ascii(",\"nodeAddress\":");
+    private static final byte[] JSON_NODE_PORT = ascii(",\"nodePort\":");
+    private static final byte[] JSON_NODE_NETWORK = ascii(",\"network\":");
+    private static final byte[] JSON_NODE_CONNECT_STRING = ascii(",\"connectString\":");
+
+    private static final byte[] JSON_TYPE_SETTLEMENT = ascii(",\"type\":\"" + SettlementResponse.TYPE + "\",\"preImageHash\":");
+    private static final byte[] JSON_SETTLEMENT_VALID_UNTIL = ascii(",\"settlementValidUntil\":");
+    private static final byte[] JSON_SETTLEMENT_VALID_FROM = ascii(",\"settlementValidFrom\":");
+    private static final byte[] JSON_SETTLED = ascii(",\"settled\":");
+
+    private static final byte[] JSON_ERROR_MESSAGE = ascii(",\"message\":");
+    private static final byte[] JSON_ERROR_ERRORS = ascii(",\"errors\":");
+    private static final byte[] JSON_ERROR_REASON = ascii(",\"reason\":");
+
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    private final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+
+    // The node information is the same for all invoices generated by a node, so its JSON is cached.
+    private volatile EncodedNodeInfo encodedNodeInfo;
+
+    /**
+     * Method to check if this writer supports writing a given response object.
+     *
+     * @param response the response object to check.
+     * @return true if response is an InvoiceResponse, SettlementResponse or APIError.
+     */
+    public boolean canWrite(Object response){
+        return response instanceof InvoiceResponse || response instanceof SettlementResponse || response instanceof APIError;
+    }
+
+    /**
+     * Method to write a response as JSON or XML depending on request type. The output stream is
+     * flushed but not closed.
+     *
+     * @param requestType the request type of expected response.
+     * @param response the response object to write, must be supported by canWrite.
+     * @param outputStream the output stream to write the response to.
+     * @throws InternalErrorException if unsupported response object or internal error occurred generating the XML.
+     * @throws IOException if communication exception occurred writing the data.
+     */
+    public void write(RequestHelper.RequestType requestType, Object response, OutputStream outputStream) throws InternalErrorException, IOException {
+        if(!canWrite(response)){
+            throw new InternalErrorException("Paywall Internal error writing response, unsupported response type: " + (response == null ? null : response.getClass().getSimpleName()));
+        }
+        if(requestType == RequestHelper.RequestType.XML){
+            writeXML(response, outputStream);
+        }else{
+            BufferedOutputStream out = new BufferedOutputStream(outputStream, 2048);
+            if(response instanceof InvoiceResponse){
+                writeJSON((InvoiceResponse) response, out);
+            }else if(response instanceof SettlementResponse){
+                writeJSON((SettlementResponse) response, out);
+            }else{
+                writeJSON((APIError) response, out);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Help method writing an invoice response in the same format as the Jackson converter.
+     */
+    private void writeJSON(InvoiceResponse r, OutputStream out) throws IOException {
+        out.write(JSON_STATUS);
+        writeJSONString(out, r.getStatus());
+        out.write(JSON_TYPE_INVOICE);
+        writeJSONString(out, r.getPreImageHash());
+        out.write(JSON_BOLT11_INVOICE);
+        writeJSONString(out, r.getBolt11Invoice());
+        out.write(JSON_DESCRIPTION);
+        writeJSONString(out, r.getDescription());
+        out.write(JSON_INVOICE_AMOUNT);
+        writeJSON(r.getInvoiceAmount(), out);
+        out.write(JSON_NODE_INFO);
+        writeJSON(r.getNodeInfo(), out);
+        out.write(JSON_TOKEN);
+        writeJSONString(out, r.getToken());
+        out.write(JSON_INVOICE_DATE);
+        writeJSONDate(out, r.getInvoiceDate());
+        out.write(JSON_INVOICE_EXPIRE_DATE);
+        writeJSONDate(out, r.getInvoiceExpireDate());
+        out.write(JSON_PAY_PER_REQUEST);
+        writeJSONBoolean(out, r.getPayPerRequest());
+        out.write(JSON_REQUEST_POLICY_TYPE);
+        writeJSONString(out, r.getRequestPolicyType());
+        out.write(JSON_CHECK_SETTLEMENT_LINK);
+        writeJSONString(out, r.getCheckSettlementLink());
+        out.write(JSON_QR_LINK);
+        writeJSONString(out, r.getQrLink());
+        out.write(JSON_CHECK_SETTLEMENT_WEBSOCKET_ENDPOINT);
+        writeJSONString(out, r.getCheckSettlementWebSocketEndpoint());
+        out.write(JSON_CHECK_SETTLEMENT_WEBSOCKET_QUEUE);
+        writeJSONString(out, r.getCheckSettlementWebSocketQueue());
+        out.write('}');
+    }
+
+    /**
+     * Help method writing a settlement response in the same format as the Jackson converter.
+     */
+    private void writeJSON(SettlementResponse r, OutputStream out) throws IOException {
+        out.write(JSON_STATUS);
+        writeJSONString(out, r.getStatus());
+        out.write(JSON_TYPE_SETTLEMENT);
+        writeJSONString(out, r.getPreImageHash());
+        out.write(JSON_TOKEN);
+        writeJSONString(out, r.getToken());
+        out.write(JSON_SETTLEMENT_VALID_UNTIL);
+        writeJSONDate(out, r.getSettlementValidUntil());
+        out.write(JSON_SETTLEMENT_VALID_FROM);
+        writeJSONDate(out, r.getSettlementValidFrom());
+        out.write(JSON_PAY_PER_REQUEST);
+        writeJSONBoolean(out, r.getPayPerRequest());
+        out.write(JSON_SETTLED);
+        writeJSONBoolean(out, r.isSettled());
+        out.write('}');
+    }
+
+    /**
+     * Help method writing an api error in the same format as the Jackson converter.
+     */
+    private void writeJSON(APIError e, OutputStream out) throws IOException {
+        out.write(JSON_STATUS);
+        writeJSONString(out, e.getStatus() == null ? null : e.getStatus().name());
+        out.write(JSON_ERROR_MESSAGE);
+        writeJSONString(out, e.getMessage());
+        out.write(JSON_ERROR_ERRORS);
+        List<String> errors = e.getErrors();
+        if(errors == null){
+            out.write(JSON_NULL);
+        }else{
+            out.write('[');
+            for(int i = 0; i < errors.size(); i++){
+                if(i > 0){
+                    out.write(',');
+                }
+                writeJSONString(out, errors.get(i));
+            }
+            out.write(']');
+        }
+        out.write(JSON_ERROR_REASON);
+        writeJSONString(out, e.getReason() == null ? null : e.getReason().name());
+        out.write('}');
+    }
+
+    private void writeJSON(CryptoAmount amount, OutputStream out) throws IOException {
+        if(amount == null){
+            out.write(JSON_NULL);
+            return;
+        }
+        out.write(JSON_AMOUNT_VALUE);
+        writeASCII(out, Long.toString(amount.getValue()));
+        out.write(JSON_AMOUNT_CURRENCY_CODE);
+        writeJSONString(out, amount.getCurrencyCode());
+        out.write(JSON_AMOUNT_MAGNETUDE);
+        writeJSONString(out, amount.getMagnetude().name());
+        out.write('}');
+    }
+
+    private void writeJSON(NodeInfo nodeInfo, OutputStream out) throws IOException {
+        if(nodeInfo == null){
+            out.write(JSON_NULL);
+            return;
+        }
+        EncodedNodeInfo cached = encodedNodeInfo;
+        if(cached == null || !cached.matches(nodeInfo)){
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream(256);
+            encoded.write(JSON_NODE_PUBLIC_KEY_INFO);
+            writeJSONString(encoded, nodeInfo.getPublicKeyInfo());
+            encoded.write(JSON_NODE_ADDRESS);
+            writeJSONString(encoded, nodeInfo.getNodeAddress());
+            encoded.write(JSON_NODE_PORT);
+            if(nodeInfo.getNodePort() == null){
+                encoded.write(JSON_NULL);
+            }else{
+                writeASCII(encoded, nodeInfo.getNodePort().toString());
+            }
+            encoded.write(JSON_NODE_NETWORK);
+            writeJSONString(encoded, nodeInfo.getNetwork().name());
+            encoded.write(JSON_NODE_CONNECT_STRING);
+            writeJSONString(encoded, nodeInfo.getConnectString());
+            encoded.write('}');
+            cached = new EncodedNodeInfo(nodeInfo, encoded.toByteArray());
+            encodedNodeInfo = cached;
+        }
+        out.write(cached.json);
+    }
+
+    private void writeJSONDate(OutputStream out, Date date) throws IOException {
+        if(date == null){
+            out.write(JSON_NULL);
+        }else{
+            out.write('"');
+            writeASCII(out, JSON_DATE_FORMAT.format(date.toInstant()));
+            out.write('"');
+        }
+    }
+
+    private void writeJSONBoolean(OutputStream out, Boolean value) throws IOException {
+        out.write(value == null ? JSON_NULL : (value ? JSON_TRUE : JSON_FALSE));
+    }
+
+    /**
+     * Help method writing a quoted JSON string, where control characters, quote, backslash
+     * and all non-ASCII characters are written as escape sequences.
+     */
+    private void writeJSONString(OutputStream out, String value) throws IOException {
+        if(value == null){
+            out.write(JSON_NULL);
+            return;
+        }
+        out.write('"');
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            if(c >= 0x20 && c < 0x7f && c != '"' && c != '\\'){
+                out.write(c);
+            }else{
+                switch (c){
+                    case '"': out.write('\\'); out.write('"'); break;
+                    case '\\': out.write('\\'); out.write('\\'); break;
+                    case '\n': out.write('\\'); out.write('n'); break;
+                    case '\r': out.write('\\'); out.write('r'); break;
+                    case '\t': out.write('\\'); out.write('t'); break;
+                    default:
+                        out.write('\\');
+                        out.write('u');
+                        out.write(HEX[(c >> 12) & 0xF]);
+                        out.write(HEX[(c >> 8) & 0xF]);
+                        out.write(HEX[(c >> 4) & 0xF]);
+                        out.write(HEX[c & 0xF]);
+                }
+            }
+        }
+        out.write('"');
+    }
+
+    private static void writeASCII(OutputStream out, String value) throws IOException {
+        for(int i = 0; i < value.length(); i++){
+            out.write(value.charAt(i));
+        }
+    }
+
+    /**
+     * Help method writing a response as XML using StAX.
+     */
+    private void writeXML(Object response, OutputStream outputStream) throws InternalErrorException {
+        try {
+            XMLStreamWriter w = xmlOutputFactory.createXMLStreamWriter(outputStream, "UTF-8");
+            w.writeStartDocument("UTF-8", "1.0");
+            if(response instanceof InvoiceResponse){
+                InvoiceResponse r = (InvoiceResponse) response;
+                w.setDefaultNamespace(XML_NAMESPACE);
+                w.writeStartElement(XML_NAMESPACE, "InvoiceResponse");
+                w.writeDefaultNamespace(XML_NAMESPACE);
+                writeXMLElement(w, XML_NAMESPACE, "status", r.getStatus());
+                writeXMLElement(w, XML_NAMESPACE, "preImageHash", r.getPreImageHash());
+                writeXMLElement(w, XML_NAMESPACE, "bolt11Invoice", r.getBolt11Invoice());
+                writeXMLElement(w, XML_NAMESPACE, "description", r.getDescription());
+                if(r.getInvoiceAmount() != null){
+                    CryptoAmount amount = r.getInvoiceAmount();
+                    w.writeStartElement(XML_NAMESPACE, "invoiceAmount");
+                    writeXMLElement(w, XML_NAMESPACE, "value", Long.toString(amount.getValue()));
+                    writeXMLElement(w, XML_NAMESPACE, "currencyCode", amount.getCurrencyCode());
+                    writeXMLElement(w, XML_NAMESPACE, "magnetude", amount.getMagnetude().name());
+                    w.writeEndElement();
+                }
+                if(r.getNodeInfo() != null){
+                    NodeInfo nodeInfo = r.getNodeInfo();
+                    w.writeStartElement(XML_NAMESPACE, "nodeInfo");
+                    writeXMLElement(w, XML_NAMESPACE, "publicKeyInfo", nodeInfo.getPublicKeyInfo());
+                    writeXMLElement(w, XML_NAMESPACE, "nodeAddress", nodeInfo.getNodeAddress());
+                    writeXMLElement(w, XML_NAMESPACE, "nodePort", nodeInfo.getNodePort());
+                    writeXMLElement(w, XML_NAMESPACE, "network", nodeInfo.getNetwork().name());
+                    writeXMLElement(w, XML_NAMESPACE, "connectString", nodeInfo.getConnectString());
+                    w.writeEndElement();
+                }
+                writeXMLElement(w, XML_NAMESPACE, "token", r.getToken());
+                writeXMLElement(w, XML_NAMESPACE, "invoiceDate", r.getInvoiceDate());
+                writeXMLElement(w, XML_NAMESPACE, "invoiceExpireDate", r.getInvoiceExpireDate());
+                writeXMLElement(w, XML_NAMESPACE, "payPerRequest", r.getPayPerRequest());
+                writeXMLElement(w, XML_NAMESPACE, "requestPolicyType", r.getRequestPolicyType());
+                writeXMLElement(w, XML_NAMESPACE, "checkSettlementLink", r.getCheckSettlementLink());
+                writeXMLElement(w, XML_NAMESPACE, "qrLink", r.getQrLink());
+                writeXMLElement(w, XML_NAMESPACE, "checkSettlementWebSocketEndpoint", r.getCheckSettlementWebSocketEndpoint());
+                writeXMLElement(w, XML_NAMESPACE, "checkSettlementWebSocketQueue", r.getCheckSettlementWebSocketQueue());
+            }else if(response instanceof SettlementResponse){
+                SettlementResponse r = (SettlementResponse) response;
+                w.setDefaultNamespace(XML_NAMESPACE);
+                w.writeStartElement(XML_NAMESPACE, "SettlementResponse");
+                w.writeDefaultNamespace(XML_NAMESPACE);
+                writeXMLElement(w, XML_NAMESPACE, "status", r.getStatus());
+                writeXMLElement(w, XML_NAMESPACE, "preImageHash", r.getPreImageHash());
+                writeXMLElement(w, XML_NAMESPACE, "token", r.getToken());
+                writeXMLElement(w, XML_NAMESPACE, "settlementValidUntil", r.getSettlementValidUntil());
+                writeXMLElement(w, XML_NAMESPACE, "settlementValidFrom", r.getSettlementValidFrom());
+                writeXMLElement(w, XML_NAMESPACE, "payPerRequest", r.getPayPerRequest());
+                writeXMLElement(w, XML_NAMESPACE, "settled", r.isSettled());
+            }else{
+                APIError e = (APIError) response;
+                w.writeStartElement("apiError");
+                writeXMLElement(w, null, "status", e.getStatus() == null ? null : e.getStatus().name());
+                writeXMLElement(w, null, "message", e.getMessage());
+                if(e.getErrors() != null){
+                    for(String error : e.getErrors()){
+                        writeXMLElement(w, null, "errors", error);
+                    }
+                }
+                writeXMLElement(w, null, "reason", e.getReason() == null ? null : e.getReason().name());
+            }
+            w.writeEndElement();
+            w.writeEndDocument();
+            w.flush();
+            w.close();
+        }catch (XMLStreamException e){
+            throw new InternalErrorException("Paywall Internal error writing XML response: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Help method writing a simple XML element, null values are omitted in the same way as JAXB.
+     */
+    private void writeXMLElement(XMLStreamWriter w, String namespace, String name, Object value) throws XMLStreamException {
+        if(value == null){
+            return;
+        }
+        if(namespace == null){
+            w.writeStartElement(name);
+        }else{
+            w.writeStartElement(namespace, name);
+        }
+        if(value instanceof Date){
+            w.writeCharacters(XML_DATE_FORMAT.format(((Date) value).toInstant()));
+        }else{
+            w.writeCharacters(value.toString());
+        }
+        w.writeEndElement();
+    }
+
+    private static byte[] ascii(String value){
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Cached JSON encoding of the node information of the last written invoice.
+     */
+    private static class EncodedNodeInfo {
+        private final String publicKeyInfo;
+        private final String nodeAddress;
+        private final Integer nodePort;
+        private final String network;
+        private final String connectString;
+        private final byte[] json;
+
+        EncodedNodeInfo(NodeInfo nodeInfo, byte[] json){
+            this.publicKeyInfo = nodeInfo.getPublicKeyInfo();
+            this.nodeAddress = nodeInfo.getNodeAddress();
+            this.nodePort = nodeInfo.getNodePort();
+            this.network = nodeInfo.getNetwork().name();
+            this.connectString = nodeInfo.getConnectString();
+            this.json = json;
+        }
+
+        boolean matches(NodeInfo nodeInfo){
+            return Objects.equals(publicKeyInfo, nodeInfo.getPublicKeyInfo()) &&
+                    Objects.equals(nodeAddress, nodeInfo.getNodeAddress()) &&
+                    Objects.equals(nodePort, nodeInfo.getNodePort()) &&
+                    network.equals(nodeInfo.getNetwork().name()) &&
+                    Objects.equals(connectString, nodeInfo.getConnectString());
+        }
+    }
+}
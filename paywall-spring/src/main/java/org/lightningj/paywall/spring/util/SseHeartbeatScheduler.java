@@ -0,0 +1,127 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring.util;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.spring.PaywallProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.lightningj.paywall.spring.PaywallProperties.CHECK_SETTLEMENT_SSE_HEARTBEAT;
+import static org.lightningj.paywall.spring.PaywallProperties.DEFAULT_CHECK_SETTLEMENT_SSE_HEARTBEAT;
+import static org.lightningj.paywall.util.SettingUtils.checkLongWithDefault;
+
+/**
+ * Class sending heartbeat comments to all open Server-Sent Events streams in order to keep
+ * idle connections from being closed by proxies and load balancers.
+ * <p>
+ *     One shared scheduler thread is used for all registered emitters, instead of one timer per
+ *     stream. Emitters that fails to receive a heartbeat are removed and completed.
+ * </p>
+ */
+public class SseHeartbeatScheduler {
+
+    protected static Logger log = Logger.getLogger(SseHeartbeatScheduler.class.getName());
+
+    static final String HEARTBEAT_COMMENT = "heartbeat";
+
+    @Autowired
+    PaywallProperties paywallProperties;
+
+    protected Set<SseEmitter> emitters = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Method to register an emitter that should receive heartbeats until unregistered.
+     * The shared scheduler is started at first registration.
+     *
+     * @param emitter the emitter to send heartbeats to.
+     * @throws InternalErrorException if the heartbeat interval setting is invalid.
+     */
+    public void register(SseEmitter emitter) throws InternalErrorException{
+        start();
+        emitters.add(emitter);
+    }
+
+    /**
+     * Method to unregister an emitter, should be called when the stream is completed.
+     *
+     * @param emitter the emitter to stop sending heartbeats to.
+     */
+    public void unregister(SseEmitter emitter){
+        emitters.remove(emitter);
+    }
+
+    /**
+     *
+     * @return the number of emitters currently receiving heartbeats.
+     */
+    public int getEmitterCount(){
+        return emitters.size();
+    }
+
+    /**
+     * Method sending one heartbeat to all registered emitters, called periodically by the scheduler.
+     */
+    void sendHeartbeats(){
+        for(SseEmitter emitter : emitters){
+            try{
+                emitter.send(SseEmitter.event().comment(HEARTBEAT_COMMENT));
+            }catch (Exception e){
+                log.log(Level.FINE, "Error sending heartbeat to Server-Sent Events stream, removing stream: " + e.getMessage(), e);
+                emitters.remove(emitter);
+                emitter.completeWithError(e);
+            }
+        }
+    }
+
+    /**
+     * Help method starting the shared scheduler if not already started. If the configured
+     * heartbeat interval is 0 or less are no heartbeats sent.
+     */
+    private synchronized void start() throws InternalErrorException{
+        if(scheduler == null){
+            long interval = checkLongWithDefault(paywallProperties.getCheckSettlementSseHeartbeat(), CHECK_SETTLEMENT_SSE_HEARTBEAT, DEFAULT_CHECK_SETTLEMENT_SSE_HEARTBEAT);
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "paywall-sse-heartbeat");
+                t.setDaemon(true);
+                return t;
+            });
+            if(interval > 0) {
+                scheduler.scheduleWithFixedDelay(this::sendHeartbeats, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Method to stop the shared scheduler, called when the application context is closed.
+     */
+    public synchronized void close(){
+        if(scheduler != null){
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        emitters.clear();
+    }
+}
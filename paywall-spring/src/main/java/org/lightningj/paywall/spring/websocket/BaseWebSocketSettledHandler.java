@@ -15,14 +15,15 @@
 package org.lightningj.paywall.spring.websocket;
 
 import org.lightningj.paywall.InternalErrorException;
-import org.lightningj.paywall.paymenthandler.PaymentHandler;
-import org.lightningj.paywall.paymenthandler.PaymentListener;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.lightningj.paywall.util.HashedTimerWheel;
 
 import java.time.Clock;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -33,6 +34,11 @@ import java.util.logging.Logger;
  * </p>
  * The class maintains a map of registered event listeners and cleans up itself after related
  * invoice have expired. Regular usage should unregister itself when disconnecting.
+ * <p>
+ *     Expiry is handled by a hashed timer wheel advanced by one shared scheduler thread every
+ *     tick, started at first registration, so listeners are unregistered at most one tick after
+ *     their expire date regardless of registration rate.
+ * </p>
  *
  * @author Philip Vendil 2019-05-15
  */
@@ -40,24 +46,28 @@ public abstract class BaseWebSocketSettledHandler<T> {
 
     Logger log = Logger.getLogger(BaseWebSocketSettledHandler.class.getName());
 
-    private static final int CLEANUP_SIZE = 100;
+    /**
+     * Default tick duration of the expiry timer wheel in milliseconds.
+     */
+    public static final long DEFAULT_EXPIRY_TICK_DURATION = HashedTimerWheel.DEFAULT_TICK_DURATION;
 
     Clock clock = Clock.systemDefaultZone();
 
     /**
-     * Map of base64 paymentHash to paymentListener
+     * Map of base64 paymentHash to registered paymentListener
      */
-    protected Map<String,T> paymentListenerMap = new ConcurrentHashMap<>();
+    protected Map<String,ExpirableListener<T>> paymentListenerMap = new ConcurrentHashMap<>();
 
     /**
-     * Priority queue of expiring date to paymentHash, in order to cleanup expiring listeners.
+     * Timer wheel of paymentHash to expire date, in order to cleanup expiring listeners.
      */
-    protected PriorityBlockingQueue<ExpirableListener> expiringListeners = new PriorityBlockingQueue<>();
+    protected HashedTimerWheel<String> expiringListeners;
 
+    private ScheduledExecutorService expiryScheduler;
 
     /**
      * Method to register a payment listener to a related preImageHash and expireDate.
-     * Will perform a cleanup of expired listeners when it's ready.
+     * The listener is automatically unregistered when expire date have passed.
      *
      * Method will only be added if not already registered.
      *
@@ -67,11 +77,16 @@ public abstract class BaseWebSocketSettledHandler<T> {
      * @throws InternalErrorException if internal exception occurred registering the payment listener.
      */
     public void registerPaymentListener(String preImageHash, long expireDate, T paymentListener) throws InternalErrorException {
-        if(!hasPaymentListener(preImageHash)) {
-            registerListener(paymentListener);
-            paymentListenerMap.put(preImageHash, paymentListener);
-            expiringListeners.add(new ExpirableListener(preImageHash, expireDate));
-            cleanupInternalResources();
+        HashedTimerWheel<String> wheel = getExpiringListeners();
+        ExpirableListener<T> expirableListener = new ExpirableListener<>(paymentListener);
+        if(paymentListenerMap.putIfAbsent(preImageHash, expirableListener) == null) {
+            try {
+                registerListener(paymentListener);
+            }catch (InternalErrorException | RuntimeException e){
+                paymentListenerMap.remove(preImageHash, expirableListener);
+                throw e;
+            }
+            expirableListener.timeout = wheel.schedule(preImageHash, expireDate);
         }
     }
 
@@ -85,18 +100,37 @@ public abstract class BaseWebSocketSettledHandler<T> {
     }
 
     /**
-     * Method that unregister the related payment listener and releases all related resources.
-     * <p>
-     *     This method won't release data from expireQueue, it will clean itself up automatically over time.
-     * </p>
+     * Method that unregister the related payment listener and releases all related resources,
+     * including its entry in the expiry timer wheel.
+     *
      * @param preImageHash the related PreImageHash in base64
      * @throws InternalErrorException if internal problems occurred releasing the payment listener.
      */
     public void unregisterPaymentListener(String preImageHash) throws InternalErrorException {
-        T listener = paymentListenerMap.get(preImageHash);
-        if(listener != null){
-            unregisterListener(listener);
-            paymentListenerMap.remove(preImageHash);
+        ExpirableListener<T> expirableListener = paymentListenerMap.remove(preImageHash);
+        if(expirableListener != null){
+            if(expirableListener.timeout != null) {
+                expiringListeners.cancel(expirableListener.timeout);
+            }
+            unregisterListener(expirableListener.listener);
+        }
+    }
+
+    /**
+     *
+     * @return the number of currently registered (live) payment listeners.
+     */
+    public int getListenerCount(){
+        return paymentListenerMap.size();
+    }
+
+    /**
+     * Method to stop the expiry scheduler, called when the application context is closed.
+     */
+    public synchronized void close(){
+        if(expiryScheduler != null){
+            expiryScheduler.shutdownNow();
+            expiryScheduler = null;
         }
     }
 
@@ -114,105 +148,79 @@ public abstract class BaseWebSocketSettledHandler<T> {
     protected abstract void unregisterListener(T listener) throws InternalErrorException;
 
     /**
-     * Private method that checks if it is time to cleanup old listeners, this
-     * is done every time the current map size is a multiple of 100 to avoid performing
-     * a cleanup for every new call.
+     *
+     * @return the tick duration of the expiry timer wheel in milliseconds, i.e. the maximum
+     * time a listener might remain registered after its expire date.
+     */
+    protected long getExpiryTickDuration(){
+        return DEFAULT_EXPIRY_TICK_DURATION;
+    }
+
+    /**
+     * Method called by the expiry scheduler every tick to unregister all listeners
+     * with passed expire dates.
+     */
+    void expireListeners(){
+        for(String preImageHash : expiringListeners.advance()){
+            ExpirableListener<T> expirableListener = paymentListenerMap.get(preImageHash);
+            if(expirableListener != null && paymentListenerMap.remove(preImageHash, expirableListener)) {
+                try {
+                    unregisterListener(expirableListener.listener);
+                } catch (Exception e) {
+                    log.log(Level.SEVERE, "Internal error when cleaning up expired PaymentListeners: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Help method to lazily create the expiry timer wheel and start the scheduler advancing it.
      */
-    private void cleanupInternalResources(){
-        if(paymentListenerMap.size() % CLEANUP_SIZE == 0){
-            // listenerMap is large enough to start a cleanup thread.
-            Thread t = new Thread(new ExpiredEntriesRemover());
-            t.start();
+    private synchronized HashedTimerWheel<String> getExpiringListeners(){
+        if(expiringListeners == null){
+            long tickDuration = getExpiryTickDuration();
+            expiringListeners = new HashedTimerWheel<>(tickDuration, HashedTimerWheel.DEFAULT_WHEEL_SIZE, clock);
+            expiryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "paywall-websocket-listener-expiry");
+                t.setDaemon(true);
+                return t;
+            });
+            expiryScheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    expireListeners();
+                }catch (Exception e){
+                    log.log(Level.SEVERE, "Error expiring WebSocket PaymentListeners: " + e.getMessage(), e);
+                }
+            }, tickDuration, tickDuration, TimeUnit.MILLISECONDS);
         }
+        return expiringListeners;
     }
 
     /**
      * Inner class used in paymentListenerMap in order to have the listeners expirable.
      */
-    private static class ExpirableListener implements Comparable<ExpirableListener> {
+    protected static class ExpirableListener<T> {
 
         /**
-         * expireDate in milliseconds
+         * The registered listener.
          */
-        long expireDate;
-        /**
-         * Related PreImageHash in base64
-         */
-        String preImageHash;
+        final T listener;
 
         /**
-         * Contructor that should be used when adding an entry to map.
-         * @param preImageHash related PreImageHash in base64
-         * @param expireDate  in milliseconds
+         * Timer wheel entry of the listener, null until scheduled.
          */
-        ExpirableListener(String preImageHash, long expireDate){
-            this.preImageHash = preImageHash;
-            this.expireDate = expireDate;
-        }
+        volatile HashedTimerWheel.Timeout<String> timeout;
 
+        ExpirableListener(T listener){
+            this.listener = listener;
+        }
 
         @Override
         public String toString() {
-            return "ExpirableObject{" +
-                    "expireDate=" + expireDate +
-                    ", preImageHash='" + preImageHash + '\'' +
+            return "ExpirableListener{" +
+                    "listener=" + listener +
+                    ", timeout=" + timeout +
                     '}';
         }
-
-        /**
-         * Compares this object with the specified object for order.  Returns a
-         * negative integer, zero, or a positive integer as this object is less
-         * than, equal to, or greater than the specified object.
-         *
-         * @param o the object to be compared.
-         * @return a negative integer, zero, or a positive integer as this object
-         * is less than, equal to, or greater than the specified object.
-         * @throws NullPointerException if the specified object is null
-         * @throws ClassCastException   if the specified object's type prevents it
-         *                              from being compared to this object.
-         */
-        @Override
-        public int compareTo(ExpirableListener o) {
-            return Long.compare(expireDate, o.expireDate);
-        }
-
     }
-
-    /**
-     * Thread to asynchronously remove all expired entries from the
-     * listeners.
-     */
-    private class ExpiredEntriesRemover implements Runnable{
-
-
-        /**
-         * Thread to asynchronously remove all expired entries from the
-         * listeners.
-         *
-         * @see Thread#run()
-         */
-        @Override
-        public void run() {
-            boolean foundNonExpired = false;
-            while(!foundNonExpired && expiringListeners.size() > 0) {
-                ExpirableListener expirableKey = expiringListeners.peek();
-                if (expirableKey.expireDate < clock.millis()) {
-                    expirableKey = expiringListeners.poll();
-                    T listener = paymentListenerMap.get(expirableKey.preImageHash);
-                    if(listener != null) {
-                        paymentListenerMap.remove(expirableKey.preImageHash);
-                        try {
-                            unregisterListener(listener);
-                        } catch (InternalErrorException e) {
-                            log.severe("Internal error when cleaning up expired PaymentListeners: " + e.getMessage());
-                        }
-                    }
-                } else {
-                    foundNonExpired = true;
-                }
-            }
-        }
-    }
-
-
 }
@@ -178,4 +178,100 @@ class SpringLNDLightningHandlerSpec extends Specification {
         expect:
         lightningHandler.getSupportedCurrencyCode() == "LTC"
     }
+
+    def "Verify that invoice cache settings are read from paywall properties with defaults."(){
+        setup:
+        lightningHandler.paywallProperties = new PaywallProperties()
+        expect:
+        lightningHandler.getInvoiceCacheSize() == 10000
+        lightningHandler.getInvoiceCacheMaxAge() == 30000
+        when:
+        lightningHandler.paywallProperties.lndInvoiceCacheSize = "0"
+        lightningHandler.paywallProperties.lndInvoiceCacheMaxAge = "5000"
+        then:
+        lightningHandler.getInvoiceCacheSize() == 0
+        lightningHandler.getInvoiceCacheMaxAge() == 5000
+        when:
+        lightningHandler.paywallProperties.lndInvoiceCacheSize = "abc"
+        lightningHandler.getInvoiceCacheSize()
+        then:
+        def e = thrown InternalErrorException
+        e.message == "Invalid server configuration, check that setting paywall.lnd.invoicecache.size has a number value, not abc"
+    }
+
+    def "Verify that reconciliation settings are read from paywall properties with defaults."(){
+        setup:
+        lightningHandler.paywallProperties = new PaywallProperties()
+        expect:
+        lightningHandler.getReconciliationInterval() == 60000
+        lightningHandler.getReconciliationBatchSize() == 1000
+        when:
+        lightningHandler.paywallProperties.lndReconciliationInterval = "0"
+        lightningHandler.paywallProperties.lndReconciliationBatchSize = "500"
+        then:
+        lightningHandler.getReconciliationInterval() == 0
+        lightningHandler.getReconciliationBatchSize() == 500
+    }
+
+    def "Verify that channel settings are read from paywall properties with defaults."(){
+        setup:
+        lightningHandler.paywallProperties = new PaywallProperties()
+        expect:
+        lightningHandler.getKeepAliveTime() == 60000
+        lightningHandler.getKeepAliveTimeout() == 20000
+        lightningHandler.getFlowControlWindow() == 1048576
+        lightningHandler.getMaxInboundMessageSize() == 16777216
+        when:
+        lightningHandler.paywallProperties.lndKeepAliveTime = "0"
+        lightningHandler.paywallProperties.lndKeepAliveTimeout = "1000"
+        lightningHandler.paywallProperties.lndFlowControlWindow = "65535"
+        lightningHandler.paywallProperties.lndMaxInboundMessageSize = "4194304"
+        then:
+        lightningHandler.getKeepAliveTime() == 0
+        lightningHandler.getKeepAliveTimeout() == 1000
+        lightningHandler.getFlowControlWindow() == 65535
+        lightningHandler.getMaxInboundMessageSize() == 4194304
+    }
+
+    def "Verify that call guard settings are read from paywall properties with defaults."(){
+        setup:
+        lightningHandler.paywallProperties = new PaywallProperties()
+        expect:
+        lightningHandler.getCallDeadline() == 10000
+        lightningHandler.getMaxConcurrentCalls() == 50
+        lightningHandler.getCircuitBreakerFailureThreshold() == 5
+        lightningHandler.getCircuitBreakerOpenTime() == 30000
+        when:
+        lightningHandler.paywallProperties.lndCallDeadline = "0"
+        lightningHandler.paywallProperties.lndMaxConcurrentCalls = "10"
+        lightningHandler.paywallProperties.lndCircuitBreakerFailureThreshold = "3"
+        lightningHandler.paywallProperties.lndCircuitBreakerOpenTime = "5000"
+        then:
+        lightningHandler.getCallDeadline() == 0
+        lightningHandler.getMaxConcurrentCalls() == 10
+        lightningHandler.getCircuitBreakerFailureThreshold() == 3
+        lightningHandler.getCircuitBreakerOpenTime() == 5000
+    }
+
+    def "Verify that invoice batch concurrency is read from paywall properties with default."(){
+        setup:
+        lightningHandler.paywallProperties = new PaywallProperties()
+        expect:
+        lightningHandler.getInvoiceBatchConcurrency() == 10
+        when:
+        lightningHandler.paywallProperties.lndInvoiceBatchConcurrency = "25"
+        then:
+        lightningHandler.getInvoiceBatchConcurrency() == 25
+    }
+
+    def "Verify that node info refresh interval is read from paywall properties with default."(){
+        setup:
+        lightningHandler.paywallProperties = new PaywallProperties()
+        expect:
+        lightningHandler.getNodeInfoRefreshInterval() == 600000
+        when:
+        lightningHandler.paywallProperties.lndNodeInfoRefreshInterval = "0"
+        then:
+        lightningHandler.getNodeInfoRefreshInterval() == 0
+    }
 }
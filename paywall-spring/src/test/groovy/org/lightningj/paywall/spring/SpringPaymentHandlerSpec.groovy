@@ -15,12 +15,18 @@
 package org.lightningj.paywall.spring
 
 import org.lightningj.paywall.InternalErrorException
+import org.lightningj.paywall.articlecatalog.ArticleCatalog
+import org.lightningj.paywall.lightninghandler.lnd.LNDContextCheckpointStore
+import org.lightningj.paywall.lightninghandler.lnd.LNDLightningHandlerContext
+import org.lightningj.paywall.paymenthandler.SettlementNotificationBus
 import org.lightningj.paywall.spring.local.LocalProfileBeanConfiguration
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.test.context.ContextConfiguration
 import org.springframework.test.context.TestPropertySource
 import spock.lang.Specification
 
+import java.nio.file.Files
+import java.util.logging.Level
 import java.util.logging.Logger
 
 /**
@@ -112,4 +118,153 @@ class SpringPaymentHandlerSpec extends Specification {
         def e = thrown InternalErrorException
         e.message == "Invalid server configuration, check that setting paywall.lightninghandler.autoconnect is either true or false, not abc."
     }
+
+    def "Verify that getPurgeBatchSize returns default batch size if setting is not set"() {
+        setup:
+        PaywallProperties p = new PaywallProperties()
+        paymentHandler.paywallProperties = p
+        expect:
+        paymentHandler.getPurgeBatchSize() == 500
+    }
+
+    def "Verify that getPurgeBatchSize returns value from setting paywall.purge.batchsize"() {
+        setup:
+        PaywallProperties p = new PaywallProperties()
+        p.purgeBatchSize = "100"
+        paymentHandler.paywallProperties = p
+        expect:
+        paymentHandler.getPurgeBatchSize() == 100
+    }
+
+    def "Verify that error log is done for invalid setting of purge batch size"() {
+        setup:
+        PaywallProperties p = new PaywallProperties()
+        p.purgeBatchSize = "abc"
+        paymentHandler.paywallProperties = p
+        when:
+        def r = paymentHandler.getPurgeBatchSize()
+        then:
+        r == 500
+        1 * SpringPaymentHandler.log.severe("Error parsing application properties, setting paywall.purge.batchsize should be an integer, not abc, using default value: 500")
+    }
+
+    def "Verify that purge scheduler is only started if setting paywall.purge.enable is true"() {
+        setup:
+        PaywallProperties p = new PaywallProperties()
+        p.lightningHandlerAutoconnect = "false"
+        p.purgeEnable = "false"
+        paymentHandler.paywallProperties = p
+        when:
+        paymentHandler.afterPropertiesSet()
+        then:
+        paymentHandler.purgeScheduler == null
+        when:
+        p.purgeEnable = "true"
+        p.purgeInterval = "60"
+        p.purgeGracePeriod = "60"
+        paymentHandler.afterPropertiesSet()
+        then:
+        paymentHandler.purgeScheduler != null
+        when:
+        paymentHandler.destroy()
+        then:
+        paymentHandler.purgeScheduler == null
+    }
+
+    def "Verify that article catalog is initialized before payment handler and closed on destroy"() {
+        setup:
+        PaywallProperties p = new PaywallProperties()
+        p.lightningHandlerAutoconnect = "false"
+        p.purgeEnable = "false"
+        paymentHandler.paywallProperties = p
+        paymentHandler.articleCatalog = Mock(ArticleCatalog)
+        when:
+        paymentHandler.afterPropertiesSet()
+        then:
+        1 * paymentHandler.articleCatalog.init()
+        0 * paymentHandler.articleCatalog.close()
+        when:
+        paymentHandler.destroy()
+        then:
+        1 * paymentHandler.articleCatalog.close()
+        cleanup:
+        paymentHandler.articleCatalog = null
+    }
+
+    def "Verify that settlement notification bus bean is started on init and closed on destroy"() {
+        setup:
+        PaywallProperties p = new PaywallProperties()
+        p.lightningHandlerAutoconnect = "false"
+        p.purgeEnable = "false"
+        paymentHandler.paywallProperties = p
+        paymentHandler.notificationBus = Mock(SettlementNotificationBus)
+        when:
+        paymentHandler.afterPropertiesSet()
+        then:
+        paymentHandler.getSettlementNotificationBus() == paymentHandler.notificationBus
+        1 * paymentHandler.notificationBus.start(_)
+        0 * paymentHandler.notificationBus.close()
+        when:
+        paymentHandler.destroy()
+        then:
+        1 * paymentHandler.notificationBus.close() >> { throw new RuntimeException("Closed") }
+        1 * SpringPaymentHandler.log.log(Level.SEVERE, "Error closing settlement notification bus on shutdown: Closed", _ as RuntimeException)
+        cleanup:
+        paymentHandler.notificationBus = null
+        paymentHandler.settlementNotificationBus = null
+    }
+
+    def "Verify that lightning handler checkpoint store is only created if setting paywall.lightninghandler.checkpoint.file is set"() {
+        setup:
+        def dir = Files.createTempDirectory("checkpoint")
+        PaywallProperties p = new PaywallProperties()
+        p.lightningHandlerAutoconnect = "false"
+        p.purgeEnable = "false"
+        paymentHandler.paywallProperties = p
+        when:
+        paymentHandler.afterPropertiesSet()
+        then:
+        paymentHandler.getLightningHandlerContextStore() == null
+        when:
+        p.lightningHandlerCheckpointFile = dir.resolve("ctx.json").toString()
+        p.lightningHandlerCheckpointBatchSize = "5"
+        p.lightningHandlerCheckpointInterval = "0"
+        paymentHandler.afterPropertiesSet()
+        then:
+        paymentHandler.getLightningHandlerContextStore() != null
+        when:
+        paymentHandler.getLightningHandlerContextStore().update(new LNDLightningHandlerContext(3,2))
+        paymentHandler.destroy()
+        then:
+        new LNDContextCheckpointStore(dir.resolve("ctx.json")).load().addIndex == 3
+        cleanup:
+        paymentHandler.lightningHandlerContextStore = null
+        dir.toFile().deleteDir()
+    }
+
+    def "Verify that error log is done for invalid settings of lightning handler checkpoint"() {
+        setup:
+        PaywallProperties p = new PaywallProperties()
+        p.lightningHandlerCheckpointBatchSize = "abc"
+        p.lightningHandlerCheckpointInterval = "def"
+        paymentHandler.paywallProperties = p
+        when:
+        def batchSize = paymentHandler.getLightningHandlerCheckpointBatchSize()
+        def interval = paymentHandler.getLightningHandlerCheckpointInterval()
+        then:
+        batchSize == 100
+        interval == 1000
+        1 * SpringPaymentHandler.log.severe("Error parsing application properties, setting paywall.lightninghandler.checkpoint.batchsize should be an integer, not abc, using default value: 100")
+        1 * SpringPaymentHandler.log.severe("Error parsing application properties, setting paywall.lightninghandler.checkpoint.interval should be an integer, not def, using default value: 1000")
+    }
+
+    def "Verify that purgeExpiredQuietly updates purge metrics"() {
+        setup:
+        long sweeps = paymentHandler.getPurgeMetrics().sweeps
+        when:
+        paymentHandler.purgeExpiredQuietly(60)
+        then:
+        paymentHandler.getPurgeMetrics().sweeps == sweeps + 1
+        0 * SpringPaymentHandler.log.log(Level.SEVERE, _, _)
+    }
 }
@@ -15,6 +15,8 @@
 package org.lightningj.paywall.spring
 
 import org.lightningj.paywall.InternalErrorException
+import org.lightningj.paywall.RateLimitExceededException
+import org.lightningj.paywall.lightninghandler.LightningNodeUnavailableException
 import org.lightningj.paywall.spring.util.PaywallRuntimeException
 import org.lightningj.paywall.spring.util.RequestHelper
 import org.lightningj.paywall.tokengenerator.TokenException
@@ -95,9 +97,11 @@ class SpringPaywallExceptionHandlerSpec extends Specification {
         where:
         exception                                                 | exceptionName              | status                           | prefix
         new IOException("test")                                   | "IOException"              | HttpStatus.SERVICE_UNAVAILABLE   | "Internal Communication Problems"
+        new LightningNodeUnavailableException("test")             | "LightningNodeUnavailableException" | HttpStatus.SERVICE_UNAVAILABLE | "Lightning Node Unavailable"
         new InternalErrorException("test")                        | "InternalErrorException"   | HttpStatus.INTERNAL_SERVER_ERROR | "Internal Server Error"
         new IllegalArgumentException("test")                      | "IllegalArgumentException" | HttpStatus.BAD_REQUEST           | "Invalid Request"
         new TokenException("test", TokenException.Reason.EXPIRED) | "TokenException"           | HttpStatus.UNAUTHORIZED          | "JWT Token Problem"
+        new RateLimitExceededException("test", 1000)              | "RateLimitExceededException" | HttpStatus.TOO_MANY_REQUESTS  | "Too Many Requests"
         new TestException()                                       | "TestException"            | HttpStatus.INTERNAL_SERVER_ERROR | "Internal Server Error"
     }
 
@@ -18,11 +18,23 @@ import org.lightningj.paywall.paymentflow.ExpectedTokenType
 import org.lightningj.paywall.paymentflow.PaymentFlow
 import org.lightningj.paywall.paymentflow.PaymentFlowManager
 import org.lightningj.paywall.paymentflow.SettlementResult
+import org.lightningj.paywall.paymenthandler.PaymentEvent
+import org.lightningj.paywall.paymenthandler.PaymentEventType
+import org.lightningj.paywall.paymenthandler.PaymentHandler
+import org.lightningj.paywall.spring.APIError
 import org.lightningj.paywall.spring.PaywallExceptionHandler
+import org.lightningj.paywall.spring.PaywallProperties
+import org.lightningj.paywall.spring.local.LongPollSettledPaymentHandler
 import org.lightningj.paywall.spring.response.SettlementResponse
+import org.lightningj.paywall.spring.util.RequestHelper
+import org.lightningj.paywall.spring.util.SseHeartbeatScheduler
 import org.lightningj.paywall.vo.Settlement
+import org.springframework.http.HttpStatus
+import org.springframework.http.ResponseEntity
 import org.springframework.mock.web.MockHttpServletRequest
 import org.springframework.mock.web.MockHttpServletResponse
+import org.springframework.web.context.request.async.DeferredResult
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter
 import spock.lang.Specification
 
 import java.time.Instant
@@ -42,6 +54,11 @@ class CheckSettlementControllerSpec extends Specification {
     def setup() {
         controller.paymentFlowManager = Mock(PaymentFlowManager)
         controller.paywallExceptionHandler = Mock(PaywallExceptionHandler)
+        controller.paywallProperties = new PaywallProperties()
+        controller.longPollSettledPaymentHandler = new LongPollSettledPaymentHandler()
+        controller.longPollSettledPaymentHandler.paymentHandler = Mock(PaymentHandler)
+        controller.sseHeartbeatScheduler = new SseHeartbeatScheduler()
+        controller.sseHeartbeatScheduler.paywallProperties = controller.paywallProperties
     }
 
     def "Verify that checkSettlement() returns unsettled response if payment isn't settled"() {
@@ -81,6 +98,137 @@ class CheckSettlementControllerSpec extends Specification {
         }
     }
 
+    def "Verify that checkSettlementLongPoll() parks request until payment is settled"() {
+        setup:
+        def paymentFlow = Mock(PaymentFlow)
+        request.setParameter("wait", "30s")
+        when:
+        DeferredResult<SettlementResponse> result = controller.checkSettlementLongPoll(request, response)
+        then:
+        !result.hasResult()
+        controller.longPollSettledPaymentHandler.getWaiterCount() == 1
+        response.contentType == "application/json"
+        response.getHeader(HEADER_PAYWALL_MESSAGE) == HEADER_PAYWALL_MESSAGE_VALUE
+        1 * controller.paymentFlowManager.getPaymentFlowFromToken(!null, ExpectedTokenType.INVOICE_TOKEN) >> paymentFlow
+        _ * paymentFlow.getPreImageHash() >> "abc".bytes
+        1 * paymentFlow.isSettled() >> false
+        when:
+        controller.longPollSettledPaymentHandler.onPaymentEvent(new PaymentEvent(PaymentEventType.INVOICE_SETTLED, genSettlement()))
+        then:
+        1 * paymentFlow.isSettled() >> true
+        1 * paymentFlow.getSettlement() >> new SettlementResult(genSettlement(), "SomeToken")
+        result.hasResult()
+        ((SettlementResponse) result.getResult()).settled
+        ((SettlementResponse) result.getResult()).token == "SomeToken"
+        controller.longPollSettledPaymentHandler.getWaiterCount() == 0
+    }
+
+    def "Verify that checkSettlementLongPoll() returns settled response directly if payment already is settled"() {
+        setup:
+        def paymentFlow = Mock(PaymentFlow)
+        request.setParameter("wait", "30000ms")
+        when:
+        DeferredResult<SettlementResponse> result = controller.checkSettlementLongPoll(request, response)
+        then:
+        1 * controller.paymentFlowManager.getPaymentFlowFromToken(!null, ExpectedTokenType.INVOICE_TOKEN) >> paymentFlow
+        _ * paymentFlow.getPreImageHash() >> "abc".bytes
+        1 * paymentFlow.isSettled() >> true
+        1 * paymentFlow.getSettlement() >> new SettlementResult(genSettlement(), "SomeToken")
+        ((SettlementResponse) result.getResult()).settled
+    }
+
+    def "Verify that checkSettlementLongPoll() responds directly if wait is 0 or long poll isn't supported"() {
+        setup:
+        def paymentFlow = Mock(PaymentFlow)
+        request.setParameter("wait", "0")
+        when:
+        DeferredResult<SettlementResponse> result = controller.checkSettlementLongPoll(request, response)
+        then:
+        1 * controller.paymentFlowManager.getPaymentFlowFromToken(!null, ExpectedTokenType.INVOICE_TOKEN) >> paymentFlow
+        1 * paymentFlow.isSettled() >> false
+        !((SettlementResponse) result.getResult()).settled
+        controller.longPollSettledPaymentHandler.getWaiterCount() == 0
+        when:
+        controller.longPollSettledPaymentHandler = null
+        request.setParameter("wait", "30")
+        result = controller.checkSettlementLongPoll(request, response)
+        then:
+        1 * controller.paymentFlowManager.getPaymentFlowFromToken(!null, ExpectedTokenType.INVOICE_TOKEN) >> paymentFlow
+        1 * paymentFlow.isSettled() >> false
+        !((SettlementResponse) result.getResult()).settled
+    }
+
+    def "Verify that checkSettlementStream() keeps stream open until payment is settled and then sends settlement event"() {
+        setup:
+        def paymentFlow = Mock(PaymentFlow)
+        when:
+        SseEmitter emitter = controller.checkSettlementStream(request, response)
+        then:
+        emitter.timeout == PaywallProperties.DEFAULT_CHECK_SETTLEMENT_SSE_TIMEOUT
+        sentData(emitter) == ""
+        controller.longPollSettledPaymentHandler.getWaiterCount() == 1
+        controller.sseHeartbeatScheduler.getEmitterCount() == 1
+        response.getHeader(HEADER_PAYWALL_MESSAGE) == HEADER_PAYWALL_MESSAGE_VALUE
+        1 * controller.paymentFlowManager.getPaymentFlowFromToken(!null, ExpectedTokenType.INVOICE_TOKEN) >> paymentFlow
+        _ * paymentFlow.getPreImageHash() >> "abc".bytes
+        1 * paymentFlow.isSettled() >> false
+        when:
+        controller.longPollSettledPaymentHandler.onPaymentEvent(new PaymentEvent(PaymentEventType.INVOICE_SETTLED, genSettlement()))
+        then:
+        2 * paymentFlow.isSettled() >> true
+        1 * paymentFlow.getSettlement() >> new SettlementResult(genSettlement(), "SomeToken")
+        sentData(emitter).startsWith("event:settlement\ndata:{")
+        sentData(emitter).contains('"token":"SomeToken"')
+        emitter.complete
+        controller.longPollSettledPaymentHandler.getWaiterCount() == 0
+        cleanup:
+        controller.sseHeartbeatScheduler.close()
+    }
+
+    def "Verify that checkSettlementStream() sends settlement event directly if payment already is settled"() {
+        setup:
+        def paymentFlow = Mock(PaymentFlow)
+        when:
+        SseEmitter emitter = controller.checkSettlementStream(request, response)
+        then:
+        1 * controller.paymentFlowManager.getPaymentFlowFromToken(!null, ExpectedTokenType.INVOICE_TOKEN) >> paymentFlow
+        _ * paymentFlow.getPreImageHash() >> "abc".bytes
+        3 * paymentFlow.isSettled() >> true
+        1 * paymentFlow.getSettlement() >> new SettlementResult(genSettlement(), "SomeToken")
+        sentData(emitter).startsWith("event:settlement\n")
+        emitter.complete
+        cleanup:
+        controller.sseHeartbeatScheduler.close()
+    }
+
+    def "Verify that checkSettlementStream() sends error event if settlement couldn't be fetched"() {
+        setup:
+        def paymentFlow = Mock(PaymentFlow)
+        controller.longPollSettledPaymentHandler = null
+        when:
+        SseEmitter emitter = controller.checkSettlementStream(request, response)
+        then:
+        1 * controller.paymentFlowManager.getPaymentFlowFromToken(!null, ExpectedTokenType.INVOICE_TOKEN) >> paymentFlow
+        2 * paymentFlow.isSettled() >> true
+        1 * paymentFlow.getSettlement() >> { throw new IOException("Some error") }
+        1 * controller.paywallExceptionHandler.handleException(RequestHelper.RequestType.JSON, _ as IOException) >> new ResponseEntity<Object>(new APIError(HttpStatus.INTERNAL_SERVER_ERROR, "Some error", ["Some error"]), HttpStatus.INTERNAL_SERVER_ERROR)
+        sentData(emitter).startsWith("event:error\ndata:{")
+        emitter.complete
+    }
+
+    def "Verify that parseWait parses seconds and milliseconds and throws IllegalArgumentException for invalid values"() {
+        expect:
+        controller.parseWait("30s") == 30000
+        controller.parseWait("30") == 30000
+        controller.parseWait("500ms") == 500
+        controller.parseWait(" 2S ") == 2000
+        when:
+        controller.parseWait("abc")
+        then:
+        def e = thrown IllegalArgumentException
+        e.message == "Invalid parameter wait value: abc, should be a number of seconds, for example '30s' or milliseconds, for example '500ms'."
+    }
+
     def "Verify that handleException calls underlying paywallExceptionHandler bean."() {
         setup:
         Exception e = new IOException("asdf")
@@ -90,4 +238,12 @@ class CheckSettlementControllerSpec extends Specification {
         then:
         1 * controller.paywallExceptionHandler.handleException(request, response, e)
     }
+
+    private static Settlement genSettlement(){
+        return new Settlement("abc".getBytes(), null, Instant.ofEpochMilli(10000), null, true)
+    }
+
+    private static String sentData(SseEmitter emitter){
+        return emitter.earlySendAttempts.collect{ it.data }.join("")
+    }
 }
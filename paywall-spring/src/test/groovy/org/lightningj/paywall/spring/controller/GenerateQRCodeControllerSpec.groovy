@@ -15,8 +15,10 @@
 package org.lightningj.paywall.spring.controller
 
 import org.lightningj.paywall.InternalErrorException
+import org.lightningj.paywall.qrcode.QRCodeGenerator
 import org.lightningj.paywall.spring.PaywallProperties
 import org.springframework.mock.web.MockHttpServletRequest
+import org.springframework.mock.web.MockHttpServletResponse
 import spock.lang.Specification
 
 import java.util.logging.Logger
@@ -27,7 +29,7 @@ import static GenerateQRCodeController.*
 /**
  * Unit test for GenerateQRCodeController.
  * <p>
- *     This unit tests only tests help methods, see integration test for main controller.
+ *     This unit tests mainly tests help methods, see integration test for main controller.
  * </p>
  *
  * Created by Philip Vendil on 2019-04-16.
@@ -97,4 +99,85 @@ class GenerateQRCodeControllerSpec extends Specification {
         e.message == "Internal error in server when generating QR code."
         1 * controller.log.severe("Internal error in paywall configuration, setting 'paywall.qrcode.width.default' must be an integer not nonint.")
     }
+
+    def "Verify that generateQRCode sets ETag and immutable cache headers and returns 304 without generating image if ETag matches"(){
+        setup:
+        controller.paywallProperties = paywallProperties
+        controller.qrCodeGenerator = Mock(QRCodeGenerator)
+        MockHttpServletRequest request = new MockHttpServletRequest("GET","/test")
+        request.addParameter(PARAMETER_DATA,"lnbc30u1")
+        MockHttpServletResponse response = new MockHttpServletResponse()
+        when:
+        controller.generateQRCode(request, response)
+        then:
+        1 * controller.qrCodeGenerator.generatePNG("lnbc30u1", 300, 300) >> "png".bytes
+        response.status == 200
+        response.contentType == PNG_CONTENT_TYPE
+        response.contentAsByteArray == "png".bytes
+        response.getHeader(HEADER_ETAG) == controller.genETag(FORMAT_PNG, "lnbc30u1", 300, 300)
+        response.getHeader(HEADER_CACHE_CONTROL) == "public, max-age=31536000, immutable"
+        when:
+        request.addHeader(HEADER_IF_NONE_MATCH, response.getHeader(HEADER_ETAG))
+        response = new MockHttpServletResponse()
+        controller.generateQRCode(request, response)
+        then:
+        0 * controller.qrCodeGenerator.generatePNG(_, _, _)
+        response.status == 304
+        response.contentAsByteArray.length == 0
+    }
+
+    def "Verify that generateQRCode returns SVG and raw matrix if requested with format parameter"(){
+        setup:
+        controller.paywallProperties = paywallProperties
+        controller.qrCodeGenerator = Mock(QRCodeGenerator)
+        MockHttpServletRequest request = new MockHttpServletRequest("GET","/test")
+        request.addParameter(PARAMETER_DATA,"lnbc30u1")
+        request.addParameter(PARAMETER_FORMAT,"svg")
+        MockHttpServletResponse response = new MockHttpServletResponse()
+        when:
+        controller.generateQRCode(request, response)
+        then:
+        1 * controller.qrCodeGenerator.generateSVG("lnbc30u1", 300, 300) >> "<svg/>"
+        0 * controller.qrCodeGenerator.generatePNG(_, _, _)
+        response.contentType == SVG_CONTENT_TYPE
+        response.contentAsString == "<svg/>"
+        response.getHeader(HEADER_ETAG) == controller.genETag(FORMAT_SVG, "lnbc30u1", 300, 300)
+        when:
+        request = new MockHttpServletRequest("GET","/test")
+        request.addParameter(PARAMETER_DATA,"lnbc30u1")
+        request.addParameter(PARAMETER_FORMAT,"matrix")
+        response = new MockHttpServletResponse()
+        controller.generateQRCode(request, response)
+        then:
+        1 * controller.qrCodeGenerator.generateMatrix("lnbc30u1") >> ([0, 1, 0x80] as byte[])
+        response.contentType == MATRIX_CONTENT_TYPE
+        response.contentAsByteArray == ([0, 1, 0x80] as byte[])
+    }
+
+    def "Verify that getFormat defaults to png and throws IllegalArgumentException for unsupported format"(){
+        setup:
+        MockHttpServletRequest request = new MockHttpServletRequest("GET","/test")
+        expect:
+        controller.getFormat(request) == FORMAT_PNG
+        when:
+        request.addParameter(PARAMETER_FORMAT,"SVG")
+        then:
+        controller.getFormat(request) == FORMAT_SVG
+        when:
+        request = new MockHttpServletRequest("GET","/test")
+        request.addParameter(PARAMETER_FORMAT,"gif")
+        controller.getFormat(request)
+        then:
+        def e = thrown IllegalArgumentException
+        e.message == "Invalid parameter 'f', should be one of 'png', 'svg' or 'matrix', not gif"
+    }
+
+    def "Verify that genETag generates different quoted ETags for different formats, data and dimensions"(){
+        expect:
+        controller.genETag(FORMAT_PNG, "abc", 100, 100) ==~ /^"[1-9A-HJ-NP-Za-km-z]+"$/
+        controller.genETag(FORMAT_PNG, "abc", 100, 100) == controller.genETag(FORMAT_PNG, "abc", 100, 100)
+        controller.genETag(FORMAT_PNG, "abc", 100, 100) != controller.genETag(FORMAT_PNG, "abd", 100, 100)
+        controller.genETag(FORMAT_PNG, "abc", 100, 100) != controller.genETag(FORMAT_PNG, "abc", 100, 101)
+        controller.genETag(FORMAT_PNG, "abc", 100, 100) != controller.genETag(FORMAT_SVG, "abc", 100, 100)
+    }
 }
@@ -0,0 +1,119 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring.local
+
+import org.lightningj.paywall.paymenthandler.PaymentEvent
+import org.lightningj.paywall.paymenthandler.PaymentEventType
+import org.lightningj.paywall.paymenthandler.PaymentHandler
+import org.lightningj.paywall.vo.Settlement
+import spock.lang.Specification
+
+import java.time.Instant
+import java.util.logging.Logger
+
+/**
+ * Unit tests for LongPollSettledPaymentHandler
+ */
+class LongPollSettledPaymentHandlerSpec extends Specification {
+
+    LongPollSettledPaymentHandler handler = new LongPollSettledPaymentHandler()
+
+    def setup(){
+        handler.paymentHandler = Mock(PaymentHandler)
+        LongPollSettledPaymentHandler.log = Mock(Logger)
+    }
+
+    def "Verify that handler registers once in payment handler and notifies all waiters of settled payment only"(){
+        setup:
+        int waiter1Calls = 0
+        int waiter2Calls = 0
+        int waiter3Calls = 0
+        when:
+        handler.addWaiter("abc".bytes, { waiter1Calls++ } as Runnable)
+        handler.addWaiter("abc".bytes, { waiter2Calls++ } as Runnable)
+        handler.addWaiter("def".bytes, { waiter3Calls++ } as Runnable)
+        then:
+        1 * handler.paymentHandler.registerListener(handler)
+        handler.getWaiterCount() == 3
+        handler.getPreImageHash() == null
+        handler.getType() == PaymentEventType.INVOICE_SETTLED
+        !handler.unregisterAfterEvent()
+        when:
+        handler.onPaymentEvent(new PaymentEvent(PaymentEventType.INVOICE_SETTLED, genSettlement("abc")))
+        handler.onPaymentEvent(new PaymentEvent(PaymentEventType.INVOICE_SETTLED, genSettlement("abc")))
+        then:
+        waiter1Calls == 1
+        waiter2Calls == 1
+        waiter3Calls == 0
+        handler.getWaiterCount() == 1
+    }
+
+    def "Verify that removeWaiter removes waiter and releases empty entries"(){
+        setup:
+        Runnable waiter1 = {} as Runnable
+        Runnable waiter2 = {} as Runnable
+        handler.addWaiter("abc".bytes, waiter1)
+        handler.addWaiter("abc".bytes, waiter2)
+        when:
+        handler.removeWaiter("abc".bytes, waiter1)
+        then:
+        handler.getWaiterCount() == 1
+        when:
+        handler.removeWaiter("abc".bytes, waiter2)
+        handler.removeWaiter("def".bytes, waiter2)
+        then:
+        handler.getWaiterCount() == 0
+        handler.waiters.isEmpty()
+    }
+
+    def "Verify that waiters added concurrently with removal of other waiters are not lost"(){
+        setup:
+        Runnable remaining = {} as Runnable
+        def threads = (1..4).collect { t ->
+            Thread.start {
+                1000.times {
+                    Runnable waiter = {} as Runnable
+                    handler.addWaiter("abc".bytes, waiter)
+                    handler.removeWaiter("abc".bytes, waiter)
+                }
+            }
+        }
+        when:
+        500.times {
+            handler.addWaiter("abc".bytes, remaining)
+            handler.removeWaiter("abc".bytes, remaining)
+        }
+        handler.addWaiter("abc".bytes, remaining)
+        threads*.join(10000)
+        then:
+        handler.getWaiterCount() == 1
+        handler.waiters.values().first().contains(remaining)
+    }
+
+    def "Verify that failing waiter doesn't stop other waiters from being notified"(){
+        setup:
+        boolean notified = false
+        handler.addWaiter("abc".bytes, { throw new IOException("Failed") } as Runnable)
+        handler.addWaiter("abc".bytes, { notified = true } as Runnable)
+        when:
+        handler.onPaymentEvent(new PaymentEvent(PaymentEventType.INVOICE_SETTLED, genSettlement("abc")))
+        then:
+        notified
+    }
+
+    private static Settlement genSettlement(String preImageHash){
+        return new Settlement(preImageHash.bytes, null, Instant.ofEpochMilli(10000), null, true)
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring.local
+
+import org.lightningj.paywall.spring.PaywallProperties
+import org.lightningj.paywall.spring.TestPaymentHandler
+import org.lightningj.paywall.vo.OrderRequest
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.test.context.ContextConfiguration
+import org.springframework.test.context.TestPropertySource
+import spock.lang.Specification
+
+import java.util.logging.Logger
+
+/**
+ * Unit tests for SpringInvoicePool
+ */
+@ContextConfiguration(classes=[TestPaymentHandler, PaywallProperties,LocalProfileBeanConfiguration])
+@TestPropertySource("/test_application.properties")
+class SpringInvoicePoolSpec extends Specification {
+
+    @Autowired
+    SpringInvoicePool invoicePool
+
+    def setup(){
+        SpringInvoicePool.log = Mock(Logger)
+    }
+
+    def "Verify that dependencies are auto injected properly and pool is disabled by default"(){
+        expect:
+        invoicePool.getPaymentHandler() != null
+        invoicePool.getLightningHandler() != null
+        invoicePool.getTokenGenerator() != null
+        invoicePool.getCurrencyConverter() != null
+        !invoicePool.isEnabled()
+        invoicePool.poll(new OrderRequest("abc", 1, [], false)) == null
+    }
+
+    def "Verify that default settings are returned if settings are not set"(){
+        setup:
+        invoicePool.paywallProperties = new PaywallProperties()
+        invoicePool.pooledArticleIds = null
+        expect:
+        !invoicePool.isEnabled()
+        invoicePool.getPoolSize() == 10
+        invoicePool.getMinRemainingValidity().toMinutes() == 10
+        invoicePool.getMaintenanceInterval().seconds == 30
+        invoicePool.isPooled(new OrderRequest("any", 1, [], false))
+    }
+
+    def "Verify that settings are parsed from properties"(){
+        setup:
+        PaywallProperties p = new PaywallProperties()
+        p.invoicePoolEnable = "true"
+        p.invoicePoolSize = "5"
+        p.invoicePoolArticles = "abc, def"
+        p.invoicePoolMinValidity = "60"
+        p.invoicePoolInterval = "10"
+        invoicePool.paywallProperties = p
+        invoicePool.pooledArticleIds = null
+        expect:
+        invoicePool.isEnabled()
+        invoicePool.getPoolSize() == 5
+        invoicePool.getMinRemainingValidity().seconds == 60
+        invoicePool.getMaintenanceInterval().seconds == 10
+        invoicePool.isPooled(new OrderRequest("abc", 1, [], false))
+        invoicePool.isPooled(new OrderRequest("def", 1, [], false))
+        !invoicePool.isPooled(new OrderRequest("ghi", 1, [], false))
+    }
+
+    def "Verify that error log is done for invalid setting of invoice pool size"(){
+        setup:
+        PaywallProperties p = new PaywallProperties()
+        p.invoicePoolSize = "abc"
+        invoicePool.paywallProperties = p
+        when:
+        int size = invoicePool.getPoolSize()
+        then:
+        size == 10
+        1 * SpringInvoicePool.log.severe("Error parsing application properties, setting paywall.invoicepool.size should be an integer, not abc, using default value: 10")
+    }
+}
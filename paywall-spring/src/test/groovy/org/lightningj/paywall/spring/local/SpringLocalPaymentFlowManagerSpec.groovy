@@ -52,6 +52,7 @@ class SpringLocalPaymentFlowManagerSpec extends Specification {
         paymentFlowManager.getOrderRequestGeneratorFactory() != null
         paymentFlowManager.getRequestPolicyFactory() != null
         paymentFlowManager.getPaymentHandler() != null
+        paymentFlowManager.getInvoicePool() instanceof SpringInvoicePool
         paymentFlowManager.paywallProperties != null
     }
 
@@ -0,0 +1,95 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring.local
+
+import org.lightningj.paywall.spring.PaywallProperties
+import org.lightningj.paywall.spring.TestPaymentHandler
+import org.lightningj.paywall.web.CachableHttpServletRequest
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.test.context.ContextConfiguration
+import org.springframework.test.context.TestPropertySource
+import spock.lang.Specification
+
+import java.util.logging.Logger
+
+/**
+ * Unit tests for SpringOutstandingInvoiceIndex
+ */
+@ContextConfiguration(classes=[TestPaymentHandler, PaywallProperties,LocalProfileBeanConfiguration])
+@TestPropertySource("/test_application.properties")
+class SpringOutstandingInvoiceIndexSpec extends Specification {
+
+    @Autowired
+    SpringOutstandingInvoiceIndex outstandingInvoiceIndex
+
+    def setup(){
+        SpringOutstandingInvoiceIndex.log = Mock(Logger)
+    }
+
+    def "Verify that dependencies are auto injected properly and index is disabled by default"(){
+        expect:
+        outstandingInvoiceIndex.getPaymentHandler() != null
+        !outstandingInvoiceIndex.isEnabled()
+    }
+
+    def "Verify that default settings are returned if settings are not set"(){
+        setup:
+        outstandingInvoiceIndex.paywallProperties = new PaywallProperties()
+        expect:
+        !outstandingInvoiceIndex.isEnabled()
+        outstandingInvoiceIndex.getMinRemainingValidity().seconds == 60
+        outstandingInvoiceIndex.getMaxEntries() == 10000
+    }
+
+    def "Verify that settings are parsed from properties"(){
+        setup:
+        PaywallProperties p = new PaywallProperties()
+        p.invoiceReuseEnable = "true"
+        p.invoiceReuseMinValidity = "120"
+        p.invoiceReuseMaxEntries = "500"
+        outstandingInvoiceIndex.paywallProperties = p
+        expect:
+        outstandingInvoiceIndex.isEnabled()
+        outstandingInvoiceIndex.getMinRemainingValidity().seconds == 120
+        outstandingInvoiceIndex.getMaxEntries() == 500
+    }
+
+    def "Verify that client key is taken from rate limit client header if configured, otherwise remote address"(){
+        setup:
+        PaywallProperties p = new PaywallProperties()
+        outstandingInvoiceIndex.paywallProperties = p
+        CachableHttpServletRequest request = Mock(CachableHttpServletRequest)
+        request.getRemoteAddr() >> "10.0.0.1"
+        request.getHeader("X-Forwarded-For") >> " 1.2.3.4, 192.168.0.1"
+        expect:
+        outstandingInvoiceIndex.getClientKey(request) == "10.0.0.1"
+        when:
+        p.rateLimitClientKeyHeader = "X-Forwarded-For"
+        then:
+        outstandingInvoiceIndex.getClientKey(request) == "192.168.0.1"
+    }
+
+    def "Verify that error log is done for invalid setting of max entries"(){
+        setup:
+        PaywallProperties p = new PaywallProperties()
+        p.invoiceReuseMaxEntries = "abc"
+        outstandingInvoiceIndex.paywallProperties = p
+        when:
+        int maxEntries = outstandingInvoiceIndex.getMaxEntries()
+        then:
+        maxEntries == 10000
+        1 * SpringOutstandingInvoiceIndex.log.severe("Error parsing application properties, setting paywall.invoicereuse.maxentries should be an integer, not abc, using default value: 10000")
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring.local
+
+import org.lightningj.paywall.spring.PaywallProperties
+import org.lightningj.paywall.spring.TestPaymentHandler
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.test.context.ContextConfiguration
+import org.springframework.test.context.TestPropertySource
+import spock.lang.Specification
+
+import java.util.logging.Logger
+
+/**
+ * Unit tests for SpringSettlementResultCache
+ */
+@ContextConfiguration(classes=[TestPaymentHandler, PaywallProperties,LocalProfileBeanConfiguration])
+@TestPropertySource("/test_application.properties")
+class SpringSettlementResultCacheSpec extends Specification {
+
+    @Autowired
+    SpringSettlementResultCache settlementResultCache
+
+    def setup(){
+        SpringSettlementResultCache.log = Mock(Logger)
+    }
+
+    def "Verify that dependencies are auto injected properly and cache is disabled by default"(){
+        expect:
+        settlementResultCache.getPaymentHandler() != null
+        settlementResultCache.getTokenGenerator() != null
+        !settlementResultCache.isEnabled()
+    }
+
+    def "Verify that default settings are returned if settings are not set"(){
+        setup:
+        settlementResultCache.paywallProperties = new PaywallProperties()
+        expect:
+        !settlementResultCache.isEnabled()
+        settlementResultCache.getTimeToLive().seconds == 30
+        settlementResultCache.getMinRemainingValidity().seconds == 10
+        settlementResultCache.getMaxEntries() == 10000
+    }
+
+    def "Verify that settings are parsed from properties"(){
+        setup:
+        PaywallProperties p = new PaywallProperties()
+        p.settlementCacheEnable = "true"
+        p.settlementCacheTTL = "5"
+        p.settlementCacheMinValidity = "60"
+        p.settlementCacheMaxEntries = "100"
+        settlementResultCache.paywallProperties = p
+        expect:
+        settlementResultCache.isEnabled()
+        settlementResultCache.getTimeToLive().seconds == 5
+        settlementResultCache.getMinRemainingValidity().seconds == 60
+        settlementResultCache.getMaxEntries() == 100
+    }
+
+    def "Verify that error log is done for invalid setting of time to live"(){
+        setup:
+        PaywallProperties p = new PaywallProperties()
+        p.settlementCacheTTL = "abc"
+        settlementResultCache.paywallProperties = p
+        when:
+        long ttl = settlementResultCache.getTimeToLive().seconds
+        then:
+        ttl == 30
+        1 * SpringSettlementResultCache.log.severe("Error parsing application properties, setting paywall.settlementcache.ttl should be an integer, not abc, using default value: 30")
+    }
+}
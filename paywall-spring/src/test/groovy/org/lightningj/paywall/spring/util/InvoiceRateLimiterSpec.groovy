@@ -0,0 +1,159 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring.util
+
+import org.lightningj.paywall.InternalErrorException
+import org.lightningj.paywall.RateLimitExceededException
+import org.lightningj.paywall.spring.PaywallProperties
+import org.springframework.mock.web.MockHttpServletRequest
+import spock.lang.Specification
+
+import java.time.Clock
+import java.util.logging.Logger
+
+/**
+ * Unit tests for InvoiceRateLimiter.
+ */
+class InvoiceRateLimiterSpec extends Specification {
+
+    InvoiceRateLimiter limiter = new InvoiceRateLimiter()
+
+    long currentTime = 1000000L
+
+    def setup(){
+        limiter.paywallProperties = new PaywallProperties()
+        limiter.paywallProperties.rateLimitEnable = "true"
+        limiter.paywallProperties.rateLimitClientRate = "60"
+        limiter.paywallProperties.rateLimitClientBurst = "2"
+        limiter.paywallProperties.rateLimitMaxClients = "100"
+        limiter.paywallProperties.rateLimitGlobalRate = "60"
+        limiter.paywallProperties.rateLimitGlobalBurst = "3"
+        Clock clock = Mock(Clock)
+        clock.millis() >> { currentTime }
+        limiter.clock = clock
+    }
+
+    def "Verify that checkAdmission does nothing if rate limit isn't enabled"(){
+        setup:
+        limiter.paywallProperties.rateLimitEnable = "false"
+        when:
+        10.times { limiter.checkAdmission(request("10.0.0.1")) }
+        then:
+        limiter.clientCount == 0
+    }
+
+    def "Verify that checkAdmission throws RateLimitExceededException when client rate is exceeded"(){
+        when:
+        limiter.checkAdmission(request("10.0.0.1"))
+        limiter.checkAdmission(request("10.0.0.1"))
+        then:
+        limiter.clientCount == 1
+        when:
+        limiter.checkAdmission(request("10.0.0.1"))
+        then:
+        def e = thrown RateLimitExceededException
+        e.message == "Invoice rate limit exceeded for client, retry after 1000 ms."
+        e.retryAfter == 1000
+        when: "Other clients are still admitted"
+        limiter.checkAdmission(request("10.0.0.2"))
+        then:
+        notThrown RateLimitExceededException
+    }
+
+    def "Verify that checkAdmission throws RateLimitExceededException when global rate is exceeded"(){
+        when:
+        limiter.checkAdmission(request("10.0.0.1"))
+        limiter.checkAdmission(request("10.0.0.2"))
+        limiter.checkAdmission(request("10.0.0.3"))
+        limiter.checkAdmission(request("10.0.0.4"))
+        then:
+        def e = thrown RateLimitExceededException
+        e.message == "Invoice rate limit exceeded for paywall, retry after 1000 ms."
+        when:
+        currentTime += 1000
+        limiter.checkAdmission(request("10.0.0.5"))
+        then:
+        notThrown RateLimitExceededException
+    }
+
+    def "Verify that a request rejected by global rate limit doesn't consume client token"(){
+        setup:
+        limiter.paywallProperties.rateLimitClientBurst = "1"
+        limiter.paywallProperties.rateLimitGlobalRate = "120"
+        limiter.paywallProperties.rateLimitGlobalBurst = "1"
+        limiter.checkAdmission(request("10.0.0.2"))
+        when:
+        limiter.checkAdmission(request("10.0.0.1"))
+        then:
+        def e = thrown RateLimitExceededException
+        e.message == "Invoice rate limit exceeded for paywall, retry after 500 ms."
+        when:
+        currentTime += 500
+        limiter.checkAdmission(request("10.0.0.1"))
+        then:
+        notThrown RateLimitExceededException
+        when:
+        limiter.checkAdmission(request("10.0.0.1"))
+        then:
+        e = thrown RateLimitExceededException
+        e.message == "Invoice rate limit exceeded for client, retry after 1000 ms."
+    }
+
+    def "Verify that client key is taken from last value of configured header with fallback to remote address"(){
+        setup:
+        limiter.paywallProperties.rateLimitClientKeyHeader = "X-Forwarded-For"
+        limiter.checkAdmission(request("10.0.0.1"))
+        MockHttpServletRequest forwardedRequest = request("10.0.0.1")
+        forwardedRequest.addHeader("X-Forwarded-For", " 1.2.3.4, 192.168.0.1 ")
+        MockHttpServletRequest trailingCommaRequest = request("10.0.0.2")
+        trailingCommaRequest.addHeader("X-Forwarded-For", "192.168.0.1,")
+        expect:
+        limiter.getClientKey(forwardedRequest) == "192.168.0.1"
+        limiter.getClientKey(request("10.0.0.1")) == "10.0.0.1"
+        limiter.getClientKey(trailingCommaRequest) == "10.0.0.2"
+    }
+
+    def "Verify that a client can't avoid its rate limit by sending spoofed X-Forwarded-For values"(){
+        setup:
+        limiter.paywallProperties.rateLimitClientKeyHeader = "X-Forwarded-For"
+        limiter.paywallProperties.rateLimitClientBurst = "1"
+        when:
+        (1..2).each {
+            MockHttpServletRequest forwardedRequest = request("10.0.0.1")
+            forwardedRequest.addHeader("X-Forwarded-For", "1.1.1." + it + ", 192.168.0.1")
+            limiter.checkAdmission(forwardedRequest)
+        }
+        then:
+        thrown RateLimitExceededException
+    }
+
+    def "Verify that invalid rate limit settings throws InternalErrorException"(){
+        setup:
+        InvoiceRateLimiter.log = Mock(Logger)
+        limiter.paywallProperties.rateLimitClientBurst = "0"
+        when:
+        limiter.checkAdmission(request("10.0.0.1"))
+        then:
+        def e = thrown InternalErrorException
+        e.message == "Invalid paywall rate limit settings: Invalid token bucket burst size 0, must be at least 1."
+        1 * InvoiceRateLimiter.log.severe("Error in paywall rate limit settings: Invalid token bucket burst size 0, must be at least 1.")
+    }
+
+    private MockHttpServletRequest request(String remoteAddress){
+        MockHttpServletRequest request = new MockHttpServletRequest("GET","/test")
+        request.remoteAddr = remoteAddress
+        return request
+    }
+}
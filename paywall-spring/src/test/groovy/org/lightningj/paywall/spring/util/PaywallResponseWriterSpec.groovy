@@ -0,0 +1,211 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring.util
+
+import org.lightningj.paywall.InternalErrorException
+import org.lightningj.paywall.paymentflow.InvoiceResult
+import org.lightningj.paywall.paymentflow.SettlementResult
+import org.lightningj.paywall.requestpolicy.RequestPolicyType
+import org.lightningj.paywall.spring.APIError
+import org.lightningj.paywall.spring.response.InvoiceResponse
+import org.lightningj.paywall.spring.response.Magnetude
+import org.lightningj.paywall.spring.response.NodeNetwork
+import org.lightningj.paywall.spring.response.SettlementResponse
+import org.lightningj.paywall.tokengenerator.TokenException
+import org.lightningj.paywall.vo.Invoice
+import org.lightningj.paywall.vo.NodeInfo
+import org.lightningj.paywall.vo.Settlement
+import org.lightningj.paywall.vo.amount.BTC
+import org.springframework.http.HttpStatus
+import spock.lang.Specification
+
+import javax.json.Json
+import javax.json.JsonObject
+import javax.xml.bind.JAXBContext
+import java.time.Instant
+
+import static org.lightningj.paywall.spring.util.RequestHelper.RequestType.JSON
+import static org.lightningj.paywall.spring.util.RequestHelper.RequestType.XML
+
+/**
+ * Unit tests for PaywallResponseWriter.
+ */
+class PaywallResponseWriterSpec extends Specification {
+
+    PaywallResponseWriter writer = new PaywallResponseWriter()
+
+    InvoiceResponse invoiceResponse
+    SettlementResponse settlementResponse
+
+    def setup(){
+        Invoice invoice = new Invoice("123".getBytes(), "fksjeoskajduakdfhaskdismensuduajseusdke+=", "test \"desc\" åäö", new BTC(123), new NodeInfo("12312312@10.10.01.1"), Instant.ofEpochMilli(12345L), Instant.ofEpochMilli(2345L))
+        invoiceResponse = new InvoiceResponse(new InvoiceResult(invoice, "SomeToken+="), true, RequestPolicyType.WITH_BODY, true, "settlementlink", "qrlink", "settlementlinkws", "settlementqueue")
+        Settlement settlement = new Settlement("abc".getBytes(), null, Instant.ofEpochMilli(10000), Instant.ofEpochMilli(5000), true)
+        settlementResponse = new SettlementResponse(new SettlementResult(settlement, "SomeToken"))
+    }
+
+    def "Verify that canWrite returns true only for InvoiceResponse, SettlementResponse and APIError"(){
+        expect:
+        writer.canWrite(invoiceResponse)
+        writer.canWrite(settlementResponse)
+        writer.canWrite(new APIError(HttpStatus.BAD_REQUEST, "Some message", "Some error"))
+        !writer.canWrite("Some string")
+        !writer.canWrite(null)
+    }
+
+    def "Verify that write throws InternalErrorException for unsupported response object"(){
+        when:
+        writer.write(JSON, "Some string", new ByteArrayOutputStream())
+        then:
+        def e = thrown InternalErrorException
+        e.message == "Paywall Internal error writing response, unsupported response type: String"
+    }
+
+    def "Verify that InvoiceResponse is written as JSON with Jackson compatible field names and dates"(){
+        when:
+        JsonObject json = writeJSON(invoiceResponse)
+        then:
+        json.getString("status") == "OK"
+        json.getString("type") == "invoice"
+        json.getString("preImageHash") == "HXRC"
+        json.getString("bolt11Invoice") == "fksjeoskajduakdfhaskdismensuduajseusdke+="
+        json.getString("description") == "test \"desc\" åäö"
+        json.getJsonObject("invoiceAmount").getJsonNumber("value").longValue() == 123
+        json.getJsonObject("invoiceAmount").getString("currencyCode") == "BTC"
+        json.getJsonObject("invoiceAmount").getString("magnetude") == "NONE"
+        json.getJsonObject("nodeInfo").getString("connectString") == "12312312@10.10.01.1"
+        json.getJsonObject("nodeInfo").getString("publicKeyInfo") == "12312312"
+        json.getJsonObject("nodeInfo").getString("nodeAddress") == "10.10.01.1"
+        json.getJsonObject("nodeInfo").getString("network") == "UNKNOWN"
+        json.getString("token") == "SomeToken+="
+        json.getString("invoiceDate") == "1970-01-01T00:00:02.345+0000"
+        json.getString("invoiceExpireDate") == "1970-01-01T00:00:12.345+0000"
+        json.getBoolean("payPerRequest")
+        json.getString("requestPolicyType") == "WITH_BODY"
+        json.getString("checkSettlementLink") == "settlementlink?pwir=SomeToken%2B%3D"
+        json.getString("qrLink") == "qrlink?d=fksjeoskajduakdfhaskdismensuduajseusdke%2B%3D"
+        json.getString("checkSettlementWebSocketEndpoint") == "settlementlinkws"
+        json.getString("checkSettlementWebSocketQueue") == "settlementqueue/HXRC"
+        when: "Write again to verify cached node info"
+        invoiceResponse.nodeInfo = null
+        invoiceResponse.checkSettlementWebSocketEndpoint = null
+        json = writeJSON(invoiceResponse)
+        then:
+        json.isNull("nodeInfo")
+        json.isNull("checkSettlementWebSocketEndpoint")
+    }
+
+    def "Verify that cached node info JSON is regenerated if node info changes"(){
+        when:
+        writeJSON(invoiceResponse)
+        invoiceResponse.nodeInfo.nodePort = 9735
+        invoiceResponse.nodeInfo.network = NodeNetwork.MAIN_NET
+        JsonObject json = writeJSON(invoiceResponse)
+        then:
+        json.getJsonObject("nodeInfo").getInt("nodePort") == 9735
+        json.getJsonObject("nodeInfo").getString("network") == "MAIN_NET"
+    }
+
+    def "Verify that SettlementResponse is written as JSON"(){
+        when:
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        writer.write(JSON, settlementResponse, out)
+        then:
+        new String(out.toByteArray(), "UTF-8") == '{"status":"OK","type":"settlement","preImageHash":"ZiCa","token":"SomeToken","settlementValidUntil":"1970-01-01T00:00:10.000+0000","settlementValidFrom":"1970-01-01T00:00:05.000+0000","payPerRequest":true,"settled":true}'
+        when:
+        out = new ByteArrayOutputStream()
+        writer.write(JSON, new SettlementResponse(), out)
+        then:
+        new String(out.toByteArray(), "UTF-8") == '{"status":"OK","type":"settlement","preImageHash":null,"token":null,"settlementValidUntil":null,"settlementValidFrom":null,"payPerRequest":null,"settled":false}'
+    }
+
+    def "Verify that APIError is written as JSON"(){
+        setup:
+        APIError apiError = new APIError(HttpStatus.UNAUTHORIZED, "Some \\ message\n", ["error1", "error2"])
+        apiError.reason = TokenException.Reason.EXPIRED
+        when:
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        writer.write(JSON, apiError, out)
+        then:
+        new String(out.toByteArray(), "UTF-8") == '{"status":"UNAUTHORIZED","message":"Some \\\\ message\\n","errors":["error1","error2"],"reason":"EXPIRED"}'
+        when:
+        out = new ByteArrayOutputStream()
+        writer.write(JSON, new APIError(HttpStatus.BAD_REQUEST, "Some message", (List<String>) null), out)
+        then:
+        new String(out.toByteArray(), "UTF-8") == '{"status":"BAD_REQUEST","message":"Some message","errors":null,"reason":null}'
+    }
+
+    def "Verify that InvoiceResponse is written as XML that can be parsed by JAXB"(){
+        when:
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        writer.write(XML, invoiceResponse, out)
+        InvoiceResponse r = (InvoiceResponse) JAXBContext.newInstance(InvoiceResponse.class).createUnmarshaller().unmarshal(new ByteArrayInputStream(out.toByteArray()))
+        then:
+        r.status == "OK"
+        r.preImageHash == "HXRC"
+        r.bolt11Invoice == "fksjeoskajduakdfhaskdismensuduajseusdke+="
+        r.description == "test \"desc\" åäö"
+        r.invoiceAmount.value == 123
+        r.invoiceAmount.currencyCode == "BTC"
+        r.invoiceAmount.magnetude == Magnetude.NONE
+        r.nodeInfo.connectString == "12312312@10.10.01.1"
+        r.nodeInfo.network == NodeNetwork.UNKNOWN
+        r.token == "SomeToken+="
+        r.invoiceDate.time == 2345L
+        r.invoiceExpireDate.time == 12345L
+        r.payPerRequest
+        r.requestPolicyType == "WITH_BODY"
+        r.checkSettlementLink == "settlementlink?pwir=SomeToken%2B%3D"
+        r.qrLink == "qrlink?d=fksjeoskajduakdfhaskdismensuduajseusdke%2B%3D"
+        r.checkSettlementWebSocketEndpoint == "settlementlinkws"
+        r.checkSettlementWebSocketQueue == "settlementqueue/HXRC"
+    }
+
+    def "Verify that SettlementResponse is written as XML that can be parsed by JAXB"(){
+        when:
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        writer.write(XML, settlementResponse, out)
+        SettlementResponse r = (SettlementResponse) JAXBContext.newInstance(SettlementResponse.class).createUnmarshaller().unmarshal(new ByteArrayInputStream(out.toByteArray()))
+        then:
+        r.status == "OK"
+        r.preImageHash == "ZiCa"
+        r.token == "SomeToken"
+        r.settlementValidUntil.time == 10000L
+        r.settlementValidFrom.time == 5000L
+        r.payPerRequest
+        r.settled
+    }
+
+    def "Verify that APIError is written as XML that can be parsed by JAXB"(){
+        setup:
+        APIError apiError = new APIError(HttpStatus.UNAUTHORIZED, "Some <message>", ["error1", "error2"])
+        apiError.reason = TokenException.Reason.EXPIRED
+        when:
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        writer.write(XML, apiError, out)
+        APIError r = (APIError) JAXBContext.newInstance(APIError.class).createUnmarshaller().unmarshal(new ByteArrayInputStream(out.toByteArray()))
+        then:
+        r.status == HttpStatus.UNAUTHORIZED
+        r.message == "Some <message>"
+        r.errors == ["error1", "error2"]
+        r.reason == TokenException.Reason.EXPIRED
+    }
+
+    private JsonObject writeJSON(Object response){
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        writer.write(JSON, response, out)
+        return Json.createReader(new InputStreamReader(new ByteArrayInputStream(out.toByteArray()), "UTF-8")).readObject()
+    }
+}
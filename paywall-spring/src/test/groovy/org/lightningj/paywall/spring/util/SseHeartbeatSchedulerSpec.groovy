@@ -0,0 +1,93 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.spring.util
+
+import org.lightningj.paywall.spring.PaywallProperties
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter
+import spock.lang.Specification
+
+import java.util.logging.Logger
+
+/**
+ * Unit tests for SseHeartbeatScheduler
+ */
+class SseHeartbeatSchedulerSpec extends Specification {
+
+    SseHeartbeatScheduler scheduler = new SseHeartbeatScheduler()
+
+    def setup(){
+        scheduler.paywallProperties = new PaywallProperties()
+        scheduler.paywallProperties.checkSettlementSseHeartbeat = "0"
+        SseHeartbeatScheduler.log = Mock(Logger)
+    }
+
+    def cleanup(){
+        scheduler.close()
+    }
+
+    def "Verify that registered emitters receives heartbeats until unregistered"(){
+        setup:
+        SseEmitter emitter1 = new SseEmitter()
+        SseEmitter emitter2 = new SseEmitter()
+        when:
+        scheduler.register(emitter1)
+        scheduler.register(emitter2)
+        scheduler.sendHeartbeats()
+        then:
+        scheduler.getEmitterCount() == 2
+        emitter1.earlySendAttempts.collect{ it.data }.join("") == ":heartbeat\n\n"
+        emitter2.earlySendAttempts.collect{ it.data }.join("") == ":heartbeat\n\n"
+        when:
+        scheduler.unregister(emitter2)
+        scheduler.sendHeartbeats()
+        then:
+        scheduler.getEmitterCount() == 1
+        emitter1.earlySendAttempts.size() == 2
+        emitter2.earlySendAttempts.size() == 1
+    }
+
+    def "Verify that emitters failing to receive heartbeat are removed"(){
+        setup:
+        SseEmitter emitter = new SseEmitter()
+        scheduler.register(emitter)
+        emitter.complete()
+        when:
+        scheduler.sendHeartbeats()
+        then:
+        scheduler.getEmitterCount() == 0
+    }
+
+    def "Verify that shared scheduler sends heartbeats periodically"(){
+        setup:
+        scheduler.paywallProperties.checkSettlementSseHeartbeat = "10"
+        SseEmitter emitter = new SseEmitter()
+        when:
+        scheduler.register(emitter)
+        long deadline = System.currentTimeMillis() + 5000
+        while(emitter.earlySendAttempts.isEmpty() && System.currentTimeMillis() < deadline){
+            Thread.sleep(10)
+        }
+        then:
+        !emitter.earlySendAttempts.isEmpty()
+    }
+
+    def "Verify that close clears all registered emitters"(){
+        when:
+        scheduler.register(new SseEmitter())
+        scheduler.close()
+        then:
+        scheduler.getEmitterCount() == 0
+    }
+}
@@ -37,6 +37,10 @@ class WebSocketSettledPaymentHandlerSpec extends Specification {
         handler.clock.millis() >> { currentTime }
     }
 
+    def cleanup(){
+        handler.close()
+    }
+
     def """Verify that registerPaymentListener registers in underlying PaymentHandler and is added to expire structure,
 then check hasPaymentListener returns valid value and unregisterPaymentListener unregisters properly and releases
 underlying resources"""(){
@@ -56,10 +60,7 @@ underlying resources"""(){
         handler.paymentListenerMap.get( "abc125") != null
         handler.paymentListenerMap.get( "abc126") != null
         handler.expiringListeners.size() == 4
-        handler.expiringListeners[0].preImageHash == "abc126"
-        handler.expiringListeners[1].preImageHash == "abc124"
-        handler.expiringListeners[2].preImageHash == "abc125" || handler.expiringListeners[2].preImageHash == "abc123"
-        handler.expiringListeners[3].preImageHash == "abc125" || handler.expiringListeners[3].preImageHash == "abc123"
+        handler.getListenerCount() == 4
 
         // Verify hasPaymentListener
         handler.hasPaymentListener("abc124")
@@ -76,42 +77,57 @@ underlying resources"""(){
         handler.paymentListenerMap.get( "abc124") == null
         handler.paymentListenerMap.get( "abc125") == null
         handler.paymentListenerMap.get( "abc126") != null
-        handler.expiringListeners.size() == 4 // Nothing have been removed from expiringListeners.
+        handler.expiringListeners.size() == 2 // Unregistered listeners are removed from expiringListeners.
     }
 
-    def "Verify that expiringListeners clean it self up every CLEANUP_SIZE addition to paymentListenerMap and runs in background thread"(){
-        when: // First build test structure of 99 listeners and verify that no cleanup have been done.
-        // First add 10 valid
+    def "Verify that expired listeners are unregistered by the timer wheel when their expire date have passed"(){
+        when:
         (1..10).each{
-            handler.registerPaymentListener("abc" + it, 15000 + it, Mock(PaymentListener))
-        }
-        // Add 80 expired
-        (11 .. 90).each{
-            handler.registerPaymentListener("abc" + it, 8000 + it, Mock(PaymentListener))
+            handler.registerPaymentListener("valid" + it, 15000 + it, Mock(PaymentListener))
         }
-        // Add 9 valid again
-        (91 .. 99).each{
-            handler.registerPaymentListener("abc" + it, 17000 + it, Mock(PaymentListener))
+        (1..80).each{
+            handler.registerPaymentListener("expiring" + it, 10500 + it, Mock(PaymentListener))
         }
+        // Unregister one listener to verify that it is not unregistered again at expiry.
+        handler.unregisterPaymentListener("expiring80")
         then:
-        handler.paymentListenerMap.size() == 99
-        handler.expiringListeners.size() == 99
-        0 * handler.paymentHandler.unregisterListener(_ as PaymentListener)
-        when: // Then add one more and verify that all expired have been cleaned up asyncronically after some time.
-        // Unregister one handler to verify that it is not unregisterd again in cleanup.
-        handler.unregisterPaymentListener("abc90")
+        1 * handler.paymentHandler.unregisterListener(_ as PaymentListener)
+        handler.getListenerCount() == 89
+        handler.expiringListeners.size() == 89
+        when: "Expiry before expire date doesn't unregister anything"
+        handler.expireListeners()
         then:
-        handler.paymentListenerMap.size() == 98
-        handler.expiringListeners.size() == 99
-        when:
-        handler.registerPaymentListener("abc100", 16000, Mock(PaymentListener))
-        handler.registerPaymentListener("abc101", 18000, Mock(PaymentListener))
-        Thread.sleep(500)
+        0 * handler.paymentHandler.unregisterListener(_ as PaymentListener)
+        handler.getListenerCount() == 89
+        when: "Expiry after expire date unregisters expired listeners"
+        currentTime = 12000
+        handler.expireListeners()
         then:
         79 * handler.paymentHandler.unregisterListener(_ as PaymentListener)
-        handler.paymentListenerMap.size() == 21
-        handler.expiringListeners.size() == 21
+        handler.getListenerCount() == 10
+        handler.expiringListeners.size() == 10
+        !handler.hasPaymentListener("expiring1")
+        handler.hasPaymentListener("valid1")
     }
 
+    def "Verify that expiry is performed by the background scheduler without any new registrations"(){
+        setup:
+        handler = new WebSocketSettledPaymentHandler(){
+            @Override
+            protected long getExpiryTickDuration() {
+                return 10
+            }
+        }
+        handler.paymentHandler = Mock(PaymentHandler)
+        when:
+        handler.registerPaymentListener("abc123", System.currentTimeMillis() + 20, Mock(PaymentListener))
+        long deadline = System.currentTimeMillis() + 5000
+        while(handler.getListenerCount() > 0 && System.currentTimeMillis() < deadline){
+            Thread.sleep(10)
+        }
+        then:
+        handler.getListenerCount() == 0
+        handler.expiringListeners.size() == 0
+    }
 
 }
@@ -1,9 +1,18 @@
 package org.lightningj.paywall.springboot2;
 
+import org.lightningj.paywall.articlecatalog.InMemoryArticleCatalog;
+import org.lightningj.paywall.springboot2.paymenthandler.ArticleData;
+import org.lightningj.paywall.springboot2.paymenthandler.ArticleDataRepository;
+import org.lightningj.paywall.vo.amount.Amount;
+import org.lightningj.paywall.vo.amount.BTC;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
 // Here all bean definitions
 
 // TODO create Implementation of everything for local
@@ -17,5 +26,20 @@ public class AppConfig {
         return new PocResult(1,"asdf");
     }
 
+    /**
+     * Article catalog keeping the prices of the ArticleData table in memory, so orders
+     * are priced without a database lookup.
+     */
+    @Bean("articleCatalog")
+    public InMemoryArticleCatalog getArticleCatalog(ArticleDataRepository articleDataRepository){
+        return new InMemoryArticleCatalog(() -> {
+            Map<String, Amount> prices = new HashMap<>();
+            for(ArticleData articleData : articleDataRepository.findAll()){
+                prices.put(articleData.getArticleId(), new BTC(articleData.getPrice())); // Price in satoshis.
+            }
+            return prices;
+        }, Duration.ofMinutes(1));
+    }
+
 
 }
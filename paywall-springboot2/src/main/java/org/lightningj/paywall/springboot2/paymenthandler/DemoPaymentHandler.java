@@ -21,7 +21,7 @@ import org.lightningj.paywall.paymenthandler.data.PaymentData;
 import org.lightningj.paywall.spring.SpringPaymentHandler;
 import org.lightningj.paywall.util.Base58;
 import org.lightningj.paywall.vo.OrderRequest;
-import org.lightningj.paywall.vo.amount.BTC;
+import org.lightningj.paywall.vo.amount.Amount;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -34,8 +34,8 @@ import java.time.Duration;
  *
  * It creates DemoPaymentData that implements the PerRequestPaymentData interface. (In order to demonstrate
  * support for both request that's valid for a period of time and for a specific request.)
- * by first looking up the article id order (generated by the @PaymentRequired annotation).
- * Then checks the price of the article in ArticleData table to calculate the ordered amount.
+ * The ordered amount is calculated from the price of the article id (generated by the @PaymentRequired
+ * annotation) in the InMemoryArticleCatalog bean, loaded from the ArticleData table.
  *
  * It also implements the lookup by preImageHash method and update payment data methods by calling
  * related methods in the DemoPaymentDataRepository.
@@ -48,9 +48,6 @@ public class DemoPaymentHandler extends SpringPaymentHandler {
     @Autowired
     DemoFullPaymentDataRepository demoPaymentDataRepository;
 
-    @Autowired
-    ArticleDataRepository articleDataRepository;
-
     private Clock clock = Clock.systemDefaultZone();
 
     /**
@@ -59,11 +56,8 @@ public class DemoPaymentHandler extends SpringPaymentHandler {
      * look up the order amount from the article id, units and other options in
      * the order request.
      * <p>
-     * The generated PaymentData should be at least MinimalPaymentData with preImageHash
-     * and orderedAmount set.
-     * <p>
-     * It is recommended that the PaymentData is persisted in this call but could
-     * be skipped for performance in certain payment flows.
+     * The order amount is calculated from the article catalog, see
+     * newPaymentData(byte[], OrderRequest, Amount).
      *
      * @param preImageHash the unique preImageHash used to identify a payment flow
      *                     withing a lightning payment.
@@ -76,6 +70,25 @@ public class DemoPaymentHandler extends SpringPaymentHandler {
      */
     @Override
     protected PaymentData newPaymentData(byte[] preImageHash, OrderRequest orderRequest) throws IOException, InternalErrorException {
+        return newPaymentData(preImageHash, orderRequest, calculateOrderAmount(orderRequest));
+    }
+
+    /**
+     * Method that generates and saves a new PaymentData for a given order request
+     * priced by the article catalog.
+     *
+     * @param preImageHash the unique preImageHash used to identify a payment flow
+     *                     withing a lightning payment.
+     * @param orderRequest the specification of the payment data that should be created calculated
+     *                     from data in the PaymentRequired annotation.
+     * @param orderAmount  the order amount calculated from the article catalog.
+     * @return a newly generated PaymentData signaling a new payment flow used to
+     * create an Order value object.
+     * @throws IOException            if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred generating new payment data.
+     */
+    @Override
+    protected PaymentData newPaymentData(byte[] preImageHash, OrderRequest orderRequest, Amount orderAmount) throws IOException, InternalErrorException {
         try{
             DemoFullPaymentData demoPaymentData = new DemoFullPaymentData();
             demoPaymentData.setPreImageHash(preImageHash);
@@ -85,19 +98,11 @@ public class DemoPaymentHandler extends SpringPaymentHandler {
                 demoPaymentData.setSettlementDuration(settlementDuration);
             }
 
-            ArticleData articleData = articleDataRepository.findByArticleId(orderRequest.getArticleId());
-            if(articleData == null){
-                throw new InternalErrorException("Internal error creating payment data, article id " + orderRequest.getArticleId() + " doesn't exist in database.");
-            }
-            long orderPrice = articleData.getPrice() * orderRequest.getUnits(); // Price in satoshis.
-            demoPaymentData.setOrderAmount(new BTC(orderPrice));
+            demoPaymentData.setOrderAmount(orderAmount);
 
             demoPaymentDataRepository.save(demoPaymentData);
             return demoPaymentData;
         }catch(Exception e){
-            if(e instanceof InternalErrorException){
-                throw e;
-            }
             throw new InternalErrorException("Error occurred saving DemoPaymentData to database: " + e.getMessage(),e);
         }
     }
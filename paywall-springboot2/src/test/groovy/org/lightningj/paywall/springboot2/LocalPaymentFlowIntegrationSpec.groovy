@@ -17,6 +17,7 @@ package org.lightningj.paywall.springboot2
 import groovy.util.slurpersupport.NodeChild
 import groovyx.net.http.RESTClient
 import groovyx.net.http.URIBuilder
+import org.lightningj.paywall.articlecatalog.InMemoryArticleCatalog
 import org.lightningj.paywall.lightninghandler.LightningHandler
 import org.lightningj.paywall.spring.PaywallProperties
 import org.lightningj.paywall.springboot2.paymenthandler.*
@@ -56,6 +57,9 @@ class LocalPaymentFlowIntegrationSpec extends Specification {
     @Autowired
     ArticleDataRepository articleDataRepository
 
+    @Autowired
+    InMemoryArticleCatalog articleCatalog
+
     @Autowired
     DemoMinimalPaymentDataRepository demoPaymentDataRepository
 
@@ -99,6 +103,7 @@ class LocalPaymentFlowIntegrationSpec extends Specification {
             articleData.price = 15
             articleDataRepository.save(articleData)
         }
+        articleCatalog.refresh()
 
     }
 
@@ -18,6 +18,7 @@ import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.ObjectMapper
 import groovyx.net.http.RESTClient
 import groovyx.net.http.URIBuilder
+import org.lightningj.paywall.articlecatalog.InMemoryArticleCatalog
 import org.lightningj.paywall.lightninghandler.LightningHandler
 import org.lightningj.paywall.spring.APIError
 import org.lightningj.paywall.spring.PaywallProperties
@@ -75,6 +76,9 @@ class LocalWebSocketIntegrationSpec extends Specification {
     @Autowired
     ArticleDataRepository articleDataRepository
 
+    @Autowired
+    InMemoryArticleCatalog articleCatalog
+
     @Autowired
     DemoMinimalPaymentDataRepository demoPaymentDataRepository
 
@@ -130,6 +134,7 @@ class LocalWebSocketIntegrationSpec extends Specification {
             articleData.price = 15
             articleDataRepository.save(articleData)
         }
+        articleCatalog.refresh()
 
         demoPaymentHandler.settlementDuration = Duration.ofMinutes(5)
 
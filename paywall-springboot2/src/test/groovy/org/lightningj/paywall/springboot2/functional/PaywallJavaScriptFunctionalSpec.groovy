@@ -19,6 +19,7 @@ import com.fasterxml.jackson.databind.ObjectMapper
 import geb.spock.GebSpec
 import groovyx.net.http.RESTClient
 import groovyx.net.http.URIBuilder
+import org.lightningj.paywall.articlecatalog.InMemoryArticleCatalog
 import org.lightningj.paywall.lightninghandler.LightningHandler
 import org.lightningj.paywall.spring.APIError
 import org.lightningj.paywall.spring.PaywallProperties
@@ -78,6 +79,9 @@ class PaywallJavaScriptFunctionalSpec extends GebSpec {
     @Autowired
     ArticleDataRepository articleDataRepository
 
+    @Autowired
+    InMemoryArticleCatalog articleCatalog
+
     @Autowired
     DemoMinimalPaymentDataRepository demoPaymentDataRepository
 
@@ -117,6 +121,7 @@ class PaywallJavaScriptFunctionalSpec extends GebSpec {
             articleData.price = 15
             articleDataRepository.save(articleData)
         }
+        articleCatalog.refresh()
 
         demoPaymentHandler.settlementDuration = Duration.ofMinutes(5)
         browser.setBaseUrl("http://localhost:${randomServerPort}")
@@ -15,6 +15,7 @@
 package org.lightningj.paywall.springboot2.paymenthandler
 
 import org.lightningj.paywall.InternalErrorException
+import org.lightningj.paywall.articlecatalog.InMemoryArticleCatalog
 import org.lightningj.paywall.tokengenerator.TokenGenerator
 import org.lightningj.paywall.util.BCUtils
 import org.lightningj.paywall.vo.OrderRequest
@@ -40,6 +41,9 @@ class DemoPaymentHandlerSpec extends Specification {
     @Autowired
     ArticleDataRepository articleDataRepository
 
+    @Autowired
+    InMemoryArticleCatalog articleCatalog
+
     @Autowired
     DemoFullPaymentDataRepository demoPaymentDataRepository
 
@@ -65,6 +69,7 @@ class DemoPaymentHandlerSpec extends Specification {
           articleData.price = 10
           articleDataRepository.save(articleData)
         }
+        articleCatalog.refresh()
 
         if(preImageHash == null) {
             preImageHash = tokenGenerator.genPreImageData().preImageHash
@@ -109,7 +114,7 @@ class DemoPaymentHandlerSpec extends Specification {
         demoPaymentHandler.newPaymentData(preImageHash, invalidOrderRequest)
         then:
         def e = thrown InternalErrorException
-        e.message == "Internal error creating payment data, article id notexists doesn't exist in database."
+        e.message == "Internal error calculating order amount, article id notexists doesn't exist in article catalog."
     }
 
 
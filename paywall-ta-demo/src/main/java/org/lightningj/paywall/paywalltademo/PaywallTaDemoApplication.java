@@ -1,7 +1,17 @@
 package org.lightningj.paywall.paywalltademo;
 
+import org.lightningj.paywall.articlecatalog.InMemoryArticleCatalog;
+import org.lightningj.paywall.paywalltademo.paymenthandler.ArticleData;
+import org.lightningj.paywall.paywalltademo.paymenthandler.ArticleDataRepository;
+import org.lightningj.paywall.vo.amount.Amount;
+import org.lightningj.paywall.vo.amount.BTC;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 
 @SpringBootApplication
 public class PaywallTaDemoApplication {
@@ -10,4 +20,19 @@ public class PaywallTaDemoApplication {
 		SpringApplication.run(PaywallTaDemoApplication.class, args);
 	}
 
+	/**
+	 * Article catalog keeping the prices of the ArticleData table in memory, so orders
+	 * are priced without a database lookup.
+	 */
+	@Bean("articleCatalog")
+	public InMemoryArticleCatalog getArticleCatalog(ArticleDataRepository articleDataRepository){
+		return new InMemoryArticleCatalog(() -> {
+			Map<String, Amount> prices = new HashMap<>();
+			for(ArticleData articleData : articleDataRepository.findAll()){
+				prices.put(articleData.getArticleId(), new BTC(articleData.getPrice())); // Price in satoshis.
+			}
+			return prices;
+		}, Duration.ofMinutes(1));
+	}
+
 }
@@ -25,7 +25,7 @@ import org.lightningj.paywall.paywalltademo.paymenthandler.DemoPerRequestPayment
 import org.lightningj.paywall.spring.SpringPaymentHandler;
 import org.lightningj.paywall.util.Base58;
 import org.lightningj.paywall.vo.OrderRequest;
-import org.lightningj.paywall.vo.amount.BTC;
+import org.lightningj.paywall.vo.amount.Amount;
 import org.springframework.beans.factory.BeanFactoryAware;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.ComponentScan;
@@ -40,8 +40,8 @@ import java.time.Duration;
  *
  * It creates DemoPaymentData that implements the PerRequestPaymentData interface. (In order to demonstrate
  * support for both request that's valid for a period of time and for a specific request.)
- * by first looking up the article id order (generated by the @PaymentRequired annotation).
- * Then checks the price of the article in ArticleData table to calculate the ordered amount.
+ * The ordered amount is calculated from the price of the article id (generated by the @PaymentRequired
+ * annotation) in the InMemoryArticleCatalog bean, loaded from the ArticleData table.
  *
  * It also implements the lookup by preImageHash method and update payment data methods by calling
  * related methods in the DemoPaymentDataRepository.
@@ -61,13 +61,10 @@ public class DemoPaymentHandler extends SpringPaymentHandler {
     /**
      * Method called after initialization of bean.
      *
-     * Contains bootstrap of article database.
+     * Contains bootstrap of article database, done before the article catalog is loaded.
      */
     @Override
     public void afterPropertiesSet() throws Exception {
-        // Important call afterPropertiesSet from SpringPaymentHandler
-        super.afterPropertiesSet();
-
         ArticleData articleData1 = articleDataRepository.findByArticleId("tademo1");
         if(articleData1 == null){
             articleData1 = new ArticleData();
@@ -75,6 +72,9 @@ public class DemoPaymentHandler extends SpringPaymentHandler {
             articleData1.setPrice(10);
             articleDataRepository.save(articleData1);
         }
+
+        // Important call afterPropertiesSet from SpringPaymentHandler
+        super.afterPropertiesSet();
     }
 
     /**
@@ -83,11 +83,8 @@ public class DemoPaymentHandler extends SpringPaymentHandler {
      * look up the order amount from the article id, units and other options in
      * the order request.
      * <p>
-     * The generated PaymentData should be at least MinimalPaymentData with preImageHash
-     * and orderedAmount set.
-     * <p>
-     * It is recommended that the PaymentData is persisted in this call but could
-     * be skipped for performance in certain payment flows.
+     * The order amount is calculated from the article catalog, see
+     * newPaymentData(byte[], OrderRequest, Amount).
      *
      * @param preImageHash the unique preImageHash used to identify a payment flow
      *                     withing a lightning payment.
@@ -100,20 +97,34 @@ public class DemoPaymentHandler extends SpringPaymentHandler {
      */
     @Override
     protected PaymentData newPaymentData(byte[] preImageHash, OrderRequest orderRequest) throws IOException, InternalErrorException {
+        return newPaymentData(preImageHash, orderRequest, calculateOrderAmount(orderRequest));
+    }
+
+    /**
+     * Method that generates and saves a new PaymentData for a given order request
+     * priced by the article catalog.
+     *
+     * @param preImageHash the unique preImageHash used to identify a payment flow
+     *                     withing a lightning payment.
+     * @param orderRequest the specification of the payment data that should be created calculated
+     *                     from data in the PaymentRequired annotation.
+     * @param orderAmount  the order amount calculated from the article catalog.
+     * @return a newly generated PaymentData signaling a new payment flow used to
+     * create an Order value object.
+     * @throws IOException            if communication exception occurred in underlying components.
+     * @throws InternalErrorException if internal exception occurred generating new payment data.
+     */
+    @Override
+    protected PaymentData newPaymentData(byte[] preImageHash, OrderRequest orderRequest, Amount orderAmount) throws IOException, InternalErrorException {
         try{
             DemoPerRequestPaymentData demoPaymentData = new DemoPerRequestPaymentData();
             demoPaymentData.setPreImageHash(preImageHash);
             demoPaymentData.setPayPerRequest(orderRequest.isPayPerRequest());
-
-            long orderPrice = findArticleById(orderRequest.getArticleId()).getPrice() * orderRequest.getUnits(); // Price in satoshis.
-            demoPaymentData.setOrderAmount(new BTC(orderPrice));
+            demoPaymentData.setOrderAmount(orderAmount);
 
             demoPaymentDataRepository.save(demoPaymentData);
             return demoPaymentData;
         }catch(Exception e){
-            if(e instanceof InternalErrorException){
-                throw e;
-            }
             throw new InternalErrorException("Error occurred saving DemoPaymentData to database: " + e.getMessage(),e);
         }
     }
@@ -159,12 +170,4 @@ public class DemoPaymentHandler extends SpringPaymentHandler {
         }
     }
 
-    private ArticleData findArticleById(String articleId) throws InternalErrorException{
-        ArticleData articleData = articleDataRepository.findByArticleId(articleId);
-        if(articleData == null){
-            throw new InternalErrorException("Internal error creating payment data, article id " + articleId + " doesn't exist in database.");
-        }
-        return articleData;
-    }
-
 }
@@ -0,0 +1,72 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.testfixtures.lnd;
+
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.lightninghandler.lnd.SimpleBaseLNDLightningHandler;
+import org.lightningj.paywall.vo.NodeInfo;
+import org.lightningj.paywall.vo.amount.CryptoAmount;
+
+/**
+ * SimpleBaseLNDLightningHandler configured to connect to a FakeLNDServer started with TLS,
+ * using the same connection code as a production lightning handler.
+ */
+public class FakeLNDLightningHandler extends SimpleBaseLNDLightningHandler {
+
+    private final FakeLNDServer server;
+
+    /**
+     * Default constructor.
+     *
+     * @param server the fake LND server, must have been started with startTLS().
+     * @throws IllegalArgumentException if server TLS server isn't started.
+     */
+    public FakeLNDLightningHandler(FakeLNDServer server){
+        if(server.getPort() == -1){
+            throw new IllegalArgumentException("FakeLNDServer must be started with TLS before creating FakeLNDLightningHandler.");
+        }
+        this.server = server;
+    }
+
+    @Override
+    protected String getHost() throws InternalErrorException {
+        return "localhost";
+    }
+
+    @Override
+    protected int getPort() throws InternalErrorException {
+        return server.getPort();
+    }
+
+    @Override
+    protected String getTLSCertPath() throws InternalErrorException {
+        return server.getTLSCertPath();
+    }
+
+    @Override
+    protected String getMacaroonPath() throws InternalErrorException {
+        return server.getMacaroonPath();
+    }
+
+    @Override
+    protected NodeInfo getNodeInfoFromConfiguration() throws InternalErrorException {
+        return null;
+    }
+
+    @Override
+    protected String getSupportedCurrencyCode() throws InternalErrorException {
+        return CryptoAmount.CURRENCY_CODE_BTC;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.testfixtures.lnd;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.GrpcSslContexts;
+import io.grpc.netty.NettyServerBuilder;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.lightningj.lnd.wrapper.AsynchronousLndAPI;
+import org.lightningj.lnd.wrapper.SynchronousLndAPI;
+import org.lightningj.paywall.InternalErrorException;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fake LND node serving a FakeLightningService, either in-process for fast unit tests and
+ * benchmarks without network overhead or over TLS on a local port to be able to run
+ * SimpleBaseLNDLightningHandler and the rest of the paywall end to end without a real node.
+ * <p>
+ * When started with TLS is a self-signed certificate for localhost and a dummy macaroon
+ * generated into a temporary directory, their paths are available through getTLSCertPath() and
+ * getMacaroonPath(). Calls over TLS without a macaroon are rejected.
+ * </p><p>
+ * Example usage:
+ * <pre>
+ * FakeLNDServer server = new FakeLNDServer().startTLS();
+ * // configure lightning handler with localhost, server.getPort(), server.getTLSCertPath() and server.getMacaroonPath()
+ * server.getService().settleInvoice(preImageHash);
+ * server.close();
+ * </pre>
+ */
+public class FakeLNDServer implements AutoCloseable {
+
+    protected static Logger log = Logger.getLogger(FakeLNDServer.class.getName());
+
+    static final Metadata.Key<String> MACAROON_KEY = Metadata.Key.of("macaroon", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final FakeLightningService service;
+    private final String inProcessName = "fakelnd-" + UUID.randomUUID().toString();
+
+    private Server inProcessServer;
+    private Server tlsServer;
+    private Path tmpDir;
+    private File tlsCertFile;
+    private File macaroonFile;
+
+    /**
+     * Constructor using a new FakeLightningService.
+     */
+    public FakeLNDServer(){
+        this(new FakeLightningService());
+    }
+
+    /**
+     * Constructor using a custom fake service, for example a sub class with other behaviour.
+     *
+     * @param service the fake lightning service to serve.
+     */
+    public FakeLNDServer(FakeLightningService service){
+        this.service = service;
+    }
+
+    /**
+     * Method to start the in-process server, channels are created with newInProcessChannel().
+     *
+     * @return this server.
+     * @throws IOException if server couldn't be started.
+     */
+    public synchronized FakeLNDServer start() throws IOException {
+        if(inProcessServer == null) {
+            inProcessServer = InProcessServerBuilder.forName(inProcessName).addService(service).build().start();
+        }
+        return this;
+    }
+
+    /**
+     * Method to start a TLS server on a random port on the loop back interface, generating a
+     * self-signed certificate and macaroon file.
+     *
+     * @return this server.
+     * @throws IOException if server couldn't be started.
+     * @throws InternalErrorException if problems occurred generating TLS certificate.
+     */
+    public synchronized FakeLNDServer startTLS() throws IOException, InternalErrorException {
+        if(tlsServer == null) {
+            tmpDir = Files.createTempDirectory("fakelnd");
+            File keyFile = tmpDir.resolve("tls.key").toFile();
+            tlsCertFile = tmpDir.resolve("tls.cert").toFile();
+            macaroonFile = tmpDir.resolve("invoice.macaroon").toFile();
+            genTLSCertificate(tlsCertFile, keyFile);
+            byte[] macaroon = new byte[64];
+            new SecureRandom().nextBytes(macaroon);
+            Files.write(macaroonFile.toPath(), macaroon);
+
+            tlsServer = NettyServerBuilder.forAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                    .sslContext(GrpcSslContexts.forServer(tlsCertFile, keyFile).build())
+                    .addService(ServerInterceptors.intercept(service, new MacaroonRequiredInterceptor()))
+                    .build().start();
+            log.log(Level.INFO, "Started fake LND node on port " + tlsServer.getPort());
+        }
+        return this;
+    }
+
+    /**
+     * @return a new channel connected to the in-process server, should be closed by caller.
+     * @throws IllegalStateException if in-process server isn't started.
+     */
+    public ManagedChannel newInProcessChannel(){
+        if(inProcessServer == null){
+            throw new IllegalStateException("FakeLNDServer in-process server must be started before creating channel.");
+        }
+        return InProcessChannelBuilder.forName(inProcessName).build();
+    }
+
+    /**
+     * @return a new synchronous api connected to the in-process server, should be closed by caller.
+     */
+    public SynchronousLndAPI newInProcessSyncAPI(){
+        return new SynchronousLndAPI(newInProcessChannel());
+    }
+
+    /**
+     * @return a new asynchronous api connected to the in-process server, should be closed by caller.
+     */
+    public AsynchronousLndAPI newInProcessAsyncAPI(){
+        return new AsynchronousLndAPI(newInProcessChannel());
+    }
+
+    /**
+     * @return the fake lightning service, used to settle invoices and inject latency or failures.
+     */
+    public FakeLightningService getService(){
+        return service;
+    }
+
+    /**
+     * @return the port of the TLS server or -1 if not started.
+     */
+    public int getPort(){
+        return tlsServer == null ? -1 : tlsServer.getPort();
+    }
+
+    /**
+     * @return the path to the generated TLS certificate to trust or null if TLS server isn't started.
+     */
+    public String getTLSCertPath(){
+        return tlsCertFile == null ? null : tlsCertFile.getPath();
+    }
+
+    /**
+     * @return the path to the generated macaroon or null if TLS server isn't started.
+     */
+    public String getMacaroonPath(){
+        return macaroonFile == null ? null : macaroonFile.getPath();
+    }
+
+    /**
+     * Method to stop all started servers and remove generated files.
+     */
+    @Override
+    public synchronized void close() {
+        service.close();
+        shutdown(inProcessServer);
+        inProcessServer = null;
+        shutdown(tlsServer);
+        tlsServer = null;
+        if(tmpDir != null){
+            File[] files = tmpDir.toFile().listFiles();
+            if(files != null){
+                for(File f : files){
+                    if(!f.delete()){
+                        log.log(Level.FINE, "Couldn't remove fake LND file: " + f);
+                    }
+                }
+            }
+            if(!tmpDir.toFile().delete()){
+                log.log(Level.FINE, "Couldn't remove fake LND directory: " + tmpDir);
+            }
+            tmpDir = null;
+        }
+    }
+
+    private void shutdown(Server server){
+        if(server != null){
+            server.shutdownNow();
+            try {
+                server.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Help method generating a self-signed RSA certificate valid for localhost and 127.0.0.1 and
+     * writing certificate and PKCS8 private key as PEM files.
+     */
+    private static void genTLSCertificate(File certFile, File keyFile) throws InternalErrorException{
+        try {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(2048);
+            KeyPair keyPair = keyPairGenerator.generateKeyPair();
+
+            long now = System.currentTimeMillis();
+            X500Name subject = new X500Name("CN=localhost,O=Fake LND");
+            X509v3CertificateBuilder certificateBuilder = new JcaX509v3CertificateBuilder(subject,
+                    BigInteger.valueOf(now), new Date(now - 60000), new Date(now + TimeUnit.DAYS.toMillis(365)),
+                    subject, keyPair.getPublic());
+            certificateBuilder.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(new GeneralName[]{
+                    new GeneralName(GeneralName.dNSName, "localhost"),
+                    new GeneralName(GeneralName.iPAddress, "127.0.0.1")}));
+            ContentSigner signer = new JcaContentSignerBuilder("SHA256WithRSA").build(keyPair.getPrivate());
+            byte[] certData = certificateBuilder.build(signer).getEncoded();
+
+            Files.write(certFile.toPath(), toPEM("CERTIFICATE", certData));
+            Files.write(keyFile.toPath(), toPEM("PRIVATE KEY", keyPair.getPrivate().getEncoded()));
+        }catch (Exception e){
+            throw new InternalErrorException("Error generating TLS certificate for fake LND node: " + e.getMessage(), e);
+        }
+    }
+
+    private static byte[] toPEM(String type, byte[] data){
+        String pem = "-----BEGIN " + type + "-----\n" +
+                Base64.getMimeEncoder(64, new byte[]{'\n'}).encodeToString(data) +
+                "\n-----END " + type + "-----\n";
+        return pem.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Interceptor rejecting calls without macaroon in the same way as LND.
+     */
+    private static class MacaroonRequiredInterceptor implements ServerInterceptor {
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+            String macaroon = headers.get(MACAROON_KEY);
+            if(macaroon == null || macaroon.isEmpty()){
+                call.close(Status.UNKNOWN.withDescription("expected 1 macaroon, got 0"), new Metadata());
+                return new ServerCall.Listener<ReqT>() {};
+            }
+            return next.startCall(call, headers);
+        }
+    }
+}
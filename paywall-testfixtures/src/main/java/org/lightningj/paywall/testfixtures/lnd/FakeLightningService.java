@@ -0,0 +1,450 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.testfixtures.lnd;
+
+import com.google.protobuf.ByteString;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.lightningj.lnd.proto.LightningApi;
+import org.lightningj.lnd.proto.LightningGrpc;
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.util.DigestUtils;
+import org.lightningj.paywall.util.HexUtils;
+
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fake implementation of the subset of the LND Lightning gRPC service used by the paywall,
+ * i.e. AddInvoice, LookupInvoice, ListInvoices, SubscribeInvoices and GetInfo.
+ * <p>
+ * Invoices are kept in memory and are settled by calling settleInvoice(), which notifies all
+ * invoice subscribers in the same way as LND. Subscriptions with an add or settle index
+ * replay the invoices added or settled after the given index.
+ * </p><p>
+ * Latency of unary calls can be configured with setLatency() and failures can be injected
+ * either for a given number of coming calls with failNextCalls() or randomly with setFailureRate().
+ * Open invoice subscriptions can be terminated with disconnectSubscribers() to simulate a
+ * restart of the node.
+ * </p>
+ */
+public class FakeLightningService extends LightningGrpc.LightningImplBase {
+
+    protected static Logger log = Logger.getLogger(FakeLightningService.class.getName());
+
+    public static final String METHOD_ADD_INVOICE = "AddInvoice";
+    public static final String METHOD_LOOKUP_INVOICE = "LookupInvoice";
+    public static final String METHOD_LIST_INVOICES = "ListInvoices";
+    public static final String METHOD_SUBSCRIBE_INVOICES = "SubscribeInvoices";
+    public static final String METHOD_GET_INFO = "GetInfo";
+
+    public static final long DEFAULT_EXPIRY = 3600;
+
+    private final String identityPubKey;
+    private final SecureRandom random = new SecureRandom();
+    private final Random failureRandom = new Random();
+
+    private final Map<ByteString, LightningApi.Invoice> invoices = new HashMap<>();
+    private final List<ByteString> invoicesByAddIndex = new ArrayList<>();
+    private final List<ByteString> invoicesBySettleIndex = new ArrayList<>();
+    private final List<StreamObserver<LightningApi.Invoice>> subscribers = new ArrayList<>();
+
+    private final Map<String, AtomicInteger> callCounters = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> failNextCalls = new ConcurrentHashMap<>();
+    private final AtomicLong blockHeight = new AtomicLong(1500000);
+
+    private volatile Duration latency = Duration.ZERO;
+    private volatile double failureRate = 0.0;
+    private volatile Status failureStatus = Status.UNAVAILABLE.withDescription("Injected failure by FakeLightningService.");
+
+    Clock clock = Clock.systemUTC();
+
+    private final ScheduledExecutorService responseScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "fake-lnd-responder");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Default constructor generating a random node identity.
+     */
+    public FakeLightningService(){
+        byte[] pubKey = new byte[33];
+        random.nextBytes(pubKey);
+        pubKey[0] = 0x02;
+        identityPubKey = HexUtils.encodeHexString(pubKey);
+    }
+
+    @Override
+    public void addInvoice(LightningApi.Invoice request, StreamObserver<LightningApi.AddInvoiceResponse> responseObserver) {
+        respond(METHOD_ADD_INVOICE, responseObserver, () -> {
+            LightningApi.Invoice invoice = createInvoice(request);
+            return LightningApi.AddInvoiceResponse.newBuilder()
+                    .setRHash(invoice.getRHash())
+                    .setPaymentRequest(invoice.getPaymentRequest())
+                    .setAddIndex(invoice.getAddIndex())
+                    .build();
+        });
+    }
+
+    @Override
+    public void lookupInvoice(LightningApi.PaymentHash request, StreamObserver<LightningApi.Invoice> responseObserver) {
+        respond(METHOD_LOOKUP_INVOICE, responseObserver, () -> {
+            ByteString rHash = request.getRHash();
+            if(rHash.isEmpty() && !request.getRHashStr().isEmpty()){
+                rHash = ByteString.copyFrom(HexUtils.decodeHexString(request.getRHashStr()));
+            }
+            LightningApi.Invoice invoice;
+            synchronized (this){
+                invoice = invoices.get(rHash);
+            }
+            if(invoice == null){
+                throw Status.UNKNOWN.withDescription("unable to locate invoice").asRuntimeException();
+            }
+            return invoice;
+        });
+    }
+
+    @Override
+    public void listInvoices(LightningApi.ListInvoiceRequest request, StreamObserver<LightningApi.ListInvoiceResponse> responseObserver) {
+        respond(METHOD_LIST_INVOICES, responseObserver, () -> {
+            LightningApi.ListInvoiceResponse.Builder response = LightningApi.ListInvoiceResponse.newBuilder();
+            synchronized (this){
+                long max = request.getNumMaxInvoices() > 0 ? request.getNumMaxInvoices() : 100;
+                long lastIndex = request.getIndexOffset();
+                for(int i = (int) request.getIndexOffset(); i < invoicesByAddIndex.size() && response.getInvoicesCount() < max; i++){
+                    LightningApi.Invoice invoice = invoices.get(invoicesByAddIndex.get(i));
+                    lastIndex = invoice.getAddIndex();
+                    if(!request.getPendingOnly() || !invoice.getSettled()){
+                        response.addInvoices(invoice);
+                    }
+                }
+                response.setFirstIndexOffset(response.getInvoicesCount() > 0 ? response.getInvoices(0).getAddIndex() : 0);
+                response.setLastIndexOffset(lastIndex);
+            }
+            return response.build();
+        });
+    }
+
+    @Override
+    public void subscribeInvoices(LightningApi.InvoiceSubscription request, StreamObserver<LightningApi.Invoice> responseObserver) {
+        count(METHOD_SUBSCRIBE_INVOICES);
+        Status failure = checkFailure(METHOD_SUBSCRIBE_INVOICES);
+        if(failure != null){
+            responseObserver.onError(failure.asRuntimeException());
+            return;
+        }
+        if(responseObserver instanceof ServerCallStreamObserver){
+            ((ServerCallStreamObserver<LightningApi.Invoice>) responseObserver).setOnCancelHandler(() -> removeSubscriber(responseObserver));
+        }
+        synchronized (this){
+            // Replay in the same way as LND, first added invoices after add index then settlements after settle index.
+            if(request.getAddIndex() > 0){
+                for(int i = (int) request.getAddIndex(); i < invoicesByAddIndex.size(); i++){
+                    responseObserver.onNext(invoices.get(invoicesByAddIndex.get(i)));
+                }
+            }
+            if(request.getSettleIndex() > 0){
+                for(int i = (int) request.getSettleIndex(); i < invoicesBySettleIndex.size(); i++){
+                    responseObserver.onNext(invoices.get(invoicesBySettleIndex.get(i)));
+                }
+            }
+            subscribers.add(responseObserver);
+        }
+    }
+
+    @Override
+    public void getInfo(LightningApi.GetInfoRequest request, StreamObserver<LightningApi.GetInfoResponse> responseObserver) {
+        respond(METHOD_GET_INFO, responseObserver, () -> LightningApi.GetInfoResponse.newBuilder()
+                .setIdentityPubkey(identityPubKey)
+                .setAlias("fakelnd")
+                .setVersion("0.0.0-fake")
+                .setTestnet(true)
+                .setSyncedToChain(true)
+                .setBlockHeight((int) blockHeight.get())
+                .addUris(identityPubKey + "@127.0.0.1:9735")
+                .addChains(LightningApi.Chain.newBuilder().setChain("bitcoin").setNetwork("testnet").build())
+                .build());
+    }
+
+    /**
+     * Method to settle an invoice as if it was paid in full, subscribers are notified directly.
+     *
+     * @param rHash the payment hash of the invoice to settle.
+     * @return true if invoice was settled, false if it didn't exist or was already settled.
+     */
+    public boolean settleInvoice(byte[] rHash){
+        return settleInvoice(rHash, true);
+    }
+
+    /**
+     * Method to settle an invoice as if it was paid in full.
+     *
+     * @param rHash the payment hash of the invoice to settle.
+     * @param notifySubscribers false to simulate a settlement event lost by the subscribers, the
+     *                          settlement is still visible in LookupInvoice, ListInvoices and replays.
+     * @return true if invoice was settled, false if it didn't exist or was already settled.
+     */
+    public synchronized boolean settleInvoice(byte[] rHash, boolean notifySubscribers){
+        ByteString key = ByteString.copyFrom(rHash);
+        LightningApi.Invoice invoice = invoices.get(key);
+        if(invoice == null || invoice.getSettled()){
+            return false;
+        }
+        invoicesBySettleIndex.add(key);
+        invoice = invoice.toBuilder()
+                .setSettled(true)
+                .setSettleDate(clock.instant().getEpochSecond())
+                .setSettleIndex(invoicesBySettleIndex.size())
+                .setAmtPaidSat(invoice.getValue())
+                .setAmtPaidMsat(invoice.getValue() * 1000)
+                .build();
+        invoices.put(key, invoice);
+        if(notifySubscribers) {
+            notifySubscribers(invoice);
+        }
+        return true;
+    }
+
+    /**
+     * Method to terminate all open invoice subscriptions with an error, simulating
+     * a restart or network problem of the node.
+     *
+     * @param status the status sent to the subscribers.
+     */
+    public void disconnectSubscribers(Status status){
+        List<StreamObserver<LightningApi.Invoice>> disconnected;
+        synchronized (this){
+            disconnected = new ArrayList<>(subscribers);
+            subscribers.clear();
+        }
+        for(StreamObserver<LightningApi.Invoice> subscriber : disconnected){
+            try {
+                subscriber.onError(status.asRuntimeException());
+            }catch (Exception e){
+                log.log(Level.FINE, "Error disconnecting invoice subscriber: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Method to make a given number of coming calls to a method fail with the configured failure status.
+     *
+     * @param method one of the METHOD_ constants.
+     * @param numberOfCalls the number of coming calls that should fail.
+     */
+    public void failNextCalls(String method, int numberOfCalls){
+        failNextCalls.computeIfAbsent(method, k -> new AtomicInteger()).set(numberOfCalls);
+    }
+
+    /**
+     * @param failureRate the probability between 0.0 and 1.0 that a call fails with the configured failure status.
+     */
+    public void setFailureRate(double failureRate){
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * @param failureStatus the status returned by injected failures, default UNAVAILABLE.
+     */
+    public void setFailureStatus(Status failureStatus){
+        this.failureStatus = failureStatus;
+    }
+
+    /**
+     * @param latency the time each unary call is delayed before responding, default zero.
+     */
+    public void setLatency(Duration latency){
+        this.latency = latency == null ? Duration.ZERO : latency;
+    }
+
+    /**
+     * @param rHash the payment hash of the invoice.
+     * @return the current state of the invoice or null if not found.
+     */
+    public synchronized LightningApi.Invoice getInvoice(byte[] rHash){
+        return invoices.get(ByteString.copyFrom(rHash));
+    }
+
+    /**
+     * @return the number of invoices created in the node.
+     */
+    public synchronized int getInvoiceCount(){
+        return invoicesByAddIndex.size();
+    }
+
+    /**
+     * @return the number of currently open invoice subscriptions.
+     */
+    public synchronized int getSubscriberCount(){
+        return subscribers.size();
+    }
+
+    /**
+     * @param method one of the METHOD_ constants.
+     * @return the number of calls received for the method, including failed calls.
+     */
+    public int getCallCount(String method){
+        AtomicInteger counter = callCounters.get(method);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * @return the hex encoded identity public key of the fake node.
+     */
+    public String getIdentityPubKey(){
+        return identityPubKey;
+    }
+
+    /**
+     * Method to stop the response scheduler and complete all open subscriptions.
+     */
+    public void close(){
+        List<StreamObserver<LightningApi.Invoice>> open;
+        synchronized (this){
+            open = new ArrayList<>(subscribers);
+            subscribers.clear();
+        }
+        for(StreamObserver<LightningApi.Invoice> subscriber : open){
+            try {
+                subscriber.onCompleted();
+            }catch (Exception e){
+                log.log(Level.FINE, "Error completing invoice subscriber: " + e.getMessage(), e);
+            }
+        }
+        responseScheduler.shutdownNow();
+    }
+
+    /**
+     * Help method creating and storing a new invoice from an AddInvoice request.
+     */
+    private synchronized LightningApi.Invoice createInvoice(LightningApi.Invoice request){
+        byte[] preImage = request.getRPreimage().toByteArray();
+        if(preImage.length == 0){
+            preImage = new byte[32];
+            random.nextBytes(preImage);
+        }
+        ByteString rHash = ByteString.copyFrom(sha256(preImage));
+        if(invoices.containsKey(rHash)){
+            throw Status.UNKNOWN.withDescription("invoice with payment hash already exists").asRuntimeException();
+        }
+        invoicesByAddIndex.add(rHash);
+        long expiry = request.getExpiry() > 0 ? request.getExpiry() : DEFAULT_EXPIRY;
+        LightningApi.Invoice invoice = request.toBuilder()
+                .setRPreimage(ByteString.copyFrom(preImage))
+                .setRHash(rHash)
+                .setCreationDate(clock.instant().getEpochSecond())
+                .setExpiry(expiry)
+                .setCltvExpiry(144)
+                .setPaymentRequest(genPaymentRequest(request.getValue(), rHash))
+                .setSettled(false)
+                .setAddIndex(invoicesByAddIndex.size())
+                .build();
+        invoices.put(rHash, invoice);
+        notifySubscribers(invoice);
+        return invoice;
+    }
+
+    /**
+     * Help method sending an invoice event to all subscribers, must be called when holding
+     * the lock of this service in order to keep events in order.
+     */
+    private void notifySubscribers(LightningApi.Invoice invoice){
+        for(StreamObserver<LightningApi.Invoice> subscriber : new ArrayList<>(subscribers)){
+            try {
+                subscriber.onNext(invoice);
+            }catch (Exception e){
+                log.log(Level.FINE, "Error sending invoice to subscriber, removing subscriber: " + e.getMessage(), e);
+                subscribers.remove(subscriber);
+            }
+        }
+    }
+
+    private synchronized void removeSubscriber(StreamObserver<LightningApi.Invoice> subscriber){
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Help method that performs a unary call after configured latency, or fails it if
+     * failures are injected.
+     */
+    private <T> void respond(String method, StreamObserver<T> responseObserver, Supplier<T> call){
+        count(method);
+        Runnable task = () -> {
+            try {
+                Status failure = checkFailure(method);
+                if(failure != null){
+                    responseObserver.onError(failure.asRuntimeException());
+                    return;
+                }
+                T response = call.get();
+                responseObserver.onNext(response);
+                responseObserver.onCompleted();
+            }catch (Exception e){
+                responseObserver.onError(e instanceof StatusRuntimeException ? e : Status.UNKNOWN.withDescription(e.getMessage()).asRuntimeException());
+            }
+        };
+        Duration currentLatency = latency;
+        if(currentLatency.isZero()){
+            task.run();
+        }else{
+            responseScheduler.schedule(task, currentLatency.toNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void count(String method){
+        callCounters.computeIfAbsent(method, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private Status checkFailure(String method){
+        AtomicInteger remaining = failNextCalls.get(method);
+        if(remaining != null && remaining.getAndUpdate(v -> v > 0 ? v -1 : 0) > 0){
+            return failureStatus;
+        }
+        if(failureRate > 0 && failureRandom.nextDouble() < failureRate){
+            return failureStatus;
+        }
+        return null;
+    }
+
+    private static String genPaymentRequest(long value, ByteString rHash){
+        return "lntb" + value + "n1fake" + HexUtils.encodeHexString(rHash.toByteArray());
+    }
+
+    private static byte[] sha256(byte[] data){
+        try {
+            return DigestUtils.sha256(data);
+        } catch (InternalErrorException e) {
+            throw Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.testfixtures.lnd;
+
+import org.lightningj.lnd.wrapper.AsynchronousLndAPI;
+import org.lightningj.lnd.wrapper.SynchronousLndAPI;
+import org.lightningj.paywall.InternalErrorException;
+import org.lightningj.paywall.lightninghandler.LightningHandlerContext;
+import org.lightningj.paywall.lightninghandler.lnd.BaseLNDLightningHandler;
+import org.lightningj.paywall.vo.NodeInfo;
+import org.lightningj.paywall.vo.amount.CryptoAmount;
+
+import java.io.IOException;
+import java.util.logging.Level;
+
+/**
+ * BaseLNDLightningHandler connected to the in-process transport of a FakeLNDServer, avoiding
+ * TLS and network overhead when benchmarking the paywall components themselves.
+ */
+public class InProcessLNDLightningHandler extends BaseLNDLightningHandler {
+
+    private final FakeLNDServer server;
+
+    protected AsynchronousLndAPI asynchronousLndAPI;
+    protected SynchronousLndAPI synchronousLndAPI;
+    protected volatile boolean connected = false;
+
+    /**
+     * Default constructor.
+     *
+     * @param server the fake LND server, in-process server is started if not already running.
+     * @throws IOException if in-process server couldn't be started.
+     */
+    public InProcessLNDLightningHandler(FakeLNDServer server) throws IOException{
+        this.server = server.start();
+    }
+
+    @Override
+    public void connect(LightningHandlerContext context) throws IOException, InternalErrorException {
+        clearCache();
+        openAPIConnections();
+        listenToInvoices(context);
+        connected = true;
+        log.log(Level.FINE, "Connected to in-process fake LND Node.");
+    }
+
+    @Override
+    public boolean isConnected() throws IOException, InternalErrorException {
+        return connected;
+    }
+
+    @Override
+    public void close() throws IOException, InternalErrorException {
+        super.close();
+        closeAPIConnections();
+    }
+
+    @Override
+    protected void reconnect() throws InternalErrorException {
+        closeAPIConnections();
+        openAPIConnections();
+    }
+
+    @Override
+    protected AsynchronousLndAPI getAsyncAPI() throws IOException, InternalErrorException {
+        return asynchronousLndAPI;
+    }
+
+    @Override
+    protected SynchronousLndAPI getSyncAPI() throws IOException, InternalErrorException {
+        return synchronousLndAPI;
+    }
+
+    @Override
+    protected NodeInfo getNodeInfoFromConfiguration() throws InternalErrorException {
+        return null;
+    }
+
+    @Override
+    protected String getSupportedCurrencyCode() throws InternalErrorException {
+        return CryptoAmount.CURRENCY_CODE_BTC;
+    }
+
+    private void openAPIConnections(){
+        asynchronousLndAPI = server.newInProcessAsyncAPI();
+        synchronousLndAPI = server.newInProcessSyncAPI();
+        connected = true;
+    }
+
+    private void closeAPIConnections() throws InternalErrorException{
+        if(connected){
+            connected = false;
+            clearCache();
+            try {
+                asynchronousLndAPI.close();
+                synchronousLndAPI.close();
+            }catch (Exception e){
+                throw new InternalErrorException("Internal error closing in-process LND connection: " + e.getMessage(), e);
+            }
+        }
+    }
+}
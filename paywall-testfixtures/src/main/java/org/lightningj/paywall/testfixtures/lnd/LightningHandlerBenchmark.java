@@ -0,0 +1,136 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.testfixtures.lnd;
+
+import org.lightningj.paywall.lightninghandler.LightningEventType;
+import org.lightningj.paywall.lightninghandler.lnd.BaseLNDLightningHandler;
+import org.lightningj.paywall.lightninghandler.lnd.LNDLightningHandlerContext;
+import org.lightningj.paywall.util.Base58;
+import org.lightningj.paywall.util.DigestUtils;
+import org.lightningj.paywall.vo.ConvertedOrder;
+import org.lightningj.paywall.vo.Order;
+import org.lightningj.paywall.vo.PreImageData;
+import org.lightningj.paywall.vo.amount.BTC;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simple benchmark measuring invoice generation throughput and latency and settlement
+ * notification latency of a LND lightning handler connected to a FakeLNDServer.
+ * <p>
+ * Usage: LightningHandlerBenchmark [invoices] [threads] [latencyMillis] [inprocess|tls]
+ * </p>
+ */
+public class LightningHandlerBenchmark {
+
+    public static void main(String[] args) throws Exception{
+        int invoices = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        boolean tls = args.length > 3 && args[3].equalsIgnoreCase("tls");
+
+        try(FakeLNDServer server = new FakeLNDServer()) {
+            server.getService().setLatency(Duration.ofMillis(latencyMillis));
+            BaseLNDLightningHandler handler = tls ? new FakeLNDLightningHandler(server.startTLS()) : new InProcessLNDLightningHandler(server);
+
+            Map<String, Long> settleStarted = new ConcurrentHashMap<>();
+            List<Long> notificationLatencies = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch settledLatch = new CountDownLatch(invoices);
+            handler.registerListener(event -> {
+                if(event.getType() == LightningEventType.SETTLEMENT){
+                    Long started = settleStarted.get(Base58.encodeToString(event.getInvoice().getPreImageHash()));
+                    if(started != null) {
+                        notificationLatencies.add(System.nanoTime() - started);
+                    }
+                    settledLatch.countDown();
+                }
+            });
+            handler.connect(new LNDLightningHandlerContext());
+
+            System.out.println("Running LightningHandler benchmark with " + invoices + " invoices, " + threads +
+                    " threads, " + latencyMillis + " ms node latency using " + (tls ? "TLS" : "in-process") + " transport.");
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<byte[]>> results = new ArrayList<>(invoices);
+            List<Long> generateLatencies = Collections.synchronizedList(new ArrayList<>());
+            SecureRandom random = new SecureRandom();
+            long start = System.nanoTime();
+            for(int i = 0; i < invoices; i++){
+                results.add(executor.submit(() -> {
+                    byte[] preImage = new byte[32];
+                    random.nextBytes(preImage);
+                    byte[] preImageHash = DigestUtils.sha256(preImage);
+                    Order order = new Order(preImageHash, "Benchmark", new BTC(10), Instant.now().plusSeconds(3600));
+                    long callStart = System.nanoTime();
+                    handler.generateInvoice(new PreImageData(preImage, preImageHash), new ConvertedOrder(order, new BTC(10)));
+                    generateLatencies.add(System.nanoTime() - callStart);
+                    return preImageHash;
+                }));
+            }
+            List<byte[]> preImageHashes = new ArrayList<>(invoices);
+            for(Future<byte[]> result : results){
+                preImageHashes.add(result.get());
+            }
+            long generateTime = System.nanoTime() - start;
+            executor.shutdown();
+            report("generateInvoice", invoices, generateTime, generateLatencies);
+
+            start = System.nanoTime();
+            for(byte[] preImageHash : preImageHashes){
+                settleStarted.put(Base58.encodeToString(preImageHash), System.nanoTime());
+                server.getService().settleInvoice(preImageHash);
+            }
+            if(!settledLatch.await(5, TimeUnit.MINUTES)){
+                System.out.println("Timeout waiting for settlement notifications, received " + (invoices - settledLatch.getCount()) + " of " + invoices);
+            }
+            report("settlement notification", invoices, System.nanoTime() - start, notificationLatencies);
+
+            handler.close();
+        }
+    }
+
+    private static void report(String name, int operations, long totalNanos, List<Long> latencies){
+        long[] sorted;
+        synchronized (latencies) {
+            sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+        }
+        Arrays.sort(sorted);
+        double seconds = totalNanos / 1_000_000_000.0;
+        System.out.println(String.format("%-25s %8.0f ops/s  p50 %8.3f ms  p99 %8.3f ms  max %8.3f ms",
+                name, operations / seconds, percentile(sorted, 0.5), percentile(sorted, 0.99),
+                sorted.length == 0 ? 0.0 : sorted[sorted.length - 1] / 1_000_000.0));
+    }
+
+    private static double percentile(long[] sorted, double percentile){
+        if(sorted.length == 0){
+            return 0.0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.round(percentile * (sorted.length - 1)));
+        return sorted[index] / 1_000_000.0;
+    }
+}
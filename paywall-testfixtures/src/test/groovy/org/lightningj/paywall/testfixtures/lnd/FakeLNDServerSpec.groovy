@@ -0,0 +1,107 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.testfixtures.lnd
+
+import org.lightningj.paywall.lightninghandler.LightningEvent
+import org.lightningj.paywall.lightninghandler.LightningEventType
+import org.lightningj.paywall.lightninghandler.lnd.LNDLightningHandlerContext
+import org.lightningj.paywall.util.DigestUtils
+import org.lightningj.paywall.vo.ConvertedOrder
+import org.lightningj.paywall.vo.Order
+import org.lightningj.paywall.vo.PreImageData
+import org.lightningj.paywall.vo.amount.BTC
+import spock.lang.Specification
+
+import java.time.Instant
+import java.util.concurrent.CopyOnWriteArrayList
+
+import static org.lightningj.paywall.testfixtures.lnd.FakeLightningServiceSpec.waitUntil
+
+/**
+ * Unit tests for FakeLNDServer, verifying that SimpleBaseLNDLightningHandler can be used
+ * against the TLS server.
+ */
+class FakeLNDServerSpec extends Specification {
+
+    FakeLNDServer server
+
+    def setup(){
+        server = new FakeLNDServer()
+    }
+
+    def cleanup(){
+        server.close()
+    }
+
+    def "Verify that newInProcessChannel throws IllegalStateException if server isn't started"(){
+        when:
+        server.newInProcessChannel()
+        then:
+        def e = thrown IllegalStateException
+        e.message == "FakeLNDServer in-process server must be started before creating channel."
+    }
+
+    def "Verify that FakeLNDLightningHandler requires TLS server to be started"(){
+        when:
+        new FakeLNDLightningHandler(server)
+        then:
+        def e = thrown IllegalArgumentException
+        e.message == "FakeLNDServer must be started with TLS before creating FakeLNDLightningHandler."
+    }
+
+    def "Verify that SimpleBaseLNDLightningHandler can generate, lookup and receive settlement of invoices over TLS"(){
+        setup:
+        server.startTLS()
+        def events = new CopyOnWriteArrayList<LightningEvent>()
+        def handler = new FakeLNDLightningHandler(server)
+        handler.registerListener({ LightningEvent e -> events << e })
+        byte[] preImage = new byte[32]
+        new Random().nextBytes(preImage)
+        byte[] preImageHash = DigestUtils.sha256(preImage)
+        Order order = new Order(preImageHash, "Some Memo", new BTC(10), Instant.now().plusSeconds(1800))
+        expect:
+        server.port > 0
+        new File(server.getTLSCertPath()).exists()
+        new File(server.getMacaroonPath()).exists()
+        when:
+        handler.connect(new LNDLightningHandlerContext())
+        waitUntil { server.service.subscriberCount == 1 }
+        def invoice = handler.generateInvoice(new PreImageData(preImage, preImageHash), new ConvertedOrder(order, new BTC(10)))
+        then:
+        handler.isConnected()
+        invoice.preImageHash == preImageHash
+        invoice.description == "Some Memo"
+        invoice.invoiceAmount.value == 10
+        !invoice.settled
+        handler.nodeInfo.connectString == server.service.identityPubKey + "@127.0.0.1:9735"
+        when:
+        waitUntil { events.size() == 1 }
+        server.service.settleInvoice(preImageHash)
+        waitUntil { events.size() == 2 }
+        then:
+        events[0].type == LightningEventType.ADDED
+        events[1].type == LightningEventType.SETTLEMENT
+        events[1].invoice.preImageHash == preImageHash
+        handler.lookupInvoice(preImageHash).settled
+        handler.lookupInvoice(DigestUtils.sha256("unknown".bytes)) == null
+        when:
+        String certPath = server.getTLSCertPath()
+        handler.close()
+        server.close()
+        then:
+        !handler.isConnected()
+        !new File(certPath).exists()
+    }
+}
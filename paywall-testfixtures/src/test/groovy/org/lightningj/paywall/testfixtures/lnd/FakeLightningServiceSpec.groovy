@@ -0,0 +1,261 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.testfixtures.lnd
+
+import io.grpc.Status
+import io.grpc.stub.StreamObserver
+import org.lightningj.lnd.wrapper.AsynchronousLndAPI
+import org.lightningj.lnd.wrapper.ServerSideException
+import org.lightningj.lnd.wrapper.SynchronousLndAPI
+import org.lightningj.lnd.wrapper.message.Invoice
+import org.lightningj.lnd.wrapper.message.InvoiceSubscription
+import org.lightningj.lnd.wrapper.message.ListInvoiceRequest
+import org.lightningj.paywall.util.DigestUtils
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Unit tests for FakeLightningService.
+ */
+class FakeLightningServiceSpec extends Specification {
+
+    FakeLNDServer server
+    FakeLightningService service
+    SynchronousLndAPI syncAPI
+    AsynchronousLndAPI asyncAPI
+
+    def setup(){
+        server = new FakeLNDServer().start()
+        service = server.service
+        syncAPI = server.newInProcessSyncAPI()
+        asyncAPI = server.newInProcessAsyncAPI()
+    }
+
+    def cleanup(){
+        syncAPI.close()
+        asyncAPI.close()
+        server.close()
+    }
+
+    def "Verify that addInvoice creates an invoice that can be looked up and settled"(){
+        setup:
+        byte[] preImage = new byte[32]
+        new Random().nextBytes(preImage)
+        byte[] rHash = DigestUtils.sha256(preImage)
+        when:
+        def response = syncAPI.addInvoice(genInvoice(preImage, 1000))
+        then:
+        response.getRHash() == rHash
+        response.paymentRequest != null
+        response.addIndex == 1
+        service.invoiceCount == 1
+        service.getCallCount(FakeLightningService.METHOD_ADD_INVOICE) == 1
+        when:
+        def invoice = syncAPI.lookupInvoice(null, rHash)
+        then:
+        !invoice.settled
+        invoice.value == 1000
+        invoice.memo == "Test Invoice"
+        invoice.expiry == 600
+        invoice.addIndex == 1
+        when:
+        boolean settled = service.settleInvoice(rHash)
+        invoice = syncAPI.lookupInvoice(null, rHash)
+        then:
+        settled
+        invoice.settled
+        invoice.settleIndex == 1
+        invoice.amtPaidSat == 1000
+        invoice.amtPaidMsat == 1000000
+        !service.settleInvoice(rHash)
+        !service.settleInvoice("unknown".bytes)
+    }
+
+    def "Verify that lookupInvoice of unknown invoice returns status UNKNOWN in the same way as LND"(){
+        when:
+        syncAPI.lookupInvoice(null, DigestUtils.sha256("unknown".bytes))
+        then:
+        def e = thrown ServerSideException
+        e.status.code == Status.Code.UNKNOWN
+    }
+
+    def "Verify that adding invoice with existing payment hash fails"(){
+        setup:
+        byte[] preImage = "samepreimage".bytes
+        syncAPI.addInvoice(genInvoice(preImage, 10))
+        when:
+        syncAPI.addInvoice(genInvoice(preImage, 10))
+        then:
+        thrown ServerSideException
+        service.invoiceCount == 1
+    }
+
+    def "Verify that listInvoices pages invoices by add index and that silent settlements aren't sent to subscribers"(){
+        setup:
+        List<Invoice> received = new CopyOnWriteArrayList<>()
+        asyncAPI.subscribeInvoices(new InvoiceSubscription(), new ListObserver(received))
+        waitUntil { service.subscriberCount == 1 }
+        byte[] first = syncAPI.addInvoice(genInvoice("first".bytes, 10)).getRHash()
+        syncAPI.addInvoice(genInvoice("second".bytes, 10))
+        syncAPI.addInvoice(genInvoice("third".bytes, 10))
+        waitUntil { received.size() == 3 }
+        when:
+        service.settleInvoice(first, false)
+        def request = new ListInvoiceRequest()
+        request.setIndexOffset(0)
+        request.setNumMaxInvoices(2)
+        def page1 = syncAPI.listInvoices(request)
+        request.setIndexOffset(page1.lastIndexOffset)
+        def page2 = syncAPI.listInvoices(request)
+        then:
+        page1.invoices.size() == 2
+        page1.invoices[0].settled
+        page1.invoices[0].settleIndex == 1
+        page1.lastIndexOffset == 2
+        page2.invoices.size() == 1
+        page2.invoices[0].addIndex == 3
+        page2.lastIndexOffset == 3
+        received.size() == 3
+        service.getCallCount(FakeLightningService.METHOD_LIST_INVOICES) == 2
+    }
+
+    def "Verify that getInfo returns node info parsable by the paywall"(){
+        when:
+        def info = syncAPI.getInfo()
+        then:
+        info.identityPubkey == service.identityPubKey
+        info.uris[0] == service.identityPubKey + "@127.0.0.1:9735"
+        info.chains[0].chain == "bitcoin"
+        info.testnet
+    }
+
+    def "Verify that subscribers receive added and settled invoices and replay from add and settle index"(){
+        setup:
+        def received = new CopyOnWriteArrayList<Invoice>()
+        def first = syncAPI.addInvoice(genInvoice("first".bytes, 10))
+        def second = syncAPI.addInvoice(genInvoice("second".bytes, 20))
+        service.settleInvoice(first.getRHash())
+        def subscription = new InvoiceSubscription()
+        subscription.addIndex = 1
+        subscription.settleIndex = 0
+        when:
+        asyncAPI.subscribeInvoices(subscription, new ListObserver(received))
+        waitUntil { received.size() == 1 }
+        then: // Only second invoice is replayed since add index is 1 and settle index 0 means no settled replay.
+        received[0].getRHash() == second.getRHash()
+        service.subscriberCount == 1
+        when:
+        service.settleInvoice(second.getRHash())
+        def third = syncAPI.addInvoice(genInvoice("third".bytes, 30))
+        waitUntil { received.size() == 3 }
+        then:
+        received[1].getRHash() == second.getRHash()
+        received[1].settled
+        received[1].settleIndex == 2
+        received[2].getRHash() == third.getRHash()
+        !received[2].settled
+        received[2].addIndex == 3
+    }
+
+    def "Verify that disconnectSubscribers terminates open subscriptions with given status"(){
+        setup:
+        def observer = new ListObserver(new CopyOnWriteArrayList<Invoice>())
+        asyncAPI.subscribeInvoices(new InvoiceSubscription(), observer)
+        waitUntil { service.subscriberCount == 1 }
+        when:
+        service.disconnectSubscribers(Status.UNAVAILABLE)
+        waitUntil { observer.error != null }
+        then:
+        observer.error != null
+        service.subscriberCount == 0
+    }
+
+    def "Verify that failNextCalls fails the given number of calls with configured status"(){
+        setup:
+        service.failNextCalls(FakeLightningService.METHOD_GET_INFO, 2)
+        when:
+        syncAPI.getInfo()
+        then:
+        def e = thrown ServerSideException
+        e.status.code == Status.Code.UNAVAILABLE
+        when:
+        service.setFailureStatus(Status.INTERNAL)
+        syncAPI.getInfo()
+        then:
+        e = thrown ServerSideException
+        e.status.code == Status.Code.INTERNAL
+        when:
+        def info = syncAPI.getInfo()
+        then:
+        info != null
+        service.getCallCount(FakeLightningService.METHOD_GET_INFO) == 3
+    }
+
+    def "Verify that setFailureRate fails all calls if rate is 1.0 and that setLatency delays responses"(){
+        when:
+        service.setFailureRate(1.0)
+        syncAPI.getInfo()
+        then:
+        thrown ServerSideException
+        when:
+        service.setFailureRate(0.0)
+        service.setLatency(Duration.ofMillis(200))
+        long start = System.currentTimeMillis()
+        syncAPI.getInfo()
+        then:
+        System.currentTimeMillis() - start >= 200
+    }
+
+    static Invoice genInvoice(byte[] preImage, long value){
+        Invoice invoice = new Invoice()
+        invoice.setRPreimage(preImage)
+        invoice.value = value
+        invoice.memo = "Test Invoice"
+        invoice.expiry = 600
+        return invoice
+    }
+
+    static void waitUntil(Closure<Boolean> condition){
+        long deadline = System.currentTimeMillis() + 5000
+        while(!condition() && System.currentTimeMillis() < deadline){
+            Thread.sleep(10)
+        }
+    }
+
+    static class ListObserver implements StreamObserver<Invoice>{
+        List<Invoice> received
+        volatile Throwable error
+
+        ListObserver(List<Invoice> received){
+            this.received = received
+        }
+
+        @Override
+        void onNext(Invoice value) {
+            received << value
+        }
+
+        @Override
+        void onError(Throwable t) {
+            error = t
+        }
+
+        @Override
+        void onCompleted() {
+        }
+    }
+}
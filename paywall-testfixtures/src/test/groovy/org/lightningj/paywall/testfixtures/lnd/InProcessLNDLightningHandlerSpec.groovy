@@ -0,0 +1,152 @@
+/*
+ *************************************************************************
+ *                                                                       *
+ *  LightningJ                                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public License   *
+ *  (LGPL-3.0-or-later)                                                  *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 3 of the License, or any later version.                      *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.lightningj.paywall.testfixtures.lnd
+
+import io.grpc.Status
+import org.lightningj.paywall.lightninghandler.LightningEvent
+import org.lightningj.paywall.lightninghandler.LightningEventType
+import org.lightningj.paywall.lightninghandler.lnd.LNDLightningHandlerContext
+import org.lightningj.paywall.util.DigestUtils
+import org.lightningj.paywall.vo.ConvertedOrder
+import org.lightningj.paywall.vo.Order
+import org.lightningj.paywall.vo.PreImageData
+import org.lightningj.paywall.vo.amount.BTC
+import spock.lang.Specification
+
+import java.time.Instant
+import java.util.concurrent.CopyOnWriteArrayList
+
+import static org.lightningj.paywall.testfixtures.lnd.FakeLightningServiceSpec.waitUntil
+
+/**
+ * Unit tests for InProcessLNDLightningHandler.
+ */
+class InProcessLNDLightningHandlerSpec extends Specification {
+
+    FakeLNDServer server
+    InProcessLNDLightningHandler handler
+    List<LightningEvent> events = new CopyOnWriteArrayList<>()
+
+    def setup(){
+        server = new FakeLNDServer()
+        handler = new InProcessLNDLightningHandler(server)
+        handler.registerListener({ LightningEvent e -> events << e })
+    }
+
+    def cleanup(){
+        handler.close()
+        server.close()
+    }
+
+    def "Verify that handler resubscribes from last known index after node disconnects subscribers"(){
+        setup:
+        handler.connect(new LNDLightningHandlerContext())
+        waitUntil { server.service.subscriberCount == 1 }
+        byte[] first = genInvoice()
+        waitUntil { events.size() == 1 }
+        when:
+        server.service.failNextCalls(FakeLightningService.METHOD_SUBSCRIBE_INVOICES, 1)
+        server.service.disconnectSubscribers(Status.UNAVAILABLE)
+        waitUntil { server.service.subscriberCount == 1 }
+        server.service.settleInvoice(first)
+        waitUntil { events.size() == 2 }
+        then:
+        server.service.getCallCount(FakeLightningService.METHOD_SUBSCRIBE_INVOICES) == 3
+        events[1].type == LightningEventType.SETTLEMENT
+        ((LNDLightningHandlerContext) events[1].context).settleIndex == 1
+    }
+
+    def "Verify that handler connected with checkpoint context receives invoices settled while disconnected"(){
+        setup:
+        server.start()
+        byte[] first = genInvoiceDirect("first")
+        byte[] second = genInvoiceDirect("second")
+        server.service.settleInvoice(first)
+        server.service.settleInvoice(second)
+        when:
+        handler.connect(new LNDLightningHandlerContext(2,1))
+        waitUntil { events.size() == 1 }
+        then:
+        events[0].type == LightningEventType.SETTLEMENT
+        events[0].invoice.preImageHash == second
+    }
+
+    def "Verify that invoice reconciler sends settlements missed by the invoice subscription once"(){
+        setup:
+        handler.connect(new LNDLightningHandlerContext())
+        waitUntil { server.service.subscriberCount == 1 }
+        byte[] first = genInvoice()
+        genInvoice()
+        waitUntil { events.size() == 2 }
+        def reconciler = handler.getInvoiceReconciler()
+        when:
+        server.service.settleInvoice(first, false)
+        int found = reconciler.sweep()
+        then:
+        found == 1
+        events.size() == 3
+        events[2].type == LightningEventType.SETTLEMENT
+        events[2].invoice.preImageHash == first
+        reconciler.missedSettlements == 1
+        reconciler.reconciledIndex == 1
+        reconciler.latestIndex == 2
+        reconciler.indexLag == 1
+        when:
+        found = reconciler.sweep()
+        then:
+        found == 0
+        events.size() == 3
+        reconciler.sweeps == 2
+    }
+
+    def "Verify that generateInvoices adds all invoices over the asynchronous API and returns them in order"(){
+        setup:
+        handler.connect(new LNDLightningHandlerContext())
+        List<PreImageData> preImages = (1..25).collect{
+            byte[] preImage = new byte[32]
+            new Random().nextBytes(preImage)
+            new PreImageData(preImage, DigestUtils.sha256(preImage))
+        }
+        List<ConvertedOrder> orders = preImages.collect{
+            new ConvertedOrder(new Order(it.preImageHash, "Test", new BTC(10), Instant.now().plusSeconds(1800)), new BTC(10))
+        }
+        when:
+        def invoices = handler.generateInvoices(preImages, orders)
+        then:
+        invoices.size() == 25
+        invoices.collect{ it.preImageHash } == preImages.collect{ it.preImageHash }
+        invoices.every{ it.bolt11Invoice != null }
+        server.service.getCallCount(FakeLightningService.METHOD_ADD_INVOICE) == 25
+        handler.lookupInvoice(preImages[24].preImageHash).preImageHash == preImages[24].preImageHash
+    }
+
+    private byte[] genInvoice(){
+        byte[] preImage = new byte[32]
+        new Random().nextBytes(preImage)
+        byte[] preImageHash = DigestUtils.sha256(preImage)
+        Order order = new Order(preImageHash, "Test", new BTC(10), Instant.now().plusSeconds(1800))
+        handler.generateInvoice(new PreImageData(preImage, preImageHash), new ConvertedOrder(order, new BTC(10)))
+        return preImageHash
+    }
+
+    private byte[] genInvoiceDirect(String preImage){
+        def api = server.newInProcessSyncAPI()
+        try {
+            return api.addInvoice(FakeLightningServiceSpec.genInvoice(preImage.bytes, 10)).getRHash()
+        }finally{
+            api.close()
+        }
+    }
+}